@@ -17,13 +17,19 @@ package evaluation.evaluators;
 import evaluation.evaluators.Evaluator;
 import evaluation.storage.ClassifierResults;
 import fileIO.OutFile;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.List;
 import java.util.Random;
+import java.util.concurrent.Callable;
 import java.util.concurrent.TimeUnit;
 import utilities.ClassifierTools;
 import utilities.StatisticalUtilities;
+import utilities.ThreadingUtilities;
+import weka.classifiers.AbstractClassifier;
 import weka.classifiers.Classifier;
 import weka.classifiers.lazy.kNN;
 import weka.core.Instance;
@@ -42,6 +48,7 @@ public class CrossValidationEvaluator extends Evaluator {
     private int numFolds;
     private ArrayList<Instances> folds;
     private ArrayList<ArrayList<Integer>> foldIndexing;
+    private int numThreads = 1;
 
     public CrossValidationEvaluator() {
         super(0,false,false);
@@ -69,6 +76,29 @@ public class CrossValidationEvaluator extends Evaluator {
         this.numFolds = numFolds;
     }
 
+    /**
+     * Number of threads the (fold, classifier) pairs of crossValidateWithStats are run on. 
+     * Other than 1, each pair is built and tested on its own copy of the classifier, made 
+     * with AbstractClassifier.makeCopy, so the classifiers passed in are left as they were 
+     * rather than built on the last fold, and each fold starts from the classifier's state as 
+     * passed in (e.g. a Random it holds is not carried on from one fold to the next). 
+     * 
+     * Each pair is run through ThreadingUtilities.callOnThisThread, so a copy of a 
+     * multi-threaded classifier (e.g. WEASEL, TSF) is built single threaded, on the thread 
+     * running the pair, with the parallelism over the folds instead. The build time of a 
+     * classifier is then the sum over its folds of the cpu time of that thread while building 
+     * the copy and predicting the fold, as the serial loop times with wall time, since the wall 
+     * time of pairs running alongside each other overlaps. Splitting the data into the fold 
+     * is not counted, nor is work the jvm does on its own threads (garbage collection, 
+     * compilation). If the jvm cannot measure or has disabled thread cpu time, wall time is 
+     * used, which then includes the time waiting for a core. 
+     * 
+     * @param numThreads 1 by default, 0 for all cores
+     */
+    public void setNumThreads(int numThreads) {
+        this.numThreads = numThreads;
+    }
+
     /**
      * @return the index in the original train set of the instance found at folds.get(fold).get(indexInFold) 
      */
@@ -125,34 +155,39 @@ public class CrossValidationEvaluator extends Evaluator {
         
         long[] buildTimes = new long[classifiers.length];
         
-        //for each fold as test
-        for(int testFold = 0; testFold < numFolds; testFold++){
-            Instances[] trainTest = buildTrainTestSet(testFold);
+        if (numThreads != 1) {
+            crossValidateInParallel(classifiers, distsForInsts, predTimes, buildTimes);
+        }
+        else {
+            //for each fold as test
+            for(int testFold = 0; testFold < numFolds; testFold++){
+                Instances[] trainTest = buildTrainTestSet(testFold);
 
-            //for each classifier in ensemble
-            for (int c = 0; c < classifiers.length; ++c) {
-                long t1 = System.nanoTime();
+                //for each classifier in ensemble
+                for (int c = 0; c < classifiers.length; ++c) {
+                    long t1 = System.nanoTime();
                 
-                classifiers[c].buildClassifier(trainTest[0]);
+                    classifiers[c].buildClassifier(trainTest[0]);
 
-                //for each test instance on this fold
-                for(int i = 0; i < trainTest[1].numInstances(); i++){
-                    int instIndex = getOriginalInstIndex(testFold, i);
+                    //for each test instance on this fold
+                    for(int i = 0; i < trainTest[1].numInstances(); i++){
+                        int instIndex = getOriginalInstIndex(testFold, i);
                     
-                    Instance testInst = trainTest[1].instance(i);
-                    if (setClassMissing)
-                        testInst.setClassMissing();
+                        Instance testInst = trainTest[1].instance(i);
+                        if (setClassMissing)
+                            testInst.setClassMissing();
                     
-                    //classify and store prediction
-                    long startTime = System.nanoTime();
-                    double[] dist = classifiers[c].distributionForInstance(testInst);
-                    long predTime = System.nanoTime()- startTime;
+                        //classify and store prediction
+                        long startTime = System.nanoTime();
+                        double[] dist = classifiers[c].distributionForInstance(testInst);
+                        long predTime = System.nanoTime()- startTime;
                     
-                    distsForInsts[c][instIndex] = dist;
-                    predTimes[c][instIndex] = predTime;
-                }    
+                        distsForInsts[c][instIndex] = dist;
+                        predTimes[c][instIndex] = predTime;
+                    }    
                 
-                buildTimes[c] += System.nanoTime() - t1;
+                    buildTimes[c] += System.nanoTime() - t1;
+                }
             }
         }
         
@@ -180,6 +215,60 @@ public class CrossValidationEvaluator extends Evaluator {
         return results;
     }
     
+    /**
+     * Runs every (fold, classifier) pair as a task on a copy of the classifier, filling in 
+     * distsForInsts and predTimes as the serial loop does and summing the cpu time of the 
+     * pairs of each classifier into buildTimes
+     */
+    private void crossValidateInParallel(Classifier[] classifiers, double[][][] distsForInsts, long[][] predTimes, long[] buildTimes) throws Exception {
+        List<Callable<Long>> tasks = new ArrayList<>(numFolds * classifiers.length);
+        for(int testFold = 0; testFold < numFolds; testFold++){
+            for (int c = 0; c < classifiers.length; ++c) {
+                final int fold = testFold;
+                final int classifier = c;
+                tasks.add(() -> ThreadingUtilities.callOnThisThread(
+                        () -> validateFold(AbstractClassifier.makeCopy(classifiers[classifier]), fold, distsForInsts[classifier], predTimes[classifier])));
+            }
+        }
+        
+        List<Long> times = ThreadingUtilities.invokeAll(tasks, numThreads);
+        for (int i = 0; i < times.size(); i++)
+            buildTimes[i % classifiers.length] += times.get(i);
+    }
+    
+    /**
+     * Builds classifier on all folds but testFold and stores its predictions for testFold, 
+     * by their index in the original dataset
+     * 
+     * @return cpu time (or wall time, see setNumThreads) in nanoseconds taken to build and test
+     */
+    private long validateFold(Classifier classifier, int testFold, double[][] distsForInsts, long[] predTimes) throws Exception {
+        Instances[] trainTest = buildTrainTestSet(testFold);
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        boolean cpu = threads.isCurrentThreadCpuTimeSupported() && threads.isThreadCpuTimeEnabled();
+        long t1 = cpu ? threads.getCurrentThreadCpuTime() : System.nanoTime();
+        
+        classifier.buildClassifier(trainTest[0]);
+        
+        //for each test instance on this fold
+        for(int i = 0; i < trainTest[1].numInstances(); i++){
+            int instIndex = getOriginalInstIndex(testFold, i);
+            
+            Instance testInst = trainTest[1].instance(i);
+            if (setClassMissing)
+                testInst.setClassMissing();
+            
+            //classify and store prediction
+            long startTime = System.nanoTime();
+            double[] dist = classifier.distributionForInstance(testInst);
+            long predTime = System.nanoTime()- startTime;
+            
+            distsForInsts[instIndex] = dist;
+            predTimes[instIndex] = predTime;
+        }
+        
+        return (cpu ? threads.getCurrentThreadCpuTime() : System.nanoTime()) - t1;
+    }
 
     /**
      * @return [0] = new train set, [1] = test(validation) set
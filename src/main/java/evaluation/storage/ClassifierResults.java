@@ -15,10 +15,20 @@
 package evaluation.storage;
 
 import fileIO.OutFile;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
 import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
 import java.util.NoSuchElementException;
@@ -68,6 +78,11 @@ import utilities.InstanceTools;
  *    - loadResultsFromFile(String path)
  *    - writeFullResultsToFile(String path)  (other writing formats also supported, write...ToFile(...)
  * 
+ * The same information can also be written in a binary format, writeBinaryResultsToFile(String path),
+ * which is much faster to load when reading in large numbers of results. loadResultsFromFile(String path)
+ * reads either format, so binary files can be used in place of the text files, names unchanged. 
+ * See convertToBinary(...) and convertToText(...)
+ * 
  * Supports recording of timings in different time units. Milliseconds is the default for 
  * backwards compatability, however nano seconds is generally preferred.
  * Older files that are read in and do not have a time unit specified are assumed to be in milliseconds.
@@ -159,7 +174,15 @@ public class ClassifierResults implements DebugPrinting, Serializable{
          * storage, perhaps for checkpointing etc if full writing/reading would simply take up too much space 
          * and IO compute overhead. Goastler to define
          */
-        COMPACT 
+        COMPACT, 
+        
+        /**
+         * Writes/loads all the meta info and prediction info of PREDICTIONS, but as a binary file 
+         * with one column per prediction field rather than one line per prediction, see writeBinary(...)
+         * 
+         * Usable everywhere PREDICTIONS is, intended for loading many results quickly 
+         */
+        BINARY
     };
     private FileType fileType = FileType.PREDICTIONS;
     
@@ -217,11 +240,11 @@ public class ClassifierResults implements DebugPrinting, Serializable{
     private long memoryUsage = -1; 
  
 //REMAINDER OF THE FILE - 1 prediction per line
-    //raw performance data. currently just four parallel arrays
-    private ArrayList<Double> trueClassValues;
-    private ArrayList<Double> predClassValues;
+    //raw performance data. currently just four parallel arrays, the primitive ones unboxed 
+    private DoubleColumn trueClassValues;
+    private DoubleColumn predClassValues;
     private ArrayList<double[]> predDistributions;
-    private ArrayList<Long> predTimes;
+    private LongColumn predTimes;
     private ArrayList<String> predDescriptions;
     
     //inferred/supplied dataset meta info
@@ -376,10 +399,10 @@ public class ClassifierResults implements DebugPrinting, Serializable{
      * to infer the number of classes, some may be missing.
      */
     public ClassifierResults() {
-        trueClassValues= new ArrayList<>();
-        predClassValues = new ArrayList<>();
+        trueClassValues= new DoubleColumn();
+        predClassValues = new DoubleColumn();
         predDistributions = new ArrayList<>();
-        predTimes = new ArrayList<>();
+        predTimes = new LongColumn();
         predDescriptions = new ArrayList<>();
         
         finalised = false;
@@ -396,10 +419,10 @@ public class ClassifierResults implements DebugPrinting, Serializable{
      * to infer the number of classes, some may be missing.
      */
     public ClassifierResults(int numClasses) {
-        trueClassValues= new ArrayList<>();
-        predClassValues = new ArrayList<>();
+        trueClassValues= new DoubleColumn();
+        predClassValues = new DoubleColumn();
         predDistributions = new ArrayList<>();
-        predTimes = new ArrayList<>();
+        predTimes = new LongColumn();
         predDescriptions = new ArrayList<>();
         
         this.numClasses = numClasses;
@@ -422,10 +445,10 @@ public class ClassifierResults implements DebugPrinting, Serializable{
      * All other arguments are required in full, however
      */
     public ClassifierResults(double[] trueClassVals, double[] predictions, double[][] distributions, long[] predTimes, String[] descriptions) throws Exception {
-        trueClassValues= new ArrayList<>();
-        predClassValues = new ArrayList<>();
+        trueClassValues= new DoubleColumn();
+        predClassValues = new DoubleColumn();
         predDistributions = new ArrayList<>();
-        this.predTimes = new ArrayList<>();
+        this.predTimes = new LongColumn();
         predDescriptions = new ArrayList<>();
 
         addAllPredictions(trueClassVals, predictions, distributions, predTimes, descriptions);    
@@ -896,9 +919,7 @@ public class ClassifierResults implements DebugPrinting, Serializable{
             throw new Exception("finaliseTestResults(double[] testClassVals): Number of predictions "
                     + "made and number of true class values passed do not match");
         
-        trueClassValues = new ArrayList<>();
-        for(double d:testClassVals)
-            trueClassValues.add(d);
+        trueClassValues = new DoubleColumn(testClassVals.clone());
         
         finaliseResults();
     }
@@ -931,7 +952,7 @@ public class ClassifierResults implements DebugPrinting, Serializable{
         
         double correct = .0;
         for (int inst = 0; inst < predClassValues.size(); inst++)
-            if (trueClassValues.get(inst).equals(predClassValues.get(inst)))
+            if (trueClassValues.get(inst) == predClassValues.get(inst))
                 ++correct;
         
         acc = correct/trueClassValues.size();
@@ -954,16 +975,15 @@ public class ClassifierResults implements DebugPrinting, Serializable{
     * 
     */
     
+    /**
+     * The values are stored unboxed, this is a copy, changes to it are not reflected here
+     */
     public ArrayList<Double> getTrueClassVals() {
-        return trueClassValues;
+        return trueClassValues.toList();
     }
     
     public double[] getTrueClassValsAsArray(){
-        double[] d=new double[trueClassValues.size()];
-        int i=0;
-        for(double x:trueClassValues)
-            d[i++]=x;
-        return d;
+        return trueClassValues.toArray();
     }
     
     public double getTrueClassValue(int index){
@@ -971,16 +991,15 @@ public class ClassifierResults implements DebugPrinting, Serializable{
     }
     
     
+    /**
+     * The values are stored unboxed, this is a copy, changes to it are not reflected here
+     */
     public ArrayList<Double> getPredClassVals(){
-        return predClassValues;
+        return predClassValues.toList();
     }
     
     public double[] getPredClassValsAsArray(){
-        double[] d=new double[predClassValues.size()];
-        int i=0;
-        for(double x:predClassValues)
-            d[i++]=x;
-        return d;
+        return predClassValues.toArray();
     }
     
     public double getPredClassValue(int index){
@@ -1003,16 +1022,15 @@ public class ClassifierResults implements DebugPrinting, Serializable{
     }
     
     
+    /**
+     * The values are stored unboxed, this is a copy, changes to it are not reflected here
+     */
     public ArrayList<Long> getPredictionTimes() {
-        return predTimes;
+        return predTimes.toList();
     }
     
     public long[] getPredictionTimesAsArray() {
-        long[] l=new long[predTimes.size()];
-        int i=0;
-        for(long x:predTimes)
-            l[i++]=x;
-        return l;
+        return predTimes.toArray();
     }
     
     public long getPredictionTime(int index) {
@@ -1158,8 +1176,8 @@ public class ClassifierResults implements DebugPrinting, Serializable{
     private String instancePredictionToString(int i) { 
         StringBuilder sb = new StringBuilder();
         
-        sb.append(trueClassValues.get(i).intValue()).append(",");
-        sb.append(predClassValues.get(i).intValue());
+        sb.append((int)trueClassValues.get(i)).append(",");
+        sb.append((int)predClassValues.get(i));
         
         //probs
         sb.append(","); //<empty space>
@@ -1303,6 +1321,226 @@ public class ClassifierResults implements DebugPrinting, Serializable{
         }
     }
     
+    
+    
+    /********************************
+    *
+    *     BINARY FILE READ/WRITING
+    *
+    */
+    
+    //not a character a text results file (i.e. a dataset name) would start with
+    private static final int BINARY_MAGIC = 0xC1A55E55;
+    private static final int BINARY_VERSION = 1;
+    
+    /**
+     * Writes the same information as writeFullResultsToFile(path), but in a binary format 
+     * that is far quicker to load. loadResultsFromFile(path) recognises the format itself. 
+     */
+    public void writeBinaryResultsToFile(String path) throws Exception {
+        finaliseResults();
+        fileType = FileType.BINARY;
+        
+        DataOutputStream out = null;
+        try {
+            out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(path)));
+            writeBinary(out);
+        } catch (IOException e) { 
+             throw new Exception("Error writing results file.\n"
+                     + "Outfile most likely didnt open successfully, probably directory doesnt exist yet.\n" 
+                     + "Path: " + path +"\nError: "+ e);
+        } finally {
+            if (out != null)
+                out.close();
+        }
+    }
+    
+    /**
+     * Big endian throughout. Each prediction field is stored as its own column of primitives 
+     * so that it can be read straight into an array.
+     * 
+     * int magic, int version
+     * string datasetName, classifierName, split, int foldID, string timeUnit, description, paras
+     * double acc, long buildTime, testTime, benchmarkTime, memoryUsage
+     * int numClasses, int numInstances, byte 1 if distributions are stored
+     * double[numInstances] trueClassValues
+     * double[numInstances] predClassValues
+     * double[numInstances*numClasses] distributions, if stored
+     * long[numInstances] predTimes
+     * string[numInstances] descriptions
+     * 
+     * where a string is an int byte count followed by that many bytes of UTF-8
+     */
+    private void writeBinary(DataOutputStream out) throws IOException {
+        int n = numInstances();
+        int c = numClasses();
+        boolean hasDists = !predDistributions.isEmpty() && predDistributions.get(0) != null;
+        
+        out.writeInt(BINARY_MAGIC);
+        out.writeInt(BINARY_VERSION);
+        
+        writeBinaryString(out, datasetName);
+        writeBinaryString(out, classifierName);
+        writeBinaryString(out, split);
+        out.writeInt(foldID);
+        writeBinaryString(out, getTimeUnitAsString());
+        writeBinaryString(out, description);
+        writeBinaryString(out, paras);
+        
+        out.writeDouble(acc);
+        out.writeLong(buildTime);
+        out.writeLong(testTime);
+        out.writeLong(benchmarkTime);
+        out.writeLong(memoryUsage);
+        
+        out.writeInt(c);
+        out.writeInt(n);
+        out.writeByte(hasDists ? 1 : 0);
+        
+        for (int i = 0; i < n; i++)
+            out.writeDouble(trueClassValues.get(i));
+        for (int i = 0; i < n; i++)
+            out.writeDouble(predClassValues.get(i));
+        if (hasDists) {
+            for (int i = 0; i < n; i++) {
+                double[] dist = predDistributions.get(i);
+                for (int j = 0; j < c; j++) 
+                    out.writeDouble(dist[j]);
+            }
+        }
+        for (int i = 0; i < n; i++)
+            out.writeLong(predTimes.get(i));
+        for (int i = 0; i < n; i++)
+            writeBinaryString(out, predDescriptions.get(i));
+    }
+    
+    private static void writeBinaryString(DataOutputStream out, String str) throws IOException {
+        byte[] bytes = (str == null ? "" : str).getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+    
+    private static String readBinaryString(ByteBuffer buf) {
+        byte[] bytes = new byte[buf.getInt()];
+        buf.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+    
+    private static boolean isBinaryResultsFile(File f) throws IOException {
+        if (f.length() < 8)
+            return false;
+        
+        DataInputStream in = new DataInputStream(new FileInputStream(f));
+        try {
+            return in.readInt() == BINARY_MAGIC;
+        } finally {
+            in.close();
+        }
+    }
+    
+    /**
+     * Reads a file written by writeBinary(...), the columns being copied across in bulk 
+     * straight into the columns stored. 
+     * 
+     * The file is read into a heap buffer rather than mapped: a mapping is only released 
+     * when the buffer is garbage collected, and until then the file cannot be replaced 
+     * on Windows, e.g. by an in place convertToText(...)
+     */
+    private void loadBinaryResults(File f) throws Exception {
+        ByteBuffer buf = ByteBuffer.wrap(Files.readAllBytes(f.toPath()));
+        
+        buf.getInt(); //magic
+        int version = buf.getInt();
+        if (version != BINARY_VERSION)
+            throw new Exception("Unknown binary results file version (" + version + "). File = " + f.getPath());
+        
+        fileType = FileType.BINARY;
+        datasetName = readBinaryString(buf);
+        classifierName = readBinaryString(buf);
+        split = readBinaryString(buf);
+        foldID = buf.getInt();
+        setTimeUnitFromString(readBinaryString(buf));
+        description = readBinaryString(buf);
+        paras = readBinaryString(buf);
+        
+        double reportedTestAcc = buf.getDouble();
+        buildTime = buf.getLong();
+        testTime = buf.getLong();
+        benchmarkTime = buf.getLong();
+        memoryUsage = buf.getLong();
+        
+        numClasses = buf.getInt();
+        int n = buf.getInt();
+        boolean hasDists = buf.get() == 1;
+        
+        double[] trueVals = new double[n];
+        buf.asDoubleBuffer().get(trueVals);
+        buf.position(buf.position() + n*Double.BYTES);
+        
+        double[] predVals = new double[n];
+        buf.asDoubleBuffer().get(predVals);
+        buf.position(buf.position() + n*Double.BYTES);
+        
+        double[] dists = null;
+        if (hasDists) {
+            dists = new double[n*numClasses];
+            buf.asDoubleBuffer().get(dists);
+            buf.position(buf.position() + dists.length*Double.BYTES);
+        }
+        
+        long[] times = new long[n];
+        buf.asLongBuffer().get(times);
+        buf.position(buf.position() + n*Long.BYTES);
+        
+        trueClassValues = new DoubleColumn(trueVals);
+        predClassValues = new DoubleColumn(predVals);
+        predDistributions = new ArrayList<>(n);
+        predTimes = new LongColumn(times);
+        predDescriptions = new ArrayList<>(n);
+        
+        double correct = 0;
+        for (int i = 0; i < n; i++) {
+            predDistributions.add(hasDists ? Arrays.copyOfRange(dists, i*numClasses, (i+1)*numClasses) : null);
+            predDescriptions.add(readBinaryString(buf));
+            
+            if (trueVals[i] == predVals[i])
+                correct++;
+        }
+        numInstances = n;
+        acc = correct / n;
+        
+        //same verification as the text files get
+        double eps = 1.e-8;
+        if (Math.abs(reportedTestAcc - acc) > eps) {
+            throw new ArithmeticException("Calculated accuracy (" + acc + ") differs from written accuracy (" + reportedTestAcc + ") "
+                    + "by more than eps (" + eps + "). File = " + f.getPath() + ". numinstances = " + numInstances + ". numClasses = " + numClasses);
+        }
+        
+        finalised = true;
+    }
+    
+    /**
+     * Converts a results file (of type PREDICTIONS, or already binary) to the binary format. 
+     * The paths may be the same to convert in place
+     */
+    public static void convertToBinary(String textPath, String binaryPath) throws Exception {
+        ClassifierResults res = new ClassifierResults(textPath);
+        if (res.fileType != FileType.PREDICTIONS && res.fileType != FileType.BINARY)
+            throw new Exception("Only results files with full prediction info can be converted to binary, " 
+                    + textPath + " is of type " + res.fileType);
+        
+        res.writeBinaryResultsToFile(binaryPath);
+    }
+    
+    /**
+     * Converts a binary results file back to a (PREDICTIONS) text file. 
+     * The paths may be the same to convert in place
+     */
+    public static void convertToText(String binaryPath, String textPath) throws Exception {
+        ClassifierResults res = new ClassifierResults(binaryPath);
+        res.writeFullResultsToFile(textPath);
+    }
+    
     private void parseFirstLine(String line) {
         String[] parts = line.split(",");
         if (parts.length == 0)
@@ -1331,11 +1569,12 @@ public class ClassifierResults implements DebugPrinting, Serializable{
         if (parts.length > 5)
             fileType = FileType.valueOf(parts[5]);
         
+        //generateFirstLine puts a space before the description
         if (parts.length > 6)
-            description = parts[6];
+            description = parts[6].startsWith(" ") ? parts[6].substring(1) : parts[6];
 
         //nothing stopping the description from having its own commas in it, jsut read until end of line
-        for (int i = 6; i < parts.length; i++)
+        for (int i = 7; i < parts.length; i++)
             description += "," + parts[i];
     }
     private String generateFirstLine() { 
@@ -1419,10 +1658,10 @@ public class ClassifierResults implements DebugPrinting, Serializable{
     
     public void loadResultsFromFile(String path) throws FileNotFoundException, Exception {
         //init
-        trueClassValues = new ArrayList<>();
-        predClassValues = new ArrayList<>();
+        trueClassValues = new DoubleColumn();
+        predClassValues = new DoubleColumn();
         predDistributions = new ArrayList<>();
-        predTimes = new ArrayList<>();
+        predTimes = new LongColumn();
         predDescriptions = new ArrayList<>();
         numInstances = 0;
         acc = -1;
@@ -1435,6 +1674,11 @@ public class ClassifierResults implements DebugPrinting, Serializable{
         if (!(f.exists() && f.length() > 0)) 
             throw new FileNotFoundException("File " + path + " NOT FOUND");
 
+        if (isBinaryResultsFile(f)) {
+            loadBinaryResults(f);
+            return;
+        }
+        
         Scanner inf = new Scanner(f);
 
         //parse meta infos
@@ -1446,7 +1690,11 @@ public class ClassifierResults implements DebugPrinting, Serializable{
         switch (fileType) {
             case PREDICTIONS: {
                 //have all meta info, start reading predictions or metrics
+                //addPrediction accumulates the test time, keep the one reported on line 3 if there is one 
+                long reportedTestTime = testTime;
                 instancePredictionsFromScanner(inf);
+                if (reportedTestTime != -1)
+                    testTime = reportedTestTime;
 
                 //acts as a basic form of verification, does the acc reported on line 3 align with 
                 //the acc calculated while reading predictions
@@ -1468,6 +1716,8 @@ public class ClassifierResults implements DebugPrinting, Serializable{
                 break;
             case COMPACT:
                 throw new UnsupportedOperationException("COMPACT file reading not yet supported");
+            case BINARY:
+                throw new Exception("Binary results file type given in a text file. File = " + path);
         }
         
         finalised = true;
@@ -1513,7 +1763,7 @@ public class ClassifierResults implements DebugPrinting, Serializable{
 
         countPerClass=new double[confusionMatrix.length];
         for(int i=0;i<trueClassValues.size();i++)
-            countPerClass[trueClassValues.get(i).intValue()]++;
+            countPerClass[(int)trueClassValues.get(i)]++;
 
         calculateAcc();
         balancedAcc=findBalancedAcc(confusionMatrix);
@@ -1574,7 +1824,7 @@ public class ClassifierResults implements DebugPrinting, Serializable{
         double nll=0;
         for(int i=0;i<trueClassValues.size();i++){
             double[] dist=getProbabilityDistribution(i);
-            int trueClass = trueClassValues.get(i).intValue();
+            int trueClass = (int)trueClassValues.get(i);
             
             if(dist[trueClass]==0)
                 nll+=NLL_PENALTY;
@@ -1593,7 +1843,7 @@ public class ClassifierResults implements DebugPrinting, Serializable{
                 a=findAUROC(1);
  */       }
         else{
-            double[] classDist = InstanceTools.findClassDistributions(trueClassValues, numClasses);
+            double[] classDist = InstanceTools.findClassDistributions(trueClassValues.toList(), numClasses);
             for(int i=0;i<numClasses;i++){
                 a+=findAUROC(i) * classDist[i];
             }
@@ -1730,7 +1980,7 @@ public class ClassifierResults implements DebugPrinting, Serializable{
      * Makes copy of pred times to easily maintain original ordering
      */
     protected long findMedianPredTime() {
-        List<Long> copy = new ArrayList<>(predTimes);
+        List<Long> copy = predTimes.toList();
         Collections.sort(copy);
         
         int mid = copy.size()/2;
@@ -1884,6 +2134,108 @@ public class ClassifierResults implements DebugPrinting, Serializable{
         }
     }
     
+    
+    
+    
+    /********************************
+    *
+    *     PREDICTION COLUMNS
+    *
+    */
+    
+    /**
+     * Growable, unboxed store of one double per prediction. Binary results files 
+     * are read straight into these
+     */
+    private static class DoubleColumn implements Serializable {
+        private double[] values;
+        private int size;
+        
+        DoubleColumn() { 
+            values = new double[16];
+        }
+        
+        /**
+         * takes ownership of values
+         */
+        DoubleColumn(double[] values) { 
+            this.values = values;
+            size = values.length;
+        }
+        
+        void add(double d) { 
+            if (size == values.length)
+                values = Arrays.copyOf(values, Math.max(16, size*2));
+            values[size++] = d;
+        }
+        
+        double get(int index) { 
+            if (index >= size)
+                throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+            return values[index];
+        }
+        
+        int size() { return size; }
+        boolean isEmpty() { return size == 0; }
+        
+        double[] toArray() { 
+            return Arrays.copyOf(values, size);
+        }
+        
+        ArrayList<Double> toList() { 
+            ArrayList<Double> list = new ArrayList<>(size);
+            for (int i = 0; i < size; i++)
+                list.add(values[i]);
+            return list;
+        }
+    }
+    
+    /**
+     * Growable, unboxed store of one long per prediction, see DoubleColumn
+     */
+    private static class LongColumn implements Serializable {
+        private long[] values;
+        private int size;
+        
+        LongColumn() { 
+            values = new long[16];
+        }
+        
+        /**
+         * takes ownership of values
+         */
+        LongColumn(long[] values) { 
+            this.values = values;
+            size = values.length;
+        }
+        
+        void add(long l) { 
+            if (size == values.length)
+                values = Arrays.copyOf(values, Math.max(16, size*2));
+            values[size++] = l;
+        }
+        
+        long get(int index) { 
+            if (index >= size)
+                throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+            return values[index];
+        }
+        
+        int size() { return size; }
+        boolean isEmpty() { return size == 0; }
+        
+        long[] toArray() { 
+            return Arrays.copyOf(values, size);
+        }
+        
+        ArrayList<Long> toList() { 
+            ArrayList<Long> list = new ArrayList<>(size);
+            for (int i = 0; i < size; i++)
+                list.add(values[i]);
+            return list;
+        }
+    }
+    
     public static void main(String[] args) throws Exception {
         readWriteTest();
     }
@@ -1919,5 +2271,12 @@ public class ClassifierResults implements DebugPrinting, Serializable{
         
         ClassifierResults res2 = new ClassifierResults("test.csv");
         System.out.println(res2.writeFullResultsToString());
+        System.out.println("\n\n");
+        
+        convertToBinary("test.csv", "test.bin");
+        convertToText("test.bin", "test2.csv");
+        
+        ClassifierResults res3 = new ClassifierResults("test2.csv");
+        System.out.println(res3.writeFullResultsToString());
     }
 }
@@ -186,6 +186,10 @@ public class Experiments  {
                 + "THIS IS A PLACEHOLDER PARAMETER. TO BE FULLY IMPLEMENTED")
         public boolean serialiseTrainedClassifier = false;
         
+        @Parameter(names={"-dc","--dataCache"}, arity=1, description = "(boolean) If true, each dataset file is written to a binary cache file next to it (e.g. Dataset_TRAIN.arff.bin) the first time it is "
+                + "loaded, and read back from that cache on later loads while the original file is unchanged. Useful when running many classifiers/folds on large datasets.")
+        public boolean dataCache = false;
+        
         
         
         
@@ -251,6 +255,7 @@ public class Experiments  {
                         exp.debug = this.debug;
                         exp.classifierResultsFileFormat = this.classifierResultsFileFormat;
                         exp.serialiseTrainedClassifier = this.serialiseTrainedClassifier;
+                        exp.dataCache = this.dataCache;
                         
                         exps.add(exp);
                     }
@@ -321,6 +326,7 @@ public class Experiments  {
             sb.append("\nclassifierResultsFileFormat: ").append(classifierResultsFileFormat);
             sb.append("\nperformTimingBenchmark: ").append(performTimingBenchmark);
             sb.append("\nserialiseTrainedClassifier: ").append(serialiseTrainedClassifier);
+            sb.append("\ndataCache: ").append(dataCache);
             sb.append("\ndebug: ").append(debug);
             
             return sb.toString();
@@ -428,7 +434,7 @@ public class Experiments  {
         else {           
 //            Classifier classifier = ClassifierLists.setClassifierClassic(expSettings.classifierName, expSettings.foldId);
             Classifier classifier = ClassifierLists.setClassifier(expSettings);
-            Instances[] data = sampleDataset(expSettings.dataReadLocation, expSettings.datasetName, expSettings.foldId);
+            Instances[] data = sampleDataset(expSettings.dataReadLocation, expSettings.datasetName, expSettings.foldId, expSettings.dataCache);
         
             //If needed, build/make the directory to write the train and/or testFold files to
             if (expSettings.supportingFilePath == null || expSettings.supportingFilePath.equals(""))
@@ -482,6 +488,14 @@ public class Experiments  {
      * @return new Instances[] { trainSet, testSet };
      */
     public static Instances[] sampleDataset(String parentFolder, String problem, int fold) throws Exception {
+        return sampleDataset(parentFolder, problem, fold, false);
+    }
+    
+    /**
+     * As sampleDataset(parentFolder, problem, fold), the files loaded through the 
+     * binary dataset cache if dataCache (see FastDataLoader)
+     */
+    public static Instances[] sampleDataset(String parentFolder, String problem, int fold, boolean dataCache) throws Exception {
         Instances[] data = new Instances[2];
 
         File trainFile = new File(parentFolder + problem + "/" + problem + fold + "_TRAIN.arff");
@@ -490,8 +504,8 @@ public class Experiments  {
         boolean predefinedSplitsExist = (trainFile.exists() && testFile.exists());
         if (predefinedSplitsExist) {
             // CASE 1) 
-            data[0] = ClassifierTools.loadData(trainFile);
-            data[1] = ClassifierTools.loadData(testFile);
+            data[0] = ClassifierTools.loadData(trainFile, dataCache);
+            data[1] = ClassifierTools.loadData(testFile, dataCache);
             LOGGER.log(Level.FINE, problem + " loaded from predfined folds.");
         } else {   
             trainFile = new File(parentFolder + problem + "/" + problem + "_TRAIN.arff");
@@ -499,8 +513,8 @@ public class Experiments  {
             boolean predefinedFold0Exists = (trainFile.exists() && testFile.exists());
             if (predefinedFold0Exists) {
                 // CASE 2) 
-                data[0] = ClassifierTools.loadData(trainFile);
-                data[1] = ClassifierTools.loadData(testFile);
+                data[0] = ClassifierTools.loadData(trainFile, dataCache);
+                data[1] = ClassifierTools.loadData(testFile, dataCache);
                 if (data[0].checkForAttributeType(Attribute.RELATIONAL))
                     data = MultivariateInstanceTools.resampleMultivariateTrainAndTestInstances(data[0], data[1], fold);
                 else
@@ -512,7 +526,7 @@ public class Experiments  {
                 // We only have a single file with all the data
                 Instances all = null;
                 try {
-                    all = ClassifierTools.loadDataThrowable(parentFolder + problem + "/" + problem);
+                    all = ClassifierTools.loadDataThrowable(parentFolder + problem + "/" + problem, dataCache);
                 } catch (IOException io) {
                     String msg = "Could not find the dataset \"" + problem + "\" in any form at the path\n"+
                             parentFolder+"\n"
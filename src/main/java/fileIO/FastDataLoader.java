@@ -0,0 +1,674 @@
+/*
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package fileIO;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.ByteBuffer;
+import java.nio.DoubleBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import utilities.ThreadingUtilities;
+import weka.core.Attribute;
+import weka.core.DenseInstance;
+import weka.core.Instance;
+import weka.core.Instances;
+
+/**
+ * Fast loading of numeric ARFF files and UCR format files, with an optional
+ * binary cache.
+ *
+ * ARFF: the header is parsed by Weka as usual, then the data section is read in
+ * large blocks through a FileChannel and each line parsed straight from the
+ * bytes, with no tokenizer and no String per value. Numbers with up to 15
+ * significant digits and a decimal exponent of at most 22 (i.e. nearly every
+ * number written by a program) are converted exactly in a couple of
+ * multiplications, anything else goes through Double.parseDouble, so the values
+ * are always exactly those the Weka parser gives. Given numThreads, the lines of
+ * each block are parsed on several threads. Files the fast path does not handle
+ * (string, date or relational attributes, sparse data, instance weights) are
+ * loaded by Weka instead.
+ *
+ * UCR: one series per line, the class label first, separated by commas, tabs or
+ * spaces (the .tsv format of the 2018 archive and the older .txt files). The
+ * class becomes a nominal attribute, last, and series of unequal length are
+ * padded with missing values. Each series is parsed into the array the Instance
+ * then holds, with a slot for the class, so the values of an equal length
+ * dataset are only ever written once. Comma separated .csv files are not read as
+ * UCR files, since they usually start with a header row: load them with Weka's
+ * CSVLoader.
+ *
+ * Cache: with useCache, once a file has been parsed its Instances are
+ * written next to it as [file].bin, a small header followed by every value as a
+ * double. The cache is keyed on the size and last modified time of the source
+ * file, and later loads of an unchanged file memory map the values rather than
+ * parsing anything. Datasets with string or relational attributes, or
+ * with any instance weight other than 1, are not cached. A cache that cannot be written (e.g. a read only data directory) is
+ * reported and otherwise ignored.
+ */
+public class FastDataLoader {
+
+    public static final String CACHE_SUFFIX = ".bin";
+
+    private static final int CACHE_MAGIC = 0x54534342;
+    private static final int CACHE_VERSION = 1;
+    private static final int BLOCK_SIZE = 1 << 26;
+    private static final double[] POWERS_OF_TEN = new double[23];
+    static {
+        POWERS_OF_TEN[0] = 1;
+        for (int i = 1; i < POWERS_OF_TEN.length; i++)
+            POWERS_OF_TEN[i] = POWERS_OF_TEN[i-1] * 10;
+    }
+
+    private FastDataLoader(){}
+
+    /**
+     * Loads an ARFF file, or a UCR format file if the name ends in .tsv or .txt,
+     * on this thread and without the cache.
+     * @param file
+     * @return
+     * @throws IOException if the file is missing, is a .csv file or cannot be parsed
+     */
+    public static Instances loadData(File file) throws IOException{
+        return loadData(file, false, 1);
+    }
+
+    /**
+     * Loads an ARFF file, or a UCR format file if the name ends in .tsv or .txt.
+     * As with Weka, no class index is set for ARFF files; UCR files have the
+     * class last.
+     * @param file
+     * @param useCache read the values from, or write them to, the cache file
+     * @param numThreads threads used to parse the lines of each block, 0 for all cores
+     * @return
+     * @throws IOException if the file is missing, is a .csv file or cannot be parsed
+     */
+    public static Instances loadData(File file, boolean useCache, int numThreads) throws IOException{
+        if (!file.exists())
+            throw new IOException("File " + file.getPath() + " not found");
+        if (file.getName().toLowerCase().endsWith(".csv"))
+            throw new IOException("CSV files are not supported, " + file.getPath()
+                    + " should be converted to ARFF or to a UCR format .tsv or .txt file");
+        if (useCache){
+            Instances cached = readCache(file);
+            if (cached != null)
+                return cached;
+        }
+        Instances data = isUCRFile(file) ? loadUCR(file, numThreads) : loadArff(file, numThreads);
+        if (useCache && cacheable(data)){
+            try {
+                writeCache(data, file);
+            } catch (IOException e) {
+                System.out.println("Unable to write dataset cache for " + file.getPath() + " " + e);
+            }
+        }
+        return data;
+    }
+
+    private static boolean isUCRFile(File file){
+        String name = file.getName().toLowerCase();
+        return name.endsWith(".tsv") || name.endsWith(".txt");
+    }
+
+    //<editor-fold defaultstate="collapsed" desc="ARFF">
+    public static Instances loadArff(File file) throws IOException{
+        return loadArff(file, 1);
+    }
+
+    public static Instances loadArff(File file, int numThreads) throws IOException{
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            StringBuilder headerText = new StringBuilder();
+            long[] dataStart = { -1 };
+            readLineBlocks(channel, 0, (bytes, from, to, offset) -> {
+                for (int start = from; start < to; ) {
+                    int end = lineEnd(bytes, start, to);
+                    String line = new String(bytes, start, end-start, StandardCharsets.UTF_8);
+                    headerText.append(line).append('\n');
+                    start = end+1;
+                    if (line.trim().toLowerCase().startsWith("@data")){
+                        dataStart[0] = offset + start - from;
+                        return false;
+                    }
+                }
+                return true;
+            });
+            if (dataStart[0] < 0)
+                throw new IOException("No @data section in " + file.getPath());
+
+            Instances data = new Instances(new StringReader(headerText.toString()));
+            for (int a = 0; a < data.numAttributes(); a++){
+                if (!data.attribute(a).isNumeric() && !data.attribute(a).isNominal())
+                    return loadWithWeka(file);
+            }
+
+            List<double[]> rows = new ArrayList<>();
+            try {
+                readLineBlocks(channel, dataStart[0], (bytes, from, to, offset) -> {
+                    rows.addAll(parseLines(bytes, from, to, numThreads, line -> parseArffLine(line, data)));
+                    return true;
+                });
+            } catch (UnsupportedLineException e) {
+                return loadWithWeka(file);
+            }
+            //each row array becomes the values of its Instance, add only copies the wrapper
+            Instances result = new Instances(data, rows.size());
+            for (double[] row : rows)
+                result.add(new DenseInstance(1.0, row));
+            return result;
+        }
+    }
+
+    private static Instances loadWithWeka(File file) throws IOException{
+        try (BufferedReader reader = new BufferedReader(new FileReader(file))) {
+            return new Instances(reader);
+        }
+    }
+
+    private static double[] parseArffLine(Line line, Instances header) throws IOException{
+        double[] values = new double[header.numAttributes()];
+        line.skipSpaces();
+        if (line.peek() == '{')
+            throw new UnsupportedLineException();
+        for (int a = 0; a < values.length; a++){
+            if (a > 0 && !line.skip(','))
+                throw new IOException("Too few values in line: " + line);
+            line.skipSpaces();
+            int start = line.pos;
+            int end = line.tokenEnd(',');
+            if (end == start)
+                throw new IOException("Missing value " + a + " in line: " + line);
+            Attribute att = header.attribute(a);
+            if (end-start == 1 && line.bytes[start] == '?')
+                values[a] = Double.NaN;
+            else if (att.isNominal()){
+                String value = unquote(new String(line.bytes, start, end-start, StandardCharsets.UTF_8));
+                values[a] = att.indexOfValue(value);
+                if (values[a] < 0)
+                    throw new IOException("Nominal value " + value + " not declared for " + att.name() + " in line: " + line);
+            }
+            else
+                values[a] = parseDouble(line.bytes, start, end);
+            line.pos = end;
+            line.skipSpaces();
+        }
+        //an instance weight, written 1,2,x,{0.5} or 1,2,x {0.5}
+        if (line.skip(','))
+            line.skipSpaces();
+        if (line.peek() == '{')
+            throw new UnsupportedLineException();
+        if (!line.atEnd())
+            throw new IOException("Too many values in line: " + line);
+        return values;
+    }
+
+    private static String unquote(String s){
+        if (s.length() >= 2 && (s.charAt(0) == '\'' || s.charAt(0) == '"') && s.charAt(s.length()-1) == s.charAt(0))
+            return s.substring(1, s.length()-1).replace("\\" + s.charAt(0), "" + s.charAt(0));
+        return s;
+    }
+
+    //a data line the fast parser leaves to Weka
+    private static class UnsupportedLineException extends IOException {
+    }
+    //</editor-fold>
+
+    //<editor-fold defaultstate="collapsed" desc="UCR">
+    public static Instances loadUCR(File file) throws IOException{
+        return loadUCR(file, 1);
+    }
+
+    public static Instances loadUCR(File file, int numThreads) throws IOException{
+        List<String> labels = new ArrayList<>();
+        List<double[]> series = new ArrayList<>();
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            readLineBlocks(channel, 0, (bytes, from, to, offset) -> {
+                for (Object[] row : parseLines(bytes, from, to, numThreads, FastDataLoader::parseUCRLine)){
+                    labels.add((String)row[0]);
+                    series.add((double[])row[1]);
+                }
+                return true;
+            });
+        }
+
+        //class values in numeric order if they are all numbers, otherwise alphabetical
+        boolean numericLabels = true;
+        for (String label : labels){
+            if (!isNumber(label)){
+                numericLabels = false;
+                break;
+            }
+        }
+        TreeMap<Object,String> distinct = new TreeMap<>();
+        for (String label : labels)
+            distinct.put(numericLabels ? (Object)Double.parseDouble(label) : label, numericLabels ? labelName(Double.parseDouble(label)) : label);
+        List<String> classValues = new ArrayList<>(distinct.values());
+
+        //each series has a free last slot for the class
+        int length = 0;
+        for (double[] s : series)
+            length = Math.max(length, s.length-1);
+        ArrayList<Attribute> atts = new ArrayList<>(length+1);
+        for (int t = 0; t < length; t++)
+            atts.add(new Attribute("att" + t));
+        atts.add(new Attribute("classVal", classValues));
+        String name = file.getName();
+        Instances data = new Instances(name.substring(0, name.lastIndexOf('.')), atts, series.size());
+        data.setClassIndex(length);
+        for (int i = 0; i < series.size(); i++){
+            double[] values = series.get(i);
+            if (values.length != length+1){
+                values = Arrays.copyOf(values, length+1);
+                Arrays.fill(values, series.get(i).length-1, length, Double.NaN);
+            }
+            String label = labels.get(i);
+            values[length] = classValues.indexOf(numericLabels ? labelName(Double.parseDouble(label)) : label);
+            data.add(new DenseInstance(1.0, values));
+        }
+        return data;
+    }
+
+    private static Object[] parseUCRLine(Line line) throws IOException{
+        line.skipSeparators();
+        int start = line.pos;
+        int end = line.tokenEnd(' ');
+        String label = new String(line.bytes, start, end-start, StandardCharsets.UTF_8);
+        line.pos = end;
+        double[] values = new double[16];
+        int n = 0;
+        line.skipSeparators();
+        while (!line.atEnd()){
+            start = line.pos;
+            end = line.tokenEnd(' ');
+            if (n == values.length)
+                values = Arrays.copyOf(values, 2*n);
+            values[n++] = parseDouble(line.bytes, start, end);
+            line.pos = end;
+            line.skipSeparators();
+        }
+        //trailing NaNs are padding of a shorter series
+        while (n > 0 && Double.isNaN(values[n-1]))
+            n--;
+        return new Object[]{ label, Arrays.copyOf(values, n+1) };
+    }
+
+    private static boolean isNumber(String s){
+        try {
+            Double.parseDouble(s);
+            return true;
+        } catch (NumberFormatException e) {
+            return false;
+        }
+    }
+
+    private static String labelName(double label){
+        return label == Math.rint(label) && Math.abs(label) < 1e15 ? Long.toString((long)label) : Double.toString(label);
+    }
+    //</editor-fold>
+
+    //<editor-fold defaultstate="collapsed" desc="Parsing">
+    private interface BlockHandler {
+        //bytes[from..to) holds whole lines, starting at offset in the file. Return false to stop reading
+        boolean accept(byte[] bytes, int from, int to, long offset) throws IOException;
+    }
+
+    private interface LineParser<T> {
+        T parse(Line line) throws IOException;
+    }
+
+    /**
+     * Reads the file from start in blocks, each passed to the handler cut at the
+     * last line end. The buffer is reused, so the handler must not keep it.
+     */
+    private static void readLineBlocks(FileChannel channel, long start, BlockHandler handler) throws IOException{
+        byte[] buffer = new byte[(int)Math.max(1024, Math.min(BLOCK_SIZE, channel.size()-start+1))];
+        int filled = 0;
+        long offset = start;
+        channel.position(start);
+        while (true){
+            if (filled == buffer.length)
+                buffer = Arrays.copyOf(buffer, 2*buffer.length);   //a line longer than the buffer
+            int read = channel.read(ByteBuffer.wrap(buffer, filled, buffer.length-filled));
+            boolean eof = read < 0;
+            if (!eof)
+                filled += read;
+            int end = filled;
+            if (!eof){
+                while (end > 0 && buffer[end-1] != '\n')
+                    end--;
+            }
+            if (end > 0){
+                if (!handler.accept(buffer, 0, end, offset))
+                    return;
+                System.arraycopy(buffer, end, buffer, 0, filled-end);
+                offset += end;
+                filled -= end;
+            }
+            if (eof)
+                return;
+        }
+    }
+
+    /**
+     * Parses every line of bytes[from..to) that is neither blank nor a % comment,
+     * in order. The lines are split into a few ranges per thread, parsed concurrently.
+     */
+    private static <T> List<T> parseLines(byte[] bytes, int from, int to, int numThreads, LineParser<T> parser) throws IOException{
+        int threads = ThreadingUtilities.resolveNumThreads(numThreads);
+        int numRanges = threads == 1 ? 1 : 4*threads;
+        List<Callable<List<T>>> tasks = new ArrayList<>(numRanges);
+        int rangeStart = from;
+        for (int r = 1; r <= numRanges && rangeStart < to; r++){
+            int rangeEnd = r == numRanges ? to : Math.max(rangeStart, from + (int)((long)(to-from)*r/numRanges));
+            while (rangeEnd < to && bytes[rangeEnd-1] != '\n')
+                rangeEnd++;
+            final int s = rangeStart, e = rangeEnd;
+            tasks.add(() -> {
+                List<T> parsed = new ArrayList<>();
+                Line line = new Line(bytes);
+                for (int pos = s; pos < e; ){
+                    int end = lineEnd(bytes, pos, e);
+                    line.reset(pos, end);
+                    line.skipSpaces();
+                    if (!line.atEnd() && line.peek() != '%')
+                        parsed.add(parser.parse(line));
+                    pos = end+1;
+                }
+                return parsed;
+            });
+            rangeStart = rangeEnd;
+        }
+        List<T> all = new ArrayList<>();
+        try {
+            for (List<T> parsed : ThreadingUtilities.invokeAll(tasks, numThreads))
+                all.addAll(parsed);
+        } catch (IOException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new IOException(e);
+        }
+        return all;
+    }
+
+    private static int lineEnd(byte[] bytes, int from, int to){
+        int end = from;
+        while (end < to && bytes[end] != '\n')
+            end++;
+        return end;
+    }
+
+    /**
+     * The characters of a number, exactly as Double.parseDouble would convert
+     * them. Short decimals are converted directly, since a mantissa below 2^53
+     * and a power of ten up to 10^22 are both exact doubles, so one
+     * multiplication or division gives the correctly rounded result.
+     */
+    static double parseDouble(byte[] b, int from, int to){
+        int i = from;
+        boolean negative = false;
+        if (i < to && (b[i] == '-' || b[i] == '+')){
+            negative = b[i] == '-';
+            i++;
+        }
+        long mantissa = 0;
+        int significant = 0;
+        int exponent = 0;
+        boolean digits = false;
+        for (; i < to && b[i] >= '0' && b[i] <= '9'; i++){
+            digits = true;
+            mantissa = mantissa*10 + (b[i]-'0');
+            if (mantissa > 0 && ++significant > 15)
+                return slowParse(b, from, to);
+        }
+        if (i < to && b[i] == '.'){
+            for (i++; i < to && b[i] >= '0' && b[i] <= '9'; i++){
+                digits = true;
+                mantissa = mantissa*10 + (b[i]-'0');
+                exponent--;
+                if (mantissa > 0 && ++significant > 15)
+                    return slowParse(b, from, to);
+            }
+        }
+        if (!digits)
+            return slowParse(b, from, to);
+        if (i < to && (b[i] == 'e' || b[i] == 'E')){
+            i++;
+            boolean negativeExp = false;
+            if (i < to && (b[i] == '-' || b[i] == '+')){
+                negativeExp = b[i] == '-';
+                i++;
+            }
+            if (i == to)
+                return slowParse(b, from, to);
+            int e = 0;
+            for (; i < to && b[i] >= '0' && b[i] <= '9'; i++){
+                e = e*10 + (b[i]-'0');
+                if (e > 1000)
+                    return slowParse(b, from, to);
+            }
+            exponent += negativeExp ? -e : e;
+        }
+        if (i != to || exponent < -22 || exponent > 22)
+            return slowParse(b, from, to);
+        double value = exponent >= 0 ? mantissa * POWERS_OF_TEN[exponent] : mantissa / POWERS_OF_TEN[-exponent];
+        return negative ? -value : value;
+    }
+
+    private static double slowParse(byte[] b, int from, int to){
+        return Double.parseDouble(unquote(new String(b, from, to-from, StandardCharsets.UTF_8)));
+    }
+
+    //a position within one line of a block
+    private static class Line {
+        final byte[] bytes;
+        int pos;
+        int end;
+
+        Line(byte[] bytes){
+            this.bytes = bytes;
+        }
+
+        void reset(int start, int end){
+            pos = start;
+            //drop the \r of windows line ends
+            this.end = end > start && bytes[end-1] == '\r' ? end-1 : end;
+        }
+
+        boolean atEnd(){
+            return pos >= end;
+        }
+
+        int peek(){
+            return pos < end ? bytes[pos] : -1;
+        }
+
+        boolean skip(char c){
+            if (pos < end && bytes[pos] == c){
+                pos++;
+                return true;
+            }
+            return false;
+        }
+
+        void skipSpaces(){
+            while (pos < end && (bytes[pos] == ' ' || bytes[pos] == '\t'))
+                pos++;
+        }
+
+        void skipSeparators(){
+            while (pos < end && (bytes[pos] == ' ' || bytes[pos] == '\t' || bytes[pos] == ','))
+                pos++;
+        }
+
+        /**
+         * End of the token at pos, trailing spaces excluded. A quoted token ends at
+         * its closing quote, otherwise at the separator (space also ending tokens
+         * when the separator is a space), a tab or the line end.
+         */
+        int tokenEnd(char separator){
+            int i = pos;
+            if (i < end && (bytes[i] == '\'' || bytes[i] == '"')){
+                byte quote = bytes[i];
+                for (i++; i < end && bytes[i] != quote; i++){
+                    if (bytes[i] == '\\')
+                        i++;
+                }
+                return Math.min(i+1, end);
+            }
+            while (i < end && bytes[i] != separator && bytes[i] != ',' && bytes[i] != '\t' && !(separator == ' ' && bytes[i] == ' '))
+                i++;
+            while (i > pos && bytes[i-1] == ' ')
+                i--;
+            return i;
+        }
+
+        @Override
+        public String toString(){
+            int start = pos;
+            while (start > 0 && bytes[start-1] != '\n')
+                start--;
+            return new String(bytes, start, end-start, StandardCharsets.UTF_8);
+        }
+    }
+    //</editor-fold>
+
+    //<editor-fold defaultstate="collapsed" desc="Cache">
+    public static File cacheFile(File file){
+        return new File(file.getPath() + CACHE_SUFFIX);
+    }
+
+    //the cache holds values only, every instance is read back with weight 1
+    private static boolean cacheable(Instances data){
+        for (int a = 0; a < data.numAttributes(); a++){
+            if (!data.attribute(a).isNumeric() && !data.attribute(a).isNominal())
+                return false;
+        }
+        for (Instance inst : data){
+            if (inst.weight() != 1.0)
+                return false;
+        }
+        return true;
+    }
+
+    private static void writeCache(Instances data, File source) throws IOException{
+        File cache = cacheFile(source);
+        File temp = new File(cache.getPath() + ".tmp");
+        byte[] header = new Instances(data, 0).toString().getBytes(StandardCharsets.UTF_8);
+        int numAtts = data.numAttributes();
+        try (FileChannel channel = FileChannel.open(temp.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            int headerBytes = dataOffset(header.length);
+            ByteBuffer buffer = ByteBuffer.allocate(Math.max(headerBytes, 1 << 20));
+            buffer.putInt(CACHE_MAGIC).putInt(CACHE_VERSION).putLong(source.length()).putLong(source.lastModified());
+            buffer.putInt(header.length).put(header);
+            buffer.putInt(data.classIndex()).putInt(data.numInstances()).putInt(numAtts);
+            buffer.position(headerBytes);
+            buffer.flip();
+            while (buffer.hasRemaining())
+                channel.write(buffer);
+            buffer.clear();
+            DoubleBuffer values = buffer.asDoubleBuffer();
+            for (Instance inst : data){
+                double[] row = inst.toDoubleArray();
+                for (int a = 0; a < numAtts; ){
+                    if (!values.hasRemaining()){
+                        buffer.limit(values.position()*8).position(0);
+                        while (buffer.hasRemaining())
+                            channel.write(buffer);
+                        buffer.clear();
+                        values.clear();
+                    }
+                    int n = Math.min(values.remaining(), numAtts-a);
+                    values.put(row, a, n);
+                    a += n;
+                }
+            }
+            buffer.limit(values.position()*8).position(0);
+            while (buffer.hasRemaining())
+                channel.write(buffer);
+        }
+        try {
+            Files.move(temp.toPath(), cache.toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(temp.toPath(), cache.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    //the values start on a multiple of 8 bytes
+    private static int dataOffset(int headerLength){
+        int fixed = 4+4+8+8+4+headerLength+4+4+4;
+        return (fixed+7)/8*8;
+    }
+
+    /**
+     * @return the cached Instances of file, or null if there is no cache or it is
+     * out of date
+     */
+    private static Instances readCache(File file) throws IOException{
+        File cache = cacheFile(file);
+        if (!cache.exists())
+            return null;
+        try (FileChannel channel = FileChannel.open(cache.toPath(), StandardOpenOption.READ)) {
+            ByteBuffer start = ByteBuffer.allocate(28);
+            if (channel.read(start) < 28)
+                return null;
+            start.flip();
+            if (start.getInt() != CACHE_MAGIC || start.getInt() != CACHE_VERSION
+                    || start.getLong() != file.length() || start.getLong() != file.lastModified())
+                return null;
+            int headerLength = start.getInt();
+            ByteBuffer rest = ByteBuffer.allocate(headerLength+12);
+            if (channel.read(rest) < rest.capacity())
+                return null;
+            rest.flip();
+            byte[] header = new byte[headerLength];
+            rest.get(header);
+            int classIndex = rest.getInt();
+            int numInstances = rest.getInt();
+            int numAtts = rest.getInt();
+            long rowBytes = 8L*numAtts;
+            long dataStart = dataOffset(headerLength);
+            if (channel.size() != dataStart + rowBytes*numInstances)
+                return null;
+
+            Instances data = new Instances(new StringReader(new String(header, StandardCharsets.UTF_8)));
+            data = new Instances(data, numInstances);
+            data.setClassIndex(classIndex);
+            //map at most about 1GB at a time
+            int rowsPerMap = (int)Math.max(1, (1L << 30) / Math.max(1, rowBytes));
+            for (int first = 0; first < numInstances; first += rowsPerMap){
+                int rows = Math.min(rowsPerMap, numInstances-first);
+                DoubleBuffer values = channel.map(FileChannel.MapMode.READ_ONLY, dataStart + first*rowBytes, rows*rowBytes).asDoubleBuffer();
+                for (int i = 0; i < rows; i++){
+                    double[] row = new double[numAtts];
+                    values.get(row);
+                    data.add(new DenseInstance(1.0, row));
+                }
+            }
+            return data;
+        }
+    }
+    //</editor-fold>
+}
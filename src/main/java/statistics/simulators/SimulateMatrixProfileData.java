@@ -104,6 +104,31 @@ public class SimulateMatrixProfileData {
         raw.writeLine(d.toString());
         mpFile.writeLine(md.toString());
     }
+    /**
+     * Scalability benchmark for the MatrixProfile algorithms: time to transform 
+     * simulated data as the series get longer. SCRIMP is stopped after 10% of 
+     * the diagonals. 
+     */
+    public static void timeMatrixProfileAlgorithms() throws Exception{
+        Model.setDefaultSigma(1.0);
+        Model.setGlobalRandomSeed(0);
+        int[] casesPerClass=new int[]{10,10};        
+        int windowSize=29;
+        for(int seriesLength=250;seriesLength<=4000;seriesLength*=2){
+            Instances d=generateMatrixProfileData(seriesLength,casesPerClass);
+            System.out.print("Series length ="+seriesLength);
+            for(MatrixProfile.Algorithm alg:MatrixProfile.Algorithm.values()){
+                MatrixProfile mp=new MatrixProfile(windowSize);
+                mp.setAlgorithm(alg);
+                if(alg==MatrixProfile.Algorithm.SCRIMP)
+                    mp.setFractionOfDiagonals(0.1);
+                long t=System.nanoTime();
+                mp.process(d);
+                System.out.print(" "+alg+" ="+(System.nanoTime()-t)/1000000+" ms");
+            }
+            System.out.println();
+        }
+    }
     public static void main(String[] args) throws Exception {
         createExampleData();
         System.exit(0);
@@ -25,10 +25,11 @@ import java.io.FileOutputStream;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
 import java.io.Serializable;
-import java.util.Map.Entry;
+import java.util.concurrent.Callable;
 
 import utilities.ClassifierTools;
 import utilities.BitWord;
+import utilities.ThreadingUtilities;
 import utilities.TrainAccuracyEstimate;
 import vector_classifiers.CAWPE;
 import weka.classifiers.AbstractClassifier;
@@ -60,7 +61,6 @@ public class BOSS extends AbstractClassifierWithTrainingInfo implements HiveCote
     private int seed = 0;
     private int numCAWPEFolds = 10;
     private int ensembleSizePerChannel = -1;
-    private Random rand;
     private boolean randomEnsembleSelection = false;
     private boolean useCAWPE = false;
     private Classifier alternateIndividualClassifier;
@@ -83,9 +83,12 @@ public class BOSS extends AbstractClassifierWithTrainingInfo implements HiveCote
     private long checkpointTime = 0;
     private long checkpointTimeDiff = 0;
     private boolean cleanupCheckpointFiles = true;
+    private boolean kryoCheckpoint = false;
             
     private long contractTime = 0;
     private boolean contract = false;
+
+    private int numThreads = 1;
     
     private String trainCVPath;
     private boolean trainCV = false;
@@ -189,7 +192,6 @@ public class BOSS extends AbstractClassifierWithTrainingInfo implements HiveCote
         seed = saved.seed;
         numCAWPEFolds = saved.numCAWPEFolds;
         ensembleSizePerChannel = saved.ensembleSizePerChannel;
-        rand = saved.rand;
         randomEnsembleSelection = saved.randomEnsembleSelection;
         useCAWPE = saved.useCAWPE;
         alternateIndividualClassifier = saved.alternateIndividualClassifier;
@@ -213,6 +215,15 @@ public class BOSS extends AbstractClassifierWithTrainingInfo implements HiveCote
         classifiers = new LinkedList[numSeries];
         for (int n = 0; n < numSeries; n++) {
             classifiers[n] = new LinkedList();
+            if (kryoCheckpoint) {
+                //members are appended as they are built, any after the saved state are dropped and built again
+                List<Object> members = KryoCheckpoint.loadAppended(serPath + "BOSSIndividuals" + n + ".kryo", saved.numClassifiers[n]);
+                if (members.size() < saved.numClassifiers[n])
+                    throw new Exception("Only " + members.size() + " of " + saved.numClassifiers[n] + " BOSSIndividuals saved for series " + n);
+                for (int i = 0; i < saved.numClassifiers[n]; i++)
+                    classifiers[n].add((BOSSIndividual) members.get(i));
+                continue;
+            }
             for (int i = 0; i < saved.numClassifiers[n]; i++) {
                 System.out.println("Loading BOSSIndividual" + n + "-" + i + ".ser");
 
@@ -277,6 +288,29 @@ public class BOSS extends AbstractClassifierWithTrainingInfo implements HiveCote
         cleanupCheckpointFiles = b;
     }
 
+    /**
+     * Checkpoint with Kryo (see KryoCheckpoint) rather than Java serialisation. Each new member is
+     * appended to one file per channel and the ensemble state is written behind on a background thread,
+     * so checkpointing costs little more than taking a snapshot of the new member. Kryo and Java
+     * checkpoints are kept in different files, a build only resumes from the kind it is set to write.
+     * 
+     * @param b false by default
+     */
+    public void setKryoCheckpoint(boolean b) {
+        kryoCheckpoint = b;
+    }
+
+    /**
+     * Number of threads used to build the members of the contracted, CAWPE and randomly selected 
+     * ensembles. Each member's parameters come from its own seed, so the ensemble is the same for
+     * any number of threads.
+     * 
+     * @param numThreads 1 by default, 0 for all cores
+     */
+    public void setNumThreads(int numThreads) {
+        this.numThreads = numThreads;
+    }
+
     @Override
     public void buildClassifier(final Instances data) throws Exception {
         trainResults.setBuildTime(System.nanoTime());
@@ -310,11 +344,14 @@ public class BOSS extends AbstractClassifierWithTrainingInfo implements HiveCote
 
         String relationName = data.relationName();
         serPath = checkpointPath + "/" + relationName + seed + type + "BOSSser/";
-        File f = new File(serPath + "BOSS.ser");
+        File f = new File(serPath + (kryoCheckpoint ? "BOSS.kryo" : "BOSS.ser"));
 
         //if checkpointing and serialised files exist load said files
         if (checkpoint && f.exists()){
-            loadFromFile(serPath + "BOSS.ser");
+            if (kryoCheckpoint)
+                loadFromFileKryo(f.getPath());
+            else
+                loadFromFile(f.getPath());
         }
         //initialise variables
         else {
@@ -343,8 +380,6 @@ public class BOSS extends AbstractClassifierWithTrainingInfo implements HiveCote
                 classifiers[0] = new LinkedList<>();
                 numClassifiers = new int[1];
             }
-
-            rand = new Random(seed);
         }
         
         this.train = data;
@@ -376,26 +411,9 @@ public class BOSS extends AbstractClassifierWithTrainingInfo implements HiveCote
             //continue building classifiers until contract time runs out or max ensemble size is reached
             //any time between runs using checkpointing is not included
             while (System.nanoTime() - trainResults.getBuildTime() - checkpointTimeDiff < contractTime && classifiers[numSeries-1].size() < maxEnsembleSize) {
-                //randomly select parameters except for alphabetSize
-                int wordLength = wordLengths[rand.nextInt(wordLengths.length)];
-                int winSize = minWindow + winInc * rand.nextInt((int) maxWindowSearches + 1);
-                if(winSize > maxWindow) winSize = maxWindow;
-                boolean normalise = rand.nextBoolean();
-
-                BOSSIndividual boss = new BOSSIndividual(wordLength, alphabetSize, winSize, normalise, alternateIndividualClassifier);
-                boss.cleanAfterBuild = true;
-                boss.buildClassifier(series[currentSeries]);
-                classifiers[currentSeries].add(boss);
-                numClassifiers[currentSeries]++;
-
-                int prev = currentSeries;
-                if (isMultivariate){
-                    nextSeries();
-                }
-
-                if (checkpoint) {
-                    checkpoint(prev, relationName);
-                }
+                //one member per thread, members after the first of a batch are only kept if done in time
+                int batchSize = Math.min(ThreadingUtilities.resolveNumThreads(numThreads), maxEnsembleSize*numSeries - sum(numClassifiers));
+                buildRandomMembers(series, Math.max(1, batchSize), minWindow, maxWindow, winInc, maxWindowSearches, relationName);
             }
 
             System.out.println("RBOSS Contract Data: NumClassifiers = " +
@@ -409,15 +427,8 @@ public class BOSS extends AbstractClassifierWithTrainingInfo implements HiveCote
             cawpe = new CAWPE[numSeries];
 
             while (sum(numClassifiers) < ensembleSize) {
-                //randomly select parameters except for alphabetSize
-                int wordLength = wordLengths[rand.nextInt(wordLengths.length)];
-                int winSize = minWindow + winInc * rand.nextInt((int) maxWindowSearches + 1);
-                if(winSize > maxWindow) winSize = maxWindow;
-                boolean normalise = rand.nextBoolean();
-
                 //do not have to build here, CAWPE will build each classifer
-                BOSSIndividual boss = new BOSSIndividual(wordLength, alphabetSize, winSize, normalise, alternateIndividualClassifier);
-                boss.cleanAfterBuild = true;
+                BOSSIndividual boss = randomIndividual(sum(numClassifiers), minWindow, maxWindow, winInc, maxWindowSearches);
                 classifiers[currentSeries].add(boss);
                 numClassifiers[currentSeries]++;
 
@@ -431,44 +442,32 @@ public class BOSS extends AbstractClassifierWithTrainingInfo implements HiveCote
                 }
             }
 
-            //build a CAWPE classifier for each channel (1 if univariate)
+            //build a CAWPE classifier for each channel (1 if univariate), channels in parallel
+            List<Callable<CAWPE>> tasks = new ArrayList<>(numSeries);
             for (int i = 0; i < numSeries; i++){
                 cawpe[i] = new CAWPE();
                 cawpe[i].setNumCVFolds(numCAWPEFolds);
+                cawpe[i].setNumThreads(numThreads);
                 BOSSIndividual[] boss = classifiers[i].toArray(new BOSSIndividual[numClassifiers[i]]);
                 cawpe[i].setClassifiers(boss, null, null);
-                cawpe[i].buildClassifier(series[i]);
+
+                final CAWPE c = cawpe[i];
+                final Instances channel = series[i];
+                tasks.add(() -> { c.buildClassifier(channel); return c; });
 
                 //cant serialise cawpe
                 //if (checkpoint) {
                     //checkpoint(-1, relationName);
                 //}
             }
+            ThreadingUtilities.invokeAll(tasks, numThreads);
         }
         //Randomly selected ensemble
         else if (randomEnsembleSelection){
             //build classifiers up to a set size
             while (sum(numClassifiers) < ensembleSize) {
-                //randomly select parameters except for alphabetSize
-                int wordLength = wordLengths[rand.nextInt(wordLengths.length)];
-                int winSize = minWindow + winInc * rand.nextInt((int) maxWindowSearches + 1);
-                if(winSize > maxWindow) winSize = maxWindow;
-                boolean normalise = rand.nextBoolean();
-
-                BOSSIndividual boss = new BOSSIndividual(wordLength, alphabetSize, winSize, normalise, copyClassifier());
-                boss.cleanAfterBuild = true;
-                boss.buildClassifier(series[currentSeries]);
-                classifiers[currentSeries].add(boss);
-                numClassifiers[currentSeries]++;
-
-                int prev = currentSeries;
-                if (isMultivariate){
-                    nextSeries();
-                }
-
-                if (checkpoint) {
-                    checkpoint(prev, relationName);
-                }
+                int batchSize = Math.min(ThreadingUtilities.resolveNumThreads(numThreads), ensembleSize - sum(numClassifiers));
+                buildRandomMembers(series, batchSize, minWindow, maxWindow, winInc, maxWindowSearches, relationName);
             }
         }
         //Original BOSS/Accuracy cutoff ensemble
@@ -561,13 +560,17 @@ public class BOSS extends AbstractClassifierWithTrainingInfo implements HiveCote
             trainCV = false;
         }
 
+        if (checkpoint && kryoCheckpoint){
+            KryoCheckpoint.awaitWrites();
+        }
+
         //delete any serialised files and holding folder for checkpointing on completion
         if (checkpoint && cleanupCheckpointFiles){
             f = new File(serPath);
             String[] files = f.list();
 
             for (String file: files){
-                File f2 = new File(f.getPath() + "\\" + file);
+                File f2 = new File(f, file);
                 f2.delete();
             }
 
@@ -575,6 +578,78 @@ public class BOSS extends AbstractClassifierWithTrainingInfo implements HiveCote
         }
     }
     
+    /**
+     * Builds the next batchSize members of a random or contracted ensemble concurrently, then adds 
+     * them in member order, moving through the channels and checkpointing after each exactly as when
+     * they are built one at a time. When contracted, the first member is always added, as it would be
+     * built serially, but the members after it stop at the first one finished after the time limit.
+     */
+    private void buildRandomMembers(Instances[] series, int batchSize, int minWindow, int maxWindow, int winInc, 
+            double maxWindowSearches, String relationName) throws Exception {
+        int firstMember = sum(numClassifiers);
+        long[] finished = new long[batchSize];
+        long excluded = checkpointTimeDiff;
+        List<Callable<BOSSIndividual>> tasks = new ArrayList<>(batchSize);
+        for (int i = 0, s = currentSeries; i < batchSize; i++) {
+            final BOSSIndividual boss = randomIndividual(firstMember + i, minWindow, maxWindow, winInc, maxWindowSearches);
+            final Instances data = series[s];
+            final int member = i;
+            tasks.add(() -> { boss.buildClassifier(data); finished[member] = System.nanoTime(); return boss; });
+
+            if (isMultivariate)
+                s = s == numSeries-1 ? 0 : s+1;
+        }
+
+        List<BOSSIndividual> built = ThreadingUtilities.invokeAll(tasks, numThreads);
+        for (int i = 0; i < built.size(); i++) {
+            BOSSIndividual boss = built.get(i);
+            if (contract && classifiers[numSeries-1].size() >= maxEnsembleSize)
+                break;
+            if (contract && i > 0 && finished[i] - trainResults.getBuildTime() - excluded >= contractTime)
+                break;
+
+            classifiers[currentSeries].add(boss);
+            numClassifiers[currentSeries]++;
+
+            int prev = currentSeries;
+            if (isMultivariate){
+                nextSeries();
+            }
+
+            if (checkpoint) {
+                checkpoint(prev, relationName);
+            }
+        }
+    }
+
+    /**
+     * Ensemble member number 'member' of a random, contracted or CAWPE ensemble. Its parameters are
+     * drawn from a seed derived from the ensemble seed and the member number alone, so the same member
+     * is produced whatever order the members are built in, and when resuming from a checkpoint.
+     */
+    private BOSSIndividual randomIndividual(int member, int minWindow, int maxWindow, int winInc, double maxWindowSearches) throws Exception {
+        Random rand = new Random(memberSeed(member));
+
+        //randomly select parameters except for alphabetSize
+        int wordLength = wordLengths[rand.nextInt(wordLengths.length)];
+        int winSize = minWindow + winInc * rand.nextInt((int) maxWindowSearches + 1);
+        if(winSize > maxWindow) winSize = maxWindow;
+        boolean normalise = rand.nextBoolean();
+
+        //each member gets its own copy of any alternate classifier, as members may be built at the same time
+        BOSSIndividual boss = new BOSSIndividual(wordLength, alphabetSize, winSize, normalise, copyClassifier());
+        boss.cleanAfterBuild = true;
+        return boss;
+    }
+
+    private long memberSeed(int member) {
+        //splitmix64 mixing, so that consecutive members don't get similar random streams
+        long z = seed + (member+1) * 0x9E3779B97F4A7C15L;
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+
     private void checkpoint(int seriesNo, String relationName){
         if(checkpointPath!=null){
             try{
@@ -584,6 +659,15 @@ public class BOSS extends AbstractClassifierWithTrainingInfo implements HiveCote
                 //time the checkpoint occured
                 checkpointTime = System.nanoTime();
 
+                if (kryoCheckpoint) {
+                    //append the last built individual, then write this behind it; saved classifiers not included
+                    if (seriesNo >= 0)
+                        KryoCheckpoint.appendAsync(classifiers[seriesNo].getLast(), serPath + "BOSSIndividuals" + seriesNo + ".kryo");
+                    KryoCheckpoint.saveAsync(this, serPath + "BOSS.kryo");
+                    checkpointTimeDiff += System.nanoTime() - checkpointTime;
+                    return;
+                }
+
                 if (seriesNo >= 0) {
                     //save the last build individual classifier
                     BOSSIndividual indiv = classifiers[seriesNo].get(classifiers[seriesNo].size() - 1);
@@ -648,11 +732,11 @@ public class BOSS extends AbstractClassifierWithTrainingInfo implements HiveCote
         }
     }
 
-    //Classifier doesntt have its own way to copy apparently so this is used to create multiple versions of the
-    //alternate classifier
+    //creates a separate copy of the alternate classifier for each member, keeping any options 
+    //that were set on it
     public Classifier copyClassifier() throws Exception {
         if (alternateIndividualClassifier != null){
-            return (Classifier)Class.forName(alternateIndividualClassifier.getClass().getName()).newInstance();
+            return AbstractClassifier.makeCopy(alternateIndividualClassifier);
         }
         return null;
     }
@@ -995,6 +1079,13 @@ public class BOSS extends AbstractClassifierWithTrainingInfo implements HiveCote
 
         protected double accuracy;
 
+        //cos/sin of every term of the first wordLength/2 coefficients, built once per series length 
+        //so that the DFTs below don't call Math.cos/Math.sin for every term of every window.
+        //DFT and DFTunnormed calculate the angle slightly differently, so each keeps its own table 
+        //to give exactly the same values as before
+        private transient double[][] dftCos, dftSin, unnormedCos, unnormedSin;
+        private transient double[] mftPhis;
+
         protected static final long serialVersionUID = 22551L;
 
         public BOSSIndividual(int wordLength, int alphabetSize, int windowSize, boolean normalise) {
@@ -1036,19 +1127,64 @@ public class BOSS extends AbstractClassifierWithTrainingInfo implements HiveCote
             this.alternateClassifier = boss.alternateClassifier;
         }
 
-        public static class Bag extends HashMap<BitWord, Integer> {
+        /**
+         * Histogram of the SFA words of a single series. 
+         * 
+         * Rather than a HashMap<BitWord, Integer>, which boxes every word and count, the words are 
+         * held as their packed ints (BitWord.getWord()) in ascending order alongside their counts, 
+         * so two bags can be compared with a single merge over both. All words in a bag have the 
+         * same length.
+         */
+        public static class Bag implements Serializable {
             double classVal;
-            protected static final long serialVersionUID = 22552L;
+            protected int[] words = new int[0];
+            protected int[] counts = new int[0];
+            protected int wordLength;
+            protected static final long serialVersionUID = 22554L;
 
             public Bag() {
-                super();
             }
 
             public Bag(int classValue) {
-                super();
                 classVal = classValue;
             }
 
+            /**
+             * Replaces the contents of this bag with the histogram of the first numWords words. 
+             * The passed array is sorted in place.
+             */
+            public void setWords(int[] newWords, int numWords, int wordLength) {
+                Arrays.sort(newWords, 0, numWords);
+
+                int unique = 0;
+                for (int i = 0; i < numWords; ++i)
+                    if (i == 0 || newWords[i] != newWords[i-1])
+                        ++unique;
+
+                words = new int[unique];
+                counts = new int[unique];
+                int j = -1;
+                for (int i = 0; i < numWords; ++i) {
+                    if (i == 0 || newWords[i] != newWords[i-1])
+                        words[++j] = newWords[i];
+                    ++counts[j];
+                }
+                this.wordLength = wordLength;
+            }
+
+            public int size() { return words.length; }
+            public int getWord(int i) { return words[i]; }
+            public int getCount(int i) { return counts[i]; }
+            public BitWord getBitWord(int i) { return new BitWord(words[i], wordLength); }
+
+            /**
+             * @return count of the packed word, 0 if not in the bag
+             */
+            public int get(int word) {
+                int i = Arrays.binarySearch(words, word);
+                return i >= 0 ? counts[i] : 0;
+            }
+
             public double getClassVal() { return classVal; }
             public void setClassVal(double classVal) { this.classVal = classVal; }       
         }
@@ -1110,13 +1246,16 @@ public class BOSS extends AbstractClassifierWithTrainingInfo implements HiveCote
             double normalisingFactor = inverseSqrtWindowSize / stdDev(series);
 
             double[] dft=new double[outputLength*2];
+            initTwiddles(n);
 
             for (int k = start; k < start + outputLength; k++) {  // For each output element
+                double[] cos = dftCos[k-start];
+                double[] sin = dftSin[k-start];
                 float sumreal = 0;
                 float sumimag = 0;
                 for (int t = 0; t < n; t++) {  // For each input element
-                    sumreal +=  series[t]*Math.cos(2*Math.PI * t * k / n);
-                    sumimag += -series[t]*Math.sin(2*Math.PI * t * k / n);
+                    sumreal +=  series[t]*cos[t];
+                    sumimag += -series[t]*sin[t];
                 }
                 dft[(k-start)*2]   = sumreal * normalisingFactor;
                 dft[(k-start)*2+1] = sumimag * normalisingFactor;
@@ -1136,14 +1275,16 @@ public class BOSS extends AbstractClassifierWithTrainingInfo implements HiveCote
             int start = (norm ? 1 : 0);
 
             double[] dft = new double[outputLength*2];
-            double twoPi = 2*Math.PI / n;
+            initTwiddles(n);
 
             for (int k = start; k < start + outputLength; k++) {  // For each output element
+                double[] cos = unnormedCos[k-start];
+                double[] sin = unnormedSin[k-start];
                 float sumreal = 0;
                 float sumimag = 0;
                 for (int t = 0; t < n; t++) {  // For each input element
-                    sumreal +=  series[t]*Math.cos(twoPi * t * k);
-                    sumimag += -series[t]*Math.sin(twoPi * t * k);
+                    sumreal +=  series[t]*cos[t];
+                    sumimag += -series[t]*sin[t];
                 }
                 dft[(k-start)*2]   = sumreal;
                 dft[(k-start)*2+1] = sumimag;
@@ -1151,6 +1292,31 @@ public class BOSS extends AbstractClassifierWithTrainingInfo implements HiveCote
             return dft;
         }
 
+        private void initTwiddles(int n) {
+            int outputLength = wordLength/2;
+            if (dftCos != null && dftCos.length == outputLength && (outputLength == 0 || dftCos[0].length == n))
+                return;
+
+            int start = (norm ? 1 : 0);
+            double twoPi = 2*Math.PI / n;
+            double[][] cos = new double[outputLength][n];
+            double[][] sin = new double[outputLength][n];
+            double[][] ucos = new double[outputLength][n];
+            double[][] usin = new double[outputLength][n];
+            for (int k = start; k < start + outputLength; k++) {
+                for (int t = 0; t < n; t++) {
+                    cos[k-start][t] = Math.cos(2*Math.PI * t * k / n);
+                    sin[k-start][t] = Math.sin(2*Math.PI * t * k / n);
+                    ucos[k-start][t] = Math.cos(twoPi * t * k);
+                    usin[k-start][t] = Math.sin(twoPi * t * k);
+                }
+            }
+            dftSin = sin;
+            unnormedCos = ucos;
+            unnormedSin = usin;
+            dftCos = cos;
+        }
+
         private double[] normalizeDFT(double[] dft, double std) {
             double normalisingFactor = (std > 0? 1.0 / std : 1.0) * inverseSqrtWindowSize;
             for (int i = 0; i < dft.length; i++)
@@ -1164,11 +1330,15 @@ public class BOSS extends AbstractClassifierWithTrainingInfo implements HiveCote
             int startOffset = norm ? 2 : 0;
             int l = wordLength;
             l = l + l % 2; // make it even
-            double[] phis = new double[l];
-            for (int u = 0; u < phis.length; u += 2) {
-                double uHalve = -(u + startOffset) / 2;
-                phis[u] = realephi(uHalve, windowSize);
-                phis[u + 1] = complexephi(uHalve, windowSize);
+            double[] phis = mftPhis;
+            if (phis == null || phis.length != l) {
+                phis = new double[l];
+                for (int u = 0; u < phis.length; u += 2) {
+                    double uHalve = -(u + startOffset) / 2;
+                    phis[u] = realephi(uHalve, windowSize);
+                    phis[u + 1] = complexephi(uHalve, windowSize);
+                }
+                mftPhis = phis;
             }
 
             // means and stddev for each sliding window
@@ -1302,7 +1472,8 @@ public class BOSS extends AbstractClassifierWithTrainingInfo implements HiveCote
          * to be used e.g to transform new test instances
          */
         protected Bag createBagSingle(double[][] dfts) {
-            Bag bag = new Bag();
+            int[] words = new int[dfts.length];
+            int numWords = 0;
             BitWord lastWord = new BitWord();
 
             for (double[] d : dfts) {
@@ -1311,14 +1482,13 @@ public class BOSS extends AbstractClassifierWithTrainingInfo implements HiveCote
                 if (numerosityReduction && word.equals(lastWord))
                     continue;
 
-                Integer val = bag.get(word);
-                if (val == null)
-                    val = 0;
-                bag.put(word, ++val);   
+                words[numWords++] = word.getWord();
 
                 lastWord = word;
             }
 
+            Bag bag = new Bag();
+            bag.setWords(words, numWords, lastWord.getLength());
             return bag;
         }
 
@@ -1393,27 +1563,26 @@ public class BOSS extends AbstractClassifierWithTrainingInfo implements HiveCote
          * Builds a bag from the set of words for a pre-transformed series of a given wordlength.
          */
         protected Bag createBagFromWords(int thisWordLength, BitWord[] words) {
-            Bag bag = new Bag();
-            BitWord lastWord = new BitWord();
+            int[] shortened = new int[words.length];
+            int numWords = 0;
+            int lastWord = new BitWord().getWord();
+            int shortenBy = wordLength != thisWordLength ? 16-thisWordLength : 0; 
+            //TODO hack, word.length=16=maxwordlength, wordLength of 'this' BOSS instance unreliable, length of SFAwords = maxlength
 
             for (BitWord w : words) {
-                BitWord word = new BitWord(w);
-                if (wordLength != thisWordLength)
-                    word.shorten(16-thisWordLength); 
-                    //TODO hack, word.length=16=maxwordlength, wordLength of 'this' BOSS instance unreliable, length of SFAwords = maxlength
+                int word = w.getWord() >>> (shortenBy*BitWord.BITS_PER_LETTER); //as BitWord.shorten
 
                 //add to bag, unless num reduction applies
-                if (numerosityReduction && word.equals(lastWord))
+                if (numerosityReduction && word == lastWord)
                     continue;
 
-                Integer val = bag.get(word);
-                if (val == null)
-                    val = 0;
-                bag.put(word, ++val);   
+                shortened[numWords++] = word;
 
                 lastWord = word;
             }
 
+            Bag bag = new Bag();
+            bag.setWords(shortened, numWords, words.length > 0 ? words[0].getLength()-shortenBy : 0);
             return bag;
         }
 
@@ -1457,7 +1626,8 @@ public class BOSS extends AbstractClassifierWithTrainingInfo implements HiveCote
                     bags.add(bag);
 
                     //Save found words for test instnaces
-                    for (BitWord word : bag.keySet()){
+                    for (int i = 0; i < bag.size(); ++i){
+                        BitWord word = bag.getBitWord(i);
                         if (!words.contains(word)){
                             words.add(word);
                         }
@@ -1476,8 +1646,8 @@ public class BOSS extends AbstractClassifierWithTrainingInfo implements HiveCote
                     Bag bag = bags.get(inst);
                     double[] values = new double[words.size()+1];
 
-                    for (Entry<BitWord, Integer> entry : bag.entrySet()) {
-                        values[words.indexOf(entry.getKey())] = entry.getValue();
+                    for (int i = 0; i < bag.size(); ++i) {
+                        values[words.indexOf(bag.getBitWord(i))] = bag.getCount(i);
                     }
                     values[words.size()] = data.get(inst).classValue();
 
@@ -1506,13 +1676,16 @@ public class BOSS extends AbstractClassifierWithTrainingInfo implements HiveCote
          */
         public double BOSSdistance(Bag instA, Bag instB, double bestDist) {
             double dist = 0.0;
+            int[] wordsA = instA.words, countsA = instA.counts;
+            int[] wordsB = instB.words, countsB = instB.counts;
+
+            //find dist only from values in instA, walking through both sorted word lists together
+            for (int a = 0, b = 0; a < wordsA.length; ++a) {
+                while (b < wordsB.length && wordsB[b] < wordsA[a])
+                    ++b;
 
-            //find dist only from values in instA
-            for (Entry<BitWord, Integer> entry : instA.entrySet()) {
-                Integer valA = entry.getValue();
-                Integer valB = instB.get(entry.getKey());
-                if (valB == null)
-                    valB = 0;
+                int valA = countsA[a];
+                int valB = (b < wordsB.length && wordsB[b] == wordsA[a]) ? countsB[b] : 0;
                 dist += (valA-valB)*(valA-valB);
 
                 if (dist > bestDist)
@@ -1549,10 +1722,10 @@ public class BOSS extends AbstractClassifierWithTrainingInfo implements HiveCote
                 double[] values = new double[words.size()];
 
                 //Create histogram of words, not including any not found in training
-                for (Entry<BitWord, Integer> entry : testBag.entrySet()) {
-                    int index = words.indexOf(entry.getKey());
+                for (int i = 0; i < testBag.size(); ++i) {
+                    int index = words.indexOf(testBag.getBitWord(i));
                     if (index >= 0){
-                        values[index] = entry.getValue();
+                        values[index] = testBag.getCount(i);
                     }
                 }
 
@@ -1599,10 +1772,10 @@ public class BOSS extends AbstractClassifierWithTrainingInfo implements HiveCote
                 double[] values = new double[words.size()];
 
                 //Create histogram of words, not including any not found in training
-                for (Entry<BitWord, Integer> entry : testBag.entrySet()) {
-                    int index = words.indexOf(entry.getKey());
+                for (int i = 0; i < testBag.size(); ++i) {
+                    int index = words.indexOf(testBag.getBitWord(i));
                     if (index >= 0){
-                        values[index] = entry.getValue();
+                        values[index] = testBag.getCount(i);
                     }
                 }
 
@@ -1614,4 +1787,4 @@ public class BOSS extends AbstractClassifierWithTrainingInfo implements HiveCote
             }
         }
     }
-}
\ No newline at end of file
+}
\ No newline at end of file
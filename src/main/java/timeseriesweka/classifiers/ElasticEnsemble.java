@@ -114,6 +114,8 @@ public class ElasticEnsemble extends AbstractClassifierWithTrainingInfo implemen
     private boolean usesDer = false;
     private static DerivativeFilter df = new DerivativeFilter();
     
+    private int numThreads = 1;
+    
     // utility to enable AJBs COTE 
     double[] previousPredictions = null;
     
@@ -269,6 +271,17 @@ public class ElasticEnsemble extends AbstractClassifierWithTrainingInfo implemen
         this.writeToFile = true;
     }
     
+    /**
+     * Number of threads each constituent uses for its loocv parameter search 
+     * (see Efficient1NN.setNumThreads). The results are the same for any number
+     * of threads.
+     * 
+     * @param numThreads 1 by default, 0 for all cores
+     */
+    public void setNumThreads(int numThreads){
+        this.numThreads = numThreads;
+    }
+    
     @Override
     public void writeCVTrainToFile(String outputPathAndName){
         this.writeEnsembleTrainingFile = true;
@@ -357,6 +370,7 @@ public class ElasticEnsemble extends AbstractClassifierWithTrainingInfo implemen
                 if(writeToFile){
                     classifiers[c].setFileWritingOn(this.resultsDir, this.datasetName, this.resampleId);
                 }
+                classifiers[c].setNumThreads(this.numThreads);
                 if(isDerivative(classifiersToUse[c])){
                     cvAccAndPreds = classifiers[c].loocv(derTrain);
                 }else{
@@ -120,10 +120,14 @@ public class FastDTW_1NN extends AbstractClassifier  implements SaveParameterInf
     }  
 
     public FastDTW_1NN(){
-        dtw=new DTW();
+        DTW d=new DTW();
+        d.setTrackWarp(true);   //findMaxWindow is used in the CV
+        dtw=d;
         accuracy=new ArrayList<>();
     }
     public FastDTW_1NN(DTW_DistanceBasic d){
+        if(d instanceof DTW)
+            ((DTW)d).setTrackWarp(true);
         dtw=d;
         accuracy=new ArrayList<>();
     }
@@ -22,7 +22,7 @@ public class FastDTWWrapper extends AbstractClassifier  implements SaveParameter
     protected ClassifierResults res =new ClassifierResults();
     
     public FastDTWWrapper(){
-        ws=new FastWWSByPercent();
+        ws=new FastWWSPrimitive();
     }
     
     @Override
@@ -0,0 +1,182 @@
+/*******************************************************************************
+ * Copyright (C) 2017 Chang Wei Tan, Francois Petitjean, Matthieu Herrmann, Germain Forestier, Geoff Webb
+ *
+ * This file is part of FastWWSearch.
+ *
+ * FastWWSearch is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * FastWWSearch is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with FastWWSearch.  If not, see <http://www.gnu.org/licenses/>.
+ ******************************************************************************/
+package timeseriesweka.classifiers.FastWWS.items;
+
+import static java.lang.Math.sqrt;
+
+import timeseriesweka.classifiers.FastWWS.tools.Tools;
+
+/**
+ * Working memory for DTW between series held as plain arrays.
+ *
+ * SymbolicSequence fills static [8000][8000] matrices, shared by every caller. DTW only ever
+ * reads the row above the one it is filling, so here the cost and the window validity are kept
+ * in two rows each, sized to the series length. Each search (or each thread) owns its own
+ * DTWBuffers, so any number of searches can run at once.
+ *
+ * The results are exactly those of SymbolicSequence.DTW and SymbolicSequence.DTWExtResults.
+ *
+ */
+public class DTWBuffers {
+	// --- --- --- --- --- --- --- --- --- --- --- --- --- --- --- --- --- --- --- --- --- --- --- --- --- --- --- ---
+    // Fields
+    // --- --- --- --- --- --- --- --- --- --- --- --- --- --- --- --- --- --- --- --- --- --- --- --- --- --- --- ---
+	protected final static int DIAGONALE = 0;
+	protected final static int GAUCHE = 1;
+	protected final static int HAUT = 2;
+
+	double[] costPrev, costCurr;									// Cost of the previous and current rows
+	int[] windowPrev, windowCurr;									// Window validity of the previous and current rows
+
+	// --- --- --- --- --- --- --- --- --- --- --- --- --- --- --- --- --- --- --- --- --- --- --- --- --- --- --- ---
+    // Constructor
+    // --- --- --- --- --- --- --- --- --- --- --- --- --- --- --- --- --- --- --- --- --- --- --- --- --- --- --- ---
+	/**
+	 * @param maxLength length of the longest series that will be compared
+	 */
+	public DTWBuffers(int maxLength) {
+		costPrev = new double[maxLength];
+		costCurr = new double[maxLength];
+		windowPrev = new int[maxLength];
+		windowCurr = new int[maxLength];
+	}
+
+	// --- --- --- --- --- --- --- --- --- --- --- --- --- --- --- --- --- --- --- --- --- --- --- --- --- --- --- ---
+    // Methods
+    // --- --- --- --- --- --- --- --- --- --- --- --- --- --- --- --- --- --- --- --- --- --- --- --- --- --- --- ---
+	/**
+	 * Compute DTW distance with warping window
+	 * @param S
+	 * @param T
+	 * @param w
+	 * @return
+	 */
+	public double DTW(double[] S, double[] T, int w) {
+		final int length1 = S.length;
+		final int length2 = T.length;
+		double[] prev = costPrev, curr = costCurr, swap;
+
+		int i, j;
+		curr[0] = squaredL2(S[0], T[0]);
+		for (j = 1; j < Math.min(length2, 1 + w); j++) {
+			curr[j] = curr[j - 1] + squaredL2(S[0], T[j]);
+		}
+		if (j < length2) {
+			curr[j] = Double.POSITIVE_INFINITY;
+		}
+
+		for (i = 1; i < length1; i++) {
+			swap = prev;
+			prev = curr;
+			curr = swap;
+			if (i < 1 + w) {
+				curr[0] = prev[0] + squaredL2(S[i], T[0]);
+			}
+			int jStart = Math.max(1, i - w);
+			int jStop = Math.min(length2, i + w + 1);
+			int indexInftyLeft = i-w-1;
+			if(indexInftyLeft>=0)curr[indexInftyLeft] = Double.POSITIVE_INFINITY;
+
+			for (j = jStart; j < jStop; j++) {
+				curr[j] = Tools.Min3(prev[j - 1], curr[j - 1], prev[j])
+						+ squaredL2(S[i], T[j]);
+			}
+			if (jStop < length2) {
+				curr[jStop] = Double.POSITIVE_INFINITY;
+			}
+		}
+
+		return sqrt(curr[length2 - 1]);
+	}
+
+	/**
+	 * Compute DTW with warping window and window validity
+	 * @param S
+	 * @param T
+	 * @param w
+	 * @return
+	 */
+	public DTWResult DTWExtResults(double[] S, double[] T, int w) {
+		final int tailleS = S.length;
+		final int tailleT = T.length;
+		double[] prev = costPrev, curr = costCurr, swap;
+		int[] prevWindow = windowPrev, currWindow = windowCurr, swapWindow;
+		int i, j, indiceRes;
+		double res = 0.0;
+
+		curr[0] = squaredL2(S[0], T[0]);
+		currWindow[0] = 0;
+		for (j = 1; j < Math.min(tailleT, 1 + w); j++) {
+			curr[j] = curr[j - 1] + squaredL2(T[j], S[0]);
+			currWindow[j] = j;
+		}
+		if (j < tailleT) {
+			curr[j] = Double.POSITIVE_INFINITY;
+		}
+
+		for (i = 1; i < tailleS; i++) {
+			swap = prev;
+			prev = curr;
+			curr = swap;
+			swapWindow = prevWindow;
+			prevWindow = currWindow;
+			currWindow = swapWindow;
+			if (i < 1 + w) {
+				curr[0] = prev[0] + squaredL2(S[i], T[0]);
+				currWindow[0] = i;
+			}
+			int jStart = Math.max(1, i - w);
+			int jStop = Math.min(tailleT, i + w + 1);
+			int indexInftyLeft = i-w-1;
+			if(indexInftyLeft>=0)
+				curr[indexInftyLeft] = Double.POSITIVE_INFINITY;
+			for (j = jStart; j < jStop; j++) {
+				indiceRes = Tools.ArgMin3(prev[j - 1], curr[j - 1], prev[j]);
+				int absIJ = Math.abs(i-j);
+				switch (indiceRes) {
+				case DIAGONALE:
+					res = prev[j - 1];
+					currWindow[j] = Math.max(absIJ, prevWindow[j-1]);
+					break;
+				case GAUCHE:
+					res = curr[j - 1];
+					currWindow[j] = Math.max(absIJ, currWindow[j-1]);
+					break;
+				case HAUT:
+					res = prev[j];
+					currWindow[j] = Math.max(absIJ, prevWindow[j]);
+					break;
+				}
+				curr[j] = res + squaredL2(S[i], T[j]);
+			}
+			if (j < tailleT) {
+				curr[j] = Double.POSITIVE_INFINITY;
+			}
+		}
+
+		DTWResult resExt = new DTWResult();
+		resExt.distance = sqrt(curr[tailleT - 1]);
+		resExt.r = currWindow[tailleT - 1];
+		return resExt;
+	}
+
+	private static double squaredL2(double a, double b) {
+		double tmp = a - b;
+		return tmp * tmp;
+	}
+}
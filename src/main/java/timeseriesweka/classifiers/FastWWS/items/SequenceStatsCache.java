@@ -38,7 +38,7 @@ public class SequenceStatsCache {
 	boolean[]isMinFirst,isMinLast,isMaxFirst,isMaxLast;
 	int[]lastWindowComputed;
 	int currentWindow;
-	SymbolicSequence[]train;
+	double[][]train;
 	IndexedDouble[][]indicesSortedByAbsoluteValue;
 	
 	// --- --- --- --- --- --- --- --- --- --- --- --- --- --- --- --- --- --- --- --- --- --- --- --- --- --- --- ---
@@ -50,9 +50,18 @@ public class SequenceStatsCache {
 	 * @param startingWindow
 	 */
 	public SequenceStatsCache(SymbolicSequence[]train,int startingWindow){
+		this(toArrays(train),startingWindow);
+	}
+
+	/**
+	 * As above, for series held as plain arrays
+	 * @param train
+	 * @param startingWindow
+	 */
+	public SequenceStatsCache(double[][]train,int startingWindow){
 		this.train = train;
 		int nSequences = train.length;
-		int length = train[0].getNbTuples();
+		int length = train[0].length;
 		this.LEs = new double[nSequences][length];
 		this.UEs = new double[nSequences][length];
 		this.lastWindowComputed = new int[nSequences];
@@ -69,8 +78,8 @@ public class SequenceStatsCache {
 			double min=Double.POSITIVE_INFINITY;
 			double max = Double.NEGATIVE_INFINITY;
 			int indexMin=-1,indexMax=-1;
-			for(int j=0;j<train[i].getNbTuples();j++){
-				double elt = ((MonoDoubleItemSet)train[i].sequence[j]).value;
+			for(int j=0;j<train[i].length;j++){
+				double elt = train[i][j];
 				if(elt>max){
 					max = elt;
 					indexMax = j;
@@ -84,9 +93,9 @@ public class SequenceStatsCache {
 			mins[i]=min;
 			maxs[i]=max;
 			isMinFirst[i]=(indexMin==0);
-			isMinLast[i]=(indexMin==(train[i].getNbTuples()-1));
+			isMinLast[i]=(indexMin==(train[i].length-1));
 			isMaxFirst[i]=(indexMax==0);
-			isMaxLast[i]=(indexMax==(train[i].getNbTuples()-1));
+			isMaxLast[i]=(indexMax==(train[i].length-1));
 			Arrays.sort(indicesSortedByAbsoluteValue[i], (v1,v2)-> -Double.compare(v1.value, v2.value));
 		}
 	}
@@ -128,9 +137,51 @@ public class SequenceStatsCache {
 	 * @param w
 	 */
 	protected void computeLEandUE(int i,int w){
-		train[i].LB_KeoghFillUL(w, UEs[i], LEs[i]);
+		fillEnvelope(train[i], w, UEs[i], LEs[i]);
 		this.lastWindowComputed[i]=w;
 	}
+
+	/**
+	 * Fill the Upper and Lower Envelope of a series at window r,
+	 * as SymbolicSequence.LB_KeoghFillUL
+	 * @param series
+	 * @param r
+	 * @param U
+	 * @param L
+	 */
+	public static void fillEnvelope(double[] series, int r, double[] U, double[] L) {
+		final int length = series.length;
+
+		for (int i = 0; i < length; i++) {
+			double min = Double.POSITIVE_INFINITY;
+			double max = Double.NEGATIVE_INFINITY;
+			int startR = Math.max(0, i - r);
+			int stopR = Math.min(length - 1, i + r);
+			for (int j = startR; j <= stopR; j++) {
+				double value = series[j];
+				min = Math.min(min, value);
+				max = Math.max(max, value);
+			}
+			L[i] = min;
+			U[i] = max;
+		}
+	}
+
+	/**
+	 * Copy the values of each sequence out into an array
+	 * @param train
+	 * @return
+	 */
+	public static double[][] toArrays(SymbolicSequence[] train) {
+		double[][] series = new double[train.length][];
+		for (int i = 0; i < train.length; i++) {
+			series[i] = new double[train[i].getNbTuples()];
+			for (int j = 0; j < series[i].length; j++) {
+				series[i][j] = ((MonoDoubleItemSet) train[i].sequence[j]).value;
+			}
+		}
+		return series;
+	}
 	
 	public boolean isMinFirst(int i){
 		return isMinFirst[i];
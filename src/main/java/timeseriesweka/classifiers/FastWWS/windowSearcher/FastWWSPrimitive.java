@@ -0,0 +1,396 @@
+/*******************************************************************************
+ * Copyright (C) 2017 Chang Wei Tan, Francois Petitjean, Matthieu Herrmann, Germain Forestier, Geoff Webb
+ *
+ * This file is part of FastWWSearch.
+ *
+ * FastWWSearch is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * FastWWSearch is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with FastWWSearch.  If not, see <http://www.gnu.org/licenses/>.
+ ******************************************************************************/
+package timeseriesweka.classifiers.FastWWS.windowSearcher;
+
+import timeseriesweka.classifiers.FastWWS.items.DTWBuffers;
+import timeseriesweka.classifiers.FastWWS.items.LazyAssessNN.RefineReturnType;
+import timeseriesweka.classifiers.FastWWS.items.LazyAssessNNPrimitive;
+import timeseriesweka.classifiers.FastWWS.items.SequenceStatsCache;
+import weka.core.Instance;
+import weka.core.Instances;
+
+import java.util.ArrayList;
+import java.util.Collections;
+
+/**
+ * Code for the paper "Efficient search of the best warping window for Dynamic Time Warping" published in SDM18
+ * <p>
+ * FastWWSByPercent over series held as plain double arrays.
+ * FastWWSByPercent works on SymbolicSequence, which boxes every point and computes DTW in static
+ * [8000][8000] matrices shared by the whole JVM, so only one search can run at a time and series
+ * cannot be longer than 8000. Here all the working memory (the envelopes and two rows of the DTW
+ * matrix) belongs to the search and is sized to the series length, so several searches, or
+ * classifications, can run at once in different threads.
+ * <p>
+ * Finds the same window, with the same LOOCV score, as FastWWSByPercent. Progress is only
+ * printed with setDebug(true).
+ */
+public class FastWWSPrimitive extends WindowSearcher {
+    // --- --- --- --- --- --- --- --- --- --- --- --- --- --- --- --- --- --- --- --- --- --- --- --- --- --- --- ---
+    // Fields
+    // --- --- --- --- --- --- --- --- --- --- --- --- --- --- --- --- --- --- --- --- --- --- --- --- --- --- --- ---
+    private static final long serialVersionUID = -4398415640226516519L;
+    private double[][] series;                                          // Training dataset, one array per sequence
+    private PotentialNN[][] nns;                                        // Our main structure
+    private boolean init;                                               // Have we initialize our structure?
+
+    // --- --- --- --- --- --- --- --- --- --- --- --- --- --- --- --- --- --- --- --- --- --- --- --- --- --- --- ---
+    // Constructor
+    // --- --- --- --- --- --- --- --- --- --- --- --- --- --- --- --- --- --- --- --- --- --- --- --- --- --- --- ---
+    public FastWWSPrimitive() {
+        super();
+        forwardSearch = false;
+        init = false;
+    }
+
+    public FastWWSPrimitive(String name) {
+        super();
+        forwardSearch = false;
+        init = false;
+        datasetName = name;
+    }
+
+    // --- --- --- --- --- --- --- --- --- --- --- --- --- --- --- --- --- --- --- --- --- --- --- --- --- --- --- ---
+    // Methods
+    // --- --- --- --- --- --- --- --- --- --- --- --- --- --- --- --- --- --- --- --- --- --- --- --- --- --- --- ---
+    public String doTime(long start) {
+        long duration = System.currentTimeMillis() - start;
+        return "" + (duration / 1000) + " s " + (duration % 1000) + " ms";
+    }
+
+    @Override
+    public void buildClassifier(Instances data) throws Exception {
+        // Initialise training dataset
+        series = new double[data.numInstances()][];
+        classMap = new String[series.length];
+        maxLength = 0;
+        for (int i = 0; i < series.length; i++) {
+            Instance sample = data.instance(i);
+            series[i] = toArray(sample);
+            maxLength = Math.max(maxLength, series[i].length);
+            classMap[i] = sample.stringValue(data.classAttribute());
+        }
+
+        maxWindow = Math.round(1 * maxLength);
+        init = false;
+
+        // Start searching for the best window
+        searchBestWarpingWindow();
+
+        // Saving best windows found
+        if (m_Debug) {
+            System.out.println("Windows found=" + bestWarpingWindow +
+                    "(" + bestWindowPercent + ") Best Acc=" + (1 - bestScore));
+        }
+    }
+
+    /**
+     * Initializing our main structure, as FastWWSByPercent.initTable
+     */
+    protected void initTable() {
+        if (series.length < 2) {
+            System.err.println("Set is to small: " + series.length + " sequence. At least 2 sequences needed.");
+        }
+
+        if (m_Debug) {
+            System.out.println("Starting optimisation");
+        }
+
+        //
+        // --- STATS DECLARATIONS
+        //
+        // Timing and progress output
+        long timeInit = System.currentTimeMillis();
+
+        //
+        // --- ALGORITHM DECLARATIONS & INITIALISATION
+        //
+        // Cache and DTW working memory, both only used by this search
+        SequenceStatsCache cache = new SequenceStatsCache(series, maxWindow);
+        DTWBuffers buffers = new DTWBuffers(maxLength);
+
+        // We need a N*L storing area. We favorite an access per window size.
+        // For each [Window Size][sequence], we store the nearest neighbour.
+        nns = new PotentialNN[100 + 1][series.length];
+        for (int win = 0; win < 100 + 1; ++win) {
+            for (int len = 0; len < series.length; ++len) {
+                nns[win][len] = new PotentialNN();
+            }
+        }
+
+        // Vector of LazyUCR distance, propagating bound info "horizontally"
+        LazyAssessNNPrimitive[] lazyUCR = new LazyAssessNNPrimitive[series.length];
+        for (int i = 0; i < series.length; ++i) {
+            lazyUCR[i] = new LazyAssessNNPrimitive(cache, buffers);
+        }
+        // "Challengers" that compete with each other to be the NN of query
+        ArrayList <LazyAssessNNPrimitive> challengers = new ArrayList <LazyAssessNNPrimitive>(series.length);
+
+        if (m_Debug) {
+            System.out.println("Initialisation done (" + doTime(timeInit) + ")");
+        }
+
+        //
+        // --- ALGORITHM
+        //
+        // Iteration for all TS, starting with the second one (first is a reference)
+        for (int current = 1; current < series.length; ++current) {
+            // --- --- Get the data --- ---
+            double[] sCurrent = series[current];
+
+            // Clear off the previous challengers and add all the previous sequences
+            challengers.clear();
+            for (int previous = 0; previous < current; ++previous) {
+                LazyAssessNNPrimitive d = lazyUCR[previous];
+                d.set(series[previous], previous, sCurrent, current);
+                challengers.add(d);
+            }
+
+            // --- --- For each, decreasing (positive) windows --- ---
+            for (int percent = 100; percent > -1; --percent) {
+                int win = percentToLength(percent);
+                // --- Get the data
+                PotentialNN currPNN = nns[percent][current];
+
+                if (currPNN.isNN()) {
+                    // --- --- WITH NN CASE --- ---
+                    // We already have a NN for sure, but we still have to check if current is a new NN for previous
+                    for (int previous = 0; previous < current; ++previous) {
+                        // --- Get the data
+                        PotentialNN prevNN = nns[percent][previous];
+
+                        // --- Try to beat the previous best NN
+                        double toBeat = prevNN.distance;
+                        LazyAssessNNPrimitive challenger = lazyUCR[previous];
+                        RefineReturnType rrt = challenger.tryToBeat(toBeat, win);
+
+                        // --- Check the result
+                        if (rrt == RefineReturnType.New_best) {
+                            int r = challenger.getMinWindowValidityForFullDistance();
+                            double d = challenger.getDistance(win);
+                            prevNN.set(current, r, d, PotentialNN.Status.NN);
+                        }
+                    }
+                } // END WITH NN CASE
+                else {
+                    // --- --- WITHOUT NN CASE --- ---
+                    // We don't have a NN yet.
+                    // Sort the challengers so we have a better chance to organize a good pruning.
+                    Collections.sort(challengers);
+
+                    for (LazyAssessNNPrimitive challenger : challengers) {
+                        // --- Get the data
+                        int previous = challenger.indexQuery;
+                        PotentialNN prevNN = nns[percent][previous];
+
+                        // --- First we want to beat the current best candidate:
+                        double toBeat = currPNN.distance;
+                        RefineReturnType rrt = challenger.tryToBeat(toBeat, win);
+
+                        // --- Check the result
+                        if (rrt == RefineReturnType.New_best) {
+                            int r = challenger.getMinWindowValidityForFullDistance();
+                            double d = challenger.getDistance(win);
+                            currPNN.set(previous, r, d, PotentialNN.Status.BC);
+                        }
+
+                        // --- Now check for previous NN
+                        // --- Try to beat the previous best NN
+                        toBeat = prevNN.distance;
+                        challenger = lazyUCR[previous];
+                        rrt = challenger.tryToBeat(toBeat, win);
+
+                        // --- Check the result
+                        if (rrt == RefineReturnType.New_best) {
+                            int r = challenger.getMinWindowValidityForFullDistance();
+                            double d = challenger.getDistance(win);
+                            prevNN.set(current, r, d, PotentialNN.Status.NN);
+                        }
+                    } // END for(AutoRefineDistance challenger: challengers)
+
+                    // --- When we looked at every past sequences,
+                    // the current best candidate is really the best one, so the NN.
+                    // So assign the current NN to all the windows that are valid
+                    int r = currPNN.r;
+                    int rEnd = lengthToPercent(r);
+                    double d = currPNN.distance;
+                    int index = currPNN.index;
+                    for (int w = percent; w >= rEnd; --w) {
+                        nns[w][current].set(index, r, d, PotentialNN.Status.NN);
+                    }
+                } // END WITHOUT NN CASE
+            } // END for(int percent=100; percent>-1; --percent)
+        } // END for(int current=1; current < series.length; ++current)
+
+        if (m_Debug) {
+            System.out.println("done! (" + doTime(timeInit) + ")");
+        }
+        this.init = true;
+    } // END initTable()
+
+    @Override
+    protected double evalSolution(int warpingWindow) {
+        // Will only be called once
+        if (!init) {
+            initTable();
+        }
+
+        // Error counter:
+        int nErrors = 0;
+        for (int i = 0; i < series.length; i++) {
+            if (!classMap[nns[warpingWindow][i].index].equals(classMap[i])) {
+                nErrors++;
+            }
+        }
+
+        return 1.0 * nErrors / series.length;
+    }
+
+    @Override
+    protected void searchBestWarpingWindow() {
+        int currentWindowPercent = (forwardSearch) ? 0 : 100;
+        double currentScore;
+        bestScore = 1.0;
+
+        while (currentWindowPercent >= 0 && currentWindowPercent <= 100) {
+            currentScore = evalSolution(currentWindowPercent);
+
+            if (currentScore <= bestScore || (currentScore == bestScore && !forwardSearch)) {
+                bestScore = currentScore;
+                bestWindowPercent = currentWindowPercent;
+            } else if (greedySearch && currentScore > bestScore) {
+                break;
+            }
+
+            currentWindowPercent = (forwardSearch) ? currentWindowPercent + 1 : currentWindowPercent - 1;
+        }
+        bestWarpingWindow = percentToLength(bestWindowPercent);
+    }
+
+    @Override
+    public double classifyInstance(Instance sample) throws Exception {
+        // Working memory for this call only, so instances can be classified concurrently
+        double[] seq = toArray(sample);
+        double[] U = new double[seq.length];
+        double[] L = new double[seq.length];
+        DTWBuffers buffers = new DTWBuffers(Math.max(seq.length, maxLength));
+
+        double minD = Double.MAX_VALUE;
+        String classValue = null;
+        SequenceStatsCache.fillEnvelope(seq, bestWarpingWindow, U, L);
+
+        for (int i = 0; i < series.length; i++) {
+            double[] s = series[i];
+            if (lbKeogh(s, U, L) < minD) {
+                double tmpD = buffers.DTW(seq, s, bestWarpingWindow);
+                if (tmpD < minD) {
+                    minD = tmpD;
+                    classValue = classMap[i];
+                }
+            }
+        }
+        return sample.classAttribute().indexOfValue(classValue);
+    }
+
+    /**
+     * Compute LB Keogh with a prefilled U and L Envelope, as SymbolicSequence.LB_KeoghPreFilled
+     */
+    private static double lbKeogh(double[] a, double[] U, double[] L) {
+        final int length = Math.min(U.length, a.length);
+
+        double res = 0;
+        for (int i = 0; i < length; i++) {
+            double c = a[i];
+            if (c < L[i]) {
+                double diff = L[i] - c;
+                res += diff * diff;
+            } else if (U[i] < c) {
+                double diff = U[i] - c;
+                res += diff * diff;
+            }
+        }
+
+        return Math.sqrt(res);
+    }
+
+    /**
+     * Copy the series of an instance, without its class value, into an array
+     */
+    private static double[] toArray(Instance sample) {
+        double[] seq = new double[sample.numAttributes() - 1];
+        int shift = (sample.classIndex() == 0) ? 1 : 0;
+        for (int t = 0; t < seq.length; t++) {
+            seq[t] = sample.value(t + shift);
+        }
+        return seq;
+    }
+
+    /**
+     * Potential nearest neighbour
+     */
+    private static class PotentialNN {
+        public int index;               // Index of the sequence in series[]
+        public int r;                   // Window validity
+        public double distance;         // Computed distance
+        public Status status;           // Is that
+
+        public PotentialNN() {
+            this.index = Integer.MIN_VALUE;                 // Will be an invalid, negative, index.
+            this.r = Integer.MAX_VALUE;                     // Max: stands for "haven't found yet"
+            this.distance = Double.POSITIVE_INFINITY;       // Infinity: stands for "not computed yet".
+            this.status = Status.BC;                        // By default, we don't have any found NN.
+        }
+
+        /**
+         * Setting the Potential NN for the query at a window
+         *
+         * @param index:    Index in training dataset
+         * @param r:        Window validity with query
+         * @param distance: Distance to query
+         * @param status:   Status of the nearest neighbour
+         */
+        public void set(int index, int r, double distance, Status status) {
+            this.index = index;
+            this.r = r;
+            this.distance = distance;
+            this.status = status;
+        }
+
+        /**
+         * Check if this is a nearest neighbour for the query at a window
+         *
+         * @return
+         */
+        public boolean isNN() {
+            return this.status == Status.NN;
+        }
+
+        @Override
+        public String toString() {
+            return "" + this.index;
+        }
+
+        /**
+         * Status of the PotentialNN
+         */
+        public enum Status {
+            NN,                         // This is the Nearest Neighbour
+            BC,                         // Best Candidate so far
+        }
+    }
+}
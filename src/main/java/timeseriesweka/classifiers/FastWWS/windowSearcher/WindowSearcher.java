@@ -44,11 +44,11 @@ public class WindowSearcher extends AbstractClassifier{
     // Fields
     // --- --- --- --- --- --- --- --- --- --- --- --- --- --- --- --- --- --- --- --- --- --- --- --- --- --- --- ---
     private static final long serialVersionUID = -1561497612657542978L;
-    protected static int bestWarpingWindow;                                    // Best warping window found
-    protected static int bestWindowPercent = -1;                               // Best warping window found in percentage
-    protected static double bestScore;                                        // Best LOOCV accuracy for the best warping window
+    protected int bestWarpingWindow;                                           // Best warping window found
+    protected int bestWindowPercent = -1;                                      // Best warping window found in percentage
+    protected double bestScore;                                               // Best LOOCV accuracy for the best warping window
     protected static String type = "keogh";                                    // Default type is DTW with LB Keogh
-    protected static String datasetName;                                    // Name of dataset that is being tested
+    protected String datasetName;                                           // Name of dataset that is being tested
     protected static String resDir = "/home/changwei/workspace/FindBestWarpingWindow/outputs/";    // result directory
     public PrintStream out;                                                    // Output print
     protected boolean forwardSearch = false;                                    // Search from front or back
@@ -396,4 +396,4 @@ public class WindowSearcher extends AbstractClassifier{
     public void setnParams(int n) {
         nParams = n;
     }
-}
\ No newline at end of file
+}
\ No newline at end of file
@@ -19,15 +19,20 @@ import java.io.File;
 import java.io.FileWriter;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.List;
 import java.util.Random;
 import java.util.Scanner;
+import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
 import timeseriesweka.filters.shapelet_transforms.ShapeletTransform;
 import timeseriesweka.filters.shapelet_transforms.ShapeletTransformTimingUtilities;
 import timeseriesweka.classifiers.cote.HiveCoteModule;
 import evaluation.storage.ClassifierResults;
 import utilities.ClassifierTools;
+import utilities.ThreadingUtilities;
 import weka.classifiers.Classifier;
 import vector_classifiers.CAWPE;
+import weka.core.BatchPredictor;
 import weka.core.Instance;
 import weka.core.Instances;
 import weka.core.TechnicalInformation;
@@ -55,19 +60,28 @@ DEVELOPMENT NOTES for any users added by ajb on 23/7/18:
 * The slowest module is the shapelet transform, when
 * set to do a full enumeration of the shapelet space. However, this is never necessary.
 * You can contract ST to only search for a fixed time. We are making all the components contract classifiers
-* By default, we set the sequential build time to 7 days. This is APPROXIMATE and OPTIMISTIC. So we advise set lower to start then increase
-* change hours amount with, e.g.
-* hc.setDayLimit(int), hc.setHourLimit(int), hc.setMinuteLimit(int)
+* The contract is the total sequential build time of the modules. This is APPROXIMATE and OPTIMISTIC. So we advise set lower to start then increase
+* set it with, e.g.
+* hc.setContract(int hours), hc.setDayLimit(int), hc.setHourLimit(int), hc.setMinuteLimit(int)
 * or by default, to set hours,
 * hc.setTimeLimit(long) //breaking aarons interface, soz
 * to remove any limits, call
 * hc.setContract(false)
+* The default modules are not contracted, if built with a list of classifiers the contract defaults to 7 days.
+* The contract is split across the modules in proportion to their cost estimates (setModuleCostEstimates,
+* equal by default). Only modules that are ContractClassifiers can be held to their share; each is given 
+* it when it starts, plus a share of whatever the modules that have already finished left unused, 
+* less a share of whatever they overran by. Uncontracted modules are therefore started first. 
+* Time is only passed on to modules that start after others have finished, i.e. when there are 
+* fewer threads than modules; with a thread per module every module starts with its initial share.
+* 4. The modules can be built concurrently, hc.setNumThreads(int). Modules that are themselves 
+* multi-threaded run their tasks on the same pool of threads, so the total never exceeds numThreads.
 *
 * 
 * To review: whole file writing thing. 
 
 */
-public class HiveCote extends AbstractClassifierWithTrainingInfo implements ContractClassifier{
+public class HiveCote extends AbstractClassifierWithTrainingInfo implements ContractClassifier, BatchPredictor{
 
 
     private ArrayList<Classifier> classifiers;
@@ -85,7 +99,15 @@ public class HiveCote extends AbstractClassifierWithTrainingInfo implements Cont
     private String fileOutputResampleId;
     private boolean contractTime=true;
     private static int MAXCONTRACTHOURS=7*24;
-    private int contractHours=MAXCONTRACTHOURS;  //Default to maximum 7 days run time
+    private long contractNanos=TimeUnit.HOURS.toNanos(MAXCONTRACTHOURS);  //Default to maximum 7 days run time
+    /** Relative cost of building each module, used to split the contract. Null for equal */
+    private double[] moduleCosts;
+    
+    private int numThreads=1;
+    private String batchSize="100";
+    
+    /** The last test set passed to cachedModuleDistributions, and the distributions of every module for it */
+    private transient volatile CachedDistributions cachedTest;
     
     public HiveCote(){
         this.setDefaultEnsembles();
@@ -94,9 +116,6 @@ public class HiveCote extends AbstractClassifierWithTrainingInfo implements Cont
     public HiveCote(ArrayList<Classifier> classifiers, ArrayList<String> classifierNames){
         this.classifiers = classifiers;
         this.names = classifierNames;
-        if(contractTime){
-            setTimeLimit(TimeLimit.HOUR,contractHours);
-        }
     }
     public TechnicalInformation getTechnicalInformation() {
         TechnicalInformation 	result;
@@ -113,11 +132,34 @@ public class HiveCote extends AbstractClassifierWithTrainingInfo implements Cont
     }    
     public void setContract(boolean b){
         contractTime=b;
-        contractHours=MAXCONTRACTHOURS;
+        contractNanos=TimeUnit.HOURS.toNanos(MAXCONTRACTHOURS);
     }
     public void setContract(int hours){
         contractTime=true;
-        contractHours=hours;
+        contractNanos=TimeUnit.HOURS.toNanos(hours);
+    }
+    /**
+     * Relative cost of building each module, in the same order as the classifiers,
+     * e.g. from the build times of an earlier run. The contract is divided in 
+     * proportion to these. Equal by default.
+     * @param costs one positive value per module
+     */
+    public void setModuleCostEstimates(double... costs){
+        if(costs.length!=classifiers.size())
+            throw new IllegalArgumentException("Need one cost estimate per module, "+classifiers.size()+" modules but "+costs.length+" estimates");
+        for(double c:costs)
+            if(!(c>0))
+                throw new IllegalArgumentException("Cost estimates must be positive: "+c);
+        moduleCosts=costs.clone();
+    }
+    /**
+     * Number of threads the modules are built on, and predict on in 
+     * moduleDistributions. Modules that run their own tasks in parallel share 
+     * these threads. 
+     * @param numThreads 1 by default, 0 for all cores
+     */
+    public void setNumThreads(int numThreads){
+        this.numThreads=numThreads;
     }
     
     
@@ -130,9 +172,8 @@ public class HiveCote extends AbstractClassifierWithTrainingInfo implements Cont
         classifiers.add(new ElasticEnsemble());
         CAWPE h = new CAWPE();
         DefaultShapeletTransformPlaceholder st= new DefaultShapeletTransformPlaceholder();
-        if(contractTime){
-            setTimeLimit(TimeLimit.HOUR,contractHours);
-        }
+        //The default modules are not contracted unless a contract is set
+        contractTime=false;
         h.setTransform(st);
         
         classifiers.add(h); // to get around the issue of needing training data 
@@ -165,28 +206,95 @@ public class HiveCote extends AbstractClassifierWithTrainingInfo implements Cont
        optionalOutputLine("Start of training");
                 
         modules = new ConstituentHiveEnsemble[classifiers.size()];
+        cachedTest = null;
         
         System.out.println("modules include:");
         for(int i = 0; i < classifiers.size();i++){
             System.out.println(names.get(i));
         }
         
+        // uncontracted modules are queued first, so that any of the contract they leave unused 
+        // can be passed on to the contracted modules that start after them
+        ModuleBudget budget = null;
+        if(contractTime){
+            double[] costs = new double[classifiers.size()];
+            boolean[] contracted = new boolean[classifiers.size()];
+            for(int i = 0; i < costs.length; i++){
+                costs[i] = moduleCosts==null ? 1 : moduleCosts[i];
+                contracted[i] = classifiers.get(i) instanceof ContractClassifier;
+            }
+            budget = new ModuleBudget(contractNanos, costs, contracted);
+        }
+        final ModuleBudget moduleBudget = budget;
+        List<Integer> order = new ArrayList<>();
+        for(int i = 0; i < classifiers.size(); i++){
+            if(!(classifiers.get(i) instanceof ContractClassifier)){
+                order.add(i);
+            }
+        }
+        for(int i = 0; i < classifiers.size(); i++){
+            if(classifiers.get(i) instanceof ContractClassifier){
+                order.add(i);
+            }
+        }
+        
+        // built concurrently, each module gets its own copy of the data
+        boolean copyData = numThreads!=1 || ThreadingUtilities.inPool();
+        List<Callable<ConstituentHiveEnsemble>> tasks = new ArrayList<>();
+        for(int i : order){
+            tasks.add(() -> buildModule(i, copyData ? new Instances(train) : train, moduleBudget));
+        }
+        List<ConstituentHiveEnsemble> built = ThreadingUtilities.invokeAll(tasks, numThreads);
+        for(int k = 0; k < order.size(); k++){
+            modules[order.get(k)] = built.get(k);
+        }
+
+        if(verbose){
+            printModuleCvAccs();
+        }
+       
+//        if(this.writeEnsembleTrainingPredictions){
+//            new File(this.ensembleTrainingPredictionsPathAndName).mkdirs();
+//            FileWriter out = new FileWriter(this.ensembleTrainingPredictionsPathAndName);
+//            out.append(train.relationName()+",HIVE-COTE,train\n");
+//            out.append(this.getParameters()+"\n");
+//            for(int i = 0; i < train.numInstances(); i++){
+//                this.
+//                        
+//                        do i even need to write training preds?
+//            }
+//        }
+        trainResults.setBuildTime(System.currentTimeMillis()-startTime);
+    }
+    
+
+    
+    
+    private ConstituentHiveEnsemble buildModule(int i, Instances train, ModuleBudget budget) throws Exception{
+        
+        ConstituentHiveEnsemble module;
         double ensembleAcc;
         String outputFilePathAndName;
+        long startTime = System.nanoTime();
         
-        for(int i = 0; i < classifiers.size(); i++){
-            
-            
+        if(budget!=null && classifiers.get(i) instanceof ContractClassifier){
+            // minutes, as setTimeLimit(long) is not in the same units for every ContractClassifier
+            long minutes = Math.max(1, TimeUnit.NANOSECONDS.toMinutes(budget.start(i)));
+            optionalOutputLine("contract for "+this.names.get(i)+": "+minutes+" minutes");
+            ((ContractClassifier)classifiers.get(i)).setTimeLimit(TimeLimit.MINUTE, (int)Math.min(minutes, Integer.MAX_VALUE));
+        }
+        
+        try{
             // if classifier is an implementation of HiveCoteModule, no need to cv for ensemble accuracy as it can self-report
             // e.g. of the default modules, EE, CAWPE, and BOSS should all have this functionality (group a); RISE and TSF do not currently (group b) so must manualy cv
             if(classifiers.get(i) instanceof HiveCoteModule){
                 optionalOutputLine("training (group a): "+this.names.get(i));
                 classifiers.get(i).buildClassifier(train);
-                modules[i] = new ConstituentHiveEnsemble(this.names.get(i), this.classifiers.get(i), ((HiveCoteModule) classifiers.get(i)).getEnsembleCvAcc());
+                module = new ConstituentHiveEnsemble(this.names.get(i), this.classifiers.get(i), ((HiveCoteModule) classifiers.get(i)).getEnsembleCvAcc());
                 
                 if(this.fileWriting){    
                     outputFilePathAndName = fileOutputDir+names.get(i)+"/Predictions/"+this.fileOutputDataset+"/trainFold"+this.fileOutputResampleId+".csv";    
-                    genericCvResultsFileWriter(outputFilePathAndName, train, ((HiveCoteModule)(modules[i].classifier)).getEnsembleCvPreds(), this.fileOutputDataset, modules[i].classifierName, ((HiveCoteModule)(modules[i].classifier)).getParameters(), modules[i].ensembleCvAcc);
+                    genericCvResultsFileWriter(outputFilePathAndName, train, ((HiveCoteModule)(module.classifier)).getEnsembleCvPreds(), this.fileOutputDataset, module.classifierName, ((HiveCoteModule)(module.classifier)).getParameters(), module.ensembleCvAcc);
                 }
                 
                 
@@ -199,35 +307,17 @@ public class HiveCote extends AbstractClassifierWithTrainingInfo implements Cont
                 optionalOutputLine("training (group b): "+this.names.get(i));
 
                 classifiers.get(i).buildClassifier(train);                
-                modules[i] = new ConstituentHiveEnsemble(this.names.get(i), this.classifiers.get(i), ensembleAcc);
-                
-                
-                
+                module = new ConstituentHiveEnsemble(this.names.get(i), this.classifiers.get(i), ensembleAcc);
+            }
+        }finally{
+            if(budget!=null){
+                budget.finish(i, System.nanoTime()-startTime);
             }
-            optionalOutputLine("done "+modules[i].classifierName);
-        }        
-
-        if(verbose){
-            printModuleCvAccs();
         }
-       
-//        if(this.writeEnsembleTrainingPredictions){
-//            new File(this.ensembleTrainingPredictionsPathAndName).mkdirs();
-//            FileWriter out = new FileWriter(this.ensembleTrainingPredictionsPathAndName);
-//            out.append(train.relationName()+",HIVE-COTE,train\n");
-//            out.append(this.getParameters()+"\n");
-//            for(int i = 0; i < train.numInstances(); i++){
-//                this.
-//                        
-//                        do i even need to write training preds?
-//            }
-//        }
-        trainResults.setBuildTime(System.currentTimeMillis()-startTime);
+        optionalOutputLine("done "+module.classifierName);
+        return module;
     }
     
-
-    
-    
     private static void genericCvResultsFileWriter(String outFilePathAndName, Instances instances, String classifierName, double[] preds, double cvAcc) throws Exception{
         genericCvResultsFileWriter(outFilePathAndName, instances, preds, instances.relationName(), classifierName, "noParamInfo", cvAcc);
     }
@@ -253,71 +343,177 @@ public class HiveCote extends AbstractClassifierWithTrainingInfo implements Cont
     
     @Override
     public double[] distributionForInstance(Instance instance) throws Exception{
-        return distributionForInstance(instance, null);
+        double[][][] moduleDists = new double[modules.length][1][];
+        for(int m = 0; m < modules.length; m++){
+            moduleDists[m][0] = modules[m].classifier.distributionForInstance(instance);
+        }
+        return weightedDistributions(moduleDists, getModuleWeights())[0];
     }
     
-    private double[] distributionForInstance(Instance instance, StringBuilder[] outputFileBuilders) throws Exception{
-        
-        if(outputFileBuilders!=null && outputFileBuilders.length!=(modules.length+1)){
-            throw new Exception("Error: to write test files, there must be m+1 output StringBuilders (where m is the number of modules)");
+    /**
+     * Batch scoring: every module scores the whole test set (see moduleDistributions),
+     * then the modules are combined for all instances at once.
+     * @param test
+     * @return the same distributions as distributionForInstance, one per instance
+     * @throws Exception 
+     */
+    @Override
+    public double[][] distributionsForInstances(Instances test) throws Exception{
+        return weightedDistributions(moduleDistributions(test), getModuleWeights());
+    }
+    
+    /**
+     * The distributions of every module for every instance of a test set, 
+     * [module][instance][class]. The modules predict concurrently on numThreads 
+     * threads; a module that is a BatchPredictor scores the whole set in one call.
+     * @param test
+     * @return distributions, [module][instance][class]
+     * @throws Exception 
+     */
+    public double[][][] moduleDistributions(Instances test) throws Exception{
+        boolean copyData = numThreads!=1 || ThreadingUtilities.inPool();
+        List<Callable<double[][]>> tasks = new ArrayList<>();
+        for(ConstituentHiveEnsemble module : modules){
+            tasks.add(() -> moduleDistributions(module.classifier, copyData ? new Instances(test) : test));
+        }
+        return ThreadingUtilities.invokeAll(tasks, numThreads).toArray(new double[modules.length][][]);
+    }
+    
+    /**
+     * As moduleDistributions, but the result is kept for the last test set, so 
+     * writeTestPredictionsToFile followed by a HiveCotePostProcessed of the same 
+     * test data only predicts once. The cache is keyed on the Instances object and 
+     * a hash of its values, so a test set changed in between is predicted again; 
+     * it is cleared when the classifier is rebuilt.
+     * @param test
+     * @return distributions, [module][instance][class], not to be modified
+     * @throws Exception 
+     */
+    public double[][][] cachedModuleDistributions(Instances test) throws Exception{
+        long fingerprint = fingerprint(test);
+        CachedDistributions cached = cachedTest;
+        if(cached != null && cached.test == test && cached.fingerprint == fingerprint){
+            return cached.dists;
+        }
+        double[][][] dists = moduleDistributions(test);
+        cachedTest = new CachedDistributions(test, fingerprint, dists);
+        return dists;
+    }
+    
+    private static long fingerprint(Instances test){
+        long hash = test.numInstances();
+        for(int i = 0; i < test.numInstances(); i++){
+            Instance inst = test.instance(i);
+            hash = 31*hash + Double.doubleToLongBits(inst.weight());
+            for(int a = 0; a < inst.numValues(); a++){
+                hash = 31*hash + inst.index(a);
+                hash = 31*hash + Double.doubleToLongBits(inst.valueSparse(a));
+            }
         }
+        return hash;
+    }
+    
+    private static class CachedDistributions{
         
-        double[] hiveDists = new double[instance.numClasses()];
-        double[] moduleDists;
-        double moduleWeight;
-        
-        double bsfClassVal,bsfClassWeight;
-        StringBuilder moduleString;
+        final Instances test;
+        final long fingerprint;
+        final double[][][] dists;
         
-        double cvAccSum = 0;
+        CachedDistributions(Instances test, long fingerprint, double[][][] dists){
+            this.test = test;
+            this.fingerprint = fingerprint;
+            this.dists = dists;
+        }
+    }
+    
+    private static double[][] moduleDistributions(Classifier classifier, Instances test) throws Exception{
+        if(classifier instanceof BatchPredictor){
+            return ((BatchPredictor)classifier).distributionsForInstances(test);
+        }
+        double[][] dists = new double[test.numInstances()][];
+        for(int i = 0; i < dists.length; i++){
+            dists[i] = classifier.distributionForInstance(test.instance(i));
+        }
+        return dists;
+    }
+    
+    /**
+     * @return the weight of each module in the ensemble, its cv accuracy
+     */
+    public double[] getModuleWeights(){
+        double[] weights = new double[modules.length];
         for(int m = 0; m < modules.length; m++){
-            moduleDists = modules[m].classifier.distributionForInstance(instance);
-            moduleString = new StringBuilder();
-            moduleWeight = modules[m].ensembleCvAcc;
-                        
-            bsfClassVal = -1;
-            bsfClassWeight = -1;
-
-            for(int c = 0; c < hiveDists.length; c++){
-                hiveDists[c] += moduleDists[c]*moduleWeight;
-                if(outputFileBuilders!=null){
-                    if(moduleDists[c] > bsfClassWeight){
-                        bsfClassWeight = moduleDists[c];
-                        bsfClassVal = c;
-                    }
-                    moduleString.append(",").append(moduleDists[c]);
-                    
-                    
-                }
-            }
-            if(outputFileBuilders!=null){
-                outputFileBuilders[m].append(instance.classValue()).append(",").append(bsfClassVal).append(",").append(moduleString.toString()+"\n");
-            }
-            cvAccSum+=modules[m].ensembleCvAcc;
+            weights[m] = modules[m].ensembleCvAcc;
         }
-        
-        for(int h = 0; h < hiveDists.length; h++){
-            hiveDists[h]/=cvAccSum;
+        return weights;
+    }
+    
+    public String[] getModuleNames(){
+        String[] moduleNames = new String[modules.length];
+        for(int m = 0; m < modules.length; m++){
+            moduleNames[m] = modules[m].classifierName;
         }
-        
-        if(outputFileBuilders!=null){
-            
-            bsfClassVal = -1;
-            bsfClassWeight = -1;
-            moduleString = new StringBuilder();
-            for(int c = 0; c < hiveDists.length; c++){
-                if(hiveDists[c] > bsfClassWeight){
-                    bsfClassWeight = hiveDists[c];
-                    bsfClassVal = c;
+        return moduleNames;
+    }
+    
+    /**
+     * Weighted average of the module distributions for every instance, the final 
+     * stage of both HiveCote and HiveCotePostProcessed. Module outputs can be 
+     * reweighted by calling this again with different weights.
+     * @param moduleDists [module][instance][class]
+     * @param weights weight of each module
+     * @return [instance][class]
+     */
+    public static double[][] weightedDistributions(double[][][] moduleDists, double[] weights){
+        int numInstances = moduleDists[0].length;
+        if(numInstances == 0){
+            return new double[0][];
+        }
+        int numClasses = moduleDists[0][0].length;
+        double[][] hiveDists = new double[numInstances][numClasses];
+        double weightSum = 0;
+        for(int m = 0; m < moduleDists.length; m++){
+            double weight = weights[m];
+            for(int i = 0; i < numInstances; i++){
+                double[] dist = moduleDists[m][i];
+                double[] hiveDist = hiveDists[i];
+                for(int c = 0; c < numClasses; c++){
+                    hiveDist[c] += dist[c]*weight;
                 }
-                moduleString.append(",").append(hiveDists[c]);
             }
-            outputFileBuilders[outputFileBuilders.length-1].append(instance.classValue()).append(",").append(bsfClassVal).append(",").append(moduleString.toString()+"\n");
+            weightSum += weight;
+        }
+        for(double[] hiveDist : hiveDists){
+            for(int c = 0; c < numClasses; c++){
+                hiveDist[c] /= weightSum;
+            }
         }
-                   
         return hiveDists;
     }
     
+    @Override
+    public void setBatchSize(String size){
+        batchSize = size;
+    }
+    @Override
+    public String getBatchSize(){
+        return batchSize;
+    }
+    
+    private static void appendPrediction(StringBuilder out, double actual, double[] dist){
+        double bsfClassVal = -1;
+        double bsfClassWeight = -1;
+        StringBuilder distString = new StringBuilder();
+        for(int c = 0; c < dist.length; c++){
+            if(dist[c] > bsfClassWeight){
+                bsfClassWeight = dist[c];
+                bsfClassVal = c;
+            }
+            distString.append(",").append(dist[c]);
+        }
+        out.append(actual).append(",").append(bsfClassVal).append(",").append(distString.toString()+"\n");
+    }
+    
     
     public double[] classifyInstanceByEnsemble(Instance instance) throws Exception{
         
@@ -395,8 +591,13 @@ public class HiveCote extends AbstractClassifierWithTrainingInfo implements Cont
             outputs[m] = new StringBuilder();
         }
         
+        double[][][] moduleDists = cachedModuleDistributions(test);
+        double[][] hiveDists = weightedDistributions(moduleDists, getModuleWeights());
         for(int i = 0; i < test.numInstances(); i++){
-            this.distributionForInstance(test.instance(i), outputs);
+            for(int m = 0; m < modules.length; m++){
+                appendPrediction(outputs[m], test.instance(i).classValue(), moduleDists[m][i]);
+            }
+            appendPrediction(outputs[modules.length], test.instance(i).classValue(), hiveDists[i]);
         }
         
         FileWriter out;
@@ -609,51 +810,84 @@ public class HiveCote extends AbstractClassifierWithTrainingInfo implements Cont
 
 /** Assumes default time set to hours. It is set up to set it in millisecs,
  * but who the hell thinks in millisecs, except Aaron? :)
+ * The time is split between the modules when the classifier is built, see ModuleBudget
  * 
  * @param time in HOURS
  */    
     @Override
     public void setTimeLimit(long time) {
-//Split the time up equally if contracted, if not we have no control  
         contractTime=true;
-        contractHours=(int)time;
-        long used=0;
-        for(Classifier c:classifiers){
-            if(c instanceof ContractClassifier)
-                ((ContractClassifier) c).setTimeLimit(TimeLimit.HOUR,(int)(time/classifiers.size()));
-            used+=time/classifiers.size();    
-        }
-        long remaining = time-used;
-//Give any extra to first contracted, for no real reason othe than simplicity. 
-        if(remaining>0){
-            for(Classifier c:classifiers){
-                if(c instanceof ContractClassifier){
-                    ((ContractClassifier) c).setTimeLimit(TimeLimit.HOUR,(int)(time/classifiers.size()+remaining));
-                    break;
-                }
-            }
-        }
+        contractNanos=TimeUnit.HOURS.toNanos(time);
     }
     @Override
     public void setTimeLimit(TimeLimit time, int amount) {
-//Split the time up equally if contracted, if not we have no control    
         contractTime=true;
-        int used=0;
-        for(Classifier c:classifiers){
-            if(c instanceof ContractClassifier)
-                ((ContractClassifier) c).setTimeLimit(time, amount/classifiers.size());
-            used+=amount/classifiers.size();    
-        }
-        int remaining = amount-used;
-//Give any extra to first contracted, 
-//for no real reason othe than simplicity and to avoid hidden randomization.       
-        if(remaining>0){
-            for(Classifier c:classifiers){
-                if(c instanceof ContractClassifier){
-                    ((ContractClassifier) c).setTimeLimit(time, amount/classifiers.size()+remaining);
-                    break;
+        switch(time){
+            case DAY:
+                contractNanos=TimeUnit.DAYS.toNanos(amount);
+                break;
+            case HOUR:
+                contractNanos=TimeUnit.HOURS.toNanos(amount);
+                break;
+            case MINUTE:
+                contractNanos=TimeUnit.MINUTES.toNanos(amount);
+                break;
+        }
+    }
+
+    /**
+     * Splits the contract between the modules of one build, in proportion to their 
+     * cost estimates. Uncontracted modules are allotted a share too, as they use up
+     * the contract just the same. When a module finishes, the time it left unused is 
+     * added to a balance, and the time it overran by taken from it. A contracted module 
+     * is given its share when it starts, plus (or, if the balance is negative, less) a 
+     * part of the balance in proportion to its cost among the contracted modules still 
+     * to start, but never less than nothing; whatever overrun it cannot be charged is 
+     * left for the modules after it. 
+     * 
+     * Only modules that start after others finish can be given or charged anything, so 
+     * with a thread per module, when every module starts at once, each keeps its share.
+     */
+    static class ModuleBudget{
+        private final long[] allotted;
+        private final double[] costs;
+        private double pendingCost;
+        private long balance;
+        
+        /**
+         * @param contractNanos the contract for all modules
+         * @param costs cost estimate of each module
+         * @param contracted whether each module can be held to a time limit
+         */
+        ModuleBudget(long contractNanos, double[] costs, boolean[] contracted){
+            this.costs = costs.clone();
+            double totalCost = 0;
+            for(int i = 0; i < costs.length; i++){
+                totalCost += costs[i];
+                if(contracted[i]){
+                    pendingCost += costs[i];
                 }
             }
+            allotted = new long[costs.length];
+            for(int i = 0; i < costs.length; i++){
+                allotted[i] = (long)(contractNanos*(costs[i]/totalCost));
+            }
+        }
+        
+        /**
+         * @return nanoseconds contracted module i may take
+         */
+        synchronized long start(int i){
+            long share = (long)(balance*(costs[i]/pendingCost));
+            long limit = Math.max(0, allotted[i]+share);
+            balance -= limit-allotted[i];
+            allotted[i] = limit;
+            pendingCost -= costs[i];
+            return limit;
+        }
+        
+        synchronized void finish(int i, long used){
+            balance += allotted[i]-used;
         }
     }
 
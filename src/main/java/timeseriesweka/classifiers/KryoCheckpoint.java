@@ -0,0 +1,251 @@
+/*
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package timeseriesweka.classifiers;
+
+import com.esotericsoftware.kryo.kryo5.Kryo;
+import com.esotericsoftware.kryo.kryo5.io.Input;
+import com.esotericsoftware.kryo.kryo5.io.Output;
+import com.esotericsoftware.kryo.kryo5.objenesis.strategy.StdInstantiatorStrategy;
+import com.esotericsoftware.kryo.kryo5.serializers.FieldSerializer;
+import com.esotericsoftware.kryo.kryo5.util.DefaultInstantiatorStrategy;
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import weka.core.Instances;
+
+/**
+ * Kryo backend for CheckpointClassifier, an alternative to the default Java
+ * serialisation in saveToFile and loadFromFile.
+ *
+ * Kryo writes the same object graph (transient fields are skipped, as with Java
+ * serialisation) several times faster and into far smaller files. Classes do not
+ * need registering and do not need a no-arg constructor.
+ *
+ * Three ways of writing are supported
+ * 1. save: write a whole object now. The file is written to a temp file then
+ * renamed over the old one, so a crash part way through never leaves a broken
+ * checkpoint.
+ * 2. saveAsync: write behind. The object is serialised to memory on the calling
+ * thread, so the checkpoint is a consistent snapshot and building can carry on
+ * changing the object straight away, then the bytes are written to file (again
+ * through a temp file) on a background thread.
+ * 3. append/appendAsync: incremental checkpoints. Each call adds one record to the
+ * end of a file, so an ensemble only writes its newly built members rather than
+ * the whole ensemble each time. loadAppended reads them back in order; a record
+ * cut short by a crash is dropped.
+ *
+ * All background writes happen on one thread in the order they were requested, so
+ * a member appended before the classifier state is saved is always on disk before
+ * that state. Call awaitWrites before relying on the files, e.g. before deleting
+ * them at the end of a build.
+ *
+ * Kryo files can only be read back with the same versions of the classes, there is
+ * no equivalent of serialVersionUID, so use Java serialisation for anything that
+ * must outlive a code change.
+ *
+ * Kryo comes from the kryo5 jar in lib, which has Kryo 5 and its dependencies
+ * relocated under com.esotericsoftware.kryo.kryo5, so it cannot clash with the
+ * Kryo 2 and objenesis bundled in the xgboost jar, whatever the classpath order.
+ */
+public class KryoCheckpoint {
+
+    private static final ThreadLocal<Kryo> kryos=ThreadLocal.withInitial(KryoCheckpoint::newKryo);
+
+    private static final ExecutorService writer=Executors.newSingleThreadExecutor(r->{
+        Thread t=new Thread(r,"KryoCheckpoint writer");
+        t.setDaemon(true);
+        return t;
+    });
+
+    private KryoCheckpoint(){}
+
+    private static Kryo newKryo(){
+        Kryo kryo=new Kryo();
+        kryo.setRegistrationRequired(false);
+        kryo.setReferences(true);
+//Use a no-arg constructor if there is one, otherwise create without calling any constructor, as Java serialisation does
+        kryo.setInstantiatorStrategy(new DefaultInstantiatorStrategy(new StdInstantiatorStrategy()));
+//Instances is a List, so would get Kryo's collection serializer, which only writes the 
+//instances and loses the header (attributes, class index, relation name)
+        kryo.addDefaultSerializer(Instances.class,FieldSerializer.class);
+        return kryo;
+    }
+
+    public static byte[] toBytes(Object obj){
+        Output out=new Output(4096,-1);
+        kryos.get().writeClassAndObject(out,obj);
+        return out.toBytes();
+    }
+
+    public static Object fromBytes(byte[] bytes){
+        return kryos.get().readClassAndObject(new Input(bytes));
+    }
+
+    /**
+     * Writes obj to filename, through a temp file and rename
+     * @param obj
+     * @param filename
+     * @throws IOException
+     */
+    public static void save(Object obj, String filename) throws IOException{
+        writeAtomically(toBytes(obj),filename);
+    }
+
+    /**
+     * Takes a snapshot of obj now and writes it to filename in the background.
+     * Failures are reported on System.out and the build carries on, as with the
+     * Java serialisation checkpoints.
+     * @param obj
+     * @param filename
+     * @return completes once the file is written
+     */
+    public static Future<?> saveAsync(Object obj, String filename){
+        byte[] bytes=toBytes(obj);
+        return writer.submit(()->{
+            try{
+                writeAtomically(bytes,filename);
+            }catch(IOException e){
+                System.out.println("Serialisation to "+filename+" FAILED "+e);
+            }
+        });
+    }
+
+    public static Object load(String filename) throws IOException{
+        return fromBytes(Files.readAllBytes(new File(filename).toPath()));
+    }
+
+    /**
+     * Adds obj as a new record at the end of filename, creating the file if needed
+     * @param obj
+     * @param filename
+     * @throws IOException
+     */
+    public static void append(Object obj, String filename) throws IOException{
+        appendRecord(toBytes(obj),filename);
+    }
+
+    /**
+     * As append, with the record written in the background after any earlier writes
+     * @param obj
+     * @param filename
+     * @return completes once the record is written
+     */
+    public static Future<?> appendAsync(Object obj, String filename){
+        byte[] bytes=toBytes(obj);
+        return writer.submit(()->{
+            try{
+                appendRecord(bytes,filename);
+            }catch(IOException e){
+                System.out.println("Serialisation to "+filename+" FAILED "+e);
+            }
+        });
+    }
+
+    /**
+     * Reads every complete record of a file written with append, in order. An
+     * incomplete last record (the write was interrupted) is dropped and cut off
+     * the file, so later appends follow on from the last complete record.
+     * @param filename
+     * @return the records, empty if the file does not exist
+     * @throws IOException
+     */
+    public static List<Object> loadAppended(String filename) throws IOException{
+        return loadAppended(filename,Integer.MAX_VALUE);
+    }
+
+    /**
+     * As loadAppended, reading at most maxRecords. Anything after them is cut off
+     * the file, e.g. members appended after the last saved state of the ensemble,
+     * which will be built and appended again.
+     * @param filename
+     * @param maxRecords
+     * @return the records, empty if the file does not exist
+     * @throws IOException
+     */
+    public static List<Object> loadAppended(String filename, int maxRecords) throws IOException{
+        List<Object> records=new ArrayList<>();
+        File f=new File(filename);
+        if(!f.exists())
+            return records;
+        long complete=0;
+        try(DataInputStream in=new DataInputStream(new BufferedInputStream(new FileInputStream(f)))){
+            while(records.size()<maxRecords){
+                byte[] bytes;
+                try{
+                    bytes=new byte[in.readInt()];
+                    in.readFully(bytes);
+                }catch(EOFException e){
+                    break;
+                }
+                records.add(fromBytes(bytes));
+                complete+=4+bytes.length;
+            }
+        }
+        if(complete<f.length()){
+            try(RandomAccessFile raf=new RandomAccessFile(f,"rw")){
+                raf.setLength(complete);
+            }
+        }
+        return records;
+    }
+
+    /**
+     * Blocks until every background write requested so far is finished
+     * @throws IOException if interrupted while waiting
+     */
+    public static void awaitWrites() throws IOException{
+        try{
+            writer.submit(()->{}).get();
+        }catch(InterruptedException | ExecutionException e){
+            throw new IOException("Interrupted waiting for checkpoint writes",e);
+        }
+    }
+
+    private static void writeAtomically(byte[] bytes, String filename) throws IOException{
+        Path target=new File(filename).toPath();
+        Path temp=new File(filename+".tmp").toPath();
+        Files.write(temp,bytes);
+        try{
+            Files.move(temp,target,StandardCopyOption.ATOMIC_MOVE,StandardCopyOption.REPLACE_EXISTING);
+        }catch(AtomicMoveNotSupportedException e){
+            Files.move(temp,target,StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    private static void appendRecord(byte[] bytes, String filename) throws IOException{
+        try(DataOutputStream out=new DataOutputStream(new FileOutputStream(filename,true))){
+            out.writeInt(bytes.length);
+            out.write(bytes);
+        }
+    }
+}
@@ -24,19 +24,26 @@ package timeseriesweka.classifiers;
  *   along with this program.  If not, see <http://www.gnu.org/licenses/>.
  */
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 import java.util.Random;
+import java.util.concurrent.Callable;
 import utilities.ClassifierTools;
+import utilities.ThreadingUtilities;
+import utilities.TimeSeriesDataset;
 import weka.classifiers.AbstractClassifier;
 import weka.classifiers.Classifier;
 import weka.classifiers.trees.RandomTree;
 import weka.core.Attribute;
+import weka.core.BatchPredictor;
 import weka.core.DenseInstance;
 import weka.core.FastVector;
 import weka.core.Instance;
 import weka.core.Instances;
 import weka.core.TechnicalInformation;
+import weka.core.Utils;
 import timeseriesweka.filters.ACF;
-import timeseriesweka.filters.PowerSpectrum;
+import timeseriesweka.filters.SpectralEngine;
 import timeseriesweka.classifiers.SubSampleTrain;
 import weka.core.Capabilities;
 
@@ -51,6 +58,12 @@ import weka.core.Capabilities;
  *      transform interval into ACF, PS, AR and PACF features
  *      build tree on concatenated features
  * ensemble the trees with majority vote
+ * 
+ * Each interval is transformed series by series on primitive arrays (ACF.formChangeCombo
+ * and SpectralEngine), for both the training and the test data, so no Instances are 
+ * formed per tree at prediction time. Prediction only reads the ensemble, so any number
+ * of predictions can run concurrently. distributionsForInstances (BatchPredictor) 
+ * transforms a whole batch tree by tree, split over numThreads threads.
  <!-- globalinfo-end -->
  <!-- technical-bibtex-start -->
  * Bibtex
@@ -81,7 +94,7 @@ import weka.core.Capabilities;
  **/
 
 
-public class RISE extends AbstractClassifierWithTrainingInfo implements SaveParameterInfo, SubSampleTrain{
+public class RISE extends AbstractClassifierWithTrainingInfo implements SaveParameterInfo, SubSampleTrain, BatchPredictor, TimeSeriesDatasetClassifier{
     /** Default to a random tree */
     Classifier baseClassifierTemplate=new RandomTree();
     /** Ensemble base classifiers */    
@@ -94,8 +107,6 @@ public class RISE extends AbstractClassifierWithTrainingInfo implements SavePara
     /** Minimum sizer of all intervals */    
     private int minInterval=16;
     
-    /** Power Spectrum transformer, probably dont need to store this here  */   
-    private PowerSpectrum ps=new PowerSpectrum();
     /**Can seed for reproducibility */
     private Random rand;
     private int seed=0;
@@ -106,6 +117,11 @@ public class RISE extends AbstractClassifierWithTrainingInfo implements SavePara
     private boolean subSample=false;
     private double sampleProp=1;
     
+    /** Threads used by distributionsForInstances, and preferred batch size */
+    private int numThreads=1;
+    private static final int BLOCKS_PER_THREAD=4;
+    private String batchSize="100";
+    
     /**
      * This interface is not formalised and needs to be considered in the next
      * review
@@ -178,10 +194,27 @@ public class RISE extends AbstractClassifierWithTrainingInfo implements SavePara
     public int getNumClassifiers(){ 
         return numBaseClassifiers;
     }
+/**
+ * Number of threads distributionsForInstances splits a batch over. The votes 
+ * are the same for any number of threads.
+ * @param numThreads 1 by default, 0 for all cores
+ */
+    public void setNumThreads(int numThreads){
+        this.numThreads=numThreads;
+    }
+    @Override
+    public void setBatchSize(String size){
+        batchSize=size;
+    }
+    @Override
+    public String getBatchSize(){
+        return batchSize;
+    }
     /**
-     * Holders for the headers of each transform. 
+     * Headers of the transformed data of each base classifier. Only read once
+     * built, test instances are transformed into new instances of these.
      */    
-    Instances[] testHolders;
+    Instances[] transformHeaders;
     public RISE(){
         rand=new Random();
     }
@@ -240,13 +273,30 @@ public class RISE extends AbstractClassifierWithTrainingInfo implements SavePara
             data=subSample(data,sampleProp,seed);
             System.out.println(" TRAIN SET SIZE NOW "+data.numInstances());
         }
+        build(TimeSeriesDataset.fromInstances(data),start);
+    }
+    /**
+     * Builds on the series in place, giving the same ensemble as buildClassifier 
+     * on the equivalent Instances. No sub sampling is done here. 
+     * @param data equal length, univariate
+     * @throws Exception 
+     */
+    @Override
+    public void buildClassifier(TimeSeriesDataset data) throws Exception {
+        build(data,System.currentTimeMillis());
+    }
+    private void build(TimeSeriesDataset data, long start) throws Exception {
+        if(data.numChannels()!=1 || !data.isEqualLength())
+            throw new Exception("RISE can only handle equal length univariate series");
         //Initialise the memory 
-        int m=data.numAttributes()-1;
+        int m=data.numSeries()>0?data.length(0):0;
         startPoints =new int[numBaseClassifiers];
         endPoints =new int[numBaseClassifiers];
  
         baseClassifiers=new Classifier[numBaseClassifiers];
-        testHolders=new Instances[numBaseClassifiers];
+        transformHeaders=new Instances[numBaseClassifiers];
+        double[] values=data.values();
+        Attribute target=data.classAttribute();
         //Select random intervals for each tree
         for(int i=0;i<numBaseClassifiers;i++){
             //Do whole series for first classifier            
@@ -267,53 +317,25 @@ public class RISE extends AbstractClassifierWithTrainingInfo implements SavePara
                     endPoints[i]+=startPoints[i];
                 }
             }
-            //Set up train instances and save format for testing. 
+            //Transform the interval of every series and save the format for testing. 
             int numFeatures=endPoints[i]-startPoints[i]+1;
-            String name;
-            ArrayList<Attribute> atts=new ArrayList();
-            for(int j=0;j<numFeatures;j++){
-                    name = "F"+j;
-                    atts.add(new Attribute(name));
-            }
-            //Get the class values as a fast vector			
-            Attribute target =data.attribute(data.classIndex());
-            ArrayList<String> vals=new ArrayList<>(target.numValues());
-            for(int j=0;j<target.numValues();j++)
-                    vals.add(target.value(j));
-            atts.add(new Attribute(data.attribute(data.classIndex()).name(),vals));
-            //create blank instances with the correct class value                
-            Instances result = new Instances("Tree",atts,data.numInstances());
-            result.setClassIndex(result.numAttributes()-1);
-            for(int j=0;j<data.numInstances();j++){
-                DenseInstance in=new DenseInstance(result.numAttributes());
-                double[] v=data.instance(j).toDoubleArray();
-                for(int k=0;k<numFeatures;k++)
-                    in.setValue(k,v[startPoints[i]+k]);
-            //Set interval features                
-                in.setValue(result.numAttributes()-1,data.instance(j).classValue());
-                result.add(in);
+            double[][] features=new double[data.numSeries()][];
+            for(int j=0;j<features.length;j++)
+                features[j]=transformInterval(Arrays.copyOfRange(values,data.offset(j)+startPoints[i],data.offset(j)+endPoints[i]+1));
+            int numTransformed=features.length>0?features[0].length:transformInterval(new double[numFeatures]).length;
+            Instances newTrain=transformHeader(numTransformed,target,features.length);
+            for(int j=0;j<features.length;j++){
+                double[] v=Arrays.copyOf(features[j],numTransformed+1);
+                v[numTransformed]=data.classLabel(j)<0?Utils.missingValue():data.classLabel(j);
+                newTrain.add(new DenseInstance(1,v));
             }
-            testHolders[i] =new Instances(result,0);       
-            DenseInstance in=new DenseInstance(result.numAttributes());
-            testHolders[i].add(in);
-            //Perform the transform
-            Instances newTrain=result;
-            //THIS NEEDS TIDYING UP    
-            switch(transform){
-                case ACF:
-                    newTrain=ACF.formChangeCombo(result);
-                    break;
-                case PS: 
-                    newTrain=ps.process(result);
-                    break;
-                case ACF_PS: default:
-                    newTrain=combinedPSACF(result);
-                    break;
-            }             
+            transformHeaders[i]=new Instances(newTrain,0);
 //Build Classifier: Defaults to a RandomTree, but WHY ALL THE ATTS?
             if(baseClassifierTemplate instanceof RandomTree){
                 baseClassifiers[i]=new RandomTree();   
                 ((RandomTree)baseClassifiers[i]).setKValue(numFeatures);
+//The transformed intervals are unweighted, so presorting gives the same trees, faster
+                ((RandomTree)baseClassifiers[i]).setPresort(true);
             }
             else
                baseClassifiers[i]=AbstractClassifier.makeCopy(baseClassifierTemplate);
@@ -322,49 +344,129 @@ public class RISE extends AbstractClassifierWithTrainingInfo implements SavePara
         trainResults.setBuildTime(System.currentTimeMillis()-start);
     }
 
+    /**
+     * Reads each interval straight from ins, skipping the class attribute
+     */
     @Override
     public double[] distributionForInstance(Instance ins) throws Exception {
         double[] votes=new double[ins.numClasses()];
-////Build instance
-        double[] series=ins.toDoubleArray();
+        int classIndex=ins.classIndex();
         for(int i=0;i<baseClassifiers.length;i++){
-            int numFeatures=endPoints[i]-startPoints[i]+1;
-        //extract the interval
-            for(int j=0;j<numFeatures;j++){
-                testHolders[i].instance(0).setValue(j, ins.value(j+startPoints[i]));
+            double[] interval=new double[endPoints[i]-startPoints[i]+1];
+            for(int t=0;t<interval.length;t++){
+                int a=startPoints[i]+t;
+                interval[t]=ins.value(classIndex>=0 && a>=classIndex?a+1:a);
             }
-//Do the transform
-            Instances temp=null;
-            switch(transform){
-                case ACF:
-                    temp=ACF.formChangeCombo(testHolders[i]);
-                    break;
-                case PS: 
-                    temp=ps.process(testHolders[i]);
-                    break;
-                case ACF_PS: 
-                    temp=combinedPSACF(testHolders[i]);
-//Merge newTrain and newTrain2                    
-                    break;
-            }             
-            int c=(int)baseClassifiers[i].classifyInstance(temp.instance(0));
-            votes[c]++;
-            
+            votes[vote(i,transformInterval(interval))]++;
         }
-        for(int i=0;i<votes.length;i++)
-            votes[i]/=baseClassifiers.length;
+        for(int c=0;c<votes.length;c++)
+            votes[c]/=baseClassifiers.length;
         return votes;
     }
-   private Instances combinedPSACF(Instances data)throws Exception {
-        Instances combo=ACF.formChangeCombo(data);
-        Instances temp2=ps.process(data);
-        combo.setClassIndex(-1);
-        combo.deleteAttributeAt(combo.numAttributes()-1); 
-        combo=Instances.mergeInstances(combo, temp2);
-        combo.setClassIndex(combo.numAttributes()-1);
-        return combo;        
-
-    }    
+    /**
+     * Predicts a batch of instances, transforming the whole batch for one tree
+     * before moving on to the next. The batch is split into blocks of instances
+     * over numThreads threads.
+     * @param insts
+     * @return the same distributions as distributionForInstance for each instance
+     * @throws Exception 
+     */
+    @Override
+    public double[][] distributionsForInstances(Instances insts) throws Exception {
+        return distributionsForSeries(TimeSeriesDataset.fromInstances(insts));
+    }
+    /**
+     * As distributionsForInstances, reading the series in place
+     * @param data
+     * @return a distribution for each series
+     * @throws Exception 
+     */
+    @Override
+    public double[][] distributionsForSeries(TimeSeriesDataset data) throws Exception {
+        int n=data.numSeries();
+        int numClasses=data.numClasses();
+        int blockSize=Math.max(1,n/(BLOCKS_PER_THREAD*ThreadingUtilities.resolveNumThreads(numThreads)));
+        List<Callable<double[][]>> tasks=new ArrayList<>();
+        for(int start=0;start<n;start+=blockSize){
+            final TimeSeriesDataset block=data.subset(start,Math.min(n,start+blockSize));
+            tasks.add(()->distributions(block,numClasses));
+        }
+        double[][] dists=new double[n][];
+        int j=0;
+        for(double[][] block:ThreadingUtilities.invokeAll(tasks,numThreads)){
+            for(double[] d:block)
+                dists[j++]=d;
+        }
+        return dists;
+    }
+    /**
+     * Only reads the ensemble, so is safe to call from several threads at once
+     */
+    private double[][] distributions(TimeSeriesDataset series, int numClasses) throws Exception {
+        //the series are read in place, an interval past the end of one would run into the next
+        int lastPoint=0;
+        for(int end:endPoints)
+            lastPoint=Math.max(lastPoint,end);
+        for(int j=0;j<series.numSeries();j++){
+            if(series.length(j)<=lastPoint)
+                throw new Exception("RISE can only handle test series as long as the training series, series of length "+series.length(j)+" but an interval ends at index "+lastPoint);
+        }
+        double[][] votes=new double[series.numSeries()][numClasses];
+        double[] values=series.values();
+        for(int i=0;i<baseClassifiers.length;i++){
+            for(int j=0;j<votes.length;j++){
+                int start=series.offset(j)+startPoints[i];
+                votes[j][vote(i,transformInterval(Arrays.copyOfRange(values,start,start+endPoints[i]-startPoints[i]+1)))]++;
+            }
+        }
+        for(double[] v:votes)
+            for(int c=0;c<v.length;c++)
+                v[c]/=baseClassifiers.length;
+        return votes;
+    }
+    /**
+     * @return the class predicted by base classifier i from the features of its interval 
+     */
+    private int vote(int i, double[] features) throws Exception {
+        double[] v=Arrays.copyOf(features,features.length+1);
+        v[features.length]=Utils.missingValue();
+        DenseInstance in=new DenseInstance(1,v);
+        in.setDataset(transformHeaders[i]);
+        return (int)baseClassifiers[i].classifyInstance(in);
+    }
+    /**
+     * Transforms one interval
+     * @return the features of the interval, without a class value
+     */
+    private double[] transformInterval(double[] interval){
+        int length=interval.length;
+        switch(transform){
+            case ACF:
+                return ACF.formChangeCombo(interval);
+            case PS: 
+                return SpectralEngine.powerSpectrum(interval);
+            case FFT:
+                return SpectralEngine.halfSpectrum(interval,length);
+            case ACF_PS: default:
+                double[] acf=ACF.formChangeCombo(interval);
+                double[] ps=SpectralEngine.powerSpectrum(interval);
+                double[] combo=Arrays.copyOf(acf,acf.length+ps.length);
+                System.arraycopy(ps,0,combo,acf.length,ps.length);
+                return combo;
+        }
+    }
+    private Instances transformHeader(int numFeatures, Attribute target, int capacity){
+        ArrayList<Attribute> atts=new ArrayList<>();
+        for(int j=0;j<numFeatures;j++)
+            atts.add(new Attribute(transform+"_"+j));
+        ArrayList<String> vals=new ArrayList<>(target.numValues());
+        for(int j=0;j<target.numValues();j++)
+                vals.add(target.value(j));
+        atts.add(new Attribute(target.name(),vals));
+        Instances result = new Instances("Tree",atts,capacity);
+        result.setClassIndex(result.numAttributes()-1);
+        return result;
+    }
     
     public static void main(String[] arg) throws Exception{
         
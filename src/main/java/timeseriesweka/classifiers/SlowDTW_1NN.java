@@ -90,10 +90,14 @@ public class SlowDTW_1NN extends AbstractClassifier  implements SaveParameterInf
     }  
 
     public SlowDTW_1NN(){
-        dtw=new DTW();
+        DTW d=new DTW();
+        d.setTrackWarp(true);   //findMaxWindow is used in the CV
+        dtw=d;
         accuracy=new ArrayList<>();
     }
     public SlowDTW_1NN(DTW_DistanceBasic d){
+        if(d instanceof DTW)
+            ((DTW)d).setTrackWarp(true);
         dtw=d;
         accuracy=new ArrayList<>();
     }
@@ -16,8 +16,12 @@ package timeseriesweka.classifiers;
 
 import fileIO.OutFile;
 import java.util.ArrayList;
+import java.util.List;
 import java.util.Random;
+import java.util.concurrent.Callable;
 import utilities.ClassifierTools;
+import utilities.ThreadingUtilities;
+import utilities.TimeSeriesDataset;
 import evaluation.evaluators.CrossValidationEvaluator;
 import weka.classifiers.AbstractClassifier;
 import weka.classifiers.trees.RandomTree;
@@ -29,6 +33,7 @@ import weka.core.TechnicalInformation;
 import utilities.TrainAccuracyEstimate;
 import evaluation.storage.ClassifierResults;
 import java.io.File;
+import java.io.Serializable;
 import java.util.function.Function;
 import weka.classifiers.Classifier;
 import weka.core.Capabilities;
@@ -72,6 +77,16 @@ import weka.core.Utils;
 *       c) CART tbc
 * 2. Added setOptions to allow parameter tuning. Tuning on parameters
 *       #trees, #features 
+* Update 2:
+* The cumulative sums of x, x^2 and t*x of each series are found once 
+* (IntervalSums), so the three features of any interval are O(1) rather than
+* a rescan of the interval. Trees can be built on several threads 
+* (setNumThreads), and classification no longer shares a holder instance 
+* between calls so is thread safe.
+* Update 3:
+* Can build and predict from a TimeSeriesDataset (TimeSeriesDatasetClassifier),
+* with the sums taken from the series in place. Instances are converted to 
+* one first, rather than copying out each series with toDoubleArray.
  <!-- globalinfo-end -->
  <!-- technical-bibtex-start -->
 * Bibtex
@@ -101,7 +116,7 @@ import weka.core.Utils;
 
 **/ 
 
-public class TSF extends AbstractClassifierWithTrainingInfo implements SaveParameterInfo, TrainAccuracyEstimate{
+public class TSF extends AbstractClassifierWithTrainingInfo implements SaveParameterInfo, TrainAccuracyEstimate, TimeSeriesDatasetClassifier{
 //Static defaults
     
     private final static int DEFAULT_NUM_CLASSIFIERS=500;
@@ -111,7 +126,11 @@ public class TSF extends AbstractClassifierWithTrainingInfo implements SaveParam
 
     /** numIntervalsFinder sets numIntervals in buildClassifier. */    
     private int numIntervals=0;
-    Function<Integer,Integer> numIntervalsFinder = (numAtts) -> (int)(Math.sqrt(numAtts));   
+/** Series predicted together by distributionsForSeries, each tree scoring the whole block in turn */
+    private static final int SERIES_PER_BLOCK=256;
+    IntervalsFinder numIntervalsFinder = (numAtts) -> (int)(Math.sqrt(numAtts));   
+    /** Serializable, so a TSF can be copied (AbstractClassifier.makeCopy) or saved */
+    interface IntervalsFinder extends Function<Integer,Integer>, Serializable {}
     /** Secondary parameter, mainly there to avoid single item intervals, 
      which have no slope or std dev*/
     private int minIntervalLength=3;
@@ -124,13 +143,15 @@ public class TSF extends AbstractClassifierWithTrainingInfo implements SaveParam
      ends  at  intervals[i][j][1] */
     private int[][][] intervals;
     
-    /**Holding variable for test classification in order to retain the header info*/     
-    private Instances testHolder;
+    /**Header of the transformed data, which new instances are transformed into for the trees*/     
+    private Instances header;
 
     /**Can seed for reproducability*/
     private Random rand;
     private boolean setSeed=false;
     private int seed=0;
+    
+    private int numThreads=1;
 
    /** If trainCV is performed, a cross validation is done in buildClassifier
    If set, train results are overwritten with each call to buildClassifier
@@ -230,6 +251,15 @@ public class TSF extends AbstractClassifierWithTrainingInfo implements SaveParam
     public void setNumTrees(int t){
         numClassifiers=t;
     }
+/**
+ * Number of threads the trees, and the folds of the train accuracy estimate, are 
+ * built on. The intervals of every tree are drawn before any are built, so the 
+ * forest is the same for any number of threads.
+ * @param numThreads 1 by default, 0 for all cores
+ */
+    public void setNumThreads(int numThreads){
+        this.numThreads=numThreads;
+    }
     
     
 //<editor-fold defaultstate="collapsed" desc="results reported in Info Sciences paper">        
@@ -391,10 +421,67 @@ public class TSF extends AbstractClassifierWithTrainingInfo implements SaveParam
             if (setSeed)
               cv.setSeed(seed);
             cv.setNumFolds(numFolds);
+            cv.setNumThreads(numThreads);
             TSF tsf=new TSF();
+            if (setSeed)
+              tsf.setSeed(seed);
             tsf.setFindTrainAccuracyEstimate(false);
             trainResults=cv.crossValidateWithStats(tsf,data);
         }
+        buildTrees(TimeSeriesDataset.fromInstances(data),data.classAttribute());
+        long t2=System.currentTimeMillis();
+        //Store build time, this is always recorded
+        trainResults.setBuildTime(t2-t1);
+        //If trainCV ==true and we want to save results, write out object 
+        if(trainCV && !trainCVPath.isEmpty()){
+             OutFile of=new OutFile(trainCVPath);
+             of.writeLine(data.relationName()+",TSF,train");
+             of.writeLine(getParameters());
+            of.writeLine(trainResults.getAcc()+"");
+            double[] trueClassVals,predClassVals;
+            trueClassVals=trainResults.getTrueClassValsAsArray();
+            predClassVals=trainResults.getPredClassValsAsArray();
+            for(int i=0;i<data.numInstances();i++){
+                //Basic sanity check
+                if(data.instance(i).classValue()!=trueClassVals[i]){
+                    throw new Exception("ERROR in TSF cross validation, class mismatch!");
+                }
+                of.writeString((int)trueClassVals[i]+","+(int)predClassVals[i]+",");
+                for(double d:trainResults.getProbabilityDistribution(i))
+                    of.writeString(","+d);
+                of.writeString("\n");
+            }
+        }
+        
+    }
+/**
+ * Builds from the series in place, the same forest as buildClassifier on the 
+ * equivalent Instances. A train accuracy estimate needs Instances, so the data
+ * is converted for that alone.
+ * @param data equal length, univariate
+ * @throws Exception 
+ */
+    @Override
+    public void buildClassifier(TimeSeriesDataset data) throws Exception {
+        if(trainCV){
+            buildClassifier(data.toInstances());
+            return;
+        }
+        long t1=System.currentTimeMillis();
+        numIntervals=numIntervalsFinder.apply(data.numSeries()>0?data.length(0):0);
+        buildTrees(data,data.classAttribute());
+        trainResults.setBuildTime(System.currentTimeMillis()-t1);
+    }
+/**
+ * Draws the intervals and builds the trees
+ * @param data the series
+ * @param target class attribute for the transformed data
+ * @throws Exception 
+ */
+    private void buildTrees(TimeSeriesDataset data, Attribute target) throws Exception {
+        if(data.numChannels()!=1 || !data.isEqualLength())
+            throw new Exception("TSF can only handle equal length univariate series");
+        int m=data.numSeries()>0?data.length(0):0;
 //Set up instances size and format. 
         trees=new AbstractClassifier[numClassifiers];        
         ArrayList<Attribute> atts=new ArrayList<>();
@@ -404,26 +491,25 @@ public class TSF extends AbstractClassifierWithTrainingInfo implements SaveParam
             atts.add(new Attribute(name));
         }
         //Get the class values as an array list		
-        Attribute target =data.attribute(data.classIndex());
         ArrayList<String> vals=new ArrayList<>(target.numValues());
         for(int j=0;j<target.numValues();j++)
             vals.add(target.value(j));
-        atts.add(new Attribute(data.attribute(data.classIndex()).name(),vals));
+        atts.add(new Attribute(target.name(),vals));
         //create blank instances with the correct class value                
-        Instances result = new Instances("Tree",atts,data.numInstances());
+        Instances result = new Instances("Tree",atts,data.numSeries());
         result.setClassIndex(result.numAttributes()-1);
-        for(int i=0;i<data.numInstances();i++){
+        for(int i=0;i<data.numSeries();i++){
             DenseInstance in=new DenseInstance(result.numAttributes());
-            in.setValue(result.numAttributes()-1,data.instance(i).classValue());
+            in.setValue(result.numAttributes()-1,data.classLabel(i)<0?Utils.missingValue():data.classLabel(i));
             result.add(in);
         }
         
-        testHolder =new Instances(result,0);       
-        DenseInstance in=new DenseInstance(result.numAttributes());
-        testHolder.add(in);
+        header =new Instances(result,0);       
 //Need to hard code this because log(m)+1 is sig worse than sqrt(m) is worse than using all!
         if(base instanceof RandomTree){
             ((RandomTree) base).setKValue(result.numAttributes()-1);
+//The interval features are unweighted, so presorting gives the same trees, faster
+            ((RandomTree) base).setPresort(true);
 //            ((RandomTree) base).setKValue((int)Math.sqrt(result.numAttributes()-1));
             System.out.println("Base classifier num of features = "+((RandomTree) base).getKValue());
         }        
@@ -435,59 +521,58 @@ public class TSF extends AbstractClassifierWithTrainingInfo implements SaveParam
          *      build the classifier
          * */
         intervals =new int[numClassifiers][][];
+        if(m<minIntervalLength)
+             minIntervalLength=m;
         for(int i=0;i<numClassifiers;i++){
-        //1. Select random intervals for tree i
+        //1. Select random intervals for tree i. All are drawn up front, in 
+        //tree order, so the trees can then be built in any order
             intervals[i]=new int[numIntervals][2];  //Start and end
-            if(data.numAttributes()-1<minIntervalLength)
-                 minIntervalLength=data.numAttributes()-1;
             for(int j=0;j<numIntervals;j++){
-               intervals[i][j][0]=rand.nextInt(data.numAttributes()-1-minIntervalLength);       //Start point
-               int length=rand.nextInt(data.numAttributes()-1-intervals[i][j][0]);//Min length 3
+               intervals[i][j][0]=rand.nextInt(m-minIntervalLength);       //Start point
+               int length=rand.nextInt(m-intervals[i][j][0]);//Min length 3
                if(length<minIntervalLength)
                    length=minIntervalLength;
                intervals[i][j][1]=intervals[i][j][0]+length;
             }
-        //2. Generate and store attributes            
-            for(int j=0;j<numIntervals;j++){
-                //For each instance
-                for(int k=0;k<data.numInstances();k++){
-                    //extract the interval
-                    double[] series=data.instance(k).toDoubleArray();
-                    FeatureSet f= new FeatureSet();
-                    f.setFeatures(series, intervals[i][j][0], intervals[i][j][1]);
-                    result.instance(k).setValue(j*3, f.mean);
-                    result.instance(k).setValue(j*3+1, f.stDev);
-                    result.instance(k).setValue(j*3+2, f.slope);
-                }
-            }
-        //3. Create and build tree using all the features. Feature selection
-            trees[i]=AbstractClassifier.makeCopy(base); 
-            trees[i].buildClassifier(result);
         }
-        long t2=System.currentTimeMillis();
-        //Store build time, this is always recorded
-        trainResults.setBuildTime(t2-t1);
-        //If trainCV ==true and we want to save results, write out object 
-        if(trainCV && trainCVPath!=""){
-             OutFile of=new OutFile(trainCVPath);
-             of.writeLine(data.relationName()+",TSF,train");
-             of.writeLine(getParameters());
-            of.writeLine(trainResults.getAcc()+"");
-            double[] trueClassVals,predClassVals;
-            trueClassVals=trainResults.getTrueClassValsAsArray();
-            predClassVals=trainResults.getPredClassValsAsArray();
-            for(int i=0;i<data.numInstances();i++){
-                //Basic sanity check
-                if(data.instance(i).classValue()!=trueClassVals[i]){
-                    throw new Exception("ERROR in TSF cross validation, class mismatch!");
-                }
-                of.writeString((int)trueClassVals[i]+","+(int)predClassVals[i]+",");
-                for(double d:trainResults.getProbabilityDistribution(i))
-                    of.writeString(","+d);
-                of.writeString("\n");
+        //The sums of each series are shared by all the trees
+        IntervalSums[] sums=new IntervalSums[data.numSeries()];
+        for(int k=0;k<sums.length;k++)
+            sums[k]=new IntervalSums(data.values(),data.offset(k),m);
+        
+        List<Callable<Classifier>> tasks=new ArrayList<>(numClassifiers);
+        for(int i=0;i<numClassifiers;i++){
+            final int tree=i;
+            tasks.add(()->buildTree(tree,sums,result));
+        }
+        trees=ThreadingUtilities.invokeAll(tasks,numThreads).toArray(new Classifier[numClassifiers]);
+    }
+/**
+ * Transforms the data with the intervals of tree i and builds the tree on it
+ * @param i tree index
+ * @param sums of each train series
+ * @param template transformed data with the class values set, copied so that 
+ * each tree has its own
+ * @return the built tree
+ * @throws Exception 
+ */    
+    private Classifier buildTree(int i, IntervalSums[] sums, Instances template) throws Exception {
+        Instances result=new Instances(template);
+        FeatureSet f= new FeatureSet();
+    //2. Generate and store attributes            
+        for(int j=0;j<numIntervals;j++){
+            //For each instance
+            for(int k=0;k<result.numInstances();k++){
+                f.setFeatures(sums[k], intervals[i][j][0], intervals[i][j][1]);
+                result.instance(k).setValue(j*3, f.mean);
+                result.instance(k).setValue(j*3+1, f.stDev);
+                result.instance(k).setValue(j*3+2, f.slope);
             }
         }
-        
+    //3. Create and build tree using all the features. Feature selection
+        Classifier tree=AbstractClassifier.makeCopy(base); 
+        tree.buildClassifier(result);
+        return tree;
     }
 /**
  * Sums either the 
@@ -497,32 +582,66 @@ public class TSF extends AbstractClassifierWithTrainingInfo implements SaveParam
  */    
     @Override
     public double[] distributionForInstance(Instance ins) throws Exception {
-        double[] d=new double[ins.numClasses()];
-        //Build transformed instance
-        double[] series=ins.toDoubleArray();
+        return distributions(new IntervalSums[]{new IntervalSums(ins.toDoubleArray(),ins.numAttributes()-1)},ins.numClasses())[0];
+    }
+/**
+ * distributionForInstance of each series, read in place
+ * @param data
+ * @return
+ * @throws Exception 
+ */
+    @Override
+    public double[][] distributionsForSeries(TimeSeriesDataset data) throws Exception {
+        double[][] dists=new double[data.numSeries()][];
+        for(int from=0;from<dists.length;from+=SERIES_PER_BLOCK){
+            IntervalSums[] sums=new IntervalSums[Math.min(SERIES_PER_BLOCK,dists.length-from)];
+            for(int i=0;i<sums.length;i++)
+                sums[i]=new IntervalSums(data.values(),data.offset(from+i),data.length(from+i));
+            double[][] block=distributions(sums,data.numClasses());
+            System.arraycopy(block,0,dists,from,block.length);
+        }
+        return dists;
+    }
+/**
+ * The distribution of each series, tree by tree: each tree scores every series 
+ * before the next tree is used, so the tree stays in cache. Each series still 
+ * sums the trees in order, so the result is the same as one series at a time.
+ */
+    private double[][] distributions(IntervalSums[] sums, int numClasses) throws Exception {
+        double[][] d=new double[sums.length][numClasses];
+        //Build transformed instances, local to the call so that classification is thread safe
+        FeatureSet f= new FeatureSet();
+        DenseInstance[] transformed=new DenseInstance[sums.length];
+        for(int s=0;s<sums.length;s++){
+            transformed[s]=new DenseInstance(header.numAttributes());
+            transformed[s].setDataset(header);
+        }
         for(int i=0;i<trees.length;i++){
-            for(int j=0;j<numIntervals;j++){
-                //extract all intervals
-                FeatureSet f= new FeatureSet();
-                f.setFeatures(series, intervals[i][j][0], intervals[i][j][1]);
-                testHolder.instance(0).setValue(j*3, f.mean);
-                testHolder.instance(0).setValue(j*3+1, f.stDev);
-                testHolder.instance(0).setValue(j*3+2, f.slope);
-            }
-            if(voteEnsemble){
-                int c=(int)trees[i].classifyInstance(testHolder.instance(0));
-                d[c]++;
-            }else{
-                double[] temp=trees[i].distributionForInstance(testHolder.instance(0));
-                for(int j=0;j<temp.length;j++)
-                    d[j]+=temp[j];
+            for(int s=0;s<sums.length;s++){
+                for(int j=0;j<numIntervals;j++){
+                    //extract all intervals
+                    f.setFeatures(sums[s], intervals[i][j][0], intervals[i][j][1]);
+                    transformed[s].setValue(j*3, f.mean);
+                    transformed[s].setValue(j*3+1, f.stDev);
+                    transformed[s].setValue(j*3+2, f.slope);
+                }
+                if(voteEnsemble){
+                    int c=(int)trees[i].classifyInstance(transformed[s]);
+                    d[s][c]++;
+                }else{
+                    double[] temp=trees[i].distributionForInstance(transformed[s]);
+                    for(int j=0;j<temp.length;j++)
+                        d[s][j]+=temp[j];
+                }
             }
         }
-        double sum=0;
-        for(double x:d)
-            sum+=x;
-        for(int i=0;i<d.length;i++)
-            d[i]=d[i]/sum;
+        for(double[] ds:d){
+            double sum=0;
+            for(double x:ds)
+                sum+=x;
+            for(int i=0;i<ds.length;i++)
+                ds[i]=ds[i]/sum;
+        }
         return d;
     }
 /**
@@ -585,6 +704,54 @@ public class TSF extends AbstractClassifierWithTrainingInfo implements SaveParam
         }
     }
 
+//Nested class to store the cumulative sums of a series, from which the sums 
+//FeatureSet needs for any interval are found with a couple of subtractions.
+//The series is centred first, so that the subtractions do not lose the variance of 
+//an interval to the size of the sums. Even so, a flat interval comes out 
+//with a variance of rounding error rather than exactly zero, and an interval with no 
+//trend with a slope of rounding error. Either would stop the checks for a flat line 
+//in FeatureSet firing, so such intervals are rescanned
+    public static class IntervalSums{
+        //Below this fraction of the series' mean square (about the centre), an interval is rescanned
+        static final double UNRELIABLE_VARIANCE=1e-9;
+        //Below this (absolute) correlation between position and value, an interval is rescanned
+        static final double UNRELIABLE_CORRELATION=1e-6;
+        //sum of x[0..i-1], of x[0..i-1]^2 and of t*x[t] for t in 0..i-1, where x is the centred series 
+        final double[] sumY;
+        final double[] sumYY;
+        final double[] sumTY;
+        //subtracted from every value, and the mean square of what is left
+        final double centre;
+        final double meanSquare;
+        //the series itself, for rescanning
+        final double[] data;
+        final int offset;
+        public IntervalSums(double[] data, int length){
+            this(data,0,length);
+        }
+        //the series data[offset] to data[offset+length-1]
+        public IntervalSums(double[] data, int offset, int length){
+            this.data=data;
+            this.offset=offset;
+            double total=0;
+            for(int i=0;i<length;i++)
+                total+=data[offset+i];
+            //the whole number nearest the mean, so that sums of whole (or halved etc.) 
+            //values stay exact, and so the same as rescanning
+            centre=length>0?Math.rint(total/length):0;
+            sumY=new double[length+1];
+            sumYY=new double[length+1];
+            sumTY=new double[length+1];
+            for(int i=0;i<length;i++){
+                double y=data[offset+i]-centre;
+                sumY[i+1]=sumY[i]+y;
+                sumYY[i+1]=sumYY[i]+y*y;
+                sumTY[i+1]=sumTY[i]+y*i;
+            }
+            meanSquare=length>0?sumYY[length]/length:0;
+        }
+    }
+    
 //Nested class to store three simple summary features used to construct train data
     public static class FeatureSet{
         double mean;
@@ -601,6 +768,31 @@ public class TSF extends AbstractClassifierWithTrainingInfo implements SaveParam
                 sumXX+=(i-start)*(i-start);
                 sumXY+=data[i]*(i-start);
             }
+            setFeatures(length,sumX,sumXX,sumY,sumYY,sumXY);
+        }
+        /**
+         * The same features from the cumulative sums of the series, in constant time
+         * unless the interval is (near) flat or has (near) zero slope, when it is rescanned
+         */
+        public void setFeatures(IntervalSums sums, int start, int end){
+            int length=end-start+1;
+            double sumY=sums.sumY[end+1]-sums.sumY[start];
+            double sumYY=sums.sumYY[end+1]-sums.sumYY[start];
+            //positions are relative to the start of the interval
+            double sumXY=sums.sumTY[end+1]-sums.sumTY[start]-start*sumY;
+            double sumX=length*(length-1)/2.0;
+            double sumXX=(length-1)*(double)length*(2*length-1)/6.0;
+            setFeatures(length,sumX,sumXX,sumY,sumYY,sumXY);
+            //the variance and slope do not depend on the centring, the mean does
+            mean=(sumY+length*sums.centre)/length;
+            double syy=sumYY-sumY*sumY/length;
+            double sxy=sumXY-sumX*sumY/length;
+            double sxx=sumXX-sumX*sumX/length;
+            if(syy<=IntervalSums.UNRELIABLE_VARIANCE*sums.meanSquare*length 
+                    || sxy*sxy<=IntervalSums.UNRELIABLE_CORRELATION*IntervalSums.UNRELIABLE_CORRELATION*sxx*syy)
+                setFeatures(sums.data,sums.offset+start,sums.offset+end);
+        }
+        private void setFeatures(int length, double sumX, double sumXX, double sumY, double sumYY, double sumXY){
             mean=sumY/length;
             stDev=sumYY-(sumY*sumY)/length;
             slope=(sumXY-(sumX*sumY)/length);
@@ -640,7 +832,7 @@ public class TSF extends AbstractClassifierWithTrainingInfo implements SaveParam
         tsf.writeCVTrainToFile(resultsLocation+problem+"trainFold0.csv");
         double a;
         tsf.buildClassifier(train);
-        System.out.println("build ok: original atts="+(train.numAttributes()-1)+" new atts ="+tsf.testHolder.numAttributes()+" num trees = "+tsf.numClassifiers+" num intervals = "+tsf.numIntervals);
+        System.out.println("build ok: original atts="+(train.numAttributes()-1)+" new atts ="+tsf.header.numAttributes()+" num trees = "+tsf.numClassifiers+" num intervals = "+tsf.numIntervals);
         a=ClassifierTools.accuracy(test, tsf);
         System.out.println("Test Accuracy ="+a);
         String[] options=new String[4];
@@ -650,7 +842,7 @@ public class TSF extends AbstractClassifierWithTrainingInfo implements SaveParam
         options[3]="1";
         tsf.setOptions(options);
         tsf.buildClassifier(train);
-        System.out.println("build ok: original atts="+(train.numAttributes()-1)+" new atts ="+tsf.testHolder.numAttributes()+" num trees = "+tsf.numClassifiers+" num intervals = "+tsf.numIntervals);
+        System.out.println("build ok: original atts="+(train.numAttributes()-1)+" new atts ="+tsf.header.numAttributes()+" num trees = "+tsf.numClassifiers+" num intervals = "+tsf.numIntervals);
         a=ClassifierTools.accuracy(test, tsf);
         System.out.println("Test Accuracy ="+a);
         
@@ -0,0 +1,34 @@
+/*
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package timeseriesweka.classifiers;
+
+import utilities.TimeSeriesDataset;
+
+/**
+ * Interface for classifiers that can build and predict straight from a
+    TimeSeriesDataset, reading the series in place rather than copying each one
+    out of an Instance. Building from Instances should give the same classifier
+    as building from TimeSeriesDataset.fromInstances of the same data.
+
+    known classifiers: RISE, TSF
+ */
+public interface TimeSeriesDatasetClassifier {
+
+    public void buildClassifier(TimeSeriesDataset data) throws Exception;
+
+    //one distribution over data.classNames() per series
+    public double[][] distributionsForSeries(TimeSeriesDataset data) throws Exception;
+
+}
@@ -18,7 +18,7 @@ package timeseriesweka.classifiers;
 import evaluation.evaluators.CrossValidationEvaluator;
 import evaluation.storage.ClassifierResults;
 import com.carrotsearch.hppc.*;
-import com.carrotsearch.hppc.cursors.IntCursor;
+
 import com.carrotsearch.hppc.cursors.IntIntCursor;
 import com.carrotsearch.hppc.cursors.LongFloatCursor;
 import de.bwaldvogel.liblinear.*;
@@ -34,6 +34,7 @@ import weka.core.TechnicalInformation;
 
 import java.io.Serializable;
 import java.util.*;
+import java.util.concurrent.Callable;
 import java.util.concurrent.atomic.AtomicInteger;
 
 /**
@@ -85,6 +86,7 @@ public class WEASEL extends AbstractClassifierWithTrainingInfo implements HiveCo
   private boolean trainCV=false;
   private int seed=0;
   boolean setSeed=false;
+  private int numThreads=1;
 
   @Override
   public void writeCVTrainToFile(String outputPathAndName) {
@@ -107,6 +109,17 @@ public class WEASEL extends AbstractClassifierWithTrainingInfo implements HiveCo
       setSeed = true;
   }
 
+  /**
+   * Number of threads the SFA words of the window lengths, the candidate
+   * (normalisation, word length) pairs, the liblinear folds and the folds of the
+   * train accuracy estimate are worked out on. The model is the same for any
+   * number of threads.
+   * @param numThreads 1 by default, 0 for all cores
+   */
+  public void setNumThreads(int numThreads){
+      this.numThreads = numThreads;
+  }
+
   public static class WEASELModel {
 
     public WEASELModel(){}
@@ -188,8 +201,6 @@ public class WEASEL extends AbstractClassifierWithTrainingInfo implements HiveCo
       final WEASELTransform.BagOfBigrams[] bob,
       final WEASELTransform.Dictionary dict,
       final double bias) {
-    Linear.resetRandom();
-
     Problem problem = new Problem();
     problem.bias = bias;
     problem.n = dict.size() + 1;
@@ -229,10 +240,31 @@ public class WEASEL extends AbstractClassifierWithTrainingInfo implements HiveCo
     array[idxB] = temp;
   }
 
+  // seed of the random component of each liblinear model, liblinear's default
+  private static final long LIBLINEAR_SEED = 0L;
+
+  /**
+   * Linear.train with a Random of its own, freshly seeded, so the model depends
+   * only on the problem and not on which thread trains it or what else is
+   * training at the same time. Models can be trained concurrently.
+   */
+  protected static de.bwaldvogel.liblinear.Model trainLinear(final Problem problem, final Parameter param) {
+    Parameter own = param.clone();
+    own.setRandom(new Random(LIBLINEAR_SEED));
+    return Linear.train(problem, own);
+  }
+
+  /**
+   * Cross validates liblinear, training the folds on up to numThreads threads.
+   * Each fold is trained by trainLinear from its own freshly seeded Random, so
+   * the number correct is the same for any number of threads.
+   *
+   * @return number of samples correctly classified over all folds
+   */
   @SuppressWarnings("static-access")
   protected static int trainLibLinear(
       final Problem prob, final SolverType solverType, double c,
-      int iter, double p, int nr_fold) {
+      int iter, double p, int nr_fold, int numThreads) throws Exception {
     final Parameter param = new Parameter(solverType, c, iter, p);
 
     ThreadLocal<Random> myRandom = new ThreadLocal<>();
@@ -259,43 +291,60 @@ public class WEASEL extends AbstractClassifierWithTrainingInfo implements HiveCo
       fold_start[k] = k * l / nr_fold;
     }
 
-    final AtomicInteger correct = new AtomicInteger(0);
-
     final int fold = nr_fold;
     Linear myLinear = new Linear();
     myLinear.disableDebugOutput();
-    myLinear.resetRandom(); // reset random component of liblinear for reproducibility
 
+    List<Callable<Integer>> tasks = new ArrayList<>(fold);
     for (int i = 0; i < fold; i++) {
-      int begin = fold_start[i];
-      int end = fold_start[i + 1];
-      int j, kk;
-      Problem subprob = new Problem();
+      final int begin = fold_start[i];
+      final int end = fold_start[i + 1];
+      tasks.add(() -> trainFold(prob, param, perm, begin, end));
+    }
 
-      subprob.bias = prob.bias;
-      subprob.n = prob.n;
-      subprob.l = l - (end - begin);
-      subprob.x = new Feature[subprob.l][];
-      subprob.y = new double[subprob.l];
+    final AtomicInteger correct = new AtomicInteger(0);
+    for (int foldCorrect : ThreadingUtilities.invokeAll(tasks, numThreads)) {
+      correct.addAndGet(foldCorrect);
+    }
+    return correct.get();
+  }
 
-      kk = 0;
-      for (j = 0; j < begin; j++) {
-        subprob.x[kk] = prob.x[perm[j]];
-        subprob.y[kk] = prob.y[perm[j]];
-        ++kk;
-      }
-      for (j = end; j < l; j++) {
-        subprob.x[kk] = prob.x[perm[j]];
-        subprob.y[kk] = prob.y[perm[j]];
-        ++kk;
-      }
+  /**
+   * Trains liblinear on all samples but perm[begin..end) and classifies those
+   *
+   * @return number of samples in perm[begin..end) correctly classified
+   */
+  private static int trainFold(
+      final Problem prob, final Parameter param, final int[] perm,
+      final int begin, final int end) {
+    final int l = prob.l;
+    int j, kk;
+    Problem subprob = new Problem();
+
+    subprob.bias = prob.bias;
+    subprob.n = prob.n;
+    subprob.l = l - (end - begin);
+    subprob.x = new Feature[subprob.l][];
+    subprob.y = new double[subprob.l];
+
+    kk = 0;
+    for (j = 0; j < begin; j++) {
+      subprob.x[kk] = prob.x[perm[j]];
+      subprob.y[kk] = prob.y[perm[j]];
+      ++kk;
+    }
+    for (j = end; j < l; j++) {
+      subprob.x[kk] = prob.x[perm[j]];
+      subprob.y[kk] = prob.y[perm[j]];
+      ++kk;
+    }
 
-      de.bwaldvogel.liblinear.Model submodel = myLinear.train(subprob, param);
-      for (j = begin; j < end; j++) {
-        correct.addAndGet(prob.y[perm[j]] == myLinear.predict(submodel, prob.x[perm[j]]) ? 1 : 0);
-      }
+    de.bwaldvogel.liblinear.Model submodel = trainLinear(subprob, param);
+    int correct = 0;
+    for (j = begin; j < end; j++) {
+      correct += prob.y[perm[j]] == Linear.predict(submodel, prob.x[perm[j]]) ? 1 : 0;
     }
-    return correct.get();
+    return correct;
   }
 
   @Override
@@ -308,8 +357,10 @@ public class WEASEL extends AbstractClassifierWithTrainingInfo implements HiveCo
         if (setSeed)
             cv.setSeed(seed);
         cv.setNumFolds(numFolds);
+        cv.setNumThreads(numThreads);
 
         WEASEL weasel=new WEASEL();
+        weasel.setNumThreads(numThreads);
         trainResults=cv.crossValidateWithStats(weasel,samples);
     }
     
@@ -317,40 +368,66 @@ public class WEASEL extends AbstractClassifierWithTrainingInfo implements HiveCo
       throw new Exception("WEASEL_BuildClassifier: Class attribute not set as last attribute in dataset");
 
     try {
-      int maxCorrect = -1;
-      int bestF = -1;
-      boolean bestNorm = false;
-
-      optimize:
-      for (final boolean mean : NORMALIZATION) {
-        int[] windowLengths = getWindowLengths(samples, mean);
-        WEASELTransform model = new WEASELTransform(maxF, maxS, windowLengths, mean);
-        int[][][] words = model.createWords(samples);
-
-        for (int f = minF; f <= maxF; f += 2) {
-          model.dict.reset();
-          WEASELTransform.BagOfBigrams[] bop = model.createBagOfPatterns(words, samples, f);
-          model.filterChiSquared(bop, chi);
-
-          // train liblinear
-          final Problem problem = initLibLinearProblem(bop, model.dict, bias);
-          int correct = trainLibLinear(problem, solverType, c, iterations, p, folds);
-
-          if (correct > maxCorrect) {
-            //System.out.println(correct + "\t" + f);
-            maxCorrect = correct;
-            bestF = f;
-            bestNorm = mean;
-          }
-          if (correct == samples.numInstances()) {
-            break optimize;
+      // candidate i is NORMALIZATION[i / numF] with word length minF + 2 * (i % numF).
+      // Candidates are tried in parallel, but any after the first to classify all
+      // samples correctly are ignored, as the search used to stop there.
+      final int numF = (maxF - minF) / 2 + 1;
+      final int[] correct = new int[NORMALIZATION.length * numF];
+      final AtomicInteger firstPerfect = new AtomicInteger(correct.length);
+      final WEASELTransform[] models = new WEASELTransform[NORMALIZATION.length];
+
+      List<Callable<Void>> normTasks = new ArrayList<>(NORMALIZATION.length);
+      for (int n = 0; n < NORMALIZATION.length; n++) {
+        final int norm = n;
+        normTasks.add(() -> {
+          if (norm * numF > firstPerfect.get())
+            return null;
+          final boolean mean = NORMALIZATION[norm];
+          final WEASELTransform model = new WEASELTransform(maxF, maxS, getWindowLengths(samples, mean), mean);
+          model.numThreads = numThreads;
+          final int[][][] words = model.createWords(samples);
+          models[norm] = model;
+
+          List<Callable<Void>> fTasks = new ArrayList<>(numF);
+          for (int i = 0; i < numF; i++) {
+            final int candidate = norm * numF + i;
+            final int f = minF + 2 * i;
+            fTasks.add(() -> {
+              if (candidate > firstPerfect.get())
+                return null;
+              WEASELTransform fModel = model.withNewDictionary();
+              WEASELTransform.BagOfBigrams[] bop = fModel.createBagOfPatterns(words, samples, f);
+              fModel.filterChiSquared(bop, chi);
+
+              // train liblinear
+              final Problem problem = initLibLinearProblem(bop, fModel.dict, bias);
+              correct[candidate] = trainLibLinear(problem, solverType, c, iterations, p, folds, numThreads);
+              if (correct[candidate] == samples.numInstances())
+                firstPerfect.accumulateAndGet(candidate, Math::min);
+              return null;
+            });
           }
+          ThreadingUtilities.invokeAll(fTasks, numThreads);
+          return null;
+        });
+      }
+      ThreadingUtilities.invokeAll(normTasks, numThreads);
+
+      int maxCorrect = -1;
+      int best = -1;
+      for (int i = 0; i < correct.length && i <= firstPerfect.get(); i++) {
+        if (correct[i] > maxCorrect) {
+          maxCorrect = correct[i];
+          best = i;
         }
       }
+      int bestF = minF + 2 * (best % numF);
+      boolean bestNorm = NORMALIZATION[best / numF];
 
-      // obtain the final matrix
-      int[] windowLengths = getWindowLengths(samples, bestNorm);
-      WEASELTransform model = new WEASELTransform(maxF, maxS, windowLengths, bestNorm);
+      // obtain the final matrix. The words of each normalisation are dropped
+      // once its candidates are done, so those of the best are made again from
+      // its already fitted SFA transforms rather than held for the whole search
+      WEASELTransform model = models[best / numF].withNewDictionary();
 
       int[][][] words = model.createWords(samples);
       WEASELTransform.BagOfBigrams[] bob = model.createBagOfPatterns(words, samples, bestF);
@@ -358,7 +435,7 @@ public class WEASEL extends AbstractClassifierWithTrainingInfo implements HiveCo
 
       // train liblinear
       Problem problem = initLibLinearProblem(bob, model.dict, bias);
-      de.bwaldvogel.liblinear.Model linearModel = Linear.train(problem, new Parameter(solverType, c, iterations, p));
+      de.bwaldvogel.liblinear.Model linearModel = trainLinear(problem, new Parameter(solverType, c, iterations, p));
 
       this.classifier = new WEASELModel(
           bestNorm,
@@ -374,7 +451,7 @@ public class WEASEL extends AbstractClassifierWithTrainingInfo implements HiveCo
     long t2=System.currentTimeMillis();
     trainResults.setBuildTime(t2-t1);
     
-    if(trainCVPath!=""){
+    if(!trainCVPath.isEmpty()){
         OutFile of=new OutFile(trainCVPath);
         of.writeLine(samples.relationName()+",TSF,train");
         of.writeLine(getParameters());
@@ -515,6 +592,9 @@ public class WEASEL extends AbstractClassifierWithTrainingInfo implements HiveCo
     public SFASupervised[] signature;
     public Dictionary dict;
 
+    // threads the window lengths are split over in createWords(Instances)
+    public int numThreads = 1;
+
     /**
      * The WEASEL-model: a histogram of SFA word and bi-gram frequencies
      */
@@ -577,15 +657,26 @@ public class WEASEL extends AbstractClassifierWithTrainingInfo implements HiveCo
         }
       }
 
+      /**
+       * Numbers the words kept by the chi-squared test. hppc iterates its maps
+       * in a random order, so the words of each bag are numbered in key order,
+       * to give the same liblinear problem, and so model, on every build.
+       */
       public void remap(final BagOfBigrams[] bagOfPatterns) {
         for (int j = 0; j < bagOfPatterns.length; j++) {
           IntIntHashMap oldMap = bagOfPatterns[j].bob;
           bagOfPatterns[j].bob = new IntIntHashMap();
+          int[] keys = new int[oldMap.size()];
+          int numKeys = 0;
           for (IntIntCursor word : oldMap) {
             if (word.value > 0) {
-              bagOfPatterns[j].bob.put(getWordChi(word.key), word.value);
+              keys[numKeys++] = word.key;
             }
           }
+          Arrays.sort(keys, 0, numKeys);
+          for (int k = 0; k < numKeys; k++) {
+            bagOfPatterns[j].bob.put(getWordChi(keys[k]), oldMap.get(keys[k]));
+          }
         }
       }
     }
@@ -600,19 +691,31 @@ public class WEASEL extends AbstractClassifierWithTrainingInfo implements HiveCo
       this.signature = new SFASupervised[windowLengths.length];
     }
 
+    /**
+     * @return a transform with the same SFA signatures but an empty dictionary of
+     * its own, so bags of patterns of several word lengths can be built at once
+     */
+    public WEASELTransform withNewDictionary() {
+      WEASELTransform model = new WEASELTransform(this.maxF, this.alphabetSize, this.windowLengths, this.normMean);
+      model.signature = this.signature;
+      model.numThreads = this.numThreads;
+      return model;
+    }
+
     /**
      * Create SFA words and bigrams for all samples
      *
      * @param samples
      * @return
      */
-    public int[][][] createWords(final Instances samples) {
-      // create bag of words for each window queryLength
-      final int[][][] words = new int[this.windowLengths.length][samples.numInstances()][];
+    public int[][][] createWords(final Instances samples) throws Exception {
+      // create bag of words for each window queryLength, on up to numThreads threads
+      List<Callable<int[][]>> tasks = new ArrayList<>(this.windowLengths.length);
       for (int w = 0; w < this.windowLengths.length; w++) {
-        words[w] = createWords(samples, w);
-      };
-      return words;
+        final int index = w;
+        tasks.add(() -> createWords(samples, index));
+      }
+      return ThreadingUtilities.invokeAll(tasks, this.numThreads).toArray(new int[this.windowLengths.length][][]);
     }
 
     /**
@@ -948,8 +1051,11 @@ public class WEASEL extends AbstractClassifierWithTrainingInfo implements HiveCo
     protected double entropy(ObjectIntHashMap<Double> frequency, double total) {
       double entropy = 0;
       double log2 = 1.0 / Math.log(2.0);
-      for (IntCursor element : frequency.values()) {
-        double p = element.value / total;
+      // summed in a fixed order, as hppc iterates in a random one
+      int[] counts = frequency.values().toArray();
+      Arrays.sort(counts);
+      for (int count : counts) {
+        double p = count / total;
         if (p > 0) {
           entropy -= p * Math.log(p) * log2;
         }
@@ -1682,4 +1788,4 @@ public class WEASEL extends AbstractClassifierWithTrainingInfo implements HiveCo
 
   }
 
-}
\ No newline at end of file
+}
\ No newline at end of file
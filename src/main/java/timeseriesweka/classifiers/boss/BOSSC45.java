@@ -35,7 +35,6 @@ import weka.classifiers.Classifier;
 import weka.core.TechnicalInformation;
 
 import java.util.HashSet;
-import java.util.Map.Entry;
 import java.util.Set;
 import timeseriesweka.classifiers.BOSS;
 import utilities.BitWord;
@@ -683,8 +682,8 @@ public class BOSSC45 implements Classifier, SaveParameterInfo,TrainAccuracyEstim
             FastVector<Attribute> attInfo = new FastVector<>();
             Set<String> wordsFound = new HashSet<>();
             for (Bag bag : bags) 
-                for (Entry<BitWord,Integer> entry : bag.entrySet()) 
-                    wordsFound.add(entry.getKey().toString());
+                for (int j = 0; j < bag.size(); ++j) 
+                    wordsFound.add(bag.getBitWord(j).toString());
             for (String word : wordsFound) 
                 attInfo.add(new Attribute(word));
 
@@ -702,8 +701,8 @@ public class BOSSC45 implements Classifier, SaveParameterInfo,TrainAccuracyEstim
                 init[init.length-1] = bag.getClassVal();
 
                 bagInsts.add(new DenseInstance(1, init));
-                for (Entry<BitWord,Integer> entry : bag.entrySet())
-                    bagInsts.get(i).setValue(bagInsts.attribute(entry.getKey().toString()), entry.getValue());
+                for (int j = 0; j < bag.size(); ++j)
+                    bagInsts.get(i).setValue(bagInsts.attribute(bag.getBitWord(j).toString()), bag.getCount(j));
 
                 i++;
             }
@@ -785,10 +784,10 @@ public class BOSSC45 implements Classifier, SaveParameterInfo,TrainAccuracyEstim
 
             //TEMPORARILY create it on the end of the train insts to easily copy over the attribute data.
             bagInsts.add(new DenseInstance(1, init));
-            for (Entry<BitWord,Integer> entry : testBag.entrySet()) {
-                Attribute att = bagInsts.attribute(entry.getKey().toString());
+            for (int i = 0; i < testBag.size(); ++i) {
+                Attribute att = bagInsts.attribute(testBag.getBitWord(i).toString());
                 if (att != null)
-                    bagInsts.get(bagInsts.size()-1).setValue(att, entry.getValue());
+                    bagInsts.get(bagInsts.size()-1).setValue(att, testBag.getCount(i));
             }
 
             Instance testInst = bagInsts.remove(bagInsts.size()-1);
@@ -807,10 +806,10 @@ public class BOSSC45 implements Classifier, SaveParameterInfo,TrainAccuracyEstim
 
             //TEMPORARILY create it on the end of the train isnts to easily copy over the attribute data.
             bagInsts.add(new DenseInstance(1, init));
-            for (Entry<BitWord,Integer> entry : testBag.entrySet()) {
-                Attribute att = bagInsts.attribute(entry.getKey().toString());
+            for (int i = 0; i < testBag.size(); ++i) {
+                Attribute att = bagInsts.attribute(testBag.getBitWord(i).toString());
                 if (att != null)
-                    bagInsts.get(bagInsts.numInstances()-1).setValue(att, entry.getValue());
+                    bagInsts.get(bagInsts.numInstances()-1).setValue(att, testBag.getCount(i));
             }
             Instance testInst = bagInsts.remove(bagInsts.size()-1);
 
@@ -818,4 +817,4 @@ public class BOSSC45 implements Classifier, SaveParameterInfo,TrainAccuracyEstim
         }
     }
 
-}
\ No newline at end of file
+}
\ No newline at end of file
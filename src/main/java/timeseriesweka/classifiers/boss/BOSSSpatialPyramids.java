@@ -686,6 +686,13 @@ public class BOSSSpatialPyramids implements Classifier, SaveParameterInfo,TrainA
 
         protected boolean numerosityReduction = true; 
 
+        //cos/sin of every term of the first wordLength/2 coefficients, built once per series length 
+        //so that the DFTs below don't call Math.cos/Math.sin for every term of every window.
+        //DFT and DFTunnormed calculate the angle slightly differently, so each keeps its own table 
+        //to give exactly the same values as before
+        private transient double[][] dftCos, dftSin, unnormedCos, unnormedSin;
+        private transient double[] mftPhis;
+
         protected static final long serialVersionUID = 1L;
 
         public BOSSSpatialPyramidsIndividual(int wordLength, int alphabetSize, int windowSize, boolean normalise, int levels) {
@@ -812,13 +819,16 @@ public class BOSSSpatialPyramids implements Classifier, SaveParameterInfo,TrainA
             double normalisingFactor = inverseSqrtWindowSize / stdDev(series);
 
             double[] dft=new double[outputLength*2];
+            initTwiddles(n);
 
             for (int k = start; k < start + outputLength; k++) {  // For each output element
+                double[] cos = dftCos[k-start];
+                double[] sin = dftSin[k-start];
                 float sumreal = 0;
                 float sumimag = 0;
                 for (int t = 0; t < n; t++) {  // For each input element
-                    sumreal +=  series[t]*Math.cos(2*Math.PI * t * k / n);
-                    sumimag += -series[t]*Math.sin(2*Math.PI * t * k / n);
+                    sumreal +=  series[t]*cos[t];
+                    sumimag += -series[t]*sin[t];
                 }
                 dft[(k-start)*2]   = sumreal * normalisingFactor;
                 dft[(k-start)*2+1] = sumimag * normalisingFactor;
@@ -839,14 +849,16 @@ public class BOSSSpatialPyramids implements Classifier, SaveParameterInfo,TrainA
             //all Fourier coefficients are divided by sqrt(windowSize)
 
             double[] dft = new double[outputLength*2];
-            double twoPi = 2*Math.PI / n;
+            initTwiddles(n);
 
             for (int k = start; k < start + outputLength; k++) {  // For each output element
+                double[] cos = unnormedCos[k-start];
+                double[] sin = unnormedSin[k-start];
                 float sumreal = 0;
                 float sumimag = 0;
                 for (int t = 0; t < n; t++) {  // For each input element
-                    sumreal +=  series[t]*Math.cos(twoPi * t * k);
-                    sumimag += -series[t]*Math.sin(twoPi * t * k);
+                    sumreal +=  series[t]*cos[t];
+                    sumimag += -series[t]*sin[t];
                 }
                 dft[(k-start)*2]   = sumreal;
                 dft[(k-start)*2+1] = sumimag;
@@ -854,6 +866,31 @@ public class BOSSSpatialPyramids implements Classifier, SaveParameterInfo,TrainA
             return dft;
         }
 
+        private void initTwiddles(int n) {
+            int outputLength = wordLength/2;
+            if (dftCos != null && dftCos.length == outputLength && (outputLength == 0 || dftCos[0].length == n))
+                return;
+
+            int start = (norm ? 1 : 0);
+            double twoPi = 2*Math.PI / n;
+            double[][] cos = new double[outputLength][n];
+            double[][] sin = new double[outputLength][n];
+            double[][] ucos = new double[outputLength][n];
+            double[][] usin = new double[outputLength][n];
+            for (int k = start; k < start + outputLength; k++) {
+                for (int t = 0; t < n; t++) {
+                    cos[k-start][t] = Math.cos(2*Math.PI * t * k / n);
+                    sin[k-start][t] = Math.sin(2*Math.PI * t * k / n);
+                    ucos[k-start][t] = Math.cos(twoPi * t * k);
+                    usin[k-start][t] = Math.sin(twoPi * t * k);
+                }
+            }
+            dftSin = sin;
+            unnormedCos = ucos;
+            unnormedSin = usin;
+            dftCos = cos;
+        }
+
         private double[] normalizeDFT(double[] dft, double std) {
           double normalisingFactor = (std > 0? 1.0 / std : 1.0) * inverseSqrtWindowSize;
           for (int i = 0; i < dft.length; i++) {
@@ -867,11 +904,15 @@ public class BOSSSpatialPyramids implements Classifier, SaveParameterInfo,TrainA
             int startOffset = norm ? 2 : 0;
             int l = wordLength;
             l = l + l % 2; // make it even
-            double[] phis = new double[l];
-            for (int u = 0; u < phis.length; u += 2) {
-                double uHalve = -(u + startOffset) / 2;
-                phis[u] = realephi(uHalve, windowSize);
-                phis[u + 1] = complexephi(uHalve, windowSize);
+            double[] phis = mftPhis;
+            if (phis == null || phis.length != l) {
+                phis = new double[l];
+                for (int u = 0; u < phis.length; u += 2) {
+                    double uHalve = -(u + startOffset) / 2;
+                    phis[u] = realephi(uHalve, windowSize);
+                    phis[u + 1] = complexephi(uHalve, windowSize);
+                }
+                mftPhis = phis;
             }
             // means and stddev for each sliding window
             int end = Math.max(1, series.length - windowSize + 1);
@@ -1422,4 +1463,4 @@ public class BOSSSpatialPyramids implements Classifier, SaveParameterInfo,TrainA
         }
     }
 
-}
\ No newline at end of file
+}
\ No newline at end of file
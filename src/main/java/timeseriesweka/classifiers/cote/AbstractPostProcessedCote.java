@@ -121,6 +121,35 @@ public abstract class AbstractPostProcessedCote {
     }
     
     
+    /**
+     * Uses module outputs already in memory rather than loading them from the 
+     * results files, e.g. the module distributions of a HiveCote 
+     * (HiveCote.moduleDistributions), so the ensemble can be reweighted without
+     * predicting again.
+     * @param classifierNames
+     * @param cvAccs [classifier]
+     * @param testDists [classifier][instance][classVal]
+     * @param testActualClassVals [instance]
+     */
+    public void setResults(ArrayList<String> classifierNames, double[] cvAccs, double[][][] testDists, double[] testActualClassVals){
+        this.classifierNames = classifierNames;
+        this.cvAccs = cvAccs;
+        this.testDists = testDists;
+        this.testActualClassVals = testActualClassVals;
+        testPreds = new double[testDists.length][testActualClassVals.length];
+        testAccs = new double[testDists.length];
+        for(int c = 0; c < testDists.length; c++){
+            int correct = 0;
+            for(int i = 0; i < testActualClassVals.length; i++){
+                testPreds[c][i] = classifyInstanceFromDistribution(testDists[c][i]);
+                if(testPreds[c][i]==testActualClassVals[i]){
+                    correct++;
+                }
+            }
+            testAccs[c] = (double)correct/testActualClassVals.length;
+        }
+    }
+    
     protected double classifyInstanceFromDistribution(double[] dist){
         double bsfClassVal = -1;
         double bsfClassWeight = -1;
@@ -136,6 +165,18 @@ public abstract class AbstractPostProcessedCote {
     
     public abstract double[] distributionForInstance(int testInstanceId) throws Exception;
     
+    /**
+     * @return distributionForInstance of every test instance
+     * @throws Exception 
+     */
+    public double[][] distributionsForAllInstances() throws Exception{
+        double[][] dists = new double[testPreds[0].length][];
+        for(int i = 0; i < dists.length; i++){
+            dists[i] = this.distributionForInstance(i);
+        }
+        return dists;
+    }
+    
     public void writeTestSheet() throws Exception{
         writeTestSheet(this.resultsDir);
     }
@@ -157,8 +198,9 @@ public abstract class AbstractPostProcessedCote {
         int correct = 0;
         double act, pred;
         double[] dist;
+        double[][] dists = this.distributionsForAllInstances();
         for(int i = 0; i < testPreds[0].length; i++){
-            dist = this.distributionForInstance(i);
+            dist = dists[i];
             act = this.testActualClassVals[i];
             pred = this.classifyInstanceFromDistribution(dist);
             if(act==pred){
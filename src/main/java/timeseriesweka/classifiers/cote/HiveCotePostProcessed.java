@@ -16,6 +16,9 @@ package timeseriesweka.classifiers.cote;
 
 import experiments.DataSets;
 import java.util.ArrayList;
+import java.util.Arrays;
+import timeseriesweka.classifiers.HiveCote;
+import weka.core.Instances;
 
 import static utilities.ClassifierTools.loadData;
 
@@ -59,6 +62,26 @@ public class HiveCotePostProcessed extends AbstractPostProcessedCote{
         this.classifierNames = getDefaultClassifierNames();
     }
 
+    /**
+     * Post processes a HiveCote that is already built, reusing the distributions 
+     * of its modules on the test data rather than reading results files. The 
+     * modules only predict on test once (see HiveCote.cachedModuleDistributions), 
+     * however many alphas or voting schemes are then tried.
+     * @param hive built HiveCote
+     * @param test
+     * @param datasetName
+     * @throws Exception 
+     */
+    public HiveCotePostProcessed(HiveCote hive, Instances test, String datasetName) throws Exception {
+        this.datasetName = datasetName;
+        this.resampleId = 0;
+        double[] actualClassVals = new double[test.numInstances()];
+        for(int i = 0; i < actualClassVals.length; i++){
+            actualClassVals[i] = test.instance(i).classValue();
+        }
+        setResults(new ArrayList<>(Arrays.asList(hive.getModuleNames())), hive.getModuleWeights(), hive.cachedModuleDistributions(test), actualClassVals);
+    }
+
     public void setAlpha(double alpha){
         this.alpha = alpha;
     }
@@ -88,6 +111,27 @@ public class HiveCotePostProcessed extends AbstractPostProcessedCote{
         }
     }
     
+    /**
+     * With probs, all instances are combined at once by HiveCote.weightedDistributions, 
+     * giving the same distributions as distributionForInstanceWithProbs
+     * @return
+     * @throws Exception 
+     */
+    @Override
+    public double[][] distributionsForAllInstances() throws Exception{
+        if(useVoting){
+            return super.distributionsForAllInstances();
+        }
+        if(this.testDists==null){
+            throw new Exception("Error: classifier not initialised correctly. Load results before classifiying.");
+        }
+        double[] weights = new double[cvAccs.length];
+        for(int classifier = 0; classifier < weights.length; classifier++){
+            weights[classifier] = Math.pow(this.cvAccs[classifier],alpha);
+        }
+        return HiveCote.weightedDistributions(testDists, weights);
+    }
+    
     public double[] distributionForInstanceWithProbs(int testInstanceId) throws Exception{
         if(this.testDists==null){
             throw new Exception("Error: classifier not initialised correctly. Load results before classifiying.");
@@ -19,6 +19,7 @@ import weka.classifiers.lazy.kNN;
 import weka.core.Capabilities;
 import weka.core.Instance;
 import weka.core.Instances;
+import timeseriesweka.elastic_distance_measures.BandedDTW;
 import timeseriesweka.elastic_distance_measures.DTW;
 
 /**
@@ -30,6 +31,14 @@ public class DTW1NN extends Efficient1NN {
     
     private double r = 1;
     
+    private final BandedDTW engine = new BandedDTW();
+    private transient double[] firstBuffer;
+    private transient double[] secondBuffer;
+    private DTW fallback;
+    private transient LowerBoundCascade lowerBounds;
+    private transient double[] queryBuffer;
+    private int lastMinKey = Integer.MAX_VALUE;
+    
     /**
      * Constructor with specified window size (between 0 and 1). When a window
      * size is specified, cross-validation methods will become inactive for this
@@ -87,7 +96,95 @@ public class DTW1NN extends Efficient1NN {
     }
             
     
+    @Override
+    public void buildClassifier(Instances train) throws Exception{
+        super.buildClassifier(train);
+        // copy out the training series and their envelopes once per build rather than per query
+        this.lowerBounds = null;
+        if(this.useLowerBounds && train.classIndex() == train.numAttributes()-1){
+            this.lowerBounds = new LowerBoundCascade(train);
+            this.lowerBounds.setReach(getWindowSize(train.numAttributes()-1)-1);
+        }
+    }
+    
+    @Override
+    protected void initQuery(Instance query){
+        if(this.lowerBounds == null || query.classIndex() != query.numAttributes()-1){
+            return;
+        }
+        int n = query.numAttributes()-1;
+        if(queryBuffer == null || queryBuffer.length < n){
+            queryBuffer = new double[n];
+        }
+        for(int i = 0; i < n; i++){
+            queryBuffer[i] = query.value(i);
+        }
+    }
+    
+    @Override
+    protected double lowerBoundedDistance(Instance query, int trainIndex, double cutOffValue){
+        if(!this.useLowerBounds || this.lowerBounds == null || query.classIndex() != query.numAttributes()-1){
+            return distance(query, this.train.instance(trainIndex), cutOffValue);
+        }
+        int n = query.numAttributes()-1;
+        int windowSize = getWindowSize(n);
+        // only recomputes the envelopes if r has changed since the last query
+        this.lowerBounds.setReach(windowSize-1);
+        if(this.lowerBounds.lowerBound(queryBuffer, n, trainIndex, cutOffValue) > cutOffValue){
+            lastMinKey = Integer.MAX_VALUE;
+            return Double.MAX_VALUE;
+        }
+        double[] candidate = this.lowerBounds.getTrainSeries(trainIndex);
+        double dist = engine.distance(queryBuffer, n, candidate, candidate.length, windowSize, cutOffValue, this.lowerBounds.getCumulativeBound());
+        setLastMinKey(n, candidate.length);
+        return dist;
+    }
+    
+    /**
+     * The key is the window size, so values of r that give the same window on
+     * this series length share their loocv
+     */
+    @Override
+    protected int getDistanceKey(Instances train, int paramId){
+        if(train.classIndex() != train.numAttributes()-1){
+            return paramId;
+        }
+        return getWindowSize((double)paramId/100, train.numAttributes()-1);
+    }
+    
+    @Override
+    protected boolean isDistanceNonIncreasingInKey(){
+        return true;
+    }
+    
+    @Override
+    protected void setTrackMinKey(boolean track){
+        engine.setTrackWarp(track);
+    }
+    
+    /**
+     * A smaller window gives the same distance as long as it still contains 
+     * the whole warping path, so the smallest such window is one more than the
+     * largest deviation of the path from the diagonal
+     */
+    @Override
+    protected int getLastMinKey(){
+        return lastMinKey;
+    }
+    
+    private void setLastMinKey(int n, int m){
+        if(engine.getTrackWarp()){
+            lastMinKey = Math.max(engine.getMaxWarp(), Math.abs(n-m))+1;
+        }else{
+            lastMinKey = Integer.MAX_VALUE;
+        }
+    }
+    
     final public int getWindowSize(int n){
+        return getWindowSize(r, n);
+    }
+    
+    public static int getWindowSize(double r, int n){
         int w=(int)(r*n);   //Rounded down.
                 //No Warp, windowSize=1
         if(w<1) w=1;
@@ -114,73 +211,37 @@ public class DTW1NN extends Efficient1NN {
         // base case - we're assuming class val is last. If this is true, this method is fine,
         // if not, we'll default to the DTW class
         if(first.classIndex() != first.numAttributes()-1 || second.classIndex()!=second.numAttributes()-1){
-            DTW temp = new DTW();
-            temp.setR(r);
-            return temp.distance(first, second,cutoff);
+            if(fallback == null){
+                fallback = new DTW();
+            }
+            fallback.setR(r);
+            lastMinKey = Integer.MAX_VALUE;
+            return fallback.distance(first, second,cutoff);
         }        
         
-        double minDist;
-        boolean tooBig;
-
         int n = first.numAttributes()-1;
         int m = second.numAttributes()-1;
         /*  Parameter 0<=r<=1. 0 == no warp, 1 == full warp 
          generalised for variable window size
          * */
         int windowSize = getWindowSize(n);
-//Extra memory than required, could limit to windowsize,
-//        but avoids having to recreate during CV 
-//for varying window sizes        
-        double[][] matrixD = new double[n][m];
         
-        /*
-         //Set boundary elements to max. 
-         */
-        int start, end;
-        for (int i = 0; i < n; i++) {
-            start = windowSize < i ? i - windowSize : 0;
-            end = i + windowSize + 1 < m ? i + windowSize + 1 : m;
-            for (int j = start; j < end; j++) {
-                matrixD[i][j] = Double.MAX_VALUE;
-            }
+        // copy the series into buffers that are kept between calls rather than allocating per distance
+        if(firstBuffer == null || firstBuffer.length < n){
+            firstBuffer = new double[n];
         }
-        matrixD[0][0] = (first.value(0) - second.value(0)) * (first.value(0) - second.value(0));
-//a is the longer series. 
-//Base cases for warping 0 to all with max interval	r	
-//Warp first.value(0] onto all second.value(1]...second.value(r+1]
-        for (int j = 1; j < windowSize && j < m; j++) {
-            matrixD[0][j] = matrixD[0][j - 1] + (first.value(0) - second.value(j)) * (first.value(0) - second.value(j));
+        if(secondBuffer == null || secondBuffer.length < m){
+            secondBuffer = new double[m];
         }
-
-//	Warp second.value(0] onto all first.value(1]...first.value(r+1]
-        for (int i = 1; i < windowSize && i < n; i++) {
-            matrixD[i][0] = matrixD[i - 1][0] + (first.value(i) - second.value(0)) * (first.value(i) - second.value(0));
+        for(int i = 0; i < n; i++){
+            firstBuffer[i] = first.value(i);
         }
-//Warp the rest,
-        for (int i = 1; i < n; i++) {
-            tooBig = true;
-            start = windowSize < i ? i - windowSize + 1 : 1;
-            end = i + windowSize < m ? i + windowSize : m;
-            for (int j = start; j < end; j++) {
-                minDist = matrixD[i][j - 1];
-                if (matrixD[i - 1][j] < minDist) {
-                    minDist = matrixD[i - 1][j];
-                }
-                if (matrixD[i - 1][j - 1] < minDist) {
-                    minDist = matrixD[i - 1][j - 1];
-                }
-                matrixD[i][j] = minDist + (first.value(i) - second.value(j)) * (first.value(i) - second.value(j));
-                if (tooBig && matrixD[i][j] < cutoff) {
-                    tooBig = false;
-                }
-            }
-            //Early abandon
-            if (tooBig) {
-                return Double.MAX_VALUE;
-            }
+        for(int j = 0; j < m; j++){
+            secondBuffer[j] = second.value(j);
         }
-//Find the minimum distance at the end points, within the warping window. 
-        return matrixD[n-1][m-1];
+        double dist = engine.distance(firstBuffer, n, secondBuffer, m, windowSize, cutoff, null);
+        setLastMinKey(n, m);
+        return dist;
     }
     
     
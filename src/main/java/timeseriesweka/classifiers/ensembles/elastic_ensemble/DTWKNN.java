@@ -64,6 +64,11 @@ public class DTWKNN extends DTW1NN {
         this.k = k;
     }
     
+    @Override
+    protected boolean canUseLoocvEngine(){
+        return false;
+    }
+    
     @Override
     public double classifyInstance(Instance instance) throws Exception {
         return indexOfMax(distributionForInstance(instance));
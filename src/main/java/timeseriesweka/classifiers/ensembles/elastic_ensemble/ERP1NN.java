@@ -37,6 +37,10 @@ public class ERP1NN extends Efficient1NN{
     private double[] gValues;
     private double[] windowSizes;
     private boolean gAndWindowsRefreshed = false;
+    
+    private final ERPDistance kernel = new ERPDistance(0.5, 5);
+    private transient double[] firstBuffer;
+    private transient double[] secondBuffer;
 
     public ERP1NN(double g, double bandSize) {
         this.g = g;
@@ -76,82 +80,22 @@ public class ERP1NN extends Efficient1NN{
         int n = second.numAttributes() - 1;
         
         
-        // Current and previous columns of the matrix
-        double[] curr = new double[m];
-        double[] prev = new double[m];
-
-        // size of edit distance band
-        // bandsize is the maximum allowed distance to the diagonal
-//        int band = (int) Math.ceil(v2.getDimensionality() * bandSize);
-        int band = (int) Math.ceil(m * bandSize);
-
-        // g parameter for local usage
-        double gValue = g;
-
-        for (int i = 0; i < m; i++) {
-            // Swap current and prev arrays. We'll just overwrite the new curr.
-            {
-                double[] temp = prev;
-                prev = curr;
-                curr = temp;
-            }
-            int l = i - (band + 1);
-            if (l < 0) {
-                l = 0;
-            }
-            int r = i + (band + 1);
-            if (r > (m-1)) {
-                r = (m-1);
-            }
-
-            for (int j = l; j <= r; j++) {
-                if (Math.abs(i - j) <= band) {
-                    // compute squared distance of feature vectors
-                    double val1 = first.value(i);
-                    double val2 = gValue;
-                    double diff = (val1 - val2);
-                    final double d1 = Math.sqrt(diff * diff);
-
-                    val1 = gValue;
-                    val2 = second.value(j);
-                    diff = (val1 - val2);
-                    final double d2 = Math.sqrt(diff * diff);
-
-                    val1 = first.value(i);
-                    val2 = second.value(j);
-                    diff = (val1 - val2);
-                    final double d12 = Math.sqrt(diff * diff);
-
-                    final double dist1 = d1 * d1;
-                    final double dist2 = d2 * d2;
-                    final double dist12 = d12 * d12;
-
-                    final double cost;
-
-                    if ((i + j) != 0) {
-                        if ((i == 0) || ((j != 0) && (((prev[j - 1] + dist12) > (curr[j - 1] + dist2)) && ((curr[j - 1] + dist2) < (prev[j] + dist1))))) {
-                            // del
-                            cost = curr[j - 1] + dist2;
-                        } else if ((j == 0) || ((i != 0) && (((prev[j - 1] + dist12) > (prev[j] + dist1)) && ((prev[j] + dist1) < (curr[j - 1] + dist2))))) {
-                            // ins
-                            cost = prev[j] + dist1;
-                        } else {
-                            // match
-                            cost = prev[j - 1] + dist12;
-                        }
-                    } else {
-                        cost = 0;
-                    }
-
-                    curr[j] = cost;
-                    // steps[i][j] = step;
-                } else {
-                    curr[j] = Double.POSITIVE_INFINITY; // outside band
-                }
-            }
+        // copy the series into buffers kept between calls and use the banded two row kernel
+        if(firstBuffer == null || firstBuffer.length < m){
+            firstBuffer = new double[m];
         }
-
-        return Math.sqrt(curr[m-1]);
+        if(secondBuffer == null || secondBuffer.length < n){
+            secondBuffer = new double[n];
+        }
+        for(int i = 0; i < m; i++){
+            firstBuffer[i] = first.value(i);
+        }
+        for(int j = 0; j < n; j++){
+            secondBuffer[j] = second.value(j);
+        }
+        kernel.setG(this.g);
+        kernel.setBandSize(this.bandSize);
+        return kernel.distance(firstBuffer, m, secondBuffer, n, cutoff);
     }
 
     @Override
@@ -39,6 +39,10 @@ import weka.core.Instances;
  * channels would calculate the DTW distance separately for each channel, and 
  * sum the 10 distances together. 
  * 
+ * Subclasses keep scratch buffers for the distance and the lower bounds as 
+ * fields and reuse them between calls, so a built classifier is confined to 
+ * one thread. Parallel work (e.g. LoocvEngine) gives each worker its own copy.
+ * 
  * @author Jason Lines (j.lines@uea.ac.uk)
  */
 public abstract class Efficient1NN extends AbstractClassifier implements SaveParameterInfo{
@@ -48,6 +52,8 @@ public abstract class Efficient1NN extends AbstractClassifier implements SavePar
     protected String classifierIdentifier;
     protected boolean allowLoocv = true;
     protected boolean singleParamCv = false; 
+    protected boolean useLowerBounds = true;
+    protected int numThreads = 1;
     
     private boolean fileWriting = false;
     private boolean individualCvParamFileWriting = false;
@@ -65,6 +71,104 @@ public abstract class Efficient1NN extends AbstractClassifier implements SavePar
      */
     public abstract double distance(Instance first, Instance second, double cutOffValue);
     
+    /**
+     * Called once per query by classifyInstance and distributionForInstance, 
+     * before any calls to lowerBoundedDistance. Measures that use lower bounds
+     * can override this to extract the query series once rather than for every
+     * training instance.
+     * 
+     * @param query 
+     */
+    protected void initQuery(Instance query){
+    }
+    
+    /**
+     * Distance between the query and the training instance at trainIndex, as 
+     * used by classifyInstance and distributionForInstance. Measures with cheap
+     * lower bounds (e.g. the LowerBoundCascade for DTW) override this to 
+     * discard candidates before calling distance.
+     * 
+     * @param query
+     * @param trainIndex index into the training data
+     * @param cutOffValue best so far distance
+     * @return the distance, or any value greater than cutOffValue if the 
+     * candidate cannot be the nearest neighbour
+     */
+    protected double lowerBoundedDistance(Instance query, int trainIndex, double cutOffValue){
+        return distance(query, this.train.instance(trainIndex), cutOffValue);
+    }
+    
+    /**
+     * Turns lower bounding on or off for measures that support it. It is on by
+     * default; the predictions are the same either way.
+     * 
+     * @param useLowerBounds 
+     */
+    public void setUseLowerBounds(boolean useLowerBounds){
+        this.useLowerBounds = useLowerBounds;
+    }
+    
+    /**
+     * Number of threads used by loocv(Instances). Follows the convention in 
+     * ThreadingUtilities: 0 is all cores, negative is all cores but one. 
+     * Defaults to 1; the output of loocv is the same for any number of threads.
+     * 
+     * @param numThreads 
+     */
+    public void setNumThreads(int numThreads){
+        this.numThreads = numThreads;
+    }
+    
+    /**
+     * Used by LoocvEngine to share work between param ids. Param ids with the
+     * same key must give identical distances, so they are only evaluated once. 
+     * By default every param id is its own key.
+     * 
+     * @param train
+     * @param paramId
+     * @return 
+     */
+    protected int getDistanceKey(Instances train, int paramId){
+        return paramId;
+    }
+    
+    /**
+     * @return true if the distance never increases as the key increases (e.g. 
+     * DTW as the window grows). LoocvEngine will then evaluate the keys largest 
+     * first and reuse distances and early abandons for the smaller keys.
+     */
+    protected boolean isDistanceNonIncreasingInKey(){
+        return false;
+    }
+    
+    /**
+     * Turns on whatever book-keeping is needed for getLastMinKey
+     * 
+     * @param track 
+     */
+    protected void setTrackMinKey(boolean track){
+    }
+    
+    /**
+     * @return the smallest key at which the last distance returned by 
+     * lowerBoundedDistance would still be exactly the same, or 
+     * Integer.MAX_VALUE if this isn't known
+     */
+    protected int getLastMinKey(){
+        return Integer.MAX_VALUE;
+    }
+    
+    /**
+     * LoocvEngine reproduces classifyInstance as implemented here, so 
+     * subclasses that change how predictions are made (e.g. DTWKNN) must 
+     * return false to fall back to building a classifier per fold.
+     * 
+     * @return 
+     */
+    protected boolean canUseLoocvEngine(){
+        return true;
+    }
+    
     /**
      * Multi-dimensional equivalent of the univariate distance method. Iterates 
      * through channels calculating distances independently using the same param
@@ -120,15 +224,16 @@ public abstract class Efficient1NN extends AbstractClassifier implements SavePar
         int[] classCounts = new int[this.train.numClasses()];
         
         double thisDist;
-                
-        for(Instance i:this.train){
-            thisDist = distance(instance, i, bsfDistance); 
+        
+        initQuery(instance);
+        for(int i = 0; i < this.train.numInstances(); i++){
+            thisDist = lowerBoundedDistance(instance, i, bsfDistance); 
             if(thisDist < bsfDistance){
                 bsfDistance = thisDist;
                 classCounts = new int[train.numClasses()];
-                classCounts[(int)i.classValue()]++;
+                classCounts[(int)train.instance(i).classValue()]++;
             }else if(thisDist==bsfDistance){
-                classCounts[(int)i.classValue()]++;
+                classCounts[(int)train.instance(i).classValue()]++;
             }
         }
         
@@ -194,16 +299,17 @@ public abstract class Efficient1NN extends AbstractClassifier implements SavePar
         
         double thisDist;
         int sumOfBest = 0;
-                
-        for(Instance i:this.train){
-            thisDist = distance(instance, i, bsfDistance); 
+        
+        initQuery(instance);
+        for(int i = 0; i < this.train.numInstances(); i++){
+            thisDist = lowerBoundedDistance(instance, i, bsfDistance); 
             if(thisDist < bsfDistance){
                 bsfDistance = thisDist;
                 classCounts = new int[train.numClasses()];
-                classCounts[(int)i.classValue()]++;
+                classCounts[(int)train.instance(i).classValue()]++;
                 sumOfBest = 1;
             }else if(thisDist==bsfDistance){
-                classCounts[(int)i.classValue()]++;
+                classCounts[(int)train.instance(i).classValue()]++;
                 sumOfBest++;
             }
         }
@@ -335,10 +441,16 @@ public abstract class Efficient1NN extends AbstractClassifier implements SavePar
         double bsfAcc = -1;
         int bsfParamId = -1;
         double[] bsfaccAndPreds = null;
+        
+        // all param ids at once, unless the per param id files are needed
+        double[][] sharedAccAndPreds = null;
+        if(!this.individualCvParamFileWriting && this.canUseLoocvEngine()){
+            sharedAccAndPreds = new LoocvEngine(this, train, numThreads).loocv(this.allowLoocv ? 100 : 1);
+        }
 
         for(int paramId = 0; paramId < 100; paramId++){
 //            System.out.print(paramId+" ");
-            accAndPreds = loocvAccAndPreds(train,paramId);
+            accAndPreds = sharedAccAndPreds != null ? sharedAccAndPreds[paramId] : loocvAccAndPreds(train,paramId);
 //            System.out.println(this.allowLoocv);
 //            System.out.println(accAndPreds[0]);
             if(accAndPreds[0]>bsfAcc){
@@ -35,6 +35,10 @@ public class LCSS1NN extends Efficient1NN{
     double[] epsilons;
     int[] deltas;
     
+    private final LCSSDistance kernel = new LCSSDistance(3, 1);
+    private transient double[] firstBuffer;
+    private transient double[] secondBuffer;
+    
     public LCSS1NN(int delta, double epsilon){
         this.delta = delta;
         this.epsilon = epsilon;
@@ -62,6 +66,11 @@ public class LCSS1NN extends Efficient1NN{
     
     
     public double distance(Instance first, Instance second) {
+        return distance(first, second, Double.MAX_VALUE);
+    }
+    
+    @Override
+    public double distance(Instance first, Instance second, double cutOffValue) {
         
         // need to remove class index/ignore
         // simple check - if its last, ignore it. If it's not last, copy the instances, remove that attribue, and then call again 
@@ -77,34 +86,22 @@ public class LCSS1NN extends Efficient1NN{
             return new LCSSDistance(this.delta, this.epsilon).distance(first, second);
         }
         
-        int[][] lcss = new int[m+1][n+1];
-
+        // copy the series into buffers kept between calls and use the banded two row kernel
+        if(firstBuffer == null || firstBuffer.length < m){
+            firstBuffer = new double[m];
+        }
+        if(secondBuffer == null || secondBuffer.length < n){
+            secondBuffer = new double[n];
+        }
         for(int i = 0; i < m; i++){
-            for(int j = i-delta; j <= i+delta; j++){
-                if(j < 0){
-                    j = -1;
-                }else if(j >= n){
-                    j = i+delta;
-                }else if(second.value(j)+this.epsilon >= first.value(i) && second.value(j)-epsilon <=first.value(i)){
-                    lcss[i+1][j+1] = lcss[i][j]+1;
-                }else if(lcss[i][j+1] > lcss[i+1][j]){
-                    lcss[i+1][j+1] = lcss[i][j+1];
-                }else{
-                    lcss[i+1][j+1] = lcss[i+1][j];
-                }
-                
-                // could maybe do an early abandon here? Not sure, investigate further 
-            }
+            firstBuffer[i] = first.value(i);
         }
-
-        int max = -1;
-        for(int i = 1; i < lcss[lcss.length-1].length; i++){
-            if(lcss[lcss.length-1][i] > max){
-                max = lcss[lcss.length-1][i];
-            }
+        for(int j = 0; j < n; j++){
+            secondBuffer[j] = second.value(j);
         }
-        return 1-((double)max/m);
-        
+        kernel.setDelta(this.delta);
+        kernel.setEpsilon(this.epsilon);
+        return kernel.distance(firstBuffer, m, secondBuffer, n, cutOffValue);
     }
 
 
@@ -189,12 +186,6 @@ public class LCSS1NN extends Efficient1NN{
         System.out.println("Relative Performance: " + ((double)newTime/oldTime));
     }
 
-    @Override
-    public double distance(Instance first, Instance second, double cutOffValue) {
-//        throw new UnsupportedOperationException("Not supported yet."); //To change body of generated methods, choose Tools | Templates.
-        return this.distance(first, second);
-    }
-
     @Override
     public void setParamsFromParamId(Instances train, int paramId) {
         // more efficient to only calculate these when the training data has been changed, so could call in build classifier
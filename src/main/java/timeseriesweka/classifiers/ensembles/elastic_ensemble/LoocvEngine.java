@@ -0,0 +1,269 @@
+/*
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package timeseriesweka.classifiers.ensembles.elastic_ensemble;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import utilities.ThreadingUtilities;
+import weka.classifiers.AbstractClassifier;
+import weka.core.Instance;
+import weka.core.Instances;
+
+/**
+ * Leave-one-out cross-validation over all of the param ids of an Efficient1NN
+ * at once, giving exactly the same predictions as calling
+ * Efficient1NN.loocvAccAndPreds for each param id in turn.
+ *
+ * Rather than building a new classifier on train minus instance i for every
+ * fold, each fold is a query against the full training data that skips i,
+ * visiting the training instances in the same order and with the same best so
+ * far as Efficient1NN.classifyInstance would. The work is split into
+ * (param, block of queries) tasks run on a fork join pool; each thread works on
+ * its own copy of the classifier.
+ *
+ * Param ids are first grouped by Efficient1NN.getDistanceKey, so ids that give
+ * the same distance (e.g. DTW windows that round to the same size on short
+ * series) are only evaluated once.
+ *
+ * If the distance never increases with the key (DTW and the window size) the
+ * keys are evaluated largest first and the outcome of every pair (i,j) is
+ * kept between keys:
+ *  - an early abandon at cutoff c means the distance is at least c for this
+ *    and every smaller key
+ *  - a full distance is also a lower bound for every smaller key, and is the
+ *    exact distance for all keys down to the widest deviation of its warping
+ *    path (Efficient1NN.getLastMinKey)
+ * A pair whose bound is already worse than the best so far is skipped, and an
+ * exact distance below the best so far is reused without recomputing it. Ties
+ * with the best so far are always recomputed, as whether a tie is counted
+ * depends on where the distance abandons.
+ */
+public class LoocvEngine {
+
+    // the pairwise cache is 12 bytes per pair, so this caps it at roughly 50MB
+    private static final int MAX_CACHED_PAIRS = 1<<22;
+    private static final int BLOCKS_PER_THREAD = 4;
+
+    private final Efficient1NN template;
+    private final Instances train;
+    private final int numThreads;
+    private final int numInstances;
+    private final int numClasses;
+
+    private final ConcurrentLinkedQueue<Worker> idleWorkers = new ConcurrentLinkedQueue<>();
+
+    // lower bound on the distance of pair (i,j) for the current and all smaller keys
+    private double[] pairBounds;
+    // smallest key for which pairBounds holds the exact distance, 0 if never exact
+    private int[] pairExactFrom;
+
+    private static class Worker{
+        Efficient1NN classifier;
+        int key;
+        int[] classCounts;
+    }
+
+    /**
+     * @param template classifier to evaluate. It is copied once per thread and
+     * is not modified itself
+     * @param train training data
+     * @param numThreads see ThreadingUtilities
+     */
+    public LoocvEngine(Efficient1NN template, Instances train, int numThreads){
+        this.template = template;
+        this.train = train;
+        this.numThreads = numThreads;
+        this.numInstances = train.numInstances();
+        this.numClasses = train.numClasses();
+    }
+
+    /**
+     * @param numParamIds number of param ids to evaluate, 0 to numParamIds-1.
+     * If the template does not allow loocv only its current params are
+     * evaluated and numParamIds should be 1
+     * @return for each param id, the accuracy followed by the prediction for
+     * each training instance, as returned by Efficient1NN.loocvAccAndPreds
+     * @throws Exception
+     */
+    public double[][] loocv(int numParamIds) throws Exception{
+        // group the param ids by key, keeping the first id of each as its representative
+        Map<Integer,Integer> representatives = new LinkedHashMap<>();
+        int[] keys = new int[numParamIds];
+        for(int paramId = 0; paramId < numParamIds; paramId++){
+            keys[paramId] = template.allowLoocv ? template.getDistanceKey(train, paramId) : 0;
+            if(!representatives.containsKey(keys[paramId])){
+                representatives.put(keys[paramId], paramId);
+            }
+        }
+
+        List<Integer> distinctKeys = new ArrayList<>(representatives.keySet());
+        Map<Integer,double[]> results = new LinkedHashMap<>();
+        boolean shareBetweenKeys = template.isDistanceNonIncreasingInKey() && distinctKeys.size() > 1
+                && (long)numInstances*numInstances <= MAX_CACHED_PAIRS;
+
+        if(shareBetweenKeys){
+            pairBounds = new double[numInstances*numInstances];
+            pairExactFrom = new int[numInstances*numInstances];
+            // largest key first; the keys are done one after another, the queries of each in parallel
+            distinctKeys.sort((a,b)->Integer.compare(b, a));
+            for(int key : distinctKeys){
+                List<Callable<double[]>> tasks = new ArrayList<>();
+                addTasks(tasks, key, representatives.get(key));
+                results.put(key, collectPredictions(ThreadingUtilities.invokeAll(tasks, numThreads)));
+            }
+            pairBounds = null;
+            pairExactFrom = null;
+        }else{
+            List<Callable<double[]>> tasks = new ArrayList<>();
+            int[] tasksPerKey = new int[distinctKeys.size()];
+            for(int k = 0; k < distinctKeys.size(); k++){
+                tasksPerKey[k] = addTasks(tasks, distinctKeys.get(k), representatives.get(distinctKeys.get(k)));
+            }
+            List<double[]> blocks = ThreadingUtilities.invokeAll(tasks, numThreads);
+            int start = 0;
+            for(int k = 0; k < distinctKeys.size(); k++){
+                results.put(distinctKeys.get(k), collectPredictions(blocks.subList(start, start+tasksPerKey[k])));
+                start += tasksPerKey[k];
+            }
+        }
+
+        double[][] accAndPreds = new double[numParamIds][];
+        for(int paramId = 0; paramId < numParamIds; paramId++){
+            accAndPreds[paramId] = results.get(keys[paramId]).clone();
+        }
+        return accAndPreds;
+    }
+
+    private int addTasks(List<Callable<double[]>> tasks, int key, int paramId){
+        int blockSize = Math.max(1, numInstances/(BLOCKS_PER_THREAD*ThreadingUtilities.resolveNumThreads(numThreads)));
+        int numTasks = 0;
+        for(int start = 0; start < numInstances; start += blockSize){
+            final int from = start;
+            final int to = Math.min(numInstances, start+blockSize);
+            tasks.add(() -> predictBlock(key, paramId, from, to));
+            numTasks++;
+        }
+        return numTasks;
+    }
+
+    private double[] collectPredictions(List<double[]> blocks){
+        double[] accAndPreds = new double[numInstances+1];
+        int i = 0;
+        for(double[] block : blocks){
+            for(double pred : block){
+                accAndPreds[++i] = pred;
+            }
+        }
+        int correct = 0;
+        for(i = 0; i < numInstances; i++){
+            if(accAndPreds[i+1]==train.instance(i).classValue()){
+                correct++;
+            }
+        }
+        accAndPreds[0] = (double)correct/numInstances;
+        return accAndPreds;
+    }
+
+    private double[] predictBlock(int key, int paramId, int from, int to) throws Exception{
+        Worker worker = idleWorkers.poll();
+        if(worker == null){
+            worker = new Worker();
+            worker.classifier = (Efficient1NN)AbstractClassifier.makeCopy(template);
+            worker.classifier.setTrackMinKey(pairBounds != null);
+            worker.key = Integer.MIN_VALUE;
+            worker.classCounts = new int[numClasses];
+        }
+        try{
+            if(worker.key != key){
+                worker.classifier.buildClassifier(train);
+                if(template.allowLoocv){
+                    worker.classifier.setParamsFromParamId(train, paramId);
+                }
+                worker.key = key;
+            }
+            double[] preds = new double[to-from];
+            for(int i = from; i < to; i++){
+                preds[i-from] = predict(worker, key, i);
+            }
+            return preds;
+        }finally{
+            idleWorkers.add(worker);
+        }
+    }
+
+    /**
+     * Efficient1NN.classifyInstance for training instance i against the rest
+     * of the training data
+     */
+    private double predict(Worker worker, int key, int i){
+        Efficient1NN classifier = worker.classifier;
+        int[] classCounts = worker.classCounts;
+        Arrays.fill(classCounts, 0);
+        Instance query = train.instance(i);
+        double bsfDistance = Double.MAX_VALUE;
+        double thisDist;
+        int pair;
+
+        classifier.initQuery(query);
+        for(int j = 0; j < numInstances; j++){
+            if(j == i){
+                continue;
+            }
+            pair = i*numInstances+j;
+            if(pairBounds != null && pairBounds[pair] > bsfDistance){
+                // can be neither a new nearest neighbour nor a tie
+                continue;
+            }
+            if(pairBounds != null && pairExactFrom[pair] != 0 && pairExactFrom[pair] <= key && pairBounds[pair] < bsfDistance){
+                thisDist = pairBounds[pair];
+            }else{
+                thisDist = classifier.lowerBoundedDistance(query, j, bsfDistance);
+                if(pairBounds != null){
+                    if(thisDist < Double.MAX_VALUE){
+                        pairBounds[pair] = thisDist;
+                        int minKey = classifier.getLastMinKey();
+                        pairExactFrom[pair] = minKey <= key ? minKey : 0;
+                    }else if(bsfDistance > pairBounds[pair]){
+                        pairBounds[pair] = bsfDistance;
+                        pairExactFrom[pair] = 0;
+                    }
+                }
+            }
+
+            if(thisDist < bsfDistance){
+                bsfDistance = thisDist;
+                Arrays.fill(classCounts, 0);
+                classCounts[(int)train.instance(j).classValue()]++;
+            }else if(thisDist==bsfDistance){
+                classCounts[(int)train.instance(j).classValue()]++;
+            }
+        }
+
+        double bsfClass = -1;
+        double bsfCount = -1;
+        for(int c = 0; c < classCounts.length; c++){
+            if(classCounts[c]>bsfCount){
+                bsfCount = classCounts[c];
+                bsfClass = c;
+            }
+        }
+        return bsfClass;
+    }
+}
@@ -0,0 +1,176 @@
+/*
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package timeseriesweka.classifiers.ensembles.elastic_ensemble;
+
+import java.io.Serializable;
+import timeseriesweka.elastic_distance_measures.DTWLowerBounds;
+import weka.core.Instances;
+
+/**
+ * Cascade of lower bounds evaluated by the DTW based Efficient1NN classifiers
+ * before the full distance: LB_Kim, then LB_Keogh against the envelope of the
+ * training series, then LB_Improved. Each stage is only run if the previous
+ * one failed to prune the candidate.
+ *
+ * The training series are copied out once when the cascade is created and
+ * their envelopes are cached for the current reach (maximum warp), so they are
+ * only recomputed when the window changes.
+ *
+ * The bounds are for squared DTW. Measures that weight every cell by at least
+ * some w > 0 (e.g. WDTW) can use the same cascade by setting the scale to w.
+ *
+ * Only equal length series are pruned; otherwise lowerBound returns 0.
+ *
+ * The per query scratch arrays are fields, so a cascade must only be used by 
+ * one thread at a time.
+ */
+public class LowerBoundCascade implements Serializable{
+
+    private final double[][] trainSeries;
+    private final int seriesLength;
+    private double[][] upper;
+    private double[][] lower;
+    private int reach = -1;
+    private double scale = 1;
+
+    private transient double[] contributions;
+    private transient double[] cumulative;
+    private transient double[] projection;
+    private transient double[] projectionUpper;
+    private transient double[] projectionLower;
+    private transient int[] dequeU;
+    private transient int[] dequeL;
+    private boolean cumulativeValid = false;
+
+    /**
+     * @param train training data with the class value as the last attribute
+     */
+    public LowerBoundCascade(Instances train){
+        this.seriesLength = train.numAttributes()-1;
+        this.trainSeries = new double[train.numInstances()][seriesLength];
+        for(int i = 0; i < trainSeries.length; i++){
+            for(int j = 0; j < seriesLength; j++){
+                trainSeries[i][j] = train.instance(i).value(j);
+            }
+        }
+    }
+
+    /**
+     * Sets the maximum warp |i-j| allowed by the measure, recomputing the
+     * training envelopes if it has changed
+     *
+     * @param reach
+     */
+    public void setReach(int reach){
+        if(reach > seriesLength-1){
+            reach = seriesLength-1;
+        }
+        if(reach == this.reach && upper != null){
+            return;
+        }
+        initBuffers();
+        if(upper == null){
+            upper = new double[trainSeries.length][seriesLength];
+            lower = new double[trainSeries.length][seriesLength];
+        }
+        for(int i = 0; i < trainSeries.length; i++){
+            DTWLowerBounds.envelope(trainSeries[i], seriesLength, reach, upper[i], lower[i], dequeU, dequeL);
+        }
+        this.reach = reach;
+    }
+
+    /**
+     * Minimum weight applied to any cell of the cost matrix
+     *
+     * @param scale
+     */
+    public void setScale(double scale){
+        this.scale = scale;
+    }
+
+    public int getSeriesLength(){
+        return this.seriesLength;
+    }
+
+    public double[] getTrainSeries(int trainIndex){
+        return this.trainSeries[trainIndex];
+    }
+
+    private void initBuffers(){
+        if(contributions == null){
+            contributions = new double[seriesLength];
+            cumulative = new double[seriesLength];
+            projection = new double[seriesLength];
+            projectionUpper = new double[seriesLength];
+            projectionLower = new double[seriesLength];
+            dequeU = new int[seriesLength];
+            dequeL = new int[seriesLength];
+        }
+    }
+
+    /**
+     * Runs the cascade until either the bound exceeds the cutoff or all bounds
+     * have been tried.
+     *
+     * @param query query series, without class value
+     * @param n length of the query
+     * @param trainIndex index of the training series
+     * @param cutOffValue best so far distance
+     * @return a lower bound on the distance; if it is greater than cutOffValue
+     * the candidate can be discarded
+     */
+    public double lowerBound(double[] query, int n, int trainIndex, double cutOffValue){
+        cumulativeValid = false;
+        if(n != seriesLength || seriesLength == 0){
+            return 0;
+        }
+        initBuffers();
+        double[] candidate = trainSeries[trainIndex];
+        double scaledCutoff = cutOffValue/scale;
+
+        // LB_Kim
+        double kim = DTWLowerBounds.lbKim(query, candidate, n);
+        if(kim > scaledCutoff){
+            return kim*scale;
+        }
+
+        // LB_Keogh(query, candidate)
+        double lb = DTWLowerBounds.lbKeogh(query, n, upper[trainIndex], lower[trainIndex], scaledCutoff, contributions);
+        if(lb > scaledCutoff){
+            return lb*scale;
+        }
+
+        // LB_Improved adds LB_Keogh(candidate, projection of query onto the candidate envelope)
+        DTWLowerBounds.project(query, n, upper[trainIndex], lower[trainIndex], projection);
+        DTWLowerBounds.envelope(projection, n, reach, projectionUpper, projectionLower, dequeU, dequeL);
+        lb += DTWLowerBounds.lbKeogh(candidate, n, projectionUpper, projectionLower, scaledCutoff-lb, null);
+        if(lb > scaledCutoff){
+            return lb*scale;
+        }
+
+        DTWLowerBounds.cumulative(contributions, n, cumulative);
+        cumulativeValid = true;
+        return (lb > kim ? lb : kim)*scale;
+    }
+
+    /**
+     * @return suffix sums of the LB_Keogh contributions of the query from the
+     * last call to lowerBound, for use as the cumulative bound of BandedDTW
+     * (unscaled). Null if the last call pruned or did not reach LB_Keogh.
+     */
+    public double[] getCumulativeBound(){
+        return cumulativeValid ? cumulative : null;
+    }
+}
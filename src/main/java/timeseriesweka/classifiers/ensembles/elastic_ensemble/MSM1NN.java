@@ -32,6 +32,10 @@ public class MSM1NN extends Efficient1NN{
     private Instances train = null;
     private double c = 0;
     
+    private final MSMDistance kernel = new MSMDistance();
+    private transient double[] firstBuffer;
+    private transient double[] secondBuffer;
+    
     protected static double[] msmParams = {
         // <editor-fold defaultstate="collapsed" desc="hidden for space">
         0.01,
@@ -169,42 +173,27 @@ public class MSM1NN extends Efficient1NN{
             return new MSMDistance(this.c).distance(first, second);
         }
 
-        double[][] cost = new double[m][n];
-
-        // Initialization
-        cost[0][0] = Math.abs(first.value(0) - second.value(0));
-        for (int i = 1; i < m; i++) {
-            cost[i][0] = cost[i - 1][0] + calcualteCost(first.value(i), first.value(i-1), second.value(0));
+        // copy the series into buffers kept between calls and use the two row kernel, which also reuses its rows
+        if(firstBuffer == null || firstBuffer.length < m){
+            firstBuffer = new double[m];
         }
-        for (int i = 1; i < n; i++) {
-            cost[0][i] = cost[0][i - 1] + calcualteCost(second.value(i), first.value(0), second.value(i-1));
+        if(secondBuffer == null || secondBuffer.length < n){
+            secondBuffer = new double[n];
         }
-
-        // Main Loop
-        double min;
-        for (int i = 1; i < m; i++) {
-            min = cutOffValue;
-            for (int j = 1; j < n; j++) {
-                double d1, d2, d3;
-                d1 = cost[i - 1][j - 1] + Math.abs(first.value(i) - second.value(j));
-                d2 = cost[i - 1][j] + calcualteCost(first.value(i), first.value(i-1), second.value(j));
-                d3 = cost[i][j - 1] + calcualteCost(second.value(j), first.value(i), second.value(j-1));
-                cost[i][j] = Math.min(d1, Math.min(d2, d3));
-                
-                if(cost[i][j] >=cutOffValue){
-                    cost[i][j] = Double.MAX_VALUE;
-                }
-                
-                if(cost[i][j] < min){
-                    min = cost[i][j];
-                }
-            }
-            if(min >= cutOffValue){
-                return Double.MAX_VALUE;
-            }
+        for(int i = 0; i < m; i++){
+            firstBuffer[i] = first.value(i);
         }
-        // Output
-        return cost[m - 1][n - 1];
+        for(int j = 0; j < n; j++){
+            secondBuffer[j] = second.value(j);
+        }
+        kernel.setC(this.c);
+        double dist = kernel.distance(firstBuffer, m, secondBuffer, n, cutOffValue);
+        
+        // this measure has always discarded distances equal to the cutoff as well
+        if(dist >= cutOffValue){
+            return Double.MAX_VALUE;
+        }
+        return dist;
     }
     
     public double calcualteCost(double new_point, double x, double y) {
@@ -31,6 +31,10 @@ public class TWE1NN extends Efficient1NN{
     private static final double DEGREE=2; // not bothering to set the degree in this code, it's fixed to 2 in the other anyway
     double nu=1;
     double lambda=1;
+    
+    private final TWEDistance kernel = new TWEDistance();
+    private transient double[] firstBuffer;
+    private transient double[] secondBuffer;
 
     
     protected static double[] twe_nuParams = {
@@ -76,8 +80,6 @@ public class TWE1NN extends Efficient1NN{
     }
     
     public final double distance(Instance first, Instance second, double cutoff){
-        // note: I can't see a simple way to use the cutoff, so unfortunately there isn't one! 
-        
         // base case - we're assuming class val is last. If this is true, this method is fine,
         // if not, we'll default to the DTW class
         if (first.classIndex() != first.numAttributes() - 1 || second.classIndex() != second.numAttributes() - 1) {
@@ -87,135 +89,22 @@ public class TWE1NN extends Efficient1NN{
         int m = first.numAttributes() - 1;
         int n = second.numAttributes() - 1;
 
-        int dim = 1;
-        double dist, disti1, distj1;
-        double[][] ta = new double[m][dim];
-        double[][] tb = new double[m][dim];
-        double[] tsa = new double[m];
-        double[] tsb = new double[n];
-        
-        // look like time staps
-        
-        for (int i = 0; i < tsa.length; i++) {
-            tsa[i] = (i + 1);
-        }
-        for (int i = 0; i < tsb.length; i++) {
-            tsb[i] = (i + 1);
+        // copy the series into buffers kept between calls and use the two row kernel
+        if(firstBuffer == null || firstBuffer.length < m){
+            firstBuffer = new double[m];
         }
-
-        int r = ta.length; // this is just m?!
-        int c = tb.length; // so is this, but surely it should actually be n anyway
-        
-        
-        int i, j, k;
-//Copy over values
-        for (i = 0; i < m; i++) {
-            ta[i][0] = first.value(i);
+        if(secondBuffer == null || secondBuffer.length < n){
+            secondBuffer = new double[n];
         }
-        for (i = 0; i < n; i++) {
-            tb[i][0] = second.value(i);
+        for(int i = 0; i < m; i++){
+            firstBuffer[i] = first.value(i);
         }
-
-        /* allocations in c
-         double **D = (double **)calloc(r+1, sizeof(double*));
-         double *Di1 = (double *)calloc(r+1, sizeof(double));
-         double *Dj1 = (double *)calloc(c+1, sizeof(double));
-         for(i=0; i<=r; i++) {
-         D[i]=(double *)calloc(c+1, sizeof(double));
-         }
-         */
-        double[][] D = new double[r + 1][c + 1];
-        double[] Di1 = new double[r + 1];
-        double[] Dj1 = new double[c + 1];
-// local costs initializations
-        for (j = 1; j <= c; j++) {
-            distj1 = 0;
-            for (k = 0; k < dim; k++) {
-                if (j > 1) {
-//CHANGE AJB 8/1/16: Only use power of 2 for speed                      
-                    distj1 += (tb[j - 2][k] - tb[j - 1][k]) * (tb[j - 2][k] - tb[j - 1][k]);
-// OLD VERSION                    distj1+=Math.pow(Math.abs(tb[j-2][k]-tb[j-1][k]),degree);
-// in c:               distj1+=pow(fabs(tb[j-2][k]-tb[j-1][k]),degree);
-                } else {
-                    distj1 += tb[j - 1][k] * tb[j - 1][k];
-                }
-            }
-//OLD              		distj1+=Math.pow(Math.abs(tb[j-1][k]),degree);
-            Dj1[j] = (distj1);
+        for(int j = 0; j < n; j++){
+            secondBuffer[j] = second.value(j);
         }
-
-        for (i = 1; i <= r; i++) {
-            disti1 = 0;
-            for (k = 0; k < dim; k++) {
-                if (i > 1) {
-                    disti1 += (ta[i - 2][k] - ta[i - 1][k]) * (ta[i - 2][k] - ta[i - 1][k]);
-                } // OLD                 disti1+=Math.pow(Math.abs(ta[i-2][k]-ta[i-1][k]),degree);
-                else {
-                    disti1 += (ta[i - 1][k]) * (ta[i - 1][k]);
-                }
-            }
-//OLD                  disti1+=Math.pow(Math.abs(ta[i-1][k]),degree);
-
-            Di1[i] = (disti1);
-
-            for (j = 1; j <= c; j++) {
-                dist = 0;
-                for (k = 0; k < dim; k++) {
-                    dist += (ta[i - 1][k] - tb[j - 1][k]) * (ta[i - 1][k] - tb[j - 1][k]);
-//                  dist+=Math.pow(Math.abs(ta[i-1][k]-tb[j-1][k]),degree);
-                    if (i > 1 && j > 1) {
-                        dist += (ta[i - 2][k] - tb[j - 2][k]) * (ta[i - 2][k] - tb[j - 2][k]);
-                    }
-//                    dist+=Math.pow(Math.abs(ta[i-2][k]-tb[j-2][k]),degree);
-                }
-                D[i][j] = (dist);
-            }
-        }// for i
-
-        // border of the cost matrix initialization
-        D[0][0] = 0;
-        for (i = 1; i <= r; i++) {
-            D[i][0] = D[i - 1][0] + Di1[i];
-        }
-        for (j = 1; j <= c; j++) {
-            D[0][j] = D[0][j - 1] + Dj1[j];
-        }
-
-        double dmin, htrans, dist0;
-        int iback;
-
-        for (i = 1; i <= r; i++) {
-            for (j = 1; j <= c; j++) {
-                htrans = Math.abs((tsa[i - 1] - tsb[j - 1]));
-                if (j > 1 && i > 1) {
-                    htrans += Math.abs((tsa[i - 2] - tsb[j - 2]));
-                }
-                dist0 = D[i - 1][j - 1] + nu * htrans + D[i][j];
-                dmin = dist0;
-                if (i > 1) {
-                    htrans = ((tsa[i - 1] - tsa[i - 2]));
-                } else {
-                    htrans = tsa[i - 1];
-                }
-                dist = Di1[i] + D[i - 1][j] + lambda + nu * htrans;
-                if (dmin > dist) {
-                    dmin = dist;
-                }
-                if (j > 1) {
-                    htrans = (tsb[j - 1] - tsb[j - 2]);
-                } else {
-                    htrans = tsb[j - 1];
-                }
-                dist = Dj1[j] + D[i][j - 1] + lambda + nu * htrans;
-                if (dmin > dist) {
-                    dmin = dist;
-                }
-                D[i][j] = dmin;
-            }
-        }
-
-        dist = D[r][c];
-        return dist;
+        kernel.setNu(this.nu);
+        kernel.setLambda(this.lambda);
+        return kernel.distance(firstBuffer, m, secondBuffer, n, cutoff);
     }
 
     @Override
@@ -35,6 +35,10 @@ public class WDTW1NN extends Efficient1NN{
     private static final double WEIGHT_MAX = 1;
     private boolean refreshWeights = true;
     
+    private double minWeight;
+    private transient LowerBoundCascade lowerBounds;
+    private transient double[] queryBuffer;
+    
     public WDTW1NN(double g){
         this.g = g;
         this.classifierIdentifier = "WDTW_1NN";
@@ -53,9 +57,60 @@ public class WDTW1NN extends Efficient1NN{
         for(int i = 0; i < seriesLength; i++){
             weightVector[i] = WEIGHT_MAX/(1+Math.exp(-g*(i-halfLength)));
         }
+        minWeight = weightVector[0];
+        for(int i = 1; i < seriesLength; i++){
+            if(weightVector[i] < minWeight){
+                minWeight = weightVector[i];
+            }
+        }
         refreshWeights = false;
     }
     
+    @Override
+    public void buildClassifier(Instances train) throws Exception{
+        super.buildClassifier(train);
+        // WDTW has no window, so the envelopes are just the min and max of each training series
+        this.lowerBounds = null;
+        if(this.useLowerBounds && train.classIndex() == train.numAttributes()-1){
+            this.lowerBounds = new LowerBoundCascade(train);
+            this.lowerBounds.setReach(train.numAttributes()-2);
+        }
+    }
+    
+    @Override
+    protected void initQuery(Instance query){
+        if(this.lowerBounds == null || query.classIndex() != query.numAttributes()-1){
+            return;
+        }
+        int n = query.numAttributes()-1;
+        if(queryBuffer == null || queryBuffer.length < n){
+            queryBuffer = new double[n];
+        }
+        for(int i = 0; i < n; i++){
+            queryBuffer[i] = query.value(i);
+        }
+    }
+    
+    @Override
+    protected double lowerBoundedDistance(Instance query, int trainIndex, double cutOffValue){
+        if(!this.useLowerBounds || this.lowerBounds == null || query.classIndex() != query.numAttributes()-1){
+            return distance(query, this.train.instance(trainIndex), cutOffValue);
+        }
+        int n = query.numAttributes()-1;
+        if(this.refreshWeights){
+            this.initWeights(n);
+        }
+        // every cell is weighted by at least the smallest weight, so the DTW bounds scaled by it still hold
+        if(minWeight <= 0){
+            return distance(query, this.train.instance(trainIndex), cutOffValue);
+        }
+        this.lowerBounds.setScale(minWeight);
+        if(this.lowerBounds.lowerBound(queryBuffer, n, trainIndex, cutOffValue) > cutOffValue){
+            return Double.MAX_VALUE;
+        }
+        return distance(query, this.train.instance(trainIndex), cutOffValue);
+    }
+    
     public final double distance(Instance first, Instance second, double cutoff){
         
         // base case - we're assuming class val is last. If this is true, this method is fine,
@@ -0,0 +1,283 @@
+/*
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package timeseriesweka.elastic_distance_measures;
+
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Sakoe-Chiba banded DTW engine shared by DTW, BasicDTW, SakoeChibaDTW and
+ * DTW1NN.
+ *
+ * Rather than allocating and resetting a full n x m cost matrix on every call,
+ * only two rows of the band are kept, stored relative to the diagonal: cell
+ * (i,j) lives at index j-i+W+1 of the row, where W is the maximum warp
+ * (windowSize-1). The rows are held by the engine and reused between calls, so
+ * after the first call a distance allocates nothing. Memory is O(windowSize)
+ * rather than O(n*m).
+ *
+ * The window convention is the one used throughout this package: cell (i,j) is
+ * inside the band iff |i-j| < windowSize, so windowSize=1 is no warping.
+ *
+ * Early abandon happens when no cell of a row is below the cutoff. Optionally
+ * a cumulative lower bound can be passed in (e.g. the suffix sums of the
+ * LB_Keogh contributions of the row series), where cumulativeBound[i] bounds
+ * the cost still to be paid by rows i..n-1. Row i is then abandoned once
+ * min(row i) + cumulativeBound[i+1] exceeds the cutoff, which prunes far
+ * earlier than the plain row check.
+ *
+ * Instances are not thread safe; each distance object owns its own engine.
+ */
+public class BandedDTW implements Serializable{
+
+    private static final long serialVersionUID = 1L;
+
+    private transient double[] prev;
+    private transient double[] curr;
+    private transient int[] prevWarp;
+    private transient int[] currWarp;
+
+    private boolean trackWarp=false;
+    private int maxWarp=0;
+
+    /**
+     * Switches on recording of the largest deviation from the diagonal of the
+     * optimal path, which is what DTW_DistanceBasic.findMaxWindow reports from
+     * the full matrix. Off by default as it costs an extra pass of comparisons
+     * per cell.
+     * @param b
+     */
+    public void setTrackWarp(boolean b){ trackWarp=b;}
+    public boolean getTrackWarp(){ return trackWarp;}
+
+    /**
+     * @return the maximum |i-j| on the warping path of the last distance
+     * computed with warp tracking on (excluding the end point, as in
+     * DTW_DistanceBasic.findMaxWindow).
+     */
+    public int getMaxWarp(){ return maxWarp;}
+
+    public double distance(double[] a, double[] b, int windowSize, double cutoff){
+        return distance(a,a.length,b,b.length,windowSize,cutoff,null);
+    }
+
+    public double distance(double[] a, double[] b, int windowSize, double cutoff, double[] cumulativeBound){
+        return distance(a,a.length,b,b.length,windowSize,cutoff,cumulativeBound);
+    }
+
+    /**
+     * Banded DTW between the first n values of a (rows) and the first m values
+     * of b (columns). The lengths are passed separately so that callers can
+     * reuse oversized buffers rather than allocating a new array per series.
+     *
+     * @param a row series
+     * @param n number of values of a to use
+     * @param b column series
+     * @param m number of values of b to use
+     * @param windowSize cells with |i-j| < windowSize are in the band
+     * @param cutoff best so far, used for early abandon
+     * @param cumulativeBound optional, may be null. cumulativeBound[i] is a lower
+     * bound on the cost contributed by rows i..n-1
+     * @return the squared DTW distance, or Double.MAX_VALUE on early abandon
+     */
+    public double distance(double[] a, int n, double[] b, int m, int windowSize, double cutoff, double[] cumulativeBound){
+        int w=windowSize<1?0:windowSize-1;
+        int longest=n>m?n:m;
+        if(w>longest-1)
+            w=longest-1;
+        int width=2*w+3;
+        if(prev==null || prev.length<width){
+            prev=new double[width];
+            curr=new double[width];
+        }
+        if(trackWarp && (prevWarp==null || prevWarp.length<width)){
+            prevWarp=new int[width];
+            currWarp=new int[width];
+        }
+//Row -1 does not exist, so everything above row 0 is out of the band
+        Arrays.fill(prev,0,width,Double.MAX_VALUE);
+        curr[width-1]=Double.MAX_VALUE;
+
+        double[] temp;
+        int[] tempWarp;
+        double left,up,diag,minDist,rowMin,diff;
+        int start,end,k,j;
+        for(int i=0;i<n;i++){
+            start=i-w>0?i-w:0;
+            end=i+w<m-1?i+w:m-1;
+            if(start>end){   //Row falls entirely outside the band
+                return Double.MAX_VALUE;
+            }
+            k=start-i+w+1;
+            curr[k-1]=Double.MAX_VALUE;
+            rowMin=Double.MAX_VALUE;
+            for(j=start;j<=end;j++,k++){
+                diff=a[i]-b[j];
+                if(i==0 && j==0){
+                    curr[k]=diff*diff;
+                    if(trackWarp)
+                        currWarp[k]=0;
+                }
+                else{
+                    left=curr[k-1];
+                    up=prev[k+1];
+                    diag=prev[k];
+                    minDist=left;
+                    if(up<minDist)
+                        minDist=up;
+                    if(diag<minDist)
+                        minDist=diag;
+                    curr[k]=minDist+diff*diff;
+                    if(trackWarp)
+                        currWarp[k]=warpOfPredecessor(i,j,k,left,up,diag);
+                }
+                if(curr[k]<rowMin)
+                    rowMin=curr[k];
+            }
+//Early abandon, optionally adding what the remaining rows must still cost.
+//The bound is only used strictly so that exact ties with the cutoff survive
+            if(i>0){
+                if(!(rowMin<cutoff))
+                    return Double.MAX_VALUE;
+                if(cumulativeBound!=null && i+1<n && rowMin+cumulativeBound[i+1]>cutoff)
+                    return Double.MAX_VALUE;
+            }
+            temp=prev;
+            prev=curr;
+            curr=temp;
+            if(trackWarp){
+                tempWarp=prevWarp;
+                prevWarp=currWarp;
+                currWarp=tempWarp;
+            }
+        }
+//After the final swap the last row is in prev
+        k=(m-1)-(n-1)+w+1;
+        if(k<1 || k>2*w+1)
+            return Double.MAX_VALUE;
+        if(trackWarp)
+            maxWarp=prevWarp[k];
+        return prev[k];
+    }
+
+    /**
+     * Follows the tie breaking of the backwards walk in findMaxWindow: diagonal
+     * first, then up, then left. The path stops as soon as it touches the first
+     * row or column.
+     */
+    private int warpOfPredecessor(int i, int j, int k, double left, double up, double diag){
+        if(i==0 || j==0)
+            return 0;
+        int predWarp,predDev;
+        if(diag<=up && diag<=left){
+            predDev=j-i;
+            predWarp=(i-1==0 || j-1==0)?0:prevWarp[k];
+        }
+        else if(up<left){
+            predDev=j-i+1;
+            predWarp=(i-1==0)?0:prevWarp[k+1];
+        }
+        else{
+            predDev=j-1-i;
+            predWarp=(j-1==0)?0:currWarp[k-1];
+        }
+        if(predDev<0)
+            predDev=-predDev;
+        return predDev>predWarp?predDev:predWarp;
+    }
+
+    /**
+     * Fills the full cost matrix with no early abandon. Only intended for
+     * inspecting warping paths (e.g. BasicDTW.printMinCostWarpPath), the
+     * distance methods never build it.
+     * @param a
+     * @param b
+     * @param windowSize
+     * @return n x m matrix with Double.MAX_VALUE outside the band
+     */
+    public static double[][] costMatrix(double[] a, double[] b, int windowSize){
+        int n=a.length;
+        int m=b.length;
+        double[][] d=new double[n][m];
+        double minDist,diff;
+        for(int i=0;i<n;i++){
+            for(int j=0;j<m;j++){
+                if(i-j>=windowSize || j-i>=windowSize){
+                    d[i][j]=Double.MAX_VALUE;
+                    continue;
+                }
+                diff=a[i]-b[j];
+                if(i==0 && j==0)
+                    minDist=0;
+                else{
+                    minDist=Double.MAX_VALUE;
+                    if(j>0 && d[i][j-1]<minDist)
+                        minDist=d[i][j-1];
+                    if(i>0 && d[i-1][j]<minDist)
+                        minDist=d[i-1][j];
+                    if(i>0 && j>0 && d[i-1][j-1]<minDist)
+                        minDist=d[i-1][j-1];
+                }
+                d[i][j]=minDist+diff*diff;
+            }
+        }
+        return d;
+    }
+
+    private static double[] randomWalk(int n, Random r){
+        double[] s=new double[n];
+        s[0]=r.nextGaussian();
+        for(int i=1;i<n;i++)
+            s[i]=s[i-1]+r.nextGaussian();
+        return s;
+    }
+
+    /**
+     * Benchmark of the banded engine (through DTW) against the full matrix
+     * implementation in DTW_DistanceBasic on random walks of 2000 to 10000
+     * points, checking the distances agree.
+     */
+    public static void main(String[] args){
+        Random r=new Random(0);
+        int[] lengths={2000,5000,10000};
+        double[] windows={0.01,0.05,0.1};
+        int pairs=5;
+        for(int n:lengths){
+            double[][] series=new double[pairs+1][];
+            for(int i=0;i<series.length;i++)
+                series[i]=randomWalk(n,r);
+            for(double w:windows){
+                DTW_DistanceBasic old=new DTW_DistanceBasic();
+                old.setR(w);
+                DTW dtw=new DTW();
+                dtw.setR(w);
+                long oldTime=0,newTime=0,t;
+                double maxDiff=0;
+                for(int p=0;p<pairs;p++){
+                    t=System.nanoTime();
+                    double d1=old.distance(series[p],series[p+1],Double.POSITIVE_INFINITY);
+                    oldTime+=System.nanoTime()-t;
+                    t=System.nanoTime();
+                    double d2=dtw.distance(series[p],series[p+1],Double.POSITIVE_INFINITY);
+                    newTime+=System.nanoTime()-t;
+                    if(Math.abs(d1-d2)>maxDiff)
+                        maxDiff=Math.abs(d1-d2);
+                }
+                System.out.println("n="+n+" r="+w+" full matrix="+oldTime/1000000+"ms banded="+newTime/1000000+"ms speedup="+(double)oldTime/newTime+" max abs diff="+maxDiff);
+            }
+        }
+    }
+}
@@ -12,12 +12,17 @@ import weka.core.Instances;
 import weka.core.neighboursearch.PerformanceStats;
 
 /**
- *
+ * The banded engine reuses its rows between calls, so an instance must not be
+ * shared between threads.
+ * 
  * @author Chris Rimmer
  */
 public class BasicDTW extends EuclideanDistance{
     
     protected double[][] distances;
+    protected BandedDTW engine=new BandedDTW();
+    private double[] lastFirst;
+    private double[] lastSecond;
 //    private int distanceCount = 0;
    
         
@@ -111,44 +116,23 @@ public class BasicDTW extends EuclideanDistance{
      * @return distance between instances
      */
     public double distance(double[] first, double[] second, double cutOffValue){
-        //create empty array
-        this.distances = new double[first.length][second.length];
-        
-        //first value
-        this.distances[0][0] = (first[0]-second[0])*(first[0]-second[0]);
-        
-        
-        //top row
-        for(int i=1;i<second.length;i++){
-            this.distances[0][i] = this.distances[0][i-1]+((first[0]-second[i])*(first[0]-second[i]));
-        }
+        //only two rows of the band are kept, the full matrix is rebuilt on demand by getDistanceArray
+        this.distances = null;
+        this.lastFirst = first;
+        this.lastSecond = second;
+        return engine.distance(first, first.length, second, second.length, getBandSize(first.length, second.length), cutOffValue, null);
+    }
 
-        //first column
-        for(int i=1;i<first.length;i++){
-            this.distances[i][0] = this.distances[i-1][0]+((first[i]-second[0])*(first[i]-second[0]));
-        }
-        
-        
-        boolean overFlow = true;
-        
-        //warp rest
-        double minDistance;
-        for(int i = 1; i<first.length; i++){
-            overFlow = true;
-            for(int j = 1; j<second.length; j++){
-                //calculate distances
-                minDistance = Math.min(this.distances[i][j-1], Math.min(this.distances[i-1][j], this.distances[i-1][j-1]));
-                this.distances[i][j] = minDistance+((first[i]-second[j])*(first[i]-second[j]));
-                if(overFlow && this.distances[i][j] < cutOffValue){
-                    overFlow = false;
-                }
-            }
-            if(overFlow){ // i.e. none of the valid directions for the warping path are less than the passed cut-off
-                return Double.MAX_VALUE;
-            }
-        }
-//        return Math.sqrt(this.distances[first.length-1][second.length-1]);
-        return (this.distances[first.length-1][second.length-1]);
+    /**
+     * Width of the warping window passed to BandedDTW: cells with |i-j| less 
+     * than this are in the band. No constraint here, so anything goes
+     * 
+     * @param n length of the first series
+     * @param m length of the second series
+     * @return band size
+     */
+    protected int getBandSize(int n, int m){
+        return n > m ? n : m;
     }
 
     /**
@@ -159,6 +143,7 @@ public class BasicDTW extends EuclideanDistance{
      * @return Path
      */
     public String printMinCostWarpPath(){
+        getDistanceArray();
         return findPath(this.distances.length-1, this.distances[0].length-1);
     }
     
@@ -204,11 +189,15 @@ public class BasicDTW extends EuclideanDistance{
     
     
     /**
-     * returns the Euclidean distances array
+     * returns the Euclidean distances array, rebuilt in full (without early 
+     * abandon) for the last pair of series passed to distance
      * 
      * @return double[][] distances
      */
     public double[][] getDistanceArray(){
+        if(this.distances == null && this.lastFirst != null){
+            this.distances = BandedDTW.costMatrix(this.lastFirst, this.lastSecond, getBandSize(this.lastFirst.length, this.lastSecond.length));
+        }
         return this.distances;
     }
     
@@ -216,6 +205,7 @@ public class BasicDTW extends EuclideanDistance{
      * This will print the diagonal route with no warping
      */
     public void printDiagonalRoute(){
+        getDistanceArray();
         System.out.println("------------------ Diagonal Route ------------------");
         for(int i = this.distances.length-1; i >= 0; i--){
             System.out.print(this.distances[i][i]+" ");
@@ -227,6 +217,7 @@ public class BasicDTW extends EuclideanDistance{
      * Prints the distances array as a table
      */
     public void printDistances(){        
+        getDistanceArray();
         System.out.println("------------------ Distances Table ------------------");
         for(int i = 0; i<this.distances.length; i++){
             System.out.print("Row ="+i+" = ");
@@ -0,0 +1,148 @@
+/*
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package timeseriesweka.elastic_distance_measures;
+
+/**
+ * Lower bounds for the squared DTW distance on equal length series, working
+ * on primitive arrays:
+ *
+ * LB_Kim: the first and last points must be matched to each other, O(1).
+ * LB_Keogh: distance of the query to the envelope of the candidate, O(n)
+ * given a precomputed envelope (Keogh and Ratanamahatana, 2005).
+ * LB_Improved: LB_Keogh plus the distance of the candidate to the envelope of
+ * the query projected onto the candidate's envelope (Lemire, 2009).
+ *
+ * The reach of an envelope is the maximum warp |i-j| allowed, so for the
+ * window convention in this package (|i-j| &lt; windowSize) reach is
+ * windowSize-1. Envelopes are found with Lemire's streaming min/max in O(n)
+ * regardless of the reach.
+ */
+public class DTWLowerBounds {
+
+    private DTWLowerBounds(){}
+
+    /**
+     * LB_Kim restricted to the first and last points, which every warping
+     * path has to pass through. Only valid when both series have length n.
+     */
+    public static double lbKim(double[] q, double[] c, int n){
+        double d=(q[0]-c[0])*(q[0]-c[0]);
+        if(n>1)
+            d+=(q[n-1]-c[n-1])*(q[n-1]-c[n-1]);
+        return d;
+    }
+
+    /**
+     * Upper and lower envelope of the first n values of s.
+     * upper[i] = max(s[i-reach..i+reach]), lower[i] likewise the min.
+     *
+     * @param s series
+     * @param n length
+     * @param reach maximum warp
+     * @param upper filled with the upper envelope
+     * @param lower filled with the lower envelope
+     * @param dequeU work space of at least n ints
+     * @param dequeL work space of at least n ints
+     */
+    public static void envelope(double[] s, int n, int reach, double[] upper, double[] lower, int[] dequeU, int[] dequeL){
+        if(reach>n-1)
+            reach=n-1;
+        int uh=0,ut=0,lh=0,lt=0;
+        int k;
+        for(int i=0;i<n+reach;i++){
+            if(i<n){
+                while(ut>uh && s[dequeU[ut-1]]<=s[i])
+                    ut--;
+                dequeU[ut++]=i;
+                while(lt>lh && s[dequeL[lt-1]]>=s[i])
+                    lt--;
+                dequeL[lt++]=i;
+            }
+            k=i-reach;
+            if(k>=0){
+                while(dequeU[uh]<k-reach)
+                    uh++;
+                while(dequeL[lh]<k-reach)
+                    lh++;
+                upper[k]=s[dequeU[uh]];
+                lower[k]=s[dequeL[lh]];
+            }
+        }
+    }
+
+    public static void envelope(double[] s, int n, int reach, double[] upper, double[] lower){
+        envelope(s,n,reach,upper,lower,new int[n],new int[n]);
+    }
+
+    /**
+     * LB_Keogh of the query against an envelope. Stops as soon as the sum
+     * exceeds the cutoff, in which case the partial sum (already above the
+     * cutoff) is returned and contributions is only partly filled.
+     *
+     * @param q query
+     * @param n length
+     * @param upper upper envelope of the candidate
+     * @param lower lower envelope of the candidate
+     * @param cutoff best so far
+     * @param contributions optional, may be null. Filled with the contribution
+     * of each point of the query, which bounds the cost of the corresponding
+     * row of the DTW matrix
+     * @return the lower bound
+     */
+    public static double lbKeogh(double[] q, int n, double[] upper, double[] lower, double cutoff, double[] contributions){
+        double sum=0,d;
+        for(int i=0;i<n;i++){
+            if(q[i]>upper[i])
+                d=(q[i]-upper[i])*(q[i]-upper[i]);
+            else if(q[i]<lower[i])
+                d=(q[i]-lower[i])*(q[i]-lower[i]);
+            else
+                d=0;
+            sum+=d;
+            if(contributions!=null)
+                contributions[i]=d;
+            if(sum>cutoff)
+                return sum;
+        }
+        return sum;
+    }
+
+    /**
+     * Projects the query onto the envelope of the candidate, the series H(q,c)
+     * of LB_Improved.
+     */
+    public static void project(double[] q, int n, double[] upper, double[] lower, double[] projection){
+        for(int i=0;i<n;i++){
+            if(q[i]>upper[i])
+                projection[i]=upper[i];
+            else if(q[i]<lower[i])
+                projection[i]=lower[i];
+            else
+                projection[i]=q[i];
+        }
+    }
+
+    /**
+     * Turns per row contributions into the suffix sums expected by
+     * BandedDTW, cumulative[i] = contributions[i]+...+contributions[n-1]
+     */
+    public static void cumulative(double[] contributions, int n, double[] cumulative){
+        double sum=0;
+        for(int i=n-1;i>=0;i--){
+            sum+=contributions[i];
+            cumulative[i]=sum;
+        }
+    }
+}
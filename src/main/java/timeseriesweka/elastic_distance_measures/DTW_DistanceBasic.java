@@ -159,7 +159,17 @@ generalised for variable window size
                 w++;
         return w;	
     }
+    /**
+     * Hook for subclasses that do not keep matrixD filled by distance (see 
+     * DTW). Returns the maximum warp if it is already known, otherwise -1 after
+     * making sure matrixD holds the matrix of the last distance computed.
+     * @return maximum warp, or -1 to walk matrixD
+     */
+    protected int trackedMaxWindow(){ return -1;}
     final public int findMaxWindow(){
+        int tracked=trackedMaxWindow();
+        if(tracked>=0)
+            return tracked;
         //Find Path backwards in pairs			
         int n=matrixD.length;
         int m=matrixD[0].length;
@@ -35,11 +35,23 @@ public class ERPDistance extends EuclideanDistance {
 
     private double g;
     private double bandSize;
+    
+    // current and previous rows of the matrix, kept between calls
+    private transient double[] prevRow;
+    private transient double[] currRow;
 
     public ERPDistance(double g, double bandSize) {
         this.g = g;
         this.bandSize = bandSize;
     }
+    
+    public void setG(double g){
+        this.g = g;
+    }
+    
+    public void setBandSize(double bandSize){
+        this.bandSize = bandSize;
+    }
 
     /**
      * Distance method
@@ -101,8 +113,101 @@ public class ERPDistance extends EuclideanDistance {
 
     public double distance(double[] first, double[] second, double cutOffValue) {
 //        return ERPDistance(first, second);
-        return ERPDistance(new NumberVector(first), new NumberVector(second));
-
+        return distance(first, first.length, second, second.length, cutOffValue);
+    }
+    
+    /**
+     * ERP between the first m values of a and the first n values of b, with 
+     * the same steps and tie breaking as ERPDistance(NumberVector, NumberVector)
+     * but only visiting the band and reusing the two rows between calls, so 
+     * after the first call nothing is allocated. Not thread safe.
+     * 
+     * Every step adds a non negative cost, so once the smallest cell of a row 
+     * is above cutOffValue (squared) so is the distance and Double.MAX_VALUE is
+     * returned. Distances equal to the cutoff are still returned exactly.
+     * 
+     * @param a first series
+     * @param m number of values of a to use
+     * @param b second series
+     * @param n number of values of b to use
+     * @param cutOffValue used for early abandon
+     * @return the distance, or Double.MAX_VALUE if it is greater than cutOffValue
+     */
+    public double distance(double[] a, int m, double[] b, int n, double cutOffValue) {
+        if (prevRow == null || prevRow.length < n) {
+            prevRow = new double[n];
+            currRow = new double[n];
+        }
+        double[] prev = currRow;
+        double[] curr = prevRow;
+        double[] temp;
+        
+        // bandsize is the maximum allowed distance to the diagonal
+        int band = (int) Math.ceil(n * bandSize);
+        if (Math.abs(m - n) > band) {
+            // the end point is outside the band
+            return Double.POSITIVE_INFINITY;
+        }
+        double gValue = g;
+        double diff, d1, d2, d12, dist1, dist2, dist12, cost, rowMin;
+        
+        for (int i = 0; i < m; i++) {
+            temp = prev;
+            prev = curr;
+            curr = temp;
+            
+            int l = i - (band + 1);
+            if (l < 0) {
+                l = 0;
+            }
+            int r = i + (band + 1);
+            if (r > (n - 1)) {
+                r = (n - 1);
+            }
+            
+            rowMin = Double.POSITIVE_INFINITY;
+            for (int j = l; j <= r; j++) {
+                if (Math.abs(i - j) <= band) {
+                    // same arithmetic as the original so the results are identical
+                    diff = a[i] - gValue;
+                    d1 = Math.sqrt(diff * diff);
+                    diff = gValue - b[j];
+                    d2 = Math.sqrt(diff * diff);
+                    diff = a[i] - b[j];
+                    d12 = Math.sqrt(diff * diff);
+                    dist1 = d1 * d1;
+                    dist2 = d2 * d2;
+                    dist12 = d12 * d12;
+                    
+                    if ((i + j) != 0) {
+                        if ((i == 0) || ((j != 0) && (((prev[j - 1] + dist12) > (curr[j - 1] + dist2)) && ((curr[j - 1] + dist2) < (prev[j] + dist1))))) {
+                            // del
+                            cost = curr[j - 1] + dist2;
+                        } else if ((j == 0) || ((i != 0) && (((prev[j - 1] + dist12) > (prev[j] + dist1)) && ((prev[j] + dist1) < (curr[j - 1] + dist2))))) {
+                            // ins
+                            cost = prev[j] + dist1;
+                        } else {
+                            // match
+                            cost = prev[j - 1] + dist12;
+                        }
+                    } else {
+                        cost = 0;
+                    }
+                    
+                    curr[j] = cost;
+                    if (cost < rowMin) {
+                        rowMin = cost;
+                    }
+                } else {
+                    curr[j] = Double.POSITIVE_INFINITY; // outside band
+                }
+            }
+            if (Math.sqrt(rowMin) > cutOffValue) {
+                return Double.MAX_VALUE;
+            }
+        }
+        
+        return Math.sqrt(curr[n - 1]);
     }
 
     
@@ -5,6 +5,7 @@
 
 package timeseriesweka.elastic_distance_measures;
 
+import java.util.Arrays;
 import weka.core.EuclideanDistance;
 import weka.core.Instance;
 import weka.core.Instances;
@@ -18,6 +19,10 @@ public class LCSSDistance extends EuclideanDistance{
 
     private double epsilon;
     private int delta;
+    
+    // rows of the lcss matrix, kept between calls
+    private transient int[] prevRow;
+    private transient int[] currRow;
 
     public LCSSDistance(int delta, double epsilon){
         this.m_DontNormalize = true;
@@ -85,7 +90,86 @@ public class LCSSDistance extends EuclideanDistance{
      * @return distance between instances
      */
     public double distance(double[] first, double[] second, double cutOffValue){
-        return distance(first, second);
+        return distance(first, first.length, second, second.length, cutOffValue);
+    }
+    
+    public void setDelta(int delta){
+        this.delta = delta;
+    }
+    
+    public void setEpsilon(double epsilon){
+        this.epsilon = epsilon;
+    }
+    
+    /**
+     * LCSS distance between the first m values of a and the first n values of
+     * b, giving the same result as distance(double[], double[]) but only 
+     * filling the band |i-j| <= delta of two rows, which are reused between 
+     * calls. Not thread safe.
+     * 
+     * Each row can add at most one to the length of the common subsequence,
+     * so after row i the final distance is at least 
+     * 1-(best so far+rows remaining)/m. Once that is above cutOffValue, 
+     * Double.MAX_VALUE is returned. Distances equal to the cutoff are still 
+     * returned exactly.
+     * 
+     * @param a first series
+     * @param m number of values of a to use
+     * @param b second series
+     * @param n number of values of b to use
+     * @param cutOffValue used for early abandon
+     * @return the distance, or Double.MAX_VALUE if it is greater than cutOffValue
+     */
+    public double distance(double[] a, int m, double[] b, int n, double cutOffValue){
+        if(prevRow == null || prevRow.length < n+1){
+            prevRow = new int[n+1];
+            currRow = new int[n+1];
+        }
+        int[] prev = prevRow;
+        int[] curr = currRow;
+        int[] temp;
+        // cells outside the band are 0 in the full matrix
+        Arrays.fill(prev, 0, n+1, 0);
+        Arrays.fill(curr, 0, n+1, 0);
+        
+        int start, end, rowMax;
+        for(int i = 0; i < m; i++){
+            start = i-delta < 0 ? 0 : i-delta;
+            end = i+delta >= n ? n-1 : i+delta;
+            // left of the band, may still hold a value from two rows ago
+            if(start <= end){
+                curr[start] = 0;
+            }
+            rowMax = 0;
+            for(int j = start; j <= end; j++){
+                if(b[j]+this.epsilon >= a[i] && b[j]-epsilon <=a[i]){
+                    curr[j+1] = prev[j]+1;
+                }else if(prev[j+1] > curr[j]){
+                    curr[j+1] = prev[j+1];
+                }else{
+                    curr[j+1] = curr[j];
+                }
+                if(curr[j+1] > rowMax){
+                    rowMax = curr[j+1];
+                }
+            }
+            if(1-((double)(rowMax+m-1-i)/m) > cutOffValue){
+                return Double.MAX_VALUE;
+            }
+            temp = prev;
+            prev = curr;
+            curr = temp;
+        }
+        
+        int max = n > 0 ? 0 : -1;
+        start = m-1-delta < 0 ? 0 : m-1-delta;
+        end = m-1+delta >= n ? n-1 : m-1+delta;
+        for(int j = start; j <= end; j++){
+            if(prev[j+1] > max){
+                max = prev[j+1];
+            }
+        }
+        return 1-((double)max/m);
     }
 
     public double distance(double[] first, double[] second){
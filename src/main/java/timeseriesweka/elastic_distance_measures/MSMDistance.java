@@ -26,6 +26,11 @@ public class MSMDistance extends EuclideanDistance{
     // c - cost of Split/Merge operation. Change this value to what is more
 		// appropriate for your data.
     double c = 0.1;
+    
+    // rows of the cost matrix, kept between calls
+    private transient double[] prevRow;
+    private transient double[] currRow;
+    
     public MSMDistance(){
         super();
         this.m_DontNormalize = true;
@@ -156,8 +161,66 @@ public class MSMDistance extends EuclideanDistance{
 
 
 
+    /**
+     * MSM between the first m values of a and the first n values of b, giving
+     * exactly the same result as MSM_Distance but keeping only two rows of the
+     * cost matrix. The rows are held by this object and reused, so after the
+     * first call nothing is allocated. Not thread safe.
+     *
+     * Every cell costs at least as much as the cell it came from, so once all
+     * of a row is above cutOffValue so is the distance and Double.MAX_VALUE
+     * is returned. Distances equal to the cutoff are still returned exactly.
+     *
+     * @param a first series
+     * @param m number of values of a to use
+     * @param b second series
+     * @param n number of values of b to use
+     * @param cutOffValue used for early abandon
+     * @return the distance, or Double.MAX_VALUE if it is greater than cutOffValue
+     */
+    public double distance(double[] a, int m, double[] b, int n, double cutOffValue){
+        if(prevRow == null || prevRow.length < n){
+            prevRow = new double[n];
+            currRow = new double[n];
+        }
+        double[] prev = prevRow;
+        double[] curr = currRow;
+        double[] temp;
+        double d1, d2, d3, rowMin;
+
+        // Initialization
+        prev[0] = Math.abs(a[0] - b[0]);
+        for (int j = 1; j < n; j++) {
+            prev[j] = prev[j-1] + editCost(b[j], a[0], b[j-1]);
+        }
+
+        // Main Loop
+        for (int i = 1; i < m; i++) {
+            curr[0] = prev[0] + editCost(a[i], a[i-1], b[0]);
+            rowMin = curr[0];
+            for (int j = 1; j < n; j++) {
+                d1 = prev[j-1] + Math.abs(a[i] - b[j]);
+                d2 = prev[j] + editCost(a[i], a[i-1], b[j]);
+                d3 = curr[j-1] + editCost(b[j], a[i], b[j-1]);
+                curr[j] = Math.min(d1, Math.min(d2, d3));
+                if (curr[j] < rowMin) {
+                    rowMin = curr[j];
+                }
+            }
+            if (rowMin > cutOffValue) {
+                return Double.MAX_VALUE;
+            }
+            temp = prev;
+            prev = curr;
+            curr = temp;
+        }
+
+        // Output
+        return prev[n-1];
+    }
+
     public double distance(double[] first, double[] second, double cutOffValue){
-        return MSM_Distance(first,second);
+        return distance(first, first.length, second, second.length, cutOffValue);
     }
 
 
@@ -63,6 +63,12 @@ public class TWEDistance extends EuclideanDistance{
     double nu=1;
     double lambda=1;
     double degree=2;
+    
+    // two rows of the cost matrix and the deletion costs of b, kept between calls
+    private transient double[] prevRow;
+    private transient double[] currRow;
+    private transient double[] deleteB;
+    
     public void setNu(double n){nu=n;}
     public void setLambda(double n){lambda=n;}
 
@@ -275,9 +281,88 @@ public class TWEDistance extends EuclideanDistance{
 
 
 
+    /**
+     * TWE between the first m values of a and the first n values of b, with
+     * the same arithmetic as TWE_Distance (time stamps 1,2,3...) but only two
+     * rows of the cost matrix. The match costs are computed as they are
+     * needed rather than stored, and the rows are held by this object and
+     * reused between calls, so after the first call nothing is allocated.
+     * Not thread safe.
+     *
+     * With nu and lambda non negative no step can reduce the cost, so once all
+     * of a row is above cutOffValue Double.MAX_VALUE is returned. Distances
+     * equal to the cutoff are still returned exactly.
+     *
+     * @param a first series
+     * @param m number of values of a to use
+     * @param b second series
+     * @param n number of values of b to use
+     * @param cutOffValue used for early abandon
+     * @return the distance, or Double.MAX_VALUE if it is greater than cutOffValue
+     */
+    public double distance(double[] a, int m, double[] b, int n, double cutOffValue){
+        if(prevRow==null || prevRow.length<n+1){
+            prevRow=new double[n+1];
+            currRow=new double[n+1];
+            deleteB=new double[n+1];
+        }
+        double[] prev=prevRow;
+        double[] curr=currRow;
+        double[] temp;
+        boolean canAbandon=nu>=0 && lambda>=0;
+        double dist, disti1, dmin, htrans, rowMin;
+        int i,j;
+
+// border of the cost matrix and the cost of deleting each point of b
+        prev[0]=0;
+        for(j=1; j<=n; j++){
+            if(j>1)
+                deleteB[j]=(b[j-2]-b[j-1])*(b[j-2]-b[j-1]);
+            else
+                deleteB[j]=b[j-1]*b[j-1];
+            prev[j]=prev[j-1]+deleteB[j];
+        }
+
+        for(i=1; i<=m; i++){
+            if(i>1)
+                disti1=(a[i-2]-a[i-1])*(a[i-2]-a[i-1]);
+            else
+                disti1=a[i-1]*a[i-1];
+            curr[0]=prev[0]+disti1;
+            rowMin=curr[0];
+            for(j=1; j<=n; j++){
+// match, time stamps are the indexes so the stamp differences are |i-j| and 1
+                dist=(a[i-1]-b[j-1])*(a[i-1]-b[j-1]);
+                if(i>1&&j>1)
+                    dist+=(a[i-2]-b[j-2])*(a[i-2]-b[j-2]);
+                htrans=Math.abs((double)i-(double)j);
+                if(j>1&&i>1)
+                    htrans+=Math.abs((double)i-(double)j);
+                dmin=prev[j-1]+nu*htrans+dist;
+// delete in a
+                dist=disti1+prev[j]+lambda+nu*1.0;
+                if(dmin>dist)
+                    dmin=dist;
+// delete in b
+                dist=deleteB[j]+curr[j-1]+lambda+nu*1.0;
+                if(dmin>dist)
+                    dmin=dist;
+                curr[j]=dmin;
+                if(dmin<rowMin)
+                    rowMin=dmin;
+            }
+            if(canAbandon && rowMin>cutOffValue)
+                return Double.MAX_VALUE;
+            temp=prev;
+            prev=curr;
+            curr=temp;
+        }
+        return prev[n];
+    }
+
     public double distance(double[] first, double[] second,
             double cutOffValue){
-        return TWE_Distance(first,second);
+        return distance(first,first.length,second,second.length,cutOffValue);
     }
 
 
@@ -67,6 +67,9 @@ public class ACF extends SimpleBatchFilter {
  * (checked in process() */    
     static final int DEFAULT_MAXLAG=100;
     int maxLag=DEFAULT_MAXLAG;
+/** From this many lags on, the correlations are found through the FFT (SpectralEngine.lagProducts)
+ * rather than directly. Directly is O(n*maxLag), through the FFT O(n log n) */
+    static final int FFT_MIN_LAG=24;
 /** Currently assumed constant for all series. Have to, using instances* */   
     int seriesLength;
 
@@ -210,11 +213,13 @@ public class ACF extends SimpleBatchFilter {
         return output;
     }
 /**
- * Note it is possible to do this with FFT in O(nlogn) BUT requires 2^n attributes
+ * For long lags this is done with the FFT in O(nlogn), see fftAutoCorrelations
  * @param data
  * @return 
  */    
     public double[] fitAutoCorrelations(double[] data) {
+        if(useFFT(data,maxLag))
+            return fftAutoCorrelations(data,maxLag,normalized,true);
         double[] a = new double[maxLag];
         if(!normalized){
             for(int i=1;i<=maxLag;i++){
@@ -259,6 +264,8 @@ public class ACF extends SimpleBatchFilter {
  * @return first mLag autocorrelations
  */    
     public static double[] fitAutoCorrelations(double[] data, int mLag){
+        if(useFFT(data,mLag))
+            return fftAutoCorrelations(data,mLag,false,false);
         double[] a = new double[mLag];
 
         double s1,s2,ss1,ss2,v1,v2;
@@ -283,6 +290,63 @@ public class ACF extends SimpleBatchFilter {
         return a;
     }
 
+    private static boolean useFFT(double[] data, int mLag){
+        return mLag>=FFT_MIN_LAG && mLag<data.length;
+    }
+/**
+ * The same correlations as the direct loops, but with every lagged sum of products
+ * taken from one FFT. The means and variances of the two overlapping parts of the series
+ * at each lag come from cumulative sums. The series is first shifted to zero mean, which
+ * does not change the correlations, so that the sums of products do not swamp the
+ * product of the means. 
+ * @param data
+ * @param mLag number of lags, must be less than data.length
+ * @param normalized if true, assume zero mean and unit variance, as the normalized option
+ * @param zeroVariance if true, handle zero variance as the instance method does, 
+ * otherwise as the static method does
+ * @return first mLag autocorrelations
+ */    
+    private static double[] fftAutoCorrelations(double[] data, int mLag, boolean normalized, boolean zeroVariance){
+        int n=data.length;
+        double[] a = new double[mLag];
+        if(normalized){
+            double[] r=SpectralEngine.lagProducts(data,mLag);
+            for(int i=1;i<=mLag;i++)
+                a[i-1]=r[i]/n;
+            return a;
+        }
+        double mean=0;
+        for(double d:data)
+            mean+=d;
+        mean/=n;
+        double[] x=new double[n];
+        double[] sum=new double[n+1];
+        double[] sumSq=new double[n+1];
+        for(int j=0;j<n;j++){
+            x[j]=data[j]-mean;
+            sum[j+1]=sum[j]+x[j];
+            sumSq[j+1]=sumSq[j]+x[j]*x[j];
+        }
+        double[] r=SpectralEngine.lagProducts(x,mLag);
+        double s1,s2,v1,v2;
+        int m;
+        for(int i=1;i<=mLag;i++){
+            m=n-i;
+            s1=sum[m]/m;
+            s2=(sum[n]-sum[i])/m;
+            a[i-1]=r[i]/m-s1*s2;
+            v1=sumSq[m]/m-s1*s1;
+            v2=(sumSq[n]-sumSq[i])/m-s2*s2;
+            if(zeroVariance && v1==0 && v2==0)
+                a[i-1]=1;
+            else if(zeroVariance && (v1==0 || v2==0))
+                a[i-1]=0;
+            else
+                a[i-1]/=Math.sqrt(v1)*Math.sqrt(v2);
+        }
+        return a;
+    }
+
 
     public String getRevision() {
         return "Revision 2: 2019";
@@ -472,6 +536,47 @@ public class ACF extends SimpleBatchFilter {
        }
        return null;
     }
+/**
+ * The same features as formChangeCombo (ACF, then PACF, then AR) for a single series,
+ * without building any Instances. Used by RISE to transform series one at a time.
+ * @param series, without a class value
+ * @return the transformed series, without a class value
+ */
+    public static double[] formChangeCombo(double[] series){
+        int m=series.length;
+        int maxLag=m/4;
+        if(maxLag>DEFAULT_MAXLAG)
+            maxLag=DEFAULT_MAXLAG;
+        if(maxLag<10)
+            maxLag=m;
+   //1. ACF, as process: the last endTerms lags are dropped and out of range values zeroed
+        ACF acf=new ACF();
+        int acfLag=maxLag;
+        if(acfLag>m-acf.endTerms)
+            acfLag=m-acf.endTerms;
+        if(acfLag<0)
+            acfLag=m;
+        acf.setMaxLag(acfLag);
+        double[] autoCorr=acf.fitAutoCorrelations(series);
+   //2. PACF and AR both use the same autocorrelations, the AR terms without AIC
+        int lag=maxLag>m?m:maxLag;
+        double[][] partials=PACF.formPartials(fitAutoCorrelations(series,lag));
+        double[] combo=new double[acfLag+2*lag];
+        for(int j=0;j<acfLag;j++){
+            if(autoCorr[j]<-1.0 || autoCorr[j]>1 || Double.isNaN(autoCorr[j])|| Double.isInfinite(autoCorr[j]))
+                combo[j]=0;
+            else
+                combo[j]=autoCorr[j];
+        }
+        for(int k=0;k<lag;k++){
+            if(Double.isNaN(partials[k][k]) || Double.isInfinite(partials[k][k]))
+                combo[acfLag+k]=0;
+            else
+                combo[acfLag+k]=partials[k][k];
+            combo[acfLag+lag+k]=partials[k][lag-1];
+        }
+        return combo;
+    }
     
 /**
 /**Debug code to test ACF generation: 
@@ -14,8 +14,9 @@
  */ 
 package timeseriesweka.filters;
 /* Performs a FFT of the data set. NOTE:
-* 1. If algorithm type is set to DFT, then this will only perform a FFT if the series is length power of 2.
-* otherwise it will perform the order m^2 DFT.
+* 1. If algorithm type is set to DFT, the transform is of the whole series, whatever its length.
+* The transform itself is done by SpectralEngine (jtransforms), which is O(m log m) for any length
+* rather than the order m^2 DFT, which is still available through dft(...).
 * 2. If algorithm type is set to FFT, then, if the length is not a powerr of 2, it either truncates or pads 
 * (determined by the variable pad) with the mean the each series (i.e. each Instance) 
 * so that the new length is power of 2 by flag pad (default true)
@@ -33,7 +34,7 @@ public class FFT extends SimpleBatchFilter {
 	/**
 	 * 
 	 */
-        public enum AlgorithmType {DFT,FFT}    //If set to DFT, this will only perform a FFT if the series is length power of 2, otherwise resorts to DFT
+        public enum AlgorithmType {DFT,FFT}    //If set to DFT, this transforms the full series, whatever its length
         AlgorithmType algo=AlgorithmType.DFT;  //If set to FFT, this will pad (or truncate) series to the nearest power of 2
 	private static final long serialVersionUID = 1L;
 	private boolean pad=true;
@@ -154,46 +155,38 @@ public class FFT extends SimpleBatchFilter {
             
 		Instances output=determineOutputFormat(instances);
                 
-                int originalLength=instances.numAttributes();
-		if(instances.classIndex()>=0){
-                        originalLength--;
-                }
 //Get the length of the full complex series, which might be padded or truncated. 
                 int fullLength=findLength(instances);
 //For each data, first extract the relevant data
 //Note the transform will be at least twice as long as the original                
 //Length is the number of COMPLEX terms, which is HALF the length of the original series. 
-                
+                double[] series=new double[fullLength];
 		for(int i=0;i<instances.numInstances();i++){
 			
-//1. Get original series stored in a complex array. This may be padded or truncated
+//1. Get original series. This may be padded or truncated
 //depending on the original length. If DFT is being used, it is neither. 
-                    Complex[] c=new Complex[fullLength];
                     int count=0;
                     double seriesTotal=0;
-                    for(int j=0;j<originalLength&&count<c.length;j++){ //May cut off the trailing values
+                    //The class attribute need not be last, so run over all attributes and count the others
+                    for(int j=0;j<instances.numAttributes()&&count<series.length;j++){ //May cut off the trailing values
                             if(instances.classIndex()!=j){
-                                    c[count]=new Complex(instances.instance(i).value(j),0.0);
-                                    seriesTotal+=instances.instance(i).value(j);
+                                    series[count]=instances.instance(i).value(j);
+                                    seriesTotal+=series[count];
                                     count++;
                             }
                     }
 //Add any Padding required  
                     double mean=seriesTotal/count;
-                    while(count<c.length)
-                        c[count++]=new Complex(mean,0);
-//2. Find FFT/DFT of series.	
-                    if(algo==AlgorithmType.FFT)
-			fft(c,c.length);
-                    else
-			c=dft(c);
+                    while(count<series.length)
+                        series[count++]=mean;
+//2. Find FFT/DFT of series. Both go through SpectralEngine, which is O(n log n) for any length,
+//they only differ in whether the series was padded or truncated above
+                    double[] c=SpectralEngine.halfSpectrum(series,fullLength);
 //Extract out the terms and set the attributes.
                     
-                    Instance inst=new DenseInstance(c.length+1);
-                    for(int j=0;j<c.length/2;j++){
-                        inst.setValue(2*j, c[j].real);
-                        inst.setValue(2*j+1, c[j].imag);
-                    }
+                    Instance inst=new DenseInstance(fullLength+1);
+                    for(int j=0;j<c.length;j++)
+                        inst.setValue(j, c[j]);
 	//Set class value.
                     //Set class value.
                     if(instances.classIndex()>=0)
@@ -15,8 +15,14 @@
 package timeseriesweka.filters;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.atomic.AtomicInteger;
 import static timeseriesweka.filters.shapelet_transforms.distance_functions.SubSeqDistance.ROUNDING_ERROR_CORRECTION;
 import utilities.ClassifierTools;
+import utilities.ThreadingUtilities;
 import weka.core.Attribute;
 import weka.core.DenseInstance;
 import weka.core.Instance;
@@ -30,6 +36,23 @@ import weka.filters.SimpleBatchFilter;
  * Note: if desired, once a set of Instances are processed the accessor methods getDistances() and getIndices() can be used for manually using the values, rather than having to 
  *       extract the data back from the output Instances of process
  * 
+ * Algorithms (setAlgorithm):
+ *      - STOMP (default): walks each diagonal of the distance matrix, updating the dot product of the two windows in O(1) from the previous pair and getting the
+ *        z-normalised distance from it and the (precomputed) mean and stdv of each window. O(n^2) per series rather than O(n^2 w), and no window is copied. 
+ *        Gives the same profile as BRUTE_FORCE up to rounding error in the distances
+ *      - SCRIMP: anytime version of STOMP. The diagonals are visited in a random order (setSeed) and the search stops once setFractionOfDiagonals of them have 
+ *        been done or setTimeLimit has passed, whichever is first. The profile converges to the exact one quickly; a window not yet compared with any other
+ *        keeps distance Double.MAX_VALUE and index -1
+ *      - SCRIMP_PLUS_PLUS: SCRIMP after the PreSCRIMP pass of SCRIMP++. Every windowSize/4'th window (in a random order) gets its whole distance profile at once,
+ *        the dot products with every other window coming from one FFT convolution against the transformed series (SpectralEngine, as MASS does). Each of
+ *        these profiles updates the profile of every window it reaches, and the pairs either side of its best match along the same diagonal are then walked
+ *        in O(1) each, as in STOMP. This gives a close approximation of the whole profile in O(n^2 log n / windowSize) before any diagonal is visited, and
+ *        SCRIMP then refines it (setFractionOfDiagonals and setTimeLimit cover both passes)
+ *      - BRUTE_FORCE: the original implementation, z-normalising a copy of every window pair. O(n^2 w) per series
+ * 
+ * setNumThreads spreads the instances over threads or, if there are fewer instances than threads, the diagonals of each series. The profiles do not depend on 
+ * the number of threads (other than through a time limit). 
+ * 
  * To-do:
  *      - Cache distances that will be reused (is it worth it? Probably not since it's offline, but might be important for very large problems and small windows)
  *      - Implement 'stride' - not sure if this makes sense particularly, but we could allow it so the user can change the step between comparison subseries 
@@ -43,9 +66,76 @@ public class MatrixProfile extends SimpleBatchFilter{
     private double[][] distances;
     private int[][] indices;
     
+    public enum Algorithm{BRUTE_FORCE, STOMP, SCRIMP, SCRIMP_PLUS_PLUS}
+    private Algorithm algorithm = Algorithm.STOMP;
+    private int numThreads = 1;
+    private double fractionOfDiagonals = 1; // SCRIMP only
+    private long timeLimit = 0; // SCRIMP only, milliseconds per series, 0 for no limit
+    private int seed = 0; // SCRIMP only
+    
     public MatrixProfile(int windowSize){
         this.windowSize = windowSize;
     }
+    
+    public void setAlgorithm(Algorithm algorithm){
+        this.algorithm = algorithm;
+    }
+    
+    public Algorithm getAlgorithm(){
+        return this.algorithm;
+    }
+    
+    /**
+     * @param numThreads 1 by default, 0 for all cores
+     */
+    public void setNumThreads(int numThreads){
+        this.numThreads = numThreads;
+    }
+    
+    /**
+     * SCRIMP and SCRIMP_PLUS_PLUS only: stop once this fraction of the diagonals of each series has been done
+     * @param fractionOfDiagonals in (0,1], 1 by default
+     */
+    public void setFractionOfDiagonals(double fractionOfDiagonals){
+        this.fractionOfDiagonals = fractionOfDiagonals;
+    }
+    
+    /**
+     * SCRIMP and SCRIMP_PLUS_PLUS only: stop working on a series after this long
+     * @param millis time allowed per series, 0 (the default) for no limit
+     */
+    public void setTimeLimit(long millis){
+        this.timeLimit = millis;
+    }
+    
+    /**
+     * SCRIMP and SCRIMP_PLUS_PLUS only: seed for the order the diagonals (and PreSCRIMP windows) are visited in
+     * @param seed 
+     */
+    public void setSeed(int seed){
+        this.seed = seed;
+    }
+    
+    // finds the profile of every instance, spreading the instances over the threads if there are enough of them, otherwise the diagonals of each series
+    private void profileAll(Instances instances) throws Exception{
+        
+        this.distances = new double[instances.numInstances()][];
+        this.indices = new int[instances.numInstances()][];
+        
+        boolean byInstance = instances.numInstances() >= ThreadingUtilities.resolveNumThreads(numThreads);
+        int threadsPerInstance = byInstance ? 1 : numThreads;
+        
+        List<Callable<SingleInstanceMatrixProfile>> tasks = new ArrayList<>();
+        for(int ins = 0; ins < instances.numInstances(); ins++){
+            Instance instance = instances.get(ins);
+            tasks.add(() -> new SingleInstanceMatrixProfile(instance, this, threadsPerInstance));
+        }
+        List<SingleInstanceMatrixProfile> profiles = ThreadingUtilities.invokeAll(tasks, byInstance ? numThreads : 1);
+        for(int ins = 0; ins < profiles.size(); ins++){
+            distances[ins] = profiles.get(ins).distances;
+            indices[ins] = profiles.get(ins).indices;
+        }
+    }
 
     @Override
     public Instances process(Instances instances) throws Exception {
@@ -64,29 +154,24 @@ public class MatrixProfile extends SimpleBatchFilter{
             throw new Exception("Error: the series length must be at least 4 times larger than the window size to satisfy the exclusion zone criteria for trivial matches. These instances have a series length of "+seriesLength+"; the maximum window size is therefore "+(seriesLength/4)+" and you have specified "+windowSize);
         }
         
-        SingleInstanceMatrixProfile mpIns;
         Instances transformed = this.determineOutputFormat(instances);
-        Instance out;
+        double[] out;
         
-        this.distances = new double[instances.numInstances()][];
-        this.indices = new int[instances.numInstances()][];
+        profileAll(instances);
         
+        // values are filled in before making each instance, as every setValue on an instance copies all of its values
         for(int ins = 0; ins < instances.numInstances(); ins++){
-            mpIns = new SingleInstanceMatrixProfile(instances.get(ins),this.windowSize, this.stride);
-            out = new DenseInstance(transformed.numAttributes());
+            out = new double[transformed.numAttributes()];
             
-            distances[ins] = mpIns.distances;
-            indices[ins] = mpIns.indices;
-            
-            for(int i = 0; i < mpIns.distances.length; i++){
-                out.setValue(i, mpIns.distances[i]);
+            for(int i = 0; i < distances[ins].length; i++){
+                out[i] = distances[ins][i];
                 
             }
             
             if(instances.classIndex() >=0){
-                out.setValue(mpIns.distances.length, instances.instance(ins).classValue());
+                out[distances[ins].length] = instances.instance(ins).classValue();
             }
-            transformed.add(out);
+            transformed.add(new DenseInstance(1.0, out));
         }
         return transformed;
     }
@@ -115,39 +200,31 @@ public class MatrixProfile extends SimpleBatchFilter{
             throw new Exception("Error: the series length must be at least 4 times larger than the window size to satisfy the exclusion zone criteria for trivial matches. These instances have a series length of "+seriesLength+"; the maximum window size is therefore "+(seriesLength/4)+" and you have specified "+windowSize);
         }
         
-        SingleInstanceMatrixProfile mpIns;
         Instances outputDistances = this.determineOutputFormat(instances);
-        Instances outputIndices = this.determineOutputFormat(instances);
-        Instance outDist, outIdx;
+        // named directly rather than renamed, as each renameAttribute copies the whole header
+        Instances outputIndices = this.determineOutputFormat(instances, "idx_");
+        double[] outDist, outIdx;
         
-        this.distances = new double[instances.numInstances()][];
-        this.indices = new int[instances.numInstances()][];
+        profileAll(instances);
         
-        for(int a = 0; a < seriesLength-windowSize+1; a++){
-            outputIndices.renameAttribute(a, "idx_"+a);
-        }
         outputIndices.setRelationName(outputIndices.relationName()+"_indices");
         
         for(int ins = 0; ins < instances.numInstances(); ins++){
-            mpIns = new SingleInstanceMatrixProfile(instances.get(ins),this.windowSize, this.stride);
-            outDist = new DenseInstance(outputDistances.numAttributes());
-            outIdx = new DenseInstance(outputIndices.numAttributes());
+            outDist = new double[outputDistances.numAttributes()];
+            outIdx = new double[outputIndices.numAttributes()];
             
-            distances[ins] = mpIns.distances;
-            indices[ins] = mpIns.indices;
-            
-            for(int i = 0; i < mpIns.distances.length; i++){
-                outDist.setValue(i, mpIns.distances[i]);
-                outIdx.setValue(i, mpIns.indices[i]);
+            for(int i = 0; i < distances[ins].length; i++){
+                outDist[i] = distances[ins][i];
+                outIdx[i] = indices[ins][i];
             }
             
             if(instances.classIndex() >=0){
-                outDist.setValue(mpIns.distances.length, instances.instance(ins).classValue());
-                outIdx.setValue(mpIns.indices.length, instances.instance(ins).classValue());
+                outDist[distances[ins].length] = instances.instance(ins).classValue();
+                outIdx[indices[ins].length] = instances.instance(ins).classValue();
             }
             
-            outputDistances.add(outDist);
-            outputIndices.add(outIdx);
+            outputDistances.add(new DenseInstance(1.0, outDist));
+            outputIndices.add(new DenseInstance(1.0, outIdx));
         }
         return new Instances[]{outputDistances,outputIndices};
     }
@@ -174,6 +251,48 @@ public class MatrixProfile extends SimpleBatchFilter{
         private final int[] indices;
         private final int seriesLength;
         
+        // used by the diagonal (STOMP/SCRIMP) search
+        private double[] centred; // series less its mean, to keep the dot products small
+        private double[] means; // mean of each window of centred
+        private double[] stdvs; // stdv of each window, 0 if z-normalising would set it to 0
+        
+        // the profile using the settings of the filter
+        private SingleInstanceMatrixProfile(Instance series, MatrixProfile settings, int numThreads) throws Exception{
+            this.series = series.toDoubleArray();
+            this.seriesLength = series.classIndex()>0 ? series.numAttributes()-1 : series.numAttributes();
+            this.windowSize = settings.windowSize;
+            this.stride = settings.stride;
+            this.distances = new double[seriesLength+1-windowSize];
+            this.indices = new int[seriesLength+1-windowSize];
+            
+            switch(settings.algorithm){
+                case BRUTE_FORCE:
+                    for(int a = 0; a <= seriesLength-windowSize; a++){
+                        this.locateBestMatch(a);
+                    }
+                    break;
+                case STOMP:
+                    this.windowStats();
+                    this.searchDiagonals(null, 1, 0, numThreads);
+                    break;
+                case SCRIMP:
+                    this.windowStats();
+                    this.searchDiagonals(new Random(settings.seed), settings.fractionOfDiagonals, deadline(settings.timeLimit), numThreads);
+                    break;
+                case SCRIMP_PLUS_PLUS:
+                    long deadline = deadline(settings.timeLimit);
+                    Random rand = new Random(settings.seed);
+                    this.windowStats();
+                    this.preScrimp(rand, deadline, numThreads);
+                    this.searchDiagonals(rand, settings.fractionOfDiagonals, deadline, numThreads);
+                    break;
+            }
+        }
+        
+        private static long deadline(long timeLimit){
+            return timeLimit > 0 ? System.nanoTime()+timeLimit*1000000 : 0;
+        }
+        
         public SingleInstanceMatrixProfile(Instance series, int windowSize, int stride){
             this.series = series.toDoubleArray();
             this.seriesLength = series.classIndex()>0 ? series.numAttributes()-1 : series.numAttributes();
@@ -239,6 +358,241 @@ public class MatrixProfile extends SimpleBatchFilter{
             this.distances[queryStartIdx] = bsfDist;
             this.indices[queryStartIdx] = bsfIdx;
         }
+        
+        // STOMP, or SCRIMP if rand is given: the pairs outside the exclusion zone are the diagonals j = i+k, k > windowSize*1.5, of the (symmetric) distance 
+        // matrix. Each diagonal updates the best match of both windows in every pair on it. The matches found are merged into the profile so far, which 
+        // windowStats (or preScrimp) starts
+        private void searchDiagonals(Random rand, double fraction, long deadline, int numThreads) throws Exception{
+            
+            int numWindows = seriesLength+1-windowSize;
+            int firstDiagonal = (int)Math.floor(windowSize*1.5)+1;
+            
+            int[] order = new int[Math.max(0, numWindows-firstDiagonal)];
+            for(int d = 0; d < order.length; d++){
+                order[d] = firstDiagonal+d;
+            }
+            int budget = order.length;
+            if(rand != null){
+                for(int d = order.length-1; d > 0; d--){
+                    int swap = rand.nextInt(d+1);
+                    int temp = order[d];
+                    order[d] = order[swap];
+                    order[swap] = temp;
+                }
+                budget = (int)Math.min(order.length, Math.ceil(fraction*order.length));
+            }
+            final int numDiagonals = budget;
+            
+            // each thread takes the next diagonal in order until the budget is used, keeping its own best matches, then these are merged
+            AtomicInteger next = new AtomicInteger();
+            int threads = Math.min(ThreadingUtilities.resolveNumThreads(numThreads), Math.max(1, numDiagonals));
+            List<Callable<Object[]>> tasks = new ArrayList<>();
+            for(int t = 0; t < threads; t++){
+                tasks.add(() -> {
+                    double[] dists = new double[numWindows];
+                    int[] idxs = new int[numWindows];
+                    Arrays.fill(dists, Double.MAX_VALUE);
+                    Arrays.fill(idxs, -1);
+                    int d;
+                    while((d = next.getAndIncrement()) < numDiagonals){
+                        if(deadline != 0 && System.nanoTime() > deadline){
+                            break;
+                        }
+                        searchDiagonal(order[d], dists, idxs);
+                    }
+                    return new Object[]{dists, idxs};
+                });
+            }
+            
+            for(Object[] found : ThreadingUtilities.invokeAll(tasks, threads)){
+                double[] dists = (double[])found[0];
+                int[] idxs = (int[])found[1];
+                for(int i = 0; i < numWindows; i++){
+                    update(this.distances, this.indices, i, idxs[i], dists[i]);
+                }
+            }
+        }
+        
+        // mean and stdv of every window of the centred series, with the same threshold as zNormalise for flat windows, and an empty profile. The window is 
+        // slid along one point at a time, updating the mean and the sum of squared deviations in O(1) (as Welford's method), and both are found afresh 
+        // every windowSize windows so that rounding errors cannot build up, which is still O(n) in all
+        private void windowStats(){
+            int numWindows = seriesLength+1-windowSize;
+            double total = 0;
+            for(int i = 0; i < seriesLength; i++){
+                total += series[i];
+            }
+            double seriesMean = total/seriesLength;
+            
+            this.centred = new double[seriesLength];
+            for(int i = 0; i < seriesLength; i++){
+                centred[i] = series[i]-seriesMean;
+            }
+            
+            this.means = new double[numWindows];
+            this.stdvs = new double[numWindows];
+            double mean = 0, squares = 0;
+            for(int a = 0; a < numWindows; a++){
+                if(a%windowSize == 0){
+                    double windowTotal = 0;
+                    for(int i = a; i < a+windowSize; i++){
+                        windowTotal += centred[i];
+                    }
+                    mean = windowTotal/windowSize;
+                    squares = 0;
+                    for(int i = a; i < a+windowSize; i++){
+                        squares += (centred[i]-mean)*(centred[i]-mean);
+                    }
+                }
+                else{
+                    double removed = centred[a-1], added = centred[a+windowSize-1];
+                    double newMean = mean+(added-removed)/windowSize;
+                    squares += (added-removed)*(added-newMean+removed-mean);
+                    mean = newMean;
+                }
+                double stdv = Math.max(0, squares/windowSize);
+                stdvs[a] = (stdv < ROUNDING_ERROR_CORRECTION) ? 0.0 : Math.sqrt(stdv);
+                means[a] = mean;
+            }
+            
+            Arrays.fill(this.distances, Double.MAX_VALUE);
+            Arrays.fill(this.indices, -1);
+        }
+        
+        // PreSCRIMP: the whole distance profile of every step'th window, in a random order, from an FFT convolution with the series, then the pairs either side
+        // of the best match of each along its diagonal. Threads take the next window in order, keeping their own best matches, which are merged at the end
+        private void preScrimp(Random rand, long deadline, int numThreads) throws Exception{
+            
+            int numWindows = seriesLength+1-windowSize;
+            int step = Math.max(1, windowSize/4);
+            int exclusion = (int)Math.floor(windowSize*1.5);
+            
+            // no wrap around reaches the dot products used as long as the transform is at least as long as the series
+            int size = Integer.highestOneBit(seriesLength);
+            if(size < seriesLength){
+                size <<= 1;
+            }
+            final int fftSize = size;
+            double[] seriesFFT = Arrays.copyOf(centred, fftSize);
+            SpectralEngine.plan(fftSize).realForward(seriesFFT);
+            
+            int[] order = new int[(numWindows+step-1)/step];
+            for(int s = 0; s < order.length; s++){
+                order[s] = s*step;
+            }
+            for(int s = order.length-1; s > 0; s--){
+                int swap = rand.nextInt(s+1);
+                int temp = order[s];
+                order[s] = order[swap];
+                order[swap] = temp;
+            }
+            
+            AtomicInteger next = new AtomicInteger();
+            int threads = Math.min(ThreadingUtilities.resolveNumThreads(numThreads), order.length);
+            List<Callable<Object[]>> tasks = new ArrayList<>();
+            for(int t = 0; t < threads; t++){
+                tasks.add(() -> {
+                    double[] dists = new double[numWindows];
+                    int[] idxs = new int[numWindows];
+                    Arrays.fill(dists, Double.MAX_VALUE);
+                    Arrays.fill(idxs, -1);
+                    double[] dotProducts = new double[fftSize];
+                    int s;
+                    while((s = next.getAndIncrement()) < order.length){
+                        if(deadline != 0 && System.nanoTime() > deadline){
+                            break;
+                        }
+                        int i = order[s];
+                        
+                        // convolving with the reversed window puts its dot product with the window at j in windowSize-1+j
+                        Arrays.fill(dotProducts, 0);
+                        for(int p = 0; p < windowSize; p++){
+                            dotProducts[p] = centred[i+windowSize-1-p];
+                        }
+                        SpectralEngine.plan(fftSize).realForward(dotProducts);
+                        SpectralEngine.multiplySpectra(dotProducts, seriesFFT, dotProducts);
+                        SpectralEngine.plan(fftSize).realInverse(dotProducts, true);
+                        
+                        int best = -1;
+                        double bestDist = Double.MAX_VALUE;
+                        for(int j = 0; j < numWindows; j++){
+                            if(Math.abs(i-j) <= exclusion){
+                                continue;
+                            }
+                            double dist = zNormalisedDistance(i, j, dotProducts[windowSize-1+j]);
+                            update(dists, idxs, j, i, dist);
+                            if(dist < bestDist){
+                                bestDist = dist;
+                                best = j;
+                            }
+                        }
+                        if(best < 0){
+                            continue;
+                        }
+                        update(dists, idxs, i, best, bestDist);
+                        
+                        // the neighbouring pairs on the diagonal of (i, best), forwards then backwards
+                        double dotProduct = dotProducts[windowSize-1+best];
+                        for(int k = 1; k < step && i+k < numWindows && best+k < numWindows; k++){
+                            dotProduct += centred[i+k+windowSize-1]*centred[best+k+windowSize-1]-centred[i+k-1]*centred[best+k-1];
+                            double dist = zNormalisedDistance(i+k, best+k, dotProduct);
+                            update(dists, idxs, i+k, best+k, dist);
+                            update(dists, idxs, best+k, i+k, dist);
+                        }
+                        dotProduct = dotProducts[windowSize-1+best];
+                        for(int k = 1; k < step && i-k >= 0 && best-k >= 0; k++){
+                            dotProduct += centred[i-k]*centred[best-k]-centred[i-k+windowSize]*centred[best-k+windowSize];
+                            double dist = zNormalisedDistance(i-k, best-k, dotProduct);
+                            update(dists, idxs, i-k, best-k, dist);
+                            update(dists, idxs, best-k, i-k, dist);
+                        }
+                    }
+                    return new Object[]{dists, idxs};
+                });
+            }
+            
+            for(Object[] found : ThreadingUtilities.invokeAll(tasks, threads)){
+                double[] dists = (double[])found[0];
+                int[] idxs = (int[])found[1];
+                for(int i = 0; i < numWindows; i++){
+                    update(this.distances, this.indices, i, idxs[i], dists[i]);
+                }
+            }
+        }
+        
+        // all pairs (i, i+diagonal), the dot product of each pair found from that of the one before
+        private void searchDiagonal(int diagonal, double[] dists, int[] idxs){
+            int numWindows = seriesLength+1-windowSize;
+            double dotProduct = 0;
+            for(int t = 0; t < windowSize; t++){
+                dotProduct += centred[t]*centred[diagonal+t];
+            }
+            for(int i = 0, j = diagonal; j < numWindows; i++, j++){
+                if(i > 0){
+                    dotProduct += centred[i+windowSize-1]*centred[j+windowSize-1]-centred[i-1]*centred[j-1];
+                }
+                double dist = zNormalisedDistance(i, j, dotProduct);
+                update(dists, idxs, i, j, dist);
+                update(dists, idxs, j, i, dist);
+            }
+        }
+        
+        // squared euclidean distance between the z-normalised windows at i and j. A flat window z-normalises to all 0s, which is sqrt(windowSize) from any other
+        private double zNormalisedDistance(int i, int j, double dotProduct){
+            if(stdvs[i] == 0 || stdvs[j] == 0){
+                return (stdvs[i] == 0 && stdvs[j] == 0) ? 0 : windowSize;
+            }
+            double correlation = (dotProduct-windowSize*means[i]*means[j])/(windowSize*stdvs[i]*stdvs[j]);
+            return Math.max(0, 2*windowSize*(1-correlation));
+        }
+        
+        // as locateBestMatch, the earliest of equally good matches is kept
+        private static void update(double[] dists, int[] idxs, int i, int match, double dist){
+            if(dist < dists[i] || (dist == dists[i] && match >= 0 && (idxs[i] < 0 || match < idxs[i]))){
+                dists[i] = dist;
+                idxs[i] = match;
+            }
+        }
     }
     
     
@@ -748,13 +1102,17 @@ public class MatrixProfile extends SimpleBatchFilter{
 
     @Override
     protected Instances determineOutputFormat(Instances inputFormat) throws Exception {
+        return determineOutputFormat(inputFormat, "dist_");
+    }
+    
+    private Instances determineOutputFormat(Instances inputFormat, String attributePrefix) throws Exception {
    
         int seriesLength = inputFormat.classIndex() >= 0 ? inputFormat.numAttributes()-1 : inputFormat.numAttributes();        
         int numOutputAtts = seriesLength+1-windowSize;
         
         ArrayList<Attribute> atts = new ArrayList<>();
         for(int a = 0; a < numOutputAtts;a++){
-            atts.add(new Attribute("dist_"+a));
+            atts.add(new Attribute(attributePrefix+a));
         }
         
         if (inputFormat.classIndex() >= 0) {
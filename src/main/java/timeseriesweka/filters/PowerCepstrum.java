@@ -72,18 +72,20 @@ public class PowerCepstrum extends PowerSpectrum{
 //Take logs
                 logDataSet(output);
 //Take Inverse FFT of logged Spectrum.
+               int length=output.numAttributes();
+               if(output.classIndex()>=0)
+                   length--;
+               double[] logSpectrum=new double[length];
                for(int i=0;i<output.numInstances();i++){
-//Get out values, store in a complex array   
+//Get out values   
                    Instance next=output.instance(i);
-                   double[] ar=next.toDoubleArray();
-                   FFT.Complex[] complex=new FFT.Complex[ar.length-1];
-                   for(int j=0;j<ar.length-1;j++)
-                       complex[i]=new FFT.Complex(ar[i],0);
+                   for(int j=0;j<length;j++)
+                       logSpectrum[j]=next.value(j);
 //Take inverse FFT
-                   inverseFFT(complex,complex.length);
+                   double[] c=SpectralEngine.inverseDft(logSpectrum);
 //Square the terms for the PowerCepstrum 
-                   for(int j=0;j<complex.length;j++)
-                       next.setValue(j,complex[i].real*complex[i].real+complex[i].imag*complex[i].imag);
+                   for(int j=0;j<length;j++)
+                       next.setValue(j,c[2*j]*c[2*j]+c[2*j+1]*c[2*j+1]);
                        
                } 
                 
@@ -79,46 +79,36 @@ public class PowerSpectrum extends FFT {
     }
     @Override
     public Instances process(Instances instances) throws Exception {
-//Get the FFT
-        //For each data, first extract the relevant data
+//Get the power spectrum of each series straight from SpectralEngine, rather than 
+//forming the FFT Instances first
         Instances output=determineOutputFormat(instances);
-        Instances fft=fftFilter.process(instances);
-        int length=fft.numAttributes();
+        int length=output.numAttributes();
         if(instances.classIndex()>=0)
                 length--;
-        length/=2;
-
-        if(log)
-        {
-            double l1;
-            for(int i=0;i<fft.numInstances();i++){			
-                Instance f=fft.instance(i);
-                Instance inst=new DenseInstance(length+1);
-                for(int j=0;j<length;j++){
-                    l1=f.value(j*2)*f.value(j*2)+f.value(j*2+1)*f.value(j*2+1);
-                        inst.setValue(j,Math.log(l1));
-                }
-//Set class value.
-                //Set class value.
-                if(output.classIndex()>=0)
-                    inst.setValue(length, output.instance(i).classValue());
-                output.add(inst);
+        int seriesLength=instances.numAttributes();
+        if(instances.classIndex()>=0)
+                seriesLength--;
+        double[] series=new double[seriesLength];
+        for(int i=0;i<instances.numInstances();i++){
+            Instance in=instances.instance(i);
+//The class attribute need not be last, so run over all attributes and count the others
+            int count=0;
+            for(int j=0;j<instances.numAttributes();j++){
+                if(instances.classIndex()!=j)
+                    series[count++]=in.value(j);
             }
-
-        }
-        else{
-            for(int i=0;i<fft.numInstances();i++){			
-                    Instance f=fft.instance(i);
-                    Instance inst=new DenseInstance(length+1);
-                    for(int j=0;j<length;j++){
-                                    inst.setValue(j, f.value(j*2)*f.value(j*2)+f.value(j*2+1)*f.value(j*2+1));
-                    }
-    //Set class value.
-                    //Set class value.
-                    if(output.classIndex()>=0)
-                            inst.setValue(length, fft.instance(i).classValue());
-                    output.add(inst);
+            double[] ps=SpectralEngine.powerSpectrum(series);
+            Instance inst=new DenseInstance(length+1);
+            for(int j=0;j<length;j++){
+                if(log)
+                    inst.setValue(j,Math.log(ps[j]));
+                else
+                    inst.setValue(j,ps[j]);
             }
+            //Set class value.
+            if(output.classIndex()>=0)
+                inst.setValue(length, in.classValue());
+            output.add(inst);
         }
         return output;		
     }
@@ -137,21 +127,12 @@ public class PowerSpectrum extends FFT {
                     System.out.println(" Exception ="+e);
             }
 */	}
-    /* Transform by the  built in filter*/
+    /* Transform by the  built in filter. Returns all d.length terms, any length of series is fine*/
     public static double[] powerSpectrum(double[] d){
-
-//Check power of 2            
-        if(((d.length)&(d.length-1))!=0)    //Not a power of 2
-            return null;
-        FFT.Complex[] c=new FFT.Complex[d.length];
-        for(int j=0;j<d.length;j++){
-             c[j]=new FFT.Complex(d[j],0.0);
-        }
-        FFT f=new FFT();
-        f.fft(c,c.length);
-        double[] ps=new double[c.length];
-        for(int i=0;i<c.length;i++)
-            ps[i]=c[i].getReal()*c[i].getReal()+c[i].getImag()*c[i].getImag();
+        double[] c=SpectralEngine.dft(d);
+        double[] ps=new double[d.length];
+        for(int i=0;i<ps.length;i++)
+            ps[i]=c[2*i]*c[2*i]+c[2*i+1]*c[2*i+1];
         return ps;
     }
 
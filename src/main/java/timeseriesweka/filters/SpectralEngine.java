@@ -0,0 +1,194 @@
+/*
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package timeseriesweka.filters;
+
+import edu.emory.mathcs.jtransforms.fft.DoubleFFT_1D;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Primitive double[] spectral transforms shared by FFT, PowerSpectrum,
+ * PowerCepstrum, ACF and PACF (and so RISE).
+ *
+ * All transforms go through jtransforms, which handles any length: powers of
+ * two directly, lengths with small prime factors by mixed radix and anything
+ * else by Bluestein's algorithm, so every length is O(n log n) rather than
+ * falling back to the O(n^2) DFT. Setting up a transform for a length costs
+ * about as much as a transform, so the plans are cached by length. RISE uses
+ * a different interval length for nearly every tree, so the cache is bounded
+ * and the least recently used plan is dropped first.
+ *
+ * Forward transforms use the same sign convention as FFT.dft, i.e. term k is
+ * sum_t x_t*exp(-2*pi*i*t*k/n). Complex results are interleaved, real part
+ * then imaginary part.
+ *
+ * All methods are static and thread safe, the cached plans are only read
+ * once built.
+ */
+public class SpectralEngine {
+
+    private static final int MAX_PLANS=256;
+
+    private static final Map<Integer,DoubleFFT_1D> plans=new LinkedHashMap<Integer,DoubleFFT_1D>(16,0.75f,true){
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Integer,DoubleFFT_1D> eldest){
+            return size()>MAX_PLANS;
+        }
+    };
+
+    private SpectralEngine(){}
+
+    /**
+     * @param n transform length
+     * @return the cached transform for length n, built on first use
+     */
+    public static DoubleFFT_1D plan(int n){
+        DoubleFFT_1D p;
+        synchronized(plans){
+            p=plans.get(n);
+        }
+        if(p==null){
+//Built outside the lock, two threads may occasionally both build the same plan
+            p=new DoubleFFT_1D(n);
+            synchronized(plans){
+                plans.put(n,p);
+            }
+        }
+        return p;
+    }
+
+    /**
+     * Full discrete Fourier transform of a real series
+     * @param series
+     * @return 2n values, term k in positions 2k (real) and 2k+1 (imaginary)
+     */
+    public static double[] dft(double[] series){
+        int n=series.length;
+        double[] c=new double[2*n];
+        System.arraycopy(series,0,c,0,n);
+        if(n>1)
+            plan(n).realForwardFull(c);
+        return c;
+    }
+
+    /**
+     * The first floor(n/2) Fourier terms of a real series, which is all the
+     * FFT filter keeps (the rest are conjugates of these).
+     * @param series
+     * @param n number of values of series to transform
+     * @return 2*floor(n/2) values, term k in positions 2k (real) and 2k+1
+     * (imaginary)
+     */
+    public static double[] halfSpectrum(double[] series, int n){
+        if(n<2)
+            return new double[0];
+        double[] c=new double[n];
+        System.arraycopy(series,0,c,0,n);
+        plan(n).realForward(c);
+//In the packed format position 1 holds a term past n/2, the imaginary part of term 0 is zero.
+//Every other term below n/2 is already interleaved in place, whether n is odd or even
+        c[1]=0;
+        if(c.length==2*(n/2))
+            return c;
+        double[] half=new double[2*(n/2)];
+        System.arraycopy(c,0,half,0,half.length);
+        return half;
+    }
+
+    /**
+     * Power spectrum of the first floor(n/2) Fourier terms
+     * @param series
+     * @return floor(n/2) values, |X_k|^2
+     */
+    public static double[] powerSpectrum(double[] series){
+        double[] c=halfSpectrum(series,series.length);
+        double[] ps=new double[c.length/2];
+        for(int k=0;k<ps.length;k++)
+            ps[k]=c[2*k]*c[2*k]+c[2*k+1]*c[2*k+1];
+        return ps;
+    }
+
+    /**
+     * Inverse discrete Fourier transform of a real sequence, scaled by 1/n
+     * @param reals
+     * @return 2n values, term k in positions 2k (real) and 2k+1 (imaginary)
+     */
+    public static double[] inverseDft(double[] reals){
+        int n=reals.length;
+        double[] c=new double[2*n];
+        System.arraycopy(reals,0,c,0,n);
+        if(n>1)
+            plan(n).realInverseFull(c,true);
+        return c;
+    }
+
+    /**
+     * Sums of lagged products, r_k = sum_{j=0}^{n-1-k} x_j*x_{j+k}, for all
+     * lags at once. The series is zero padded to a power of two at least
+     * n+maxLag long, so the circular correlation found through the power
+     * spectrum never wraps into the lags returned. O(n log n) whatever maxLag.
+     * @param series
+     * @param maxLag largest lag, at most n-1
+     * @return maxLag+1 values, r_0 to r_maxLag
+     */
+    public static double[] lagProducts(double[] series, int maxLag){
+        int n=series.length;
+        if(maxLag>n-1)
+            maxLag=n-1;
+        int size=Integer.highestOneBit(n+maxLag);
+        if(size<n+maxLag)
+            size<<=1;
+        if(size<2)
+            size=2;
+        double[] c=new double[size];
+        System.arraycopy(series,0,c,0,n);
+        DoubleFFT_1D p=plan(size);
+        p.realForward(c);
+//Power spectrum in the packed format, terms 0 and size/2 are real and held in positions 0 and 1
+        c[0]*=c[0];
+        c[1]*=c[1];
+        for(int k=2;k<size;k+=2){
+            c[k]=c[k]*c[k]+c[k+1]*c[k+1];
+            c[k+1]=0;
+        }
+        p.realInverse(c,true);
+        double[] r=new double[maxLag+1];
+        System.arraycopy(c,0,r,0,maxLag+1);
+        return r;
+    }
+
+    /**
+     * Multiplies two spectra in the packed format of DoubleFFT_1D.realForward,
+     * giving the spectrum of the circular convolution of the two series. Used
+     * by MASS style searches for the dot product of a query with every window.
+     * @param a
+     * @param b
+     * @param out may be a or b
+     */
+    public static void multiplySpectra(double[] a, double[] b, double[] out){
+        if(a.length==1){
+            out[0]=a[0]*b[0];
+            return;
+        }
+//The DC and nyquist terms are real
+        out[0]=a[0]*b[0];
+        out[1]=a[1]*b[1];
+        for(int k=2;k<a.length;k+=2){
+            double re=a[k]*b[k]-a[k+1]*b[k+1];
+            out[k+1]=a[k]*b[k+1]+a[k+1]*b[k];
+            out[k]=re;
+        }
+    }
+}
@@ -21,6 +21,7 @@ import java.util.Collections;
 import java.util.Iterator;
 import java.util.Map;
 import java.util.TreeMap;
+import weka.core.Instance;
 import weka.core.Instances;
 /**
  *
@@ -56,6 +57,11 @@ public class BalancedClassShapeletTransform extends ShapeletTransform implements
         outputPrint("Processing data: ");
 
         int dataSize = data.numInstances();
+        
+        if (searchInParallel()) {
+            findShapeletsInParallel(data);
+        }
+        
         //for all possible time series.
         while(casesSoFar < dataSize)
         {
@@ -104,6 +110,19 @@ public class BalancedClassShapeletTransform extends ShapeletTransform implements
 
         return kShapelets;
     }
+    
+    @Override
+    protected Shapelet getWorstShapelet(Instance series){
+        int proportion = numShapelets/kShapeletsMap.keySet().size();
+        ArrayList<Shapelet> classShapelets = kShapeletsMap.get(series.classValue());
+        return classShapelets.size() == proportion ? classShapelets.get(classShapelets.size()-1) : null;
+    }
+    
+    @Override
+    protected void addSeriesShapelets(Instance series, ArrayList<Shapelet> seriesShapelets){
+        int proportion = numShapelets/kShapeletsMap.keySet().size();
+        kShapeletsMap.put(series.classValue(), combine(proportion, kShapeletsMap.get(series.classValue()), seriesShapelets));
+    }
        
     private ArrayList<Shapelet> buildKShapeletsFromMap(Map<Double, ArrayList<Shapelet>> kShapeletsMap)
     {
@@ -30,11 +30,15 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.Comparator;
+import java.util.List;
 import java.util.Scanner;
 import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import utilities.ClassifierTools;
+import utilities.ThreadingUtilities;
 import timeseriesweka.classifiers.SaveParameterInfo;
 import utilities.class_counts.ClassCounts;
 import weka.classifiers.meta.RotationForest;
@@ -122,6 +126,9 @@ public class ShapeletTransform extends SimpleBatchFilter implements SaveParamete
     
     protected long count;
 
+    protected int numThreads = 1;
+    private static final int BLOCKS_PER_THREAD = 4;
+
     public void setSubSeqDistance(SubSeqDistance ssd) {
         subseqDistance = ssd;
     }
@@ -157,6 +164,19 @@ public class ShapeletTransform extends SimpleBatchFilter implements SaveParamete
     public void setUseRoundRobin(boolean b) {
         useRoundRobin = b;
     }
+
+    /**
+     * Candidates are evaluated in parallel when the search function visits a
+     * fixed set of candidates in each series (see
+     * ShapeletSearch.candidatesAreIndependent). The shapelets found can differ
+     * from the sequential search as candidates are pruned a batch of series at
+     * a time, but are the same for a given number of threads.
+     *
+     * @param numThreads 1 by default, 0 for all cores
+     */
+    public void setNumThreads(int numThreads) {
+        this.numThreads = numThreads;
+    }
     
     public SubSeqDistance getSubSequenceDistance(){
         return subseqDistance;
@@ -578,6 +598,10 @@ public class ShapeletTransform extends SimpleBatchFilter implements SaveParamete
 
         int dataSize = data.numInstances();
         
+        if (searchInParallel()) {
+            findShapeletsInParallel(data);
+        }
+        
         //for all possible time series.
         for(; casesSoFar < dataSize; casesSoFar++) {
             outputPrint("data : " + casesSoFar);
@@ -764,13 +788,27 @@ public class ShapeletTransform extends SimpleBatchFilter implements SaveParamete
     }
 
     protected Shapelet checkCandidate(Instance series, int start, int length, int dimension) {
+        double bsfQuality = worstShapelet != null ? worstShapelet.qualityValue : Double.MAX_VALUE;
+        return checkCandidate(series, start, length, dimension, casesSoFar, bsfQuality, subseqDistance, classValue, quality);
+    }
+
+    /**
+     * Evaluates a candidate taken from series seriesIndex of inputData with the
+     * given distance, class value and quality, so that threads can each work
+     * with their own.
+     *
+     * @param bsfQuality quality a candidate has to beat to not be pruned,
+     * Double.MAX_VALUE if there is nothing to beat yet
+     */
+    protected Shapelet checkCandidate(Instance series, int start, int length, int dimension, int seriesIndex, double bsfQuality,
+                                      SubSeqDistance subseqDistance, NormalClassValue classValue, ShapeletQuality quality) {
         //init qualityBound.        
-        initQualityBound(classValue.getClassDistributions());        
+        if (useCandidatePruning) {
+            quality.initQualityBound(classValue.getClassDistributions(), candidatePruningStartPercentage);
+        }
         
         //Set bound of the bounding algorithm
-        if (worstShapelet != null) {
-            quality.setBsfQuality(worstShapelet.qualityValue);
-        }
+        quality.setBsfQuality(bsfQuality);
         
         //set the candidate. This is the instance, start and length.
         subseqDistance.setCandidate(series, start, length, dimension);
@@ -790,7 +828,7 @@ public class ShapeletTransform extends SimpleBatchFilter implements SaveParamete
 
             double distance = 0.0;
             //don't compare the shapelet to the the time series it came from because we know it's 0.
-            if (i != casesSoFar) {
+            if (i != seriesIndex) {
                 distance = subseqDistance.calculate(inputData.instance(i), i);
             }
 
@@ -804,7 +842,7 @@ public class ShapeletTransform extends SimpleBatchFilter implements SaveParamete
             quality.updateOrderLine(orderline.get(orderline.size() - 1));
         }
 
-        Shapelet shapelet = new Shapelet(subseqDistance.getCandidate(), dataSourceIDs[casesSoFar], start, quality.getQualityMeasure());
+        Shapelet shapelet = new Shapelet(subseqDistance.getCandidate(), dataSourceIDs[seriesIndex], start, quality.getQualityMeasure());
         
         //this class distribution could be binarised or normal.
         shapelet.calculateQuality(orderline, classValue.getClassDistributions());
@@ -812,8 +850,201 @@ public class ShapeletTransform extends SimpleBatchFilter implements SaveParamete
         shapelet.dimension = dimension;
         return shapelet;
     }
-    
 
+    protected boolean searchInParallel() {
+        return numThreads != 1 && searchFunction.candidatesAreIndependent();
+    }
+
+    /**
+     * @return the shapelet a candidate from series has to beat to be kept, or
+     * null if there is still room for it
+     */
+    protected Shapelet getWorstShapelet(Instance series) {
+        return kShapelets.size() == numShapelets ? kShapelets.get(numShapelets - 1) : null;
+    }
+
+    /**
+     * Merges the sorted shapelets of series into the shapelets kept so far.
+     */
+    protected void addSeriesShapelets(Instance series, ArrayList<Shapelet> seriesShapelets) {
+        kShapelets = combine(numShapelets, kShapelets, seriesShapelets);
+    }
+
+    /**
+     * Parallel version of the series loop of findBestKShapeletsCache, leaving
+     * casesSoFar at the end of the data.
+     *
+     * The series are taken in batches of one per thread. The search function
+     * is run over each series of the batch in order, only collecting the
+     * candidates it visits, then the candidates of the whole batch are split
+     * into blocks that are evaluated on the thread pool, each thread with its
+     * own copies of the distance, class value and quality. The shapelets of
+     * each series are then merged in order, exactly as the sequential loop
+     * does.
+     *
+     * Candidates are pruned against the worst shapelet kept when their batch
+     * started rather than the one kept when they happen to be evaluated. The
+     * quality bounds are not all exact, so this is what makes the shapelets
+     * found depend only on the number of threads and not on the order the
+     * blocks finish in. With one series per batch this is the sequential
+     * loop.
+     *
+     * A serial file is written after each batch.
+     */
+    protected void findShapeletsInParallel(Instances data) {
+        int batchSize = ThreadingUtilities.resolveNumThreads(numThreads);
+        ConcurrentLinkedQueue<CandidateEvaluator> idleEvaluators = new ConcurrentLinkedQueue<>();
+
+        try {
+            while (casesSoFar < data.numInstances()) {
+                CandidateBatch batch = new CandidateBatch(data, casesSoFar, Math.min(data.numInstances(), casesSoFar + batchSize));
+                List<ArrayList<Shapelet>> blocks = ThreadingUtilities.invokeAll(batch.createTasks(idleEvaluators, batchSize), numThreads);
+                batch.mergeShapelets(blocks);
+
+                casesSoFar = batch.to;
+                createSerialFile();
+            }
+        } catch (Exception ex) {
+            throw new RuntimeException("Failed to evaluate shapelet candidates", ex);
+        }
+    }
+
+    //the distance, class value and quality a thread evaluates candidates with.
+    private class CandidateEvaluator {
+        SubSeqDistance subseqDistance;
+        NormalClassValue classValue;
+        ShapeletQuality quality;
+        int seriesIndex = -1;
+
+        CandidateEvaluator() throws Exception {
+            subseqDistance = (SubSeqDistance) new SerializedObject(ShapeletTransform.this.subseqDistance).getObject();
+            classValue = (NormalClassValue) new SerializedObject(ShapeletTransform.this.classValue).getObject();
+            quality = new ShapeletQuality(ShapeletTransform.this.quality.getChoice());
+        }
+
+        void setSeries(Instances data, int index) {
+            if (seriesIndex != index) {
+                subseqDistance.setSeries(index);
+                classValue.setShapeletValue(data.get(index));
+                seriesIndex = index;
+            }
+        }
+    }
+
+    //the candidates visited in the series from to to-1.
+    private class CandidateBatch {
+        final Instances data;
+        final int from;
+        final int to;
+
+        //the instance the search passed in for each dimension of each series.
+        final Instance[][] channels;
+        //start, length and dimension of each candidate.
+        final int[][] candidates;
+        final int[] numCandidates;
+        //quality of the worst shapelet each series has to beat when the batch starts.
+        final double[] bsfQualities;
+        int[] numBlocks;
+
+        CandidateBatch(Instances data, int from, int to) {
+            this.data = data;
+            this.from = from;
+            this.to = to;
+            this.channels = new Instance[to - from][];
+            this.candidates = new int[to - from][];
+            this.numCandidates = new int[to - from];
+            this.bsfQualities = new double[to - from];
+
+            for (int i = from; i < to; i++) {
+                outputPrint("data : " + i);
+                final int s = i - from;
+                Shapelet worst = getWorstShapelet(data.get(i));
+                bsfQualities[s] = worst != null ? worst.qualityValue : Double.MAX_VALUE;
+
+                channels[s] = new Instance[1];
+                candidates[s] = new int[3 * 64];
+                searchFunction.SearchForShapeletsInSeries(data.get(i), (series, start, length, dimension) -> {
+                    addCandidate(s, series, start, length, dimension);
+                    return null;
+                });
+            }
+        }
+
+        private void addCandidate(int s, Instance series, int start, int length, int dimension) {
+            if (dimension >= channels[s].length) {
+                channels[s] = Arrays.copyOf(channels[s], dimension + 1);
+            }
+            if (channels[s][dimension] == null) {
+                channels[s][dimension] = series;
+            }
+            if (3 * numCandidates[s] + 3 > candidates[s].length) {
+                candidates[s] = Arrays.copyOf(candidates[s], 2 * candidates[s].length);
+            }
+            int pos = 3 * numCandidates[s]++;
+            candidates[s][pos] = start;
+            candidates[s][pos + 1] = length;
+            candidates[s][pos + 2] = dimension;
+        }
+
+        //the tasks are in series order, then in the order the candidates were visited.
+        List<Callable<ArrayList<Shapelet>>> createTasks(ConcurrentLinkedQueue<CandidateEvaluator> idleEvaluators, int numThreads) {
+            int total = 0;
+            for (int n : numCandidates) {
+                total += n;
+            }
+            int blockSize = Math.max(1, total / (BLOCKS_PER_THREAD * numThreads));
+
+            numBlocks = new int[to - from];
+            List<Callable<ArrayList<Shapelet>>> tasks = new ArrayList<>();
+            for (int s = 0; s < to - from; s++) {
+                for (int first = 0; first < numCandidates[s]; first += blockSize) {
+                    final int series = s, start = first, end = Math.min(numCandidates[s], first + blockSize);
+                    tasks.add(() -> evaluateBlock(idleEvaluators, series, start, end));
+                    numBlocks[s]++;
+                }
+            }
+            return tasks;
+        }
+
+        private ArrayList<Shapelet> evaluateBlock(ConcurrentLinkedQueue<CandidateEvaluator> idleEvaluators, int s, int first, int last) throws Exception {
+            CandidateEvaluator evaluator = idleEvaluators.poll();
+            if (evaluator == null) {
+                evaluator = new CandidateEvaluator();
+            }
+            try {
+                evaluator.setSeries(data, from + s);
+                ArrayList<Shapelet> found = new ArrayList<>();
+                for (int c = first; c < last; c++) {
+                    int start = candidates[s][3 * c], length = candidates[s][3 * c + 1], dimension = candidates[s][3 * c + 2];
+                    Shapelet shapelet = checkCandidate(channels[s][dimension], start, length, dimension, from + s, bsfQualities[s],
+                            evaluator.subseqDistance, evaluator.classValue, evaluator.quality);
+                    if (shapelet != null) {
+                        found.add(shapelet);
+                    }
+                }
+                return found;
+            } finally {
+                idleEvaluators.add(evaluator);
+            }
+        }
+
+        void mergeShapelets(List<ArrayList<Shapelet>> blocks) {
+            int block = 0;
+            for (int s = 0; s < to - from; s++) {
+                ArrayList<Shapelet> seriesShapelets = new ArrayList<>();
+                for (int b = 0; b < numBlocks[s]; b++) {
+                    seriesShapelets.addAll(blocks.get(block++));
+                }
+
+                //the sort is stable, so ties stay in the order the search visited them as in the sequential loop.
+                Collections.sort(seriesShapelets, shapeletComparator);
+                if (isRemoveSelfSimilar())
+                    seriesShapelets = removeSelfSimilar(seriesShapelets);
+                addSeriesShapelets(data.get(from + s), seriesShapelets);
+            }
+        }
+    }
+    
     /**
      * Load a set of Instances from an ARFF
      *
@@ -26,6 +26,7 @@ import timeseriesweka.filters.shapelet_transforms.search_functions.ShapeletSearc
 import timeseriesweka.filters.shapelet_transforms.distance_functions.CachedSubSeqDistance;
 import timeseriesweka.filters.shapelet_transforms.distance_functions.DimensionDistance;
 import timeseriesweka.filters.shapelet_transforms.distance_functions.ImprovedOnlineSubSeqDistance;
+import timeseriesweka.filters.shapelet_transforms.distance_functions.MassSubSeqDistance;
 import timeseriesweka.filters.shapelet_transforms.distance_functions.MultivariateDependentDistance;
 import timeseriesweka.filters.shapelet_transforms.distance_functions.MultivariateIndependentDistance;
 import timeseriesweka.filters.shapelet_transforms.distance_functions.OnlineCachedSubSeqDistance;
@@ -36,6 +37,7 @@ import static timeseriesweka.filters.shapelet_transforms.distance_functions.SubS
 import static timeseriesweka.filters.shapelet_transforms.distance_functions.SubSeqDistance.DistanceType.DIMENSION;
 import static timeseriesweka.filters.shapelet_transforms.distance_functions.SubSeqDistance.DistanceType.IMP_ONLINE;
 import static timeseriesweka.filters.shapelet_transforms.distance_functions.SubSeqDistance.DistanceType.INDEPENDENT;
+import static timeseriesweka.filters.shapelet_transforms.distance_functions.SubSeqDistance.DistanceType.MASS;
 import static timeseriesweka.filters.shapelet_transforms.distance_functions.SubSeqDistance.DistanceType.NORMAL;
 import static timeseriesweka.filters.shapelet_transforms.distance_functions.SubSeqDistance.DistanceType.ONLINE;
 import static timeseriesweka.filters.shapelet_transforms.distance_functions.SubSeqDistance.DistanceType.ONLINE_CACHED;
@@ -49,7 +51,7 @@ public class ShapeletTransformFactory {
     private static final Map<DistanceType, Supplier<SubSeqDistance>> distanceFunctions = createDistanceTable();
     
     private static Map<DistanceType, Supplier<SubSeqDistance>> createDistanceTable(){
-        //istanceType{NORMAL, ONLINE, IMP_ONLINE, CACHED, ONLINE_CACHED, DEPENDENT, INDEPENDENT};
+        //istanceType{NORMAL, ONLINE, IMP_ONLINE, CACHED, ONLINE_CACHED, DEPENDENT, INDEPENDENT, DIMENSION, MASS};
         Map<DistanceType, Supplier<SubSeqDistance>> dCons = new HashMap();
         dCons.put(NORMAL, SubSeqDistance::new);
         dCons.put(ONLINE, OnlineSubSeqDistance::new);
@@ -59,6 +61,7 @@ public class ShapeletTransformFactory {
         dCons.put(DEPENDENT, MultivariateDependentDistance::new);
         dCons.put(INDEPENDENT, MultivariateIndependentDistance::new);
         dCons.put(DIMENSION, DimensionDistance::new);
+        dCons.put(MASS, MassSubSeqDistance::new);
         return dCons;
     }
     
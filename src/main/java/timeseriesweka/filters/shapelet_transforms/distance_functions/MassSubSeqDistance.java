@@ -0,0 +1,246 @@
+/*
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package timeseriesweka.filters.shapelet_transforms.distance_functions;
+
+import edu.emory.mathcs.jtransforms.fft.DoubleFFT_1D;
+import timeseriesweka.filters.SpectralEngine;
+import timeseriesweka.filters.shapelet_transforms.Shapelet;
+import weka.core.Instance;
+import weka.core.Instances;
+
+/**
+ * Subsequence distance using MASS (Mueen's Algorithm for Similarity Search).
+ *
+ * Rather than z-normalising every subsequence and comparing it to the candidate
+ * point by point, the whole distance profile of a series is found in one pass.
+ * The dot product of the candidate with every subsequence comes from a single
+ * FFT convolution, and the mean and standard deviation of every subsequence come
+ * from cumulative sums, so a series costs O(L log L) instead of O(L*m).
+ *
+ * The sums are taken over the series less its mean, so a large offset does not
+ * cancel away the variance of a window. Windows whose variance is still too 
+ * small to trust from the sums (flat, or nearly flat, relative to their level)
+ * are z-normalised and compared directly, as NORMAL does.
+ *
+ * While searching for shapelets the FFT and cumulative sums of each training
+ * series are cached by series id and reused for every candidate. Once a shapelet
+ * is set for transforming, the ids refer to whatever data is being transformed,
+ * so nothing is cached. The cache is not serialised, a copy builds its own.
+ *
+ * Distances match NORMAL up to floating point rounding.
+ */
+public class MassSubSeqDistance extends SubSeqDistance {
+
+    //windows with variance below this fraction of their mean square (plus the series variance) are found directly
+    private static final double UNRELIABLE_VARIANCE = 1e-9;
+
+    private transient DoubleFFT_1D fft;
+    private transient int fftSize;
+
+    private boolean cacheSeries;
+    private int numSeries;
+    private transient double[][] seriesFFTs;
+    private transient double[][] cummSums;
+    private transient double[][] cummSqSums;
+
+    //reversed candidate, zero padded and transformed
+    private transient double[] candidateFFT;
+    private double candidateSum;
+    private double candidateSqSum;
+
+    private transient double[] dotProducts;
+
+    @Override
+    public void init(Instances data)
+    {
+        super.init(data);
+
+        cacheSeries = true;
+        numSeries = data.numInstances();
+        seriesFFTs = null;
+    }
+
+    @Override
+    public void setShapelet(Shapelet shp)
+    {
+        super.setShapelet(shp);
+
+        //transforming, the series ids no longer refer to the training data.
+        cacheSeries = false;
+        setCandidateStats();
+    }
+
+    @Override
+    public void setCandidate(Instance inst, int start, int len, int dim)
+    {
+        super.setCandidate(inst, start, len, dim);
+        setCandidateStats();
+    }
+
+    private void setCandidateStats()
+    {
+        candidateFFT = null;
+        candidateSum = 0;
+        candidateSqSum = 0;
+        for (double d : cand.getShapeletContent())
+        {
+            candidateSum += d;
+            candidateSqSum += d * d;
+        }
+    }
+
+    //we take in a start pos, but we also start from 0.
+    @Override
+    public double calculate(double[] timeSeries, int timeSeriesId)
+    {
+        int numWindows = timeSeries.length - length;
+        if (numWindows <= 0 || length == 0)
+            return super.calculate(timeSeries, timeSeriesId);
+
+        //the last value is the class value.
+        int seriesLength = timeSeries.length - 1;
+        initFFT(seriesLength);
+
+        if (cacheSeries && seriesFFTs == null)
+        {
+            seriesFFTs = new double[numSeries][];
+            cummSums = new double[numSeries][];
+            cummSqSums = new double[numSeries][];
+        }
+
+        double[] seriesFFT, sums, sqSums;
+        if (cacheSeries && seriesFFTs[timeSeriesId] != null && seriesFFTs[timeSeriesId].length == fftSize)
+        {
+            seriesFFT = seriesFFTs[timeSeriesId];
+            sums = cummSums[timeSeriesId];
+            sqSums = cummSqSums[timeSeriesId];
+        }
+        else
+        {
+            double seriesMean = 0;
+            for (int i = 0; i < seriesLength; i++)
+                seriesMean += timeSeries[i];
+            seriesMean /= seriesLength;
+
+            //everything below works on the series less its mean. The candidate is z-normalised, 
+            //so the dot products are unchanged apart from mean*candidateSum, which cancels out.
+            seriesFFT = new double[fftSize];
+            sums = new double[seriesLength + 1];
+            sqSums = new double[seriesLength + 1];
+            double centred;
+            for (int i = 0; i < seriesLength; i++)
+            {
+                centred = timeSeries[i] - seriesMean;
+                seriesFFT[i] = centred;
+                sums[i + 1] = sums[i] + centred;
+                sqSums[i + 1] = sqSums[i] + centred * centred;
+            }
+            fft.realForward(seriesFFT);
+
+            if (cacheSeries)
+            {
+                seriesFFTs[timeSeriesId] = seriesFFT;
+                cummSums[timeSeriesId] = sums;
+                cummSqSums[timeSeriesId] = sqSums;
+            }
+        }
+
+        if (candidateFFT == null || candidateFFT.length != fftSize)
+        {
+            double[] content = cand.getShapeletContent();
+            candidateFFT = new double[fftSize];
+            for (int i = 0; i < length; i++)
+                candidateFFT[i] = content[length - 1 - i];
+            fft.realForward(candidateFFT);
+        }
+
+        //convolve the series with the reversed candidate, the dot product with the subsequence at i ends up at length-1+i
+        SpectralEngine.multiplySpectra(seriesFFT, candidateFFT, dotProducts);
+        fft.realInverse(dotProducts, true);
+
+        //the variance from the sums is only good to a few ulps of the mean square of the window, 
+        //and the dot products to a few ulps of the series energy
+        double seriesVariance = sqSums[seriesLength] / seriesLength;
+
+        double bestSum = Double.MAX_VALUE;
+        double sum, mean, stdv, dist;
+        for (int i = 0; i < numWindows; i++)
+        {
+            //count ops
+            count++;
+
+            sum = sums[i + length] - sums[i];
+            mean = sum / length;
+            stdv = (sqSums[i + length] - sqSums[i]) / length - mean * mean;
+
+            if (stdv < ROUNDING_ERROR_CORRECTION || stdv <= UNRELIABLE_VARIANCE * (mean * mean + seriesVariance))
+            {
+                //flat, or too close to flat for the sums, so do this window the long way
+                dist = directDistance(timeSeries, i);
+            }
+            else
+            {
+                stdv = Math.sqrt(stdv);
+                dist = candidateSqSum + length - 2.0 * (dotProducts[length - 1 + i] - mean * candidateSum) / stdv;
+            }
+
+            if (dist < bestSum)
+            {
+                bestSum = dist;
+            }
+        }
+
+        //get rid of rounding errors
+        if (bestSum < 0.0)
+            bestSum = 0.0;
+
+        return (bestSum == 0.0) ? 0.0 : (1.0 / length * bestSum);
+    }
+
+    /**
+     * Squared distance between the candidate and the z-normalised window at start, exactly as 
+     * NORMAL finds it. A window with variance below ROUNDING_ERROR_CORRECTION normalises to all 0s.
+     */
+    private double directDistance(double[] timeSeries, int start)
+    {
+        double[] window = new double[length];
+        System.arraycopy(timeSeries, start, window, 0, length);
+        window = zNormalise(window, false);
+
+        double[] content = cand.getShapeletContent();
+        double dist = 0, temp;
+        for (int j = 0; j < length; j++)
+        {
+            temp = content[j] - window[j];
+            dist += temp * temp;
+        }
+        return dist;
+    }
+
+    private void initFFT(int seriesLength)
+    {
+        //no wrap around reaches the dot products we use as long as the transform is at least as long as the series
+        int size = Integer.highestOneBit(seriesLength);
+        if (size < seriesLength)
+            size <<= 1;
+
+        if (fft == null || size != fftSize)
+        {
+            fft = new DoubleFFT_1D(size);
+            fftSize = size;
+            dotProducts = new double[size];
+        }
+    }
+}
@@ -43,6 +43,12 @@ public class GeneticSearch extends ImpRandomSearch{
         numShapeletsPerSeries = (int) (numShapelets / inputData.numInstances());  
     }
 
+    //the candidates visited depend on the quality of the ones already visited.
+    @Override
+    public boolean candidatesAreIndependent(){
+        return false;
+    }
+    
     @Override
     public ArrayList<Shapelet> SearchForShapeletsInSeries(Instance timeSeries, ProcessCandidate checkCandidate){
        evaluated = 0;
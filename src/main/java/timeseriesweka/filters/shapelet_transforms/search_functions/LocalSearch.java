@@ -33,6 +33,12 @@ public class LocalSearch extends RandomTimedSearch{
         maxIterations = ops.getMaxIterations();
     }
     
+    //the candidates visited depend on the quality of the ones already visited.
+    @Override
+    public boolean candidatesAreIndependent(){
+        return false;
+    }
+    
     @Override
     public ArrayList<Shapelet> SearchForShapeletsInSeries(Instance timeSeries, ProcessCandidate checkCandidate){
         ArrayList<Shapelet> seriesShapelets = new ArrayList<>();
@@ -82,6 +82,12 @@ public class MagnifySearch extends ImpRandomSearch{
             System.err.println("Too Few Starting shapelets");
     }
     
+    //the candidates visited depend on the quality of the ones already visited.
+    @Override
+    public boolean candidatesAreIndependent(){
+        return false;
+    }
+    
     @Override
     public ArrayList<Shapelet> SearchForShapeletsInSeries(Instance timeSeries, ShapeletSearch.ProcessCandidate checkCandidate){
         ArrayList<Shapelet> candidateList = new ArrayList<>();
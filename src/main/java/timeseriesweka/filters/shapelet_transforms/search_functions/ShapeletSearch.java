@@ -93,6 +93,15 @@ public class ShapeletSearch implements Serializable{
         seriesLength = getSeriesLength();
     }
     
+    /**
+     * @return true if the candidates visited in a series do not depend on the
+     * quality of the candidates already visited in it, so that they can be
+     * collected first and evaluated in any order.
+     */
+    public boolean candidatesAreIndependent(){
+        return true;
+    }
+    
     public int getSeriesLength(){
         return inputData.numAttributes() >= maxShapeletLength ? inputData.numAttributes() : channelLength(inputData) + 1; //we add one here, because lots of code assumes it has a class value on the end/ 
     }
@@ -84,6 +84,12 @@ public class TabuSearch extends ImpRandomSearch{
     }
     
     
+    //the candidates visited depend on the quality of the ones already visited.
+    @Override
+    public boolean candidatesAreIndependent(){
+        return false;
+    }
+    
     @Override
     public ArrayList<Shapelet> SearchForShapeletsInSeries(Instance timeSeries, ShapeletSearch.ProcessCandidate checkCandidate){
         
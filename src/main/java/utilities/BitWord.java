@@ -90,6 +90,11 @@ public class BitWord implements Comparable<BitWord>, Serializable {
     }
     
     
+    public BitWord(int word, int length) {
+        this.word = word;
+        this.length = (byte)length;
+    }
+    
     public BitWord(int [] letters) throws Exception {
         setWord(letters);
     }
@@ -20,7 +20,6 @@ package utilities;
 
 import evaluation.storage.ClassifierResults;
 import evaluation.evaluators.SingleTestSetEvaluator;
-import java.io.FileReader;
 import java.util.ArrayList;
 import java.util.Random;
 import weka.classifiers.*;
@@ -42,6 +41,7 @@ import weka.filters.supervised.attribute.NominalToBinary;
 import weka.filters.unsupervised.attribute.ReplaceMissingValues;
 
 
+import fileIO.FastDataLoader;
 import fileIO.OutFile;
 import java.io.File;
 import java.io.IOException;
@@ -78,22 +78,34 @@ public class ClassifierTools {
 	}
 	
         public static Instances loadDataThrowable(String fullPath) throws IOException{
+            return loadDataThrowable(fullPath, false);
+	}
+        
+        public static Instances loadDataThrowable(String fullPath, boolean useCache) throws IOException{
             if(!fullPath.toLowerCase().endsWith(".arff"))
                 fullPath += ".arff";
         
-            return loadData(new File(fullPath));
+            return loadData(new File(fullPath), useCache);
 	}
         
         /** 
-        * simply loads the instances from the file
+        * simply loads the instances from the file, through FastDataLoader, which
+        * parses numeric ARFF files (and UCR format .tsv/.txt files) much faster 
+        * than Weka, with the same result
         * @param file the File pointer rather than the path. Useful if you use FilenameFilters.
-        * @return Instances from file.
+        * @return Instances from file, the class last.
         */
         public static Instances loadData(File file) throws IOException{
-            FileReader reader = new FileReader(file);
-            Instances inst = new Instances(reader);
+            return loadData(file, false);
+        }
+        
+        /** 
+        * as loadData(File), reading from or writing to the binary cache next 
+        * to the file if useCache, see FastDataLoader
+        */
+        public static Instances loadData(File file, boolean useCache) throws IOException{
+            Instances inst = FastDataLoader.loadData(file, useCache, 1);
             inst.setClassIndex(inst.numAttributes()-1);
-            reader.close();
             return inst;
         }
         
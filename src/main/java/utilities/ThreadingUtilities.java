@@ -0,0 +1,134 @@
+/*
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package utilities;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.Future;
+
+/**
+ * Shared helpers for the classifiers that can run parts of their build or
+ * prediction on several threads.
+ *
+ * Thread counts follow the convention of Experiments.setupAndRunMultipleExperimentsThreaded:
+ * numThreads > 0 uses that many threads, 0 uses as many as there are cores and
+ * a negative value uses the number of cores minus one.
+ *
+ * Tasks are run on a fork join pool. If the caller is itself running inside a
+ * fork join pool (e.g. a classifier being built in parallel as part of an
+ * ensemble that is itself being built in parallel) the tasks are run on that
+ * pool instead of a new one, so nested parallel code shares the outer threads
+ * rather than oversubscribing the cores. Within callOnThisThread all tasks are
+ * instead run in order on the calling thread.
+ */
+public class ThreadingUtilities {
+
+    //true while the current thread is running a task given to callOnThisThread
+    private static final ThreadLocal<Boolean> onThisThread = ThreadLocal.withInitial(() -> false);
+
+    public static int resolveNumThreads(int numThreads){
+        int numCores = Runtime.getRuntime().availableProcessors();
+        if (numThreads == 0)
+            return numCores;
+        else if (numThreads < 0)
+            return Math.max(1, numCores-1);
+        return numThreads;
+    }
+
+    /**
+     * @return true if the current thread belongs to a fork join pool
+     */
+    public static boolean inPool(){
+        return Thread.currentThread() instanceof ForkJoinWorkerThread;
+    }
+
+    /**
+     * Calls task such that every invokeAll it makes, directly or through the
+     * classifiers etc. it uses, runs its tasks in order on the calling thread
+     * whatever their numThreads. All of the work of task, and none of any other,
+     * is then done on this thread, e.g. so that the thread's cpu time is that of
+     * task alone even when called from inside a pool.
+     *
+     * @param task
+     * @return result of task
+     * @throws Exception thrown by task
+     */
+    public static <T> T callOnThisThread(Callable<T> task) throws Exception {
+        if (onThisThread.get())
+            return task.call();
+        onThisThread.set(true);
+        try {
+            return task.call();
+        } finally {
+            onThisThread.set(false);
+        }
+    }
+
+    /**
+     * Runs all of the tasks and returns their results in the same order as the
+     * tasks. With numThreads == 1 (and not already in a pool), or within 
+     * callOnThisThread, the tasks are simply run in order on the calling thread.
+     *
+     * @param tasks
+     * @param numThreads see class comment
+     * @return results, in task order
+     * @throws Exception the first exception thrown by a task, unwrapped
+     */
+    public static <T> List<T> invokeAll(List<? extends Callable<T>> tasks, int numThreads) throws Exception {
+        List<T> results = new ArrayList<>(tasks.size());
+        boolean serial = onThisThread.get();
+        if (inPool() && !serial) {
+            return collect(currentPool().invokeAll(tasks), results);
+        }
+
+        numThreads = resolveNumThreads(numThreads);
+        if (serial || numThreads == 1 || tasks.size() <= 1) {
+            for (Callable<T> task : tasks)
+                results.add(task.call());
+            return results;
+        }
+
+        ForkJoinPool pool = new ForkJoinPool(numThreads);
+        try {
+            return collect(pool.invokeAll(tasks), results);
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    private static ForkJoinPool currentPool(){
+        return ((ForkJoinWorkerThread)Thread.currentThread()).getPool();
+    }
+
+    private static <T> List<T> collect(List<Future<T>> futures, List<T> results) throws Exception {
+        for (Future<T> f : futures) {
+            try {
+                results.add(f.get());
+            } catch (ExecutionException e) {
+                Throwable cause = e.getCause();
+                if (cause instanceof Exception)
+                    throw (Exception)cause;
+                if (cause instanceof Error)
+                    throw (Error)cause;
+                throw e;
+            }
+        }
+        return results;
+    }
+}
@@ -0,0 +1,417 @@
+/*
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package utilities;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import utilities.multivariate_tools.MultivariateInstanceTools;
+import weka.core.Attribute;
+import weka.core.DenseInstance;
+import weka.core.Instance;
+import weka.core.Instances;
+
+/**
+ * Primitive, columnar store of a time series dataset, for classifiers that work
+ * on the raw values rather than on Instance objects.
+ *
+ * Every value of every series is held in one contiguous double[]. Series i,
+ * channel c starts at offset(i,c) and is length(i,c) long, and the class labels
+ * are a separate int[] (-1 if missing), so no class value is ever mixed in with
+ * the series. Series can be of unequal length and have any number of channels
+ * (multivariate data), each channel also of its own length.
+ *
+ * Nothing here copies series values after construction. series(i,c) is a view of
+ * one series, and subset and channel give datasets that share the values array
+ * and only hold their own offsets and labels. Use values() with offset(i,c) to
+ * read a series directly, e.g. in a tight loop over all series.
+ *
+ * Classifiers opt in by implementing
+ * timeseriesweka.classifiers.TimeSeriesDatasetClassifier. Adapters convert from
+ * and to Instances: univariate data is one numeric attribute per time point (the
+ * class may be any attribute), multivariate data is the relational format of
+ * MultivariateInstanceTools. Missing values at the end of a channel of relational
+ * data are taken to be padding of an unequal length series and dropped. All
+ * other missing values, including any at the end of a univariate series, are
+ * kept as NaN, so univariate data from Instances is always equal length.
+ *
+ * A dataset is immutable once built, so it can be shared between threads.
+ */
+public class TimeSeriesDataset implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private final double[] values;
+    //[series*numChannels+channel]
+    private final int[] offsets;
+    private final int[] lengths;
+    private final int[] classLabels;
+    private final int numChannels;
+    private final List<String> classNames;
+    private final String relationName;
+
+    private TimeSeriesDataset(double[] values, int[] offsets, int[] lengths, int[] classLabels, int numChannels,
+            List<String> classNames, String relationName){
+        this.values = values;
+        this.offsets = offsets;
+        this.lengths = lengths;
+        this.classLabels = classLabels;
+        this.numChannels = numChannels;
+        this.classNames = classNames;
+        this.relationName = relationName;
+    }
+
+    /**
+     * Univariate dataset from arrays, each copied into the contiguous store
+     * @param series the values of each series, any lengths
+     * @param classLabels index into classNames of each series, -1 if missing
+     * @param classNames
+     * @return
+     */
+    public static TimeSeriesDataset fromArrays(double[][] series, int[] classLabels, List<String> classNames){
+        return fromArrays(new double[][][]{series}, classLabels, classNames);
+    }
+
+    /**
+     * Multivariate dataset from arrays, each copied into the contiguous store
+     * @param series [channel][series][time point], any lengths
+     * @param classLabels index into classNames of each series, -1 if missing
+     * @param classNames
+     * @return
+     */
+    public static TimeSeriesDataset fromArrays(double[][][] series, int[] classLabels, List<String> classNames){
+        int numChannels = series.length;
+        int numSeries = classLabels.length;
+        int[] lengths = new int[numSeries*numChannels];
+        long total = 0;
+        for (int i = 0; i < numSeries; i++){
+            for (int c = 0; c < numChannels; c++){
+                lengths[i*numChannels+c] = series[c][i].length;
+                total += series[c][i].length;
+            }
+        }
+        double[] values = new double[checkedSize(total)];
+        int[] offsets = new int[lengths.length];
+        int pos = 0;
+        for (int i = 0; i < numSeries; i++){
+            for (int c = 0; c < numChannels; c++){
+                offsets[i*numChannels+c] = pos;
+                System.arraycopy(series[c][i], 0, values, pos, series[c][i].length);
+                pos += series[c][i].length;
+            }
+        }
+        return new TimeSeriesDataset(values, offsets, lengths, classLabels.clone(), numChannels,
+                Collections.unmodifiableList(new ArrayList<>(classNames)), "");
+    }
+
+    /**
+     * Copies data into the contiguous store. Relational data is read as
+     * multivariate, with trailing missing values of each channel dropped, 
+     * anything else as univariate with one time point per non-class attribute.
+     * @param data
+     * @return
+     */
+    public static TimeSeriesDataset fromInstances(Instances data){
+        int numSeries = data.numInstances();
+        int classIndex = data.classIndex();
+        boolean multivariate = data.checkForAttributeType(Attribute.RELATIONAL);
+        int numChannels = multivariate && numSeries > 0 ? MultivariateInstanceTools.numChannels(data) : 1;
+
+        int[] lengths = new int[numSeries*numChannels];
+        long total = 0;
+        for (int i = 0; i < numSeries; i++){
+            Instance inst = data.instance(i);
+            for (int c = 0; c < numChannels; c++){
+                lengths[i*numChannels+c] = multivariate ? unpaddedLength(inst.relationalValue(0).instance(c), -1)
+                        : inst.numAttributes() - (classIndex >= 0 ? 1 : 0);
+                total += lengths[i*numChannels+c];
+            }
+        }
+
+        double[] values = new double[checkedSize(total)];
+        int[] offsets = new int[lengths.length];
+        int[] classLabels = new int[numSeries];
+        int pos = 0;
+        for (int i = 0; i < numSeries; i++){
+            Instance inst = data.instance(i);
+            for (int c = 0; c < numChannels; c++){
+                offsets[i*numChannels+c] = pos;
+                if (multivariate)
+                    pos = copyValues(inst.relationalValue(0).instance(c), -1, lengths[i*numChannels+c], values, pos);
+                else
+                    pos = copyValues(inst, classIndex, lengths[i*numChannels+c], values, pos);
+            }
+            classLabels[i] = classIndex < 0 || inst.classIsMissing() ? -1 : (int)inst.classValue();
+        }
+
+        List<String> classNames = new ArrayList<>();
+        if (classIndex >= 0 && data.classAttribute().isNominal()){
+            for (int k = 0; k < data.classAttribute().numValues(); k++)
+                classNames.add(data.classAttribute().value(k));
+        }
+        return new TimeSeriesDataset(values, offsets, lengths, classLabels, numChannels, Collections.unmodifiableList(classNames),
+                data.relationName());
+    }
+
+
+    private static int checkedSize(long total){
+        if (total > Integer.MAX_VALUE - 8)
+            throw new IllegalArgumentException("Too many values for one TimeSeriesDataset (" + total + "), split the data");
+        return (int)total;
+    }
+
+    //number of attributes up to the last that is neither missing nor the class
+    private static int unpaddedLength(Instance inst, int classIndex){
+        int end = inst.numAttributes();
+        while (end > 0 && (end-1 == classIndex || inst.isMissing(end-1)))
+            end--;
+        return classIndex >= 0 && classIndex < end ? end-1 : end;
+    }
+
+    private static int copyValues(Instance inst, int classIndex, int length, double[] values, int pos){
+        for (int a = 0, copied = 0; copied < length; a++){
+            if (a != classIndex){
+                values[pos++] = inst.value(a);
+                copied++;
+            }
+        }
+        return pos;
+    }
+
+    /**
+     * @return the data as Instances. Series are padded with missing values to
+     * the longest series of their channel, the class is the last attribute.
+     */
+    public Instances toInstances(){
+        Instances[] channels = new Instances[numChannels];
+        for (int c = 0; c < numChannels; c++)
+            channels[c] = channelToInstances(c);
+        if (numChannels == 1)
+            return channels[0];
+        Instances multi = MultivariateInstanceTools.mergeToMultivariateInstances(channels);
+        multi.setRelationName(relationName);
+        return multi;
+    }
+
+    private Instances channelToInstances(int c){
+        int length = maxLength(c);
+        ArrayList<Attribute> atts = new ArrayList<>(length+1);
+        for (int t = 0; t < length; t++)
+            atts.add(new Attribute((numChannels == 1 ? "att" : "channel_" + c + "_") + t));
+        atts.add(new Attribute("class", new ArrayList<>(classNames)));
+        Instances data = new Instances(numChannels == 1 ? relationName : relationName + "_channel_" + c, atts, numSeries());
+        data.setClassIndex(length);
+        for (int i = 0; i < numSeries(); i++){
+            double[] v = new double[length+1];
+            Arrays.fill(v, length(i, c), length, Double.NaN);
+            System.arraycopy(values, offset(i, c), v, 0, length(i, c));
+            v[length] = classLabels[i] < 0 ? Double.NaN : classLabels[i];
+            data.add(new DenseInstance(1, v));
+        }
+        return data;
+    }
+
+    public int numSeries(){
+        return classLabels.length;
+    }
+
+    public int numChannels(){
+        return numChannels;
+    }
+
+    public int numClasses(){
+        return classNames.size();
+    }
+
+    /**
+     * @return the class names, which cannot be modified
+     */
+    public List<String> classNames(){
+        return classNames;
+    }
+
+    public String relationName(){
+        return relationName;
+    }
+
+    /**
+     * @return the backing array of all values, shared with any views. Must not be
+     * modified.
+     */
+    public double[] values(){
+        return values;
+    }
+
+    public int offset(int series, int channel){
+        return offsets[series*numChannels+channel];
+    }
+
+    public int offset(int series){
+        return offset(series, 0);
+    }
+
+    public int length(int series, int channel){
+        return lengths[series*numChannels+channel];
+    }
+
+    public int length(int series){
+        return length(series, 0);
+    }
+
+    public double value(int series, int channel, int t){
+        return values[offsets[series*numChannels+channel]+t];
+    }
+
+    public double value(int series, int t){
+        return value(series, 0, t);
+    }
+
+    /**
+     * @param series
+     * @return index into classNames, -1 if missing
+     */
+    public int classLabel(int series){
+        return classLabels[series];
+    }
+
+    /**
+     * @return the class labels, shared with the dataset so not to be modified
+     */
+    public int[] classLabels(){
+        return classLabels;
+    }
+
+    /**
+     * @return a nominal attribute with the class names, for building Instances
+     * of transformed series
+     */
+    public Attribute classAttribute(){
+        return new Attribute("class", new ArrayList<>(classNames));
+    }
+
+    public int maxLength(int channel){
+        int max = 0;
+        for (int i = 0; i < numSeries(); i++)
+            max = Math.max(max, length(i, channel));
+        return max;
+    }
+
+    /**
+     * @return true if every series has the same length in every channel
+     */
+    public boolean isEqualLength(){
+        for (int l : lengths){
+            if (l != lengths[0])
+                return false;
+        }
+        return true;
+    }
+
+    public Series series(int series, int channel){
+        return new Series(values, offset(series, channel), length(series, channel));
+    }
+
+    public Series series(int series){
+        return series(series, 0);
+    }
+
+    /**
+     * @param indices of the series to keep, in the order wanted, repeats allowed
+     * @return a dataset sharing this one's values
+     */
+    public TimeSeriesDataset subset(int[] indices){
+        int[] newOffsets = new int[indices.length*numChannels];
+        int[] newLengths = new int[indices.length*numChannels];
+        int[] newLabels = new int[indices.length];
+        for (int k = 0; k < indices.length; k++){
+            System.arraycopy(offsets, indices[k]*numChannels, newOffsets, k*numChannels, numChannels);
+            System.arraycopy(lengths, indices[k]*numChannels, newLengths, k*numChannels, numChannels);
+            newLabels[k] = classLabels[indices[k]];
+        }
+        return new TimeSeriesDataset(values, newOffsets, newLengths, newLabels, numChannels, classNames, relationName);
+    }
+
+    /**
+     * @param from first series, inclusive
+     * @param to last series, exclusive
+     * @return a dataset sharing this one's values
+     */
+    public TimeSeriesDataset subset(int from, int to){
+        return new TimeSeriesDataset(values, Arrays.copyOfRange(offsets, from*numChannels, to*numChannels),
+                Arrays.copyOfRange(lengths, from*numChannels, to*numChannels), Arrays.copyOfRange(classLabels, from, to),
+                numChannels, classNames, relationName);
+    }
+
+    /**
+     * @param channel
+     * @return a univariate dataset of one channel, sharing this one's values
+     */
+    public TimeSeriesDataset channel(int channel){
+        int n = numSeries();
+        int[] newOffsets = new int[n];
+        int[] newLengths = new int[n];
+        for (int i = 0; i < n; i++){
+            newOffsets[i] = offset(i, channel);
+            newLengths[i] = length(i, channel);
+        }
+        return new TimeSeriesDataset(values, newOffsets, newLengths, classLabels, 1, classNames,
+                numChannels == 1 ? relationName : relationName + "_channel_" + channel);
+    }
+
+    /**
+     * A view of one series in the values array of a TimeSeriesDataset, no values
+     * are copied unless asked for
+     */
+    public static final class Series {
+        private final double[] values;
+        private final int offset;
+        private final int length;
+
+        private Series(double[] values, int offset, int length){
+            this.values = values;
+            this.offset = offset;
+            this.length = length;
+        }
+
+        public double get(int t){
+            return values[offset+t];
+        }
+
+        public int length(){
+            return length;
+        }
+
+        /**
+         * @return the shared backing array, the series starts at offset()
+         */
+        public double[] array(){
+            return values;
+        }
+
+        public int offset(){
+            return offset;
+        }
+
+        public double[] toArray(){
+            return Arrays.copyOfRange(values, offset, offset+length);
+        }
+
+        public void copyTo(double[] dest, int destPos){
+            System.arraycopy(values, offset, dest, destPos, length);
+        }
+    }
+}
@@ -24,7 +24,12 @@ import timeseriesweka.classifiers.ensembles.voting.MajorityVote;
 import timeseriesweka.classifiers.ensembles.voting.ModuleVotingScheme;
 
 import java.io.File;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
 
 import timeseriesweka.classifiers.cote.HiveCoteModule;
 import utilities.ClassifierTools;
@@ -46,6 +51,7 @@ import weka.core.Instances;
 import weka.filters.SimpleBatchFilter;
 import timeseriesweka.classifiers.SaveParameterInfo;
 import utilities.StatisticalUtilities;
+import utilities.ThreadingUtilities;
 import utilities.TrainAccuracyEstimate;
 import evaluation.storage.ClassifierResults;
 import java.util.concurrent.TimeUnit;
@@ -183,10 +189,27 @@ public class CAWPE extends AbstractClassifier implements HiveCoteModule, SavePar
 
     protected int numCVFolds = 10;
 
+    protected int numThreads = 1;
+
     public void setNumCVFolds(int i){
         numCVFolds = i;
     }
 
+    /**
+     * Number of threads the modules are trained and cross validated on. All modules
+     * use the same folds, so the results are the same for any number of threads. 
+     * When built as part of something already running in parallel (e.g. the CAWPE 
+     * of each channel in BOSS) the modules share the outer threads instead.
+     * 
+     * With more than one thread each module is trained single threaded on its own copy 
+     * of the data, and timed by the cpu time of its thread, see trainModule.
+     * 
+     * @param numThreads 1 by default, 0 for all cores
+     */
+    public void setNumThreads(int numThreads){
+        this.numThreads = numThreads;
+    }
+
     public CAWPE() {
         this.ensembleIdentifier = "CAWPE";
         this.transform = null;
@@ -546,39 +569,77 @@ public class CAWPE extends AbstractClassifier implements HiveCoteModule, SavePar
     }
 
     protected void trainModules() throws Exception {
+        if (numThreads == 1 && !ThreadingUtilities.inPool()) {
+            for (EnsembleModule module : modules)
+                trainModule(module, trainInsts, false);
+            return;
+        }
+        
+        //each module on its own copy of the data, and single threaded (see trainModule)
+        List<Callable<Void>> tasks = new ArrayList<>(modules.length);
+        for (EnsembleModule module : modules)
+            tasks.add(() -> ThreadingUtilities.callOnThisThread(() -> { 
+                trainModule(module, new Instances(trainInsts), true); 
+                return null; 
+            }));
+        ThreadingUtilities.invokeAll(tasks, numThreads);
+    }
 
-        for (EnsembleModule module : modules) {
-            if (module.getClassifier() instanceof TrainAccuracyEstimate) {
-                module.getClassifier().buildClassifier(trainInsts);
-
-                //these train results should also include the buildtime
-                module.trainResults = ((TrainAccuracyEstimate)module.getClassifier()).getTrainResults();
-                module.trainResults.finaliseResults();
-                
-                if (writeIndividualsResults) { //if we're doing trainFold# file writing
-                    String params = module.getParameters();
-                    if (module.getClassifier() instanceof SaveParameterInfo)
-                        params = ((SaveParameterInfo)module.getClassifier()).getParameters();
-                    writeResultsFile(module.getModuleName(), params, module.trainResults, "train"); //write results out
-                    printlnDebug(module.getModuleName() + " writing train file data gotten through TrainAccuracyEstimate...");
-                }
+    /**
+     * Builds and, if it cannot estimate its own train accuracy, cross validates a single 
+     * module. 
+     * 
+     * When modules are trained in parallel, each is run through 
+     * ThreadingUtilities.callOnThisThread, so all of its work, and none of any other 
+     * module, is done on the thread training it. Its build time is then the cpu time of 
+     * that thread (if the jvm measures it), as wall time would include the time spent 
+     * waiting for a core while the other modules run. Otherwise the build time is wall 
+     * time, and a module that estimates its own train accuracy keeps the time it recorded.
+     * 
+     * @param train the train data, a copy of it for each module trained in parallel
+     * @param parallel true if other modules are being trained at the same time
+     */
+    protected void trainModule(EnsembleModule module, Instances train, boolean parallel) throws Exception {
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        boolean cpu = parallel && threads.isCurrentThreadCpuTimeSupported() && threads.isThreadCpuTimeEnabled();
+        
+        if (module.getClassifier() instanceof TrainAccuracyEstimate) {
+            long startTime = cpu ? threads.getCurrentThreadCpuTime() : 0;
+            module.getClassifier().buildClassifier(train);
+
+            //these train results should also include the buildtime
+            module.trainResults = ((TrainAccuracyEstimate)module.getClassifier()).getTrainResults();
+            if (cpu) {
+                long buildTime = threads.getCurrentThreadCpuTime() - startTime;
+                module.trainResults.turnOffZeroTimingsErrors();
+                module.trainResults.setBuildTime(module.trainResults.getTimeUnit().convert(buildTime, TimeUnit.NANOSECONDS));
+                module.trainResults.turnOnZeroTimingsErrors();
             }
-            else {
-                printlnDebug(module.getModuleName() + " performing cv...");
-                module.trainResults = cv.crossValidateWithStats(module.getClassifier(), trainInsts);
-                module.trainResults.finaliseResults();
-                
-                //assumption: classifiers that maintain a classifierResults object, which may be the same object that module.trainResults refers to,
-                //and which this subsequent building of the final classifier would tamper with, would have been handled as an instanceof TrainAccuracyEstimate above
-                long startTime = System.nanoTime();
-                module.getClassifier().buildClassifier(trainInsts);
-                module.trainResults.setBuildTime(System.nanoTime() - startTime);
-                module.trainResults.setTimeUnit(TimeUnit.NANOSECONDS);
-
-                if (writeIndividualsResults) { //if we're doing trainFold# file writing
-                    writeResultsFile(module.getModuleName(), module.getParameters(), module.trainResults, "train"); //write results out
-                    printlnDebug(module.getModuleName() + " writing train file with full preds from scratch...");
-                }
+            module.trainResults.finaliseResults();
+            
+            if (writeIndividualsResults) { //if we're doing trainFold# file writing
+                String params = module.getParameters();
+                if (module.getClassifier() instanceof SaveParameterInfo)
+                    params = ((SaveParameterInfo)module.getClassifier()).getParameters();
+                writeResultsFile(module.getModuleName(), params, module.trainResults, "train"); //write results out
+                printlnDebug(module.getModuleName() + " writing train file data gotten through TrainAccuracyEstimate...");
+            }
+        }
+        else {
+            printlnDebug(module.getModuleName() + " performing cv...");
+            module.trainResults = cv.crossValidateWithStats(module.getClassifier(), train);
+            module.trainResults.finaliseResults();
+            
+            //assumption: classifiers that maintain a classifierResults object, which may be the same object that module.trainResults refers to,
+            //and which this subsequent building of the final classifier would tamper with, would have been handled as an instanceof TrainAccuracyEstimate above
+            long startTime = cpu ? threads.getCurrentThreadCpuTime() : System.nanoTime();
+            module.getClassifier().buildClassifier(train);
+            module.trainResults.setBuildTime((cpu ? threads.getCurrentThreadCpuTime() : System.nanoTime()) - startTime);
+            module.trainResults.setTimeUnit(TimeUnit.NANOSECONDS);
+
+            if (writeIndividualsResults) { //if we're doing trainFold# file writing
+                writeResultsFile(module.getModuleName(), module.getParameters(), module.trainResults, "train"); //write results out
+                printlnDebug(module.getModuleName() + " writing train file with full preds from scratch...");
             }
         }
     }
@@ -57,6 +57,7 @@ import java.util.LinkedList;
 import java.util.Random;
 import java.util.Vector;
 import timeseriesweka.classifiers.CheckpointClassifier;
+import timeseriesweka.classifiers.KryoCheckpoint;
 import timeseriesweka.classifiers.ContractClassifier;
 import evaluation.storage.ClassifierResults;
 import timeseriesweka.classifiers.SaveParameterInfo;
@@ -103,6 +104,7 @@ public class ContractRotationForest extends AbstractClassifier
     int maxNumTrees=200;
     int maxNumAttributes;
     String checkpointPath;
+    boolean kryoCheckpoint=false;
     boolean debug=true;
     TimingModel tm;
     double timeUsed;
@@ -266,13 +268,16 @@ public class ContractRotationForest extends AbstractClassifier
         boolean loadedFromFile=false;
         if(checkpointPath!=null){
             //Look for previous model. Protocol for saving is ProblemName+ClassifierName.ser
-            String serPath=checkpointPath+"/"+relationName+"ContractRotationForest.ser";
+            String serPath=checkpointPath+"/"+relationName+"ContractRotationForest"+(kryoCheckpoint?".kryo":".ser");
             System.out.println("Simple name = "+this.getClass().getSimpleName());
             File f =new File(serPath);
             if(f.exists()){
                 if(debug)
                     System.out.println("Serialised version exists, trying to load from "+serPath);
-                loadFromFile(serPath);
+                if(kryoCheckpoint)
+                    loadFromFileKryo(serPath);
+                else
+                    loadFromFile(serPath);
                 loadedFromFile=true;
            }
             else
@@ -394,9 +399,14 @@ public class ContractRotationForest extends AbstractClassifier
                         File f=new File(checkpointPath);
                         if(!f.isDirectory())
                             f.mkdirs();
-                        saveToFile(checkpointPath+relationName+"ContractRotationForest.ser");
+                        String serPath=checkpointPath+"/"+relationName+"ContractRotationForest"+(kryoCheckpoint?".kryo":".ser");
+//Kryo takes a snapshot and writes it behind, so building carries on straight away                        
+                        if(kryoCheckpoint)
+                            KryoCheckpoint.saveAsync(this,serPath);
+                        else
+                            saveToFile(serPath);
                         if(debug)
-                            System.out.println("HERE!!!  Saved to "+checkpointPath+relationName+"ContractRotationForest.ser");
+                            System.out.println("HERE!!!  Saved to "+serPath);
                     }
                     catch(Exception e){
                         System.out.println("Serialisation to "+checkpointPath+"/"+relationName+"ContractRotationForest.ser  FAILED");
@@ -481,6 +491,8 @@ public class ContractRotationForest extends AbstractClassifier
                 }
             }
         }
+        if(checkpointPath!=null && kryoCheckpoint)
+            KryoCheckpoint.awaitWrites();
         res.setBuildTime(System.currentTimeMillis()-startTime);
         if(debug)
             System.out.println("Finished build");
@@ -996,6 +1008,14 @@ public class ContractRotationForest extends AbstractClassifier
     public void setSavePath(String path) {
         checkpointPath=path;
     }
+/**
+ * Checkpoint with Kryo rather than Java serialisation, see KryoCheckpoint. 
+ * The forest is written to a .kryo file in the background after each tree. 
+ * @param b false by default
+ */
+    public void setKryoCheckpoint(boolean b) {
+        kryoCheckpoint=b;
+    }
 
     @Override
     public void copyFromSerObject(Object obj) throws Exception {
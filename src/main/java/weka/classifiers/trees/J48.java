@@ -30,6 +30,7 @@ import weka.classifiers.trees.j48.BinC45ModelSelection;
 import weka.classifiers.trees.j48.C45ModelSelection;
 import weka.classifiers.trees.j48.C45PruneableClassifierTree;
 import weka.classifiers.trees.j48.ClassifierTree;
+import weka.classifiers.trees.j48.FlatClassifierTree;
 import weka.classifiers.trees.j48.ModelSelection;
 import weka.classifiers.trees.j48.PruneableClassifierTree;
 import weka.core.AdditionalMeasureProducer;
@@ -131,6 +132,12 @@ public class J48
 
   /** The decision tree */
   protected ClassifierTree m_root;
+
+  /** The tree flattened for prediction, made when first needed */
+  protected transient volatile FlatClassifierTree m_flatRoot;
+
+  /** Whether m_flatRoot has been made (it is null if the tree cannot be) */
+  protected transient volatile boolean m_flattened = false;
   
   /** Unpruned tree? */
   private boolean m_unpruned = false;
@@ -246,6 +253,7 @@ public class J48
     else
       m_root = new PruneableClassifierTree(modSelection, !m_unpruned, m_numFolds,
 					   !m_noCleanup, m_Seed);
+    m_flattened = false;
     m_root.buildClassifier(instances);
     if (m_binarySplits) {
       ((BinC45ModelSelection)modSelection).cleanup();
@@ -263,6 +271,13 @@ public class J48
    */
   public double classifyInstance(Instance instance) throws Exception {
 
+    FlatClassifierTree flat = flatRoot();
+    if (flat != null) {
+      double prediction = flat.classifyInstance(instance);
+      if (!Utils.isMissingValue(prediction)) {
+	return prediction;
+      }
+    }
     return m_root.classifyInstance(instance);
   }
 
@@ -276,9 +291,32 @@ public class J48
   public final double [] distributionForInstance(Instance instance) 
        throws Exception {
 
+    FlatClassifierTree flat = flatRoot();
+    if (flat != null) {
+      double[] dist = flat.distributionForInstance(instance, m_useLaplace);
+      if (dist != null) {
+	return dist;
+      }
+    }
     return m_root.distributionForInstance(instance, m_useLaplace);
   }
 
+  /**
+   * The tree flattened into arrays, for faster predictions. Made the first
+   * time it is needed, after building or deserialisation.
+   *
+   * @return the flattened tree, null if the tree cannot be flattened
+   * @throws Exception if the tree cannot be read
+   */
+  protected FlatClassifierTree flatRoot() throws Exception {
+
+    if (!m_flattened) {
+      m_flatRoot = FlatClassifierTree.flatten(m_root);
+      m_flattened = true;
+    }
+    return m_flatRoot;
+  }
+
   /**
    *  Returns the type of graph this classifier
    *  represents.
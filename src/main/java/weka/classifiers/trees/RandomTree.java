@@ -22,6 +22,8 @@
 package weka.classifiers.trees;
 
 import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Enumeration;
 import java.util.LinkedList;
 import java.util.Queue;
@@ -31,6 +33,7 @@ import java.util.Vector;
 import weka.classifiers.AbstractClassifier;
 import weka.classifiers.Classifier;
 import weka.core.Attribute;
+import weka.core.BatchPredictor;
 import weka.core.Capabilities;
 import weka.core.Capabilities.Capability;
 import weka.core.ContingencyTables;
@@ -92,6 +95,17 @@ import weka.core.WeightedInstancesHandler;
  * </pre>
  * 
  * <pre>
+ * -presort
+ *  Find splits from presorted indices rather than sorting the data at each node.
+ * </pre>
+ * 
+ * <pre>
+ * -bins &lt;num&gt;
+ *  Number of bins for numeric attributes, implies -presort,
+ *  0 for exact splits. (default 0)
+ * </pre>
+ * 
+ * <pre>
  * -D
  *  If set, classifier is run in debug mode and
  *  may output additional info to the console
@@ -104,7 +118,8 @@ import weka.core.WeightedInstancesHandler;
  * @version $Revision: 9526 $
  */
 public class RandomTree extends AbstractClassifier implements OptionHandler,
-    WeightedInstancesHandler, Randomizable, Drawable, PartitionGenerator {
+    WeightedInstancesHandler, Randomizable, Drawable, PartitionGenerator,
+    BatchPredictor {
 
   /** for serialization */
   static final long serialVersionUID = 8934314652175299374L;
@@ -136,6 +151,18 @@ public class RandomTree extends AbstractClassifier implements OptionHandler,
   /** a ZeroR model in case no model can be built from the data */
   protected Classifier m_zeroR;
 
+  /** Whether splits are found from presorted indices (see SplitFinder) */
+  protected boolean m_Presort = false;
+
+  /** Number of bins for numeric attributes when presorting (0 = exact splits) */
+  protected int m_NumBins = 0;
+
+  /** The tree flattened into arrays for prediction, made when first needed */
+  protected transient volatile FlatTree m_FlatTree = null;
+
+  /** The preferred number of instances for distributionsForInstances */
+  protected String m_BatchSize = "100";
+
   /**
    * Returns a string describing classifier
    * 
@@ -333,6 +360,70 @@ public class RandomTree extends AbstractClassifier implements OptionHandler,
     m_MaxDepth = value;
   }
 
+  /**
+   * Returns the tip text for this property
+   * 
+   * @return tip text for this property suitable for displaying in the
+   *         explorer/experimenter gui
+   */
+  public String presortTipText() {
+    return "Whether to sort each numeric attribute once and pass sorted indices "
+        + "down the tree, rather than sorting the data at every node. Faster, and "
+        + "the same tree for unweighted data without missing values. Otherwise "
+        + "class weights are summed in a different order, so the tree can differ "
+        + "where gains are within rounding of each other.";
+  }
+
+  /**
+   * Get whether splits are found from presorted indices.
+   * 
+   * @return true if presorting
+   */
+  public boolean getPresort() {
+    return m_Presort;
+  }
+
+  /**
+   * Set whether splits are found from presorted indices.
+   * 
+   * @param value true to presort
+   */
+  public void setPresort(boolean value) {
+    m_Presort = value;
+  }
+
+  /**
+   * Returns the tip text for this property
+   * 
+   * @return tip text for this property suitable for displaying in the
+   *         explorer/experimenter gui
+   */
+  public String numBinsTipText() {
+    return "The number of bins numeric attributes are divided "
+        + "into (at quantiles of the training data), so that splits at nodes with "
+        + "more instances than bins are found from class histograms over the bins "
+        + "rather than between every pair of values. Presorts the data whatever "
+        + "the presort setting. 0 for exact splits.";
+  }
+
+  /**
+   * Get the number of bins for numeric attributes, 0 for exact splits.
+   * 
+   * @return the number of bins
+   */
+  public int getNumBins() {
+    return m_NumBins;
+  }
+
+  /**
+   * Set the number of bins for numeric attributes, 0 for exact splits.
+   * 
+   * @param value the number of bins
+   */
+  public void setNumBins(int value) {
+    m_NumBins = value;
+  }
+
   /**
    * Lists the command-line options for this classifier.
    * 
@@ -364,6 +455,11 @@ public class RandomTree extends AbstractClassifier implements OptionHandler,
         + "(default 0, no backfitting).", "N", 1, "-N <num>"));
     newVector.addElement(new Option("\tAllow unclassified instances.", "U", 0,
         "-U"));
+    newVector.addElement(new Option("\tFind splits from presorted indices rather "
+        + "than sorting the data at each node.", "presort", 0, "-presort"));
+    newVector.addElement(new Option(
+        "\tNumber of bins for numeric attributes, implies -presort,\n"
+            + "\t0 for exact splits. (default 0)", "bins", 1, "-bins <num>"));
 
     Enumeration enu = super.listOptions();
     while (enu.hasMoreElements()) {
@@ -409,6 +505,15 @@ public class RandomTree extends AbstractClassifier implements OptionHandler,
       result.add("-U");
     }
 
+    if (getPresort()) {
+      result.add("-presort");
+    }
+
+    if (getNumBins() > 0) {
+      result.add("-bins");
+      result.add("" + getNumBins());
+    }
+
     options = super.getOptions();
     for (i = 0; i < options.length; i++)
       result.add(options[i]);
@@ -458,6 +563,17 @@ public class RandomTree extends AbstractClassifier implements OptionHandler,
    * </pre>
    * 
    * <pre>
+   * -presort
+   *  Find splits from presorted indices rather than sorting the data at each node.
+   * </pre>
+   * 
+   * <pre>
+   * -bins &lt;num&gt;
+   *  Number of bins for numeric attributes, implies -presort,
+   *  0 for exact splits. (default 0)
+   * </pre>
+   * 
+   * <pre>
    * -D
    *  If set, classifier is run in debug mode and
    *  may output additional info to the console
@@ -508,6 +624,15 @@ public class RandomTree extends AbstractClassifier implements OptionHandler,
 
     setAllowUnclassifiedInstances(Utils.getFlag('U', options));
 
+    setPresort(Utils.getFlag("presort", options));
+
+    tmpStr = Utils.getOption("bins", options);
+    if (tmpStr.length() != 0) {
+      setNumBins(Integer.parseInt(tmpStr));
+    } else {
+      setNumBins(0);
+    }
+
     super.setOptions(options);
 
     Utils.checkForRemainingOptions(options);
@@ -545,6 +670,8 @@ public class RandomTree extends AbstractClassifier implements OptionHandler,
   @Override
   public void buildClassifier(Instances data) throws Exception {
 
+    m_FlatTree = null;
+
     // Make sure K value is in range
     if (m_KValue > data.numAttributes() - 1)
       m_KValue = data.numAttributes() - 1;
@@ -602,7 +729,13 @@ public class RandomTree extends AbstractClassifier implements OptionHandler,
     // Build tree
     m_Tree = new Tree();
     m_Info = new Instances(data, 0);
-    m_Tree.buildTree(train, classProbs, attIndicesWindow, rand, 0);
+    if (m_Presort || m_NumBins > 0) {
+      SplitFinder finder = new SplitFinder(train);
+      m_Tree.buildTree(finder, finder.root(), classProbs, attIndicesWindow,
+          rand, 0);
+    } else {
+      m_Tree.buildTree(train, classProbs, attIndicesWindow, rand, 0);
+    }
 
     // Backfit if required
     if (backfit != null) {
@@ -623,8 +756,70 @@ public class RandomTree extends AbstractClassifier implements OptionHandler,
     if (m_zeroR != null) {
       return m_zeroR.distributionForInstance(instance);
     } else {
-      return m_Tree.distributionForInstance(instance);
+      return flatTree().distributionForInstance(instance);
+    }
+  }
+
+  /**
+   * Computes class distributions of a batch of instances, running them all
+   * through the (flattened) tree in turn.
+   * 
+   * @param insts the instances to compute the distributions for
+   * @return the class probabilities of each instance, as given by
+   *         distributionForInstance
+   * @throws Exception if computation fails
+   */
+  @Override
+  public double[][] distributionsForInstances(Instances insts)
+      throws Exception {
+
+    double[][] dists = new double[insts.numInstances()][];
+    if (m_zeroR != null) {
+      for (int i = 0; i < dists.length; i++) {
+        dists[i] = m_zeroR.distributionForInstance(insts.instance(i));
+      }
+    } else {
+      FlatTree flat = flatTree();
+      for (int i = 0; i < dists.length; i++) {
+        dists[i] = flat.distributionForInstance(insts.instance(i));
+      }
+    }
+    return dists;
+  }
+
+  /**
+   * Set the preferred batch size for distributionsForInstances.
+   * 
+   * @param size the batch size
+   */
+  @Override
+  public void setBatchSize(String size) {
+    m_BatchSize = size;
+  }
+
+  /**
+   * Get the preferred batch size for distributionsForInstances.
+   * 
+   * @return the batch size
+   */
+  @Override
+  public String getBatchSize() {
+    return m_BatchSize;
+  }
+
+  /**
+   * The tree flattened for prediction, made from the built tree the first time
+   * it is needed (after building, or after deserialisation).
+   * 
+   * @return the flattened tree
+   */
+  protected FlatTree flatTree() {
+    FlatTree flat = m_FlatTree;
+    if (flat == null) {
+      flat = new FlatTree(m_Tree);
+      m_FlatTree = flat;
     }
+    return flat;
   }
 
   /**
@@ -1425,6 +1620,371 @@ public class RandomTree extends AbstractClassifier implements OptionHandler,
       return splitPoint;
     }
 
+    /**
+     * Recursively generates a tree from presorted indices. Makes the same
+     * choices as buildTree(Instances, ...), with the instances at each node
+     * held as indices into the training data of the split finder. Class 
+     * weights are summed in a different order, so with fractional weights
+     * (including those missing values are shared out with) a gain can round
+     * differently and the trees can differ where gains nearly tie.
+     * 
+     * @param finder the training data
+     * @param node the instances at this node
+     * @param classProbs the class distribution
+     * @param attIndicesWindow the attribute window to choose attributes from
+     * @param random random number generator for choosing random attributes
+     * @param depth the current depth
+     * @throws Exception if generation fails
+     */
+    protected void buildTree(SplitFinder finder, NodeData node,
+        double[] classProbs, int[] attIndicesWindow, Random random, int depth)
+        throws Exception {
+
+      // Make leaf if there are no training instances
+      if (node.m_Members.length == 0) {
+        m_Attribute = -1;
+        m_ClassDistribution = null;
+        m_Prop = null;
+        return;
+      }
+
+      // Check if node doesn't contain enough instances or is pure
+      // or maximum depth reached
+      m_ClassDistribution = classProbs.clone();
+
+      if (Utils.sum(m_ClassDistribution) < 2 * m_MinNum
+          || Utils.eq(m_ClassDistribution[Utils.maxIndex(m_ClassDistribution)],
+              Utils.sum(m_ClassDistribution))
+          || ((getMaxDepth() > 0) && (depth >= getMaxDepth()))) {
+        // Make leaf
+        m_Attribute = -1;
+        m_Prop = null;
+        return;
+      }
+
+      finder.enter(node);
+
+      // Compute class distributions and value of splitting
+      // criterion for each attribute
+      double val = -Double.MAX_VALUE;
+      double split = -Double.MAX_VALUE;
+      double[][] bestDists = null;
+      double[] bestProps = null;
+      int bestIndex = 0;
+
+      // Handles to get arrays out of distribution method
+      double[][] props = new double[1][0];
+      double[][][] dists = new double[1][0][0];
+
+      // Investigate K random attributes
+      int attIndex = 0;
+      int windowSize = attIndicesWindow.length;
+      int k = m_KValue;
+      boolean gainFound = false;
+      while ((windowSize > 0) && (k-- > 0 || !gainFound)) {
+
+        int chosenIndex = random.nextInt(windowSize);
+        attIndex = attIndicesWindow[chosenIndex];
+
+        // shift chosen attIndex out of window
+        attIndicesWindow[chosenIndex] = attIndicesWindow[windowSize - 1];
+        attIndicesWindow[windowSize - 1] = attIndex;
+        windowSize--;
+
+        double currSplit = distribution(props, dists, attIndex, finder, node);
+        double currVal = gain(dists[0], priorVal(dists[0]));
+
+        if (Utils.gr(currVal, 0))
+          gainFound = true;
+
+        if ((currVal > val) || ((currVal == val) && (attIndex < bestIndex))) {
+          val = currVal;
+          bestIndex = attIndex;
+          split = currSplit;
+          bestProps = props[0];
+          bestDists = dists[0];
+        }
+      }
+
+      // Find best attribute
+      m_Attribute = bestIndex;
+
+      // Any useful split found?
+      if (Utils.gr(val, 0)) {
+
+        // Build subtrees
+        m_SplitPoint = split;
+        m_Prop = bestProps;
+        NodeData[] subsets = splitData(finder, node);
+        m_Successors = new Tree[bestDists.length];
+        for (int i = 0; i < bestDists.length; i++) {
+          m_Successors[i] = new Tree();
+          m_Successors[i].buildTree(finder, subsets[i], bestDists[i],
+              attIndicesWindow, random, depth + 1);
+          subsets[i] = null;
+        }
+
+        // If all successors are non-empty, we don't need to store the class
+        // distribution
+        boolean emptySuccessor = false;
+        for (int i = 0; i < m_Successors.length; i++) {
+          if (m_Successors[i].m_ClassDistribution == null) {
+            emptySuccessor = true;
+            break;
+          }
+        }
+        if (!emptySuccessor) {
+          m_ClassDistribution = null;
+        }
+      } else {
+
+        // Make leaf
+        m_Attribute = -1;
+      }
+    }
+
+    /**
+     * Splits the instances at a node based on the given split, in the same way
+     * as splitData(Instances).
+     * 
+     * @param finder the training data
+     * @param node the instances at this node
+     * @return the instances for each successor
+     */
+    protected NodeData[] splitData(SplitFinder finder, NodeData node) {
+
+      double[] values = finder.values(m_Attribute);
+      boolean nominal = finder.m_Data.attribute(m_Attribute).isNominal();
+      int[] members = node.m_Members;
+
+      // Count the instances going down each branch
+      int[] counts = new int[m_Prop.length];
+      for (int i = 0; i < members.length; i++) {
+        double value = values[members[i]];
+        if (Utils.isMissingValue(value)) {
+          for (int k = 0; k < m_Prop.length; k++) {
+            if (m_Prop[k] > 0) {
+              counts[k]++;
+            }
+          }
+        } else {
+          counts[branch(value, nominal)]++;
+        }
+      }
+
+      NodeData[] subsets = new NodeData[m_Prop.length];
+      for (int k = 0; k < m_Prop.length; k++) {
+        subsets[k] = new NodeData(node, new int[counts[k]],
+            new double[counts[k]]);
+        counts[k] = 0;
+      }
+
+      // Instances with a missing value are split up
+      for (int i = 0; i < members.length; i++) {
+        double value = values[members[i]];
+        if (Utils.isMissingValue(value)) {
+          for (int k = 0; k < m_Prop.length; k++) {
+            if (m_Prop[k] > 0) {
+              subsets[k].add(counts[k]++, members[i], m_Prop[k]
+                  * node.m_Weights[i]);
+            }
+          }
+        } else {
+          int k = branch(value, nominal);
+          subsets[k].add(counts[k]++, members[i], node.m_Weights[i]);
+        }
+      }
+      return subsets;
+    }
+
+    /**
+     * @return the successor a (non missing) value goes to
+     */
+    private int branch(double value, boolean nominal) {
+      if (nominal) {
+        return (int) value;
+      }
+      return (value < m_SplitPoint) ? 0 : 1;
+    }
+
+    /**
+     * Computes class distribution for an attribute from presorted indices, as
+     * distribution(double[][], double[][][], int, Instances) does from sorted
+     * data. With binning, numeric attributes at nodes with more instances than
+     * bins are split only between bins.
+     * 
+     * @param props
+     * @param dists
+     * @param att the attribute index
+     * @param finder the training data
+     * @param node the instances at this node, entered in the finder
+     * @throws Exception if something goes wrong
+     */
+    protected double distribution(double[][] props, double[][][] dists,
+        int att, SplitFinder finder, NodeData node) throws Exception {
+
+      double splitPoint = Double.NaN;
+      double[] values = finder.values(att);
+      int[] classes = finder.m_Classes;
+      double[] weights = finder.m_NodeWeights;
+      int numClasses = finder.m_Data.numClasses();
+      int[] members = node.m_Members;
+      double[][] dist = null;
+
+      if (finder.m_Data.attribute(att).isNominal()) {
+
+        // For nominal attributes
+        dist = new double[finder.m_Data.attribute(att).numValues()][numClasses];
+        for (int i = 0; i < members.length; i++) {
+          int inst = members[i];
+          if (!Utils.isMissingValue(values[inst])) {
+            dist[(int) values[inst]][classes[inst]] += weights[inst];
+          }
+        }
+      } else if (m_NumBins > 0 && members.length > m_NumBins) {
+
+        // For numeric attributes, split between bins
+        int[] bins = finder.bins(att);
+        double[] cuts = finder.m_Cuts[att];
+        double[][] histogram = new double[cuts.length + 1][numClasses];
+        int[] counts = new int[cuts.length + 1];
+        double[][] currDist = new double[2][numClasses];
+        dist = new double[2][numClasses];
+        for (int i = 0; i < members.length; i++) {
+          int inst = members[i];
+          if (bins[inst] >= 0) {
+            histogram[bins[inst]][classes[inst]] += weights[inst];
+            counts[bins[inst]]++;
+          }
+        }
+        int total = 0;
+        for (int b = 0; b < histogram.length; b++) {
+          for (int c = 0; c < numClasses; c++) {
+            currDist[1][c] += histogram[b][c];
+          }
+          total += counts[b];
+        }
+        double priorVal = priorVal(currDist);
+        for (int j = 0; j < currDist.length; j++) {
+          System.arraycopy(currDist[j], 0, dist[j], 0, dist[j].length);
+        }
+
+        // Try the cut between each pair of non empty bins
+        double currVal, bestVal = -Double.MAX_VALUE;
+        int below = 0;
+        for (int b = 0; b < cuts.length; b++) {
+          for (int c = 0; c < numClasses; c++) {
+            currDist[0][c] += histogram[b][c];
+            currDist[1][c] -= histogram[b][c];
+          }
+          below += counts[b];
+          if (below > 0 && below < total && counts[b + 1] > 0) {
+            currVal = gain(currDist, priorVal);
+            if (currVal > bestVal) {
+              bestVal = currVal;
+              splitPoint = cuts[b];
+              for (int j = 0; j < currDist.length; j++) {
+                System.arraycopy(currDist[j], 0, dist[j], 0, dist[j].length);
+              }
+            }
+          }
+        }
+      } else {
+
+        // For numeric attributes
+        int[] sorted = finder.sorted(node, att);
+        double[][] currDist = new double[2][numClasses];
+        dist = new double[2][numClasses];
+
+        // Move all instances into second subset
+        int indexOfFirstMissingValue = sorted.length;
+        for (int j = 0; j < sorted.length; j++) {
+          int inst = sorted[j];
+          if (Utils.isMissingValue(values[inst])) {
+
+            // Can stop as soon as we hit a missing value
+            indexOfFirstMissingValue = j;
+            break;
+          }
+          currDist[1][classes[inst]] += weights[inst];
+        }
+
+        // Value before splitting
+        double priorVal = priorVal(currDist);
+
+        // Save initial distribution
+        for (int j = 0; j < currDist.length; j++) {
+          System.arraycopy(currDist[j], 0, dist[j], 0, dist[j].length);
+        }
+
+        // Try all possible split points
+        double currSplit = values[sorted[0]];
+        double currVal, bestVal = -Double.MAX_VALUE;
+        for (int i = 0; i < indexOfFirstMissingValue; i++) {
+          int inst = sorted[i];
+
+          // Can we place a sensible split point here?
+          if (values[inst] > currSplit) {
+
+            // Compute gain for split point
+            currVal = gain(currDist, priorVal);
+
+            // Is the current split point the best point so far?
+            if (currVal > bestVal) {
+
+              // Store value of current point
+              bestVal = currVal;
+
+              // Save split point
+              splitPoint = (values[inst] + currSplit) / 2.0;
+
+              // Check for numeric precision problems
+              if (splitPoint <= currSplit) {
+                splitPoint = values[inst];
+              }
+
+              // Save distribution
+              for (int j = 0; j < currDist.length; j++) {
+                System.arraycopy(currDist[j], 0, dist[j], 0, dist[j].length);
+              }
+            }
+            currSplit = values[inst];
+          }
+
+          // Shift over the weight
+          currDist[0][classes[inst]] += weights[inst];
+          currDist[1][classes[inst]] -= weights[inst];
+        }
+      }
+
+      // Compute weights for subsets
+      props[0] = new double[dist.length];
+      for (int k = 0; k < props[0].length; k++) {
+        props[0][k] = Utils.sum(dist[k]);
+      }
+      if (Utils.eq(Utils.sum(props[0]), 0)) {
+        for (int k = 0; k < props[0].length; k++) {
+          props[0][k] = 1.0 / props[0].length;
+        }
+      } else {
+        Utils.normalize(props[0]);
+      }
+
+      // Distribute weights for instances with missing values
+      for (int i = 0; i < members.length; i++) {
+        int inst = members[i];
+        if (Utils.isMissingValue(values[inst])) {
+          for (int j = 0; j < dist.length; j++) {
+            dist[j][classes[inst]] += props[0][j] * weights[inst];
+          }
+        }
+      }
+
+      // Return distribution and split point
+      dists[0] = dist;
+      return splitPoint;
+    }
+
     /**
      * Computes value of splitting criterion before split.
      * 
@@ -1500,6 +2060,469 @@ public class RandomTree extends AbstractClassifier implements OptionHandler,
     }
   }
 
+  /**
+   * A built tree flattened into arrays, nodes in breadth first order so that the
+   * successors of each node are consecutive. Predicting then walks down the
+   * arrays in a loop, rather than through the linked Tree objects with a call
+   * per node, and gives exactly the distributions Tree.distributionForInstance
+   * does. Class distributions are normalized once here rather than at every
+   * prediction.
+   */
+  protected class FlatTree {
+
+    /** The attribute split on at each node, -1 for leaves */
+    protected final int[] m_Attributes;
+
+    /** Whether that attribute is nominal */
+    protected final boolean[] m_Nominal;
+
+    /** The split point of each node */
+    protected final double[] m_SplitPoints;
+
+    /** The index of the first successor of each node */
+    protected final int[] m_FirstSuccessors;
+
+    /** The proportions of training instances down each branch of each node */
+    protected final double[][] m_Props;
+
+    /** The normalized class distributions of all nodes, one after another */
+    protected final double[] m_Distributions;
+
+    /** Where the distribution of each node starts, -1 if it has none */
+    protected final int[] m_DistributionStarts;
+
+    /** Nodes whose distributions cannot be normalized (they throw when used) */
+    protected final boolean[] m_Unnormalized;
+
+    /** The number of classes */
+    protected final int m_NumClasses;
+
+    protected FlatTree(Tree root) {
+
+      ArrayList<Tree> nodes = new ArrayList<Tree>();
+      nodes.add(root);
+      for (int i = 0; i < nodes.size(); i++) {
+        Tree node = nodes.get(i);
+        if (node.m_Attribute > -1) {
+          nodes.addAll(Arrays.asList(node.m_Successors));
+        }
+      }
+
+      int n = nodes.size();
+      m_NumClasses = m_Info.numClasses();
+      m_Attributes = new int[n];
+      m_Nominal = new boolean[n];
+      m_SplitPoints = new double[n];
+      m_FirstSuccessors = new int[n];
+      m_Props = new double[n][];
+      m_DistributionStarts = new int[n];
+      m_Unnormalized = new boolean[n];
+      double[] distributions = new double[n * m_NumClasses];
+      int numDistributions = 0;
+      int nextSuccessor = 1;
+      for (int i = 0; i < n; i++) {
+        Tree node = nodes.get(i);
+        m_Attributes[i] = node.m_Attribute;
+        if (node.m_Attribute > -1) {
+          m_Nominal[i] = m_Info.attribute(node.m_Attribute).isNominal();
+          m_SplitPoints[i] = node.m_SplitPoint;
+          m_Props[i] = node.m_Prop;
+          m_FirstSuccessors[i] = nextSuccessor;
+          nextSuccessor += node.m_Successors.length;
+        }
+        if (node.m_ClassDistribution == null) {
+          m_DistributionStarts[i] = -1;
+        } else {
+          double[] dist = node.m_ClassDistribution.clone();
+          try {
+            Utils.normalize(dist);
+          } catch (IllegalArgumentException e) {
+            m_Unnormalized[i] = true;
+          }
+          m_DistributionStarts[i] = numDistributions * m_NumClasses;
+          System.arraycopy(dist, 0, distributions, numDistributions
+              * m_NumClasses, m_NumClasses);
+          numDistributions++;
+        }
+      }
+      m_Distributions = Arrays.copyOf(distributions, numDistributions
+          * m_NumClasses);
+    }
+
+    /**
+     * Computes class distribution of an instance, as
+     * Tree.distributionForInstance does.
+     * 
+     * @param instance the instance to compute the distribution for
+     * @return the computed class distribution
+     */
+    public double[] distributionForInstance(Instance instance) {
+
+      // Walk down to a leaf, remembering the last node with a distribution to
+      // fall back on if the leaf has none
+      int node = 0;
+      int lastWithDistribution = -1;
+      while (m_Attributes[node] > -1) {
+        if (m_DistributionStarts[node] > -1) {
+          lastWithDistribution = node;
+        }
+        double value = instance.value(m_Attributes[node]);
+        if (Utils.isMissingValue(value)) {
+
+          // The instance is split up from here
+          return distributionForInstance(node, instance);
+        }
+        node = m_FirstSuccessors[node] + branch(node, value);
+      }
+      if (m_DistributionStarts[node] == -1
+          && !getAllowUnclassifiedInstances()) {
+        node = lastWithDistribution;
+        if (node == -1) {
+          return null;
+        }
+      }
+      return nodeDistribution(node);
+    }
+
+    /**
+     * Computes class distribution of an instance from a node down, following
+     * Tree.distributionForInstance exactly, for instances with missing values.
+     */
+    protected double[] distributionForInstance(int node, Instance instance) {
+
+      double[] returnedDist = null;
+
+      if (m_Attributes[node] > -1) {
+        double value = instance.value(m_Attributes[node]);
+        if (Utils.isMissingValue(value)) {
+
+          // Split instance up
+          returnedDist = new double[m_NumClasses];
+          for (int i = 0; i < m_Props[node].length; i++) {
+            double[] help = distributionForInstance(m_FirstSuccessors[node]
+                + i, instance);
+            if (help != null) {
+              for (int j = 0; j < help.length; j++) {
+                returnedDist[j] += m_Props[node][i] * help[j];
+              }
+            }
+          }
+        } else {
+          returnedDist = distributionForInstance(m_FirstSuccessors[node]
+              + branch(node, value), instance);
+        }
+      }
+
+      // Node is a leaf or successor is empty?
+      if (returnedDist == null) {
+        if (m_DistributionStarts[node] == -1) {
+          return getAllowUnclassifiedInstances() ? new double[m_NumClasses]
+              : null;
+        }
+        return nodeDistribution(node);
+      }
+      return returnedDist;
+    }
+
+    /**
+     * @return the successor of node that a (non missing) value goes to
+     */
+    protected int branch(int node, double value) {
+      if (m_Nominal[node]) {
+        return (int) value;
+      }
+      return (value < m_SplitPoints[node]) ? 0 : 1;
+    }
+
+    /**
+     * @return a copy of the normalized distribution of node, or of zeros if it
+     *         has none
+     */
+    protected double[] nodeDistribution(int node) {
+      int start = m_DistributionStarts[node];
+      if (start == -1) {
+        return new double[m_NumClasses];
+      }
+      double[] dist = Arrays.copyOfRange(m_Distributions, start, start
+          + m_NumClasses);
+      if (m_Unnormalized[node]) {
+        Utils.normalize(dist);
+      }
+      return dist;
+    }
+  }
+
+  /**
+   * The instances at one node while building with presorted indices: indices
+   * into the training data of the SplitFinder, with their weights (less than the
+   * instance weight for instances with missing values split up above), plus the
+   * instances in sorted order for each numeric attribute sorted so far.
+   */
+  protected static class NodeData {
+
+    /** The node above, null at the root */
+    protected final NodeData m_Parent;
+
+    /** Indices of the instances at this node, in training data order */
+    protected final int[] m_Members;
+
+    /** Weights of the instances at this node */
+    protected final double[] m_Weights;
+
+    /** Members sorted on each attribute, missing last, filled when needed */
+    protected int[][] m_Sorted;
+
+    protected NodeData(NodeData parent, int[] members, double[] weights) {
+      m_Parent = parent;
+      m_Members = members;
+      m_Weights = weights;
+    }
+
+    protected void add(int position, int member, double weight) {
+      m_Members[position] = member;
+      m_Weights[position] = weight;
+    }
+  }
+
+  /**
+   * The training data column wise, for finding splits without sorting the data
+   * at every node. Each numeric attribute is sorted once, the first time it is
+   * chosen at a node big enough for that to pay off, and every node below gets
+   * its own instances in order with a linear pass over the sorted indices of its
+   * parent (or nearest ancestor that has them), keeping the order. Nodes with
+   * missing values split up are handled as splitData(Instances) does, and
+   * Instances are never copied.
+   * 
+   * With numBins set, each numeric attribute is instead divided once into bins
+   * at quantiles of the training data, and large nodes are split between bins
+   * from a class histogram, without sorting at all.
+   */
+  protected class SplitFinder {
+
+    /** The training data */
+    protected final Instances m_Data;
+
+    /** Values of each attribute for each instance, filled when first needed */
+    protected final double[][] m_Values;
+
+    /** Class index of each instance */
+    protected final int[] m_Classes;
+
+    /** Weights of the instances at the node being split */
+    protected final double[] m_NodeWeights;
+
+    /** Bin of each instance for each attribute, -1 if missing */
+    protected final int[][] m_Bins;
+
+    /** Upper bounds of all but the last bin of each attribute */
+    protected final double[][] m_Cuts;
+
+    /** Instances at the node being split are marked with its stamp */
+    private final int[] m_Marks;
+
+    private int m_Stamp = 0;
+
+    private final NodeData m_Root;
+
+    protected SplitFinder(Instances data) {
+      m_Data = data;
+      int n = data.numInstances();
+      m_Values = new double[data.numAttributes()][];
+      m_Bins = new int[data.numAttributes()][];
+      m_Cuts = new double[data.numAttributes()][];
+      m_Classes = new int[n];
+      m_NodeWeights = new double[n];
+      m_Marks = new int[n];
+      int[] members = new int[n];
+      double[] weights = new double[n];
+      for (int i = 0; i < n; i++) {
+        m_Classes[i] = (int) data.instance(i).classValue();
+        members[i] = i;
+        weights[i] = data.instance(i).weight();
+      }
+      m_Root = new NodeData(null, members, weights);
+    }
+
+    protected NodeData root() {
+      return m_Root;
+    }
+
+    /**
+     * Makes node the one being split, so its instances and weights can be
+     * looked up.
+     */
+    protected void enter(NodeData node) {
+      m_Stamp++;
+      for (int i = 0; i < node.m_Members.length; i++) {
+        m_Marks[node.m_Members[i]] = m_Stamp;
+        m_NodeWeights[node.m_Members[i]] = node.m_Weights[i];
+      }
+    }
+
+    protected double[] values(int att) {
+      if (m_Values[att] == null) {
+        double[] values = new double[m_Data.numInstances()];
+        for (int i = 0; i < values.length; i++) {
+          values[i] = m_Data.instance(i).value(att);
+        }
+        m_Values[att] = values;
+      }
+      return m_Values[att];
+    }
+
+    /**
+     * The instances of a node sorted on att, missing values last. node must be
+     * the one entered.
+     */
+    protected int[] sorted(NodeData node, int att) {
+      if (node.m_Sorted == null) {
+        node.m_Sorted = new int[m_Data.numAttributes()][];
+      }
+      if (node.m_Sorted[att] != null) {
+        return node.m_Sorted[att];
+      }
+      NodeData ancestor = node.m_Parent;
+      while (ancestor != null
+          && (ancestor.m_Sorted == null || ancestor.m_Sorted[att] == null)) {
+        ancestor = ancestor.m_Parent;
+      }
+      // Sorting a small node alone is cheaper than a pass over a big ancestor
+      int n = node.m_Members.length;
+      int passLength = (ancestor == null ? m_Root : ancestor).m_Members.length;
+      if (node != m_Root
+          && n * (32 - Integer.numberOfLeadingZeros(n)) < passLength) {
+        return node.m_Sorted[att] = sort(node.m_Members.clone(), values(att));
+      }
+      if (ancestor == null) {
+        ancestor = m_Root;
+        if (m_Root.m_Sorted == null) {
+          m_Root.m_Sorted = new int[m_Data.numAttributes()][];
+        }
+        m_Root.m_Sorted[att] = sort(m_Root.m_Members.clone(), values(att));
+        if (node == m_Root) {
+          return m_Root.m_Sorted[att];
+        }
+      }
+      int[] sorted = new int[n];
+      int k = 0;
+      for (int inst : ancestor.m_Sorted[att]) {
+        if (m_Marks[inst] == m_Stamp) {
+          sorted[k++] = inst;
+        }
+      }
+      return node.m_Sorted[att] = sorted;
+    }
+
+    /**
+     * The bin of each training instance for att, dividing the values at
+     * quantiles into at most numBins bins, never splitting equal values.
+     */
+    protected int[] bins(int att) {
+      if (m_Bins[att] != null) {
+        return m_Bins[att];
+      }
+      double[] values = values(att);
+      int[] sorted = (m_Root.m_Sorted != null && m_Root.m_Sorted[att] != null)
+          ? m_Root.m_Sorted[att] : sort(m_Root.m_Members.clone(), values);
+      int numValues = 0;
+      while (numValues < sorted.length
+          && !Utils.isMissingValue(values[sorted[numValues]])) {
+        numValues++;
+      }
+      int[] bins = new int[values.length];
+      Arrays.fill(bins, -1);
+      double[] cuts = new double[m_NumBins];
+      int numCuts = 0;
+      int binSize = Math.max(1, (numValues + m_NumBins - 1) / m_NumBins);
+      for (int start = 0; start < numValues;) {
+        int end = Math.min(start + binSize, numValues);
+        while (end < numValues
+            && !(values[sorted[end]] > values[sorted[end - 1]])) {
+          end++;
+        }
+        for (int i = start; i < end; i++) {
+          bins[sorted[i]] = numCuts;
+        }
+        if (end < numValues) {
+          double below = values[sorted[end - 1]], above = values[sorted[end]];
+          double cut = (below + above) / 2.0;
+          if (cut <= below) {
+            cut = above;
+          }
+          cuts[numCuts++] = cut;
+        }
+        start = end;
+      }
+      m_Cuts[att] = Arrays.copyOf(cuts, numCuts);
+      return m_Bins[att] = bins;
+    }
+  }
+
+  /**
+   * Stable sort of indices on their values, missing values last.
+   * 
+   * @param indices the indices to sort, sorted in place
+   * @param values the values, indexed by the indices
+   * @return indices
+   */
+  protected static int[] sort(int[] indices, double[] values) {
+
+    // Missing values go to the end, the rest are sorted with their values
+    // alongside, insertion sorting short runs then merging
+    int n = 0;
+    int[] missing = new int[indices.length];
+    int numMissing = 0;
+    double[] keys = new double[indices.length];
+    for (int index : indices) {
+      if (Utils.isMissingValue(values[index])) {
+        missing[numMissing++] = index;
+      } else {
+        keys[n] = values[index];
+        indices[n++] = index;
+      }
+    }
+    System.arraycopy(missing, 0, indices, n, numMissing);
+
+    final int run = 16;
+    for (int lo = 0; lo < n; lo += run) {
+      int hi = Math.min(lo + run, n);
+      for (int i = lo + 1; i < hi; i++) {
+        double key = keys[i];
+        int index = indices[i];
+        int j = i - 1;
+        for (; j >= lo && keys[j] > key; j--) {
+          keys[j + 1] = keys[j];
+          indices[j + 1] = indices[j];
+        }
+        keys[j + 1] = key;
+        indices[j + 1] = index;
+      }
+    }
+    double[] keyBuffer = new double[n];
+    int[] indexBuffer = new int[n];
+    for (int width = run; width < n; width *= 2) {
+      for (int lo = 0; lo < n - width; lo += 2 * width) {
+        int mid = lo + width, hi = Math.min(lo + 2 * width, n);
+        if (!(keys[mid] < keys[mid - 1])) {
+          continue;
+        }
+        System.arraycopy(keys, lo, keyBuffer, lo, hi - lo);
+        System.arraycopy(indices, lo, indexBuffer, lo, hi - lo);
+        int i = lo, j = mid;
+        for (int k = lo; k < hi; k++) {
+          if (j >= hi || (i < mid && !(keyBuffer[j] < keyBuffer[i]))) {
+            keys[k] = keyBuffer[i];
+            indices[k] = indexBuffer[i++];
+          } else {
+            keys[k] = keyBuffer[j];
+            indices[k] = indexBuffer[j++];
+          }
+        }
+      }
+    }
+    return indices;
+  }
+
   /**
    * Main method for this class.
    * 
@@ -0,0 +1,233 @@
+/*
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+/*
+ *    FlatClassifierTree.java
+ *
+ */
+
+package weka.classifiers.trees.j48;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import weka.core.Instance;
+import weka.core.Instances;
+import weka.core.Utils;
+
+/**
+ * A built C4.5 ClassifierTree flattened into arrays for prediction. Nodes are
+ * held in breadth first order, so the sons of each node are consecutive, and
+ * the class probabilities of every place a prediction can end (a leaf, or an
+ * empty son, which uses the probabilities of its parent's subset) are worked
+ * out once here. Predicting an instance is then a single walk down the arrays,
+ * rather than one walk of the linked tree per class.
+ * <p/>
+ * Gives exactly the probabilities of ClassifierTree.distributionForInstance
+ * and the class of ClassifierTree.classifyInstance. Instances with a missing
+ * value on their path are split over several leaves; for those the methods
+ * here return null and the tree itself should be used.
+ */
+public class FlatClassifierTree {
+
+  /** Node kinds */
+  private static final int LEAF = 0, NUMERIC = 1, NOMINAL = 2, BINARY_NOMINAL = 3;
+
+  /** The kind of split at each node */
+  private final int[] m_kinds;
+
+  /** The attribute split on at each node */
+  private final int[] m_attributes;
+
+  /** The split point of each node */
+  private final double[] m_splitPoints;
+
+  /** The index of the first son of each node */
+  private final int[] m_firstSons;
+
+  /** The class probabilities of each node, when a prediction ends there */
+  private final double[] m_probs;
+
+  /** As m_probs, with the laplace correction */
+  private final double[] m_laplaceProbs;
+
+  /** The number of classes */
+  private final int m_numClasses;
+
+  /**
+   * Flattens a built tree.
+   *
+   * @param root the root of the tree
+   * @return the flattened tree, or null if the tree has splits other than
+   * those of C45Split and BinC45Split
+   * @throws Exception if the probabilities cannot be computed
+   */
+  public static FlatClassifierTree flatten(ClassifierTree root)
+       throws Exception {
+
+    ArrayList<ClassifierTree> nodes = new ArrayList<ClassifierTree>();
+    nodes.add(root);
+    for (int i = 0; i < nodes.size(); i++) {
+      ClassifierTree node = nodes.get(i);
+      if (node.m_isLeaf) {
+	if (!(node.m_localModel instanceof NoSplit)) {
+	  return null;
+	}
+      } else {
+	if (!(node.m_localModel instanceof C45Split)
+	    && !(node.m_localModel instanceof BinC45Split)) {
+	  return null;
+	}
+	nodes.addAll(Arrays.asList(node.m_sons));
+      }
+    }
+    return new FlatClassifierTree(nodes);
+  }
+
+  private FlatClassifierTree(ArrayList<ClassifierTree> nodes)
+       throws Exception {
+
+    int n = nodes.size();
+    m_numClasses = nodes.get(0).m_train.numClasses();
+    m_kinds = new int[n];
+    m_attributes = new int[n];
+    m_splitPoints = new double[n];
+    m_firstSons = new int[n];
+    m_probs = new double[n * m_numClasses];
+    m_laplaceProbs = new double[n * m_numClasses];
+
+    int nextSon = 1;
+    for (int i = 0; i < n; i++) {
+      ClassifierTree node = nodes.get(i);
+      if (!node.m_isLeaf) {
+	ClassifierSplitModel model = node.m_localModel;
+	Instances header = node.m_train;
+	if (model instanceof C45Split) {
+	  C45Split split = (C45Split) model;
+	  m_attributes[i] = split.attIndex();
+	  m_splitPoints[i] = split.splitPoint();
+	  m_kinds[i] = header.attribute(m_attributes[i]).isNominal()
+	    ? NOMINAL : NUMERIC;
+	} else {
+	  BinC45Split split = (BinC45Split) model;
+	  m_attributes[i] = split.attIndex();
+	  m_splitPoints[i] = split.splitPoint();
+	  m_kinds[i] = header.attribute(m_attributes[i]).isNominal()
+	    ? BINARY_NOMINAL : NUMERIC;
+	}
+	m_firstSons[i] = nextSon;
+
+	// A prediction ending at an empty son uses this node's subset
+	for (int k = 0; k < node.m_sons.length; k++) {
+	  ClassifierTree son = node.m_sons[k];
+	  if (son.m_isEmpty) {
+	    for (int c = 0; c < m_numClasses; c++) {
+	      m_probs[(nextSon + k) * m_numClasses + c] =
+		model.classProb(c, null, k);
+	      m_laplaceProbs[(nextSon + k) * m_numClasses + c] =
+		model.classProbLaplace(c, null, k);
+	    }
+	  }
+	}
+	nextSon += node.m_sons.length;
+      } else {
+	m_kinds[i] = LEAF;
+	if (i == 0 || !node.m_isEmpty) {
+	  for (int c = 0; c < m_numClasses; c++) {
+	    m_probs[i * m_numClasses + c] =
+	      node.m_localModel.classProb(c, null, -1);
+	    m_laplaceProbs[i * m_numClasses + c] =
+	      node.m_localModel.classProbLaplace(c, null, -1);
+	  }
+	}
+      }
+      if (i > 0 && node.m_isEmpty) {
+	m_kinds[i] = LEAF;
+      }
+    }
+  }
+
+  /**
+   * Returns class probabilities for an instance.
+   *
+   * @param instance the instance to get the distribution for
+   * @param useLaplace whether to use laplace or not
+   * @return the distribution, or null if the instance has a missing value
+   * that the tree would split it up at
+   */
+  public double[] distributionForInstance(Instance instance,
+					  boolean useLaplace) {
+
+    int node = leaf(instance);
+    if (node < 0) {
+      return null;
+    }
+    int start = node * m_numClasses;
+    return Arrays.copyOfRange(useLaplace ? m_laplaceProbs : m_probs,
+			      start, start + m_numClasses);
+  }
+
+  /**
+   * Classifies an instance, as ClassifierTree.classifyInstance does
+   *
+   * @param instance the instance to classify
+   * @return the classification, or NaN if the instance has a missing value
+   * that the tree would split it up at
+   */
+  public double classifyInstance(Instance instance) {
+
+    int node = leaf(instance);
+    if (node < 0) {
+      return Utils.missingValue();
+    }
+    double maxProb = -1;
+    int maxIndex = 0;
+    for (int j = 0; j < m_numClasses; j++) {
+      double currentProb = m_probs[node * m_numClasses + j];
+      if (Utils.gr(currentProb, maxProb)) {
+	maxIndex = j;
+	maxProb = currentProb;
+      }
+    }
+    return maxIndex;
+  }
+
+  /**
+   * @return the node a prediction for instance ends at, -1 if it is split up
+   */
+  private int leaf(Instance instance) {
+
+    int node = 0;
+    while (m_kinds[node] != LEAF) {
+      double value = instance.value(m_attributes[node]);
+      if (Utils.isMissingValue(value)) {
+	return -1;
+      }
+      int subset;
+      switch (m_kinds[node]) {
+      case NOMINAL:
+	subset = (int) value;
+	break;
+      case BINARY_NOMINAL:
+	subset = ((int) m_splitPoints[node] == (int) value) ? 0 : 1;
+	break;
+      default:
+	subset = Utils.smOrEq(value, m_splitPoints[node]) ? 0 : 1;
+      }
+      node = m_firstSons[node] + subset;
+    }
+    return node;
+  }
+}
@@ -0,0 +1,81 @@
+/*
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package evaluation.evaluators;
+
+import evaluation.storage.ClassifierResults;
+import org.junit.Test;
+import static org.junit.Assert.*;
+import timeseriesweka.classifiers.TSF;
+import timeseriesweka.classifiers.WEASEL;
+import utilities.SeededData;
+import weka.classifiers.Classifier;
+import weka.classifiers.trees.J48;
+import weka.core.Instances;
+
+/**
+ * The fold-parallel mode against the serial loop, with multi-threaded 
+ * classifiers run single threaded on the fold's thread.
+ */
+public class CrossValidationEvaluatorTest {
+
+    /**
+     * WEASEL and J48 start each build afresh, so match the serial loop. The 
+     * serial loop carries the Random of the one TSF on from fold to fold where 
+     * each copy starts from the seed, so TSF is only checked to be the same 
+     * for any number of threads, its own or the evaluator's.
+     */
+    @Test
+    public void parallelFoldsMatchSerial() throws Exception{
+        Instances data=SeededData.sines(40,50,3,21);
+        ClassifierResults[] serial=crossValidate(data,1,1);
+        ClassifierResults[] first=null;
+        for(int threads:new int[]{3,0}){
+            for(int classifierThreads:new int[]{1,4}){
+                ClassifierResults[] parallel=crossValidate(data,threads,classifierThreads);
+                assertEquals(serial.length,parallel.length);
+                assertResultsEqual(serial[0],parallel[0]);
+                assertResultsEqual(serial[2],parallel[2]);
+                if(first==null)
+                    first=parallel;
+                else
+                    assertResultsEqual(first[1],parallel[1]);
+                for(ClassifierResults res:parallel)
+                    assertTrue(res.getBuildTime()>0);
+            }
+        }
+    }
+
+    private static void assertResultsEqual(ClassifierResults expected, ClassifierResults actual){
+        assertArrayEquals(expected.getPredClassValsAsArray(),actual.getPredClassValsAsArray(),0);
+        for(int i=0;i<expected.numInstances();i++)
+            assertArrayEquals(expected.getProbabilityDistribution(i),actual.getProbabilityDistribution(i),0);
+    }
+
+    /**
+     * @param classifierThreads threads the multi-threaded classifiers are set to use
+     */
+    private static ClassifierResults[] crossValidate(Instances data, int threads, int classifierThreads) throws Exception{
+        WEASEL weasel=new WEASEL();
+        weasel.setNumThreads(classifierThreads);
+        TSF tsf=new TSF(3);
+        tsf.setNumTrees(20);
+        tsf.setNumThreads(classifierThreads);
+        CrossValidationEvaluator cv=new CrossValidationEvaluator();
+        cv.setSeed(5);
+        cv.setNumFolds(5);
+        cv.setNumThreads(threads);
+        return cv.crossValidateWithStats(new Classifier[]{weasel,tsf,new J48()},data);
+    }
+}
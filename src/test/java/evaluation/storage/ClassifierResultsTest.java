@@ -0,0 +1,168 @@
+/*
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package evaluation.storage;
+
+import java.io.File;
+import java.util.Random;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import static org.junit.Assert.*;
+
+/**
+ * Binary results files against the text files they are converted from: 
+ * loading either must give the same predictions and the same stats.
+ */
+public class ClassifierResultsTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void binaryLoadMatchesTextLoad() throws Exception {
+        for (long seed = 0; seed < 5; seed++) {
+            String text = folder.newFile().getPath();
+            String bin = folder.newFile().getPath();
+            seededResults(seed, 3 + (int)seed, 40 + 20*(int)seed).writeFullResultsToFile(text);
+            ClassifierResults.convertToBinary(text, bin);
+
+            ClassifierResults fromText = new ClassifierResults(text);
+            ClassifierResults fromBin = new ClassifierResults(bin);
+            assertSamePredictions(fromText, fromBin);
+            assertSameMeta(fromText, fromBin);
+            assertSameStats(fromText, fromBin);
+        }
+    }
+
+    @Test
+    public void convertsInPlace() throws Exception {
+        File f = folder.newFile();
+        String path = f.getPath();
+        seededResults(7, 4, 100).writeFullResultsToFile(path);
+        ClassifierResults original = new ClassifierResults(path);
+
+        ClassifierResults.convertToBinary(path, path);
+        ClassifierResults fromBin = new ClassifierResults(path);
+        assertSamePredictions(original, fromBin);
+        assertSameMeta(original, fromBin);
+
+        ClassifierResults.convertToText(path, path);
+        ClassifierResults fromText = new ClassifierResults(path);
+        assertSamePredictions(original, fromText);
+        assertSameMeta(original, fromText);
+        assertSameStats(original, fromText);
+    }
+
+    /**
+     * The description used to be appended twice (and gain a space) on every read, 
+     * and the prediction times were added onto the test time reported on line 3
+     */
+    @Test
+    public void textRoundTripKeepsMetaInfo() throws Exception {
+        ClassifierResults res = seededResults(5, 3, 50);
+        String first = folder.newFile().getPath();
+        String second = folder.newFile().getPath();
+        res.writeFullResultsToFile(first);
+        ClassifierResults loaded = new ClassifierResults(first);
+        assertSameMeta(res, loaded);
+
+        loaded.writeFullResultsToFile(second);
+        ClassifierResults reloaded = new ClassifierResults(second);
+        assertSameMeta(res, reloaded);
+        assertSamePredictions(res, reloaded);
+    }
+
+    @Test
+    public void listAccessorsMatchArrays() throws Exception {
+        ClassifierResults res = seededResults(3, 3, 30);
+        double[] trueVals = res.getTrueClassValsAsArray();
+        double[] predVals = res.getPredClassValsAsArray();
+        long[] times = res.getPredictionTimesAsArray();
+        assertEquals(30, trueVals.length);
+        for (int i = 0; i < trueVals.length; i++) {
+            assertEquals(trueVals[i], res.getTrueClassVals().get(i), 0);
+            assertEquals(trueVals[i], res.getTrueClassValue(i), 0);
+            assertEquals(predVals[i], res.getPredClassVals().get(i), 0);
+            assertEquals(predVals[i], res.getPredClassValue(i), 0);
+            assertEquals(times[i], (long)res.getPredictionTimes().get(i));
+            assertEquals(times[i], res.getPredictionTime(i));
+        }
+    }
+
+    private static ClassifierResults seededResults(long seed, int numClasses, int numInstances) throws Exception {
+        Random r = new Random(seed);
+        ClassifierResults res = new ClassifierResults(numClasses);
+        res.setClassifierName("seeded");
+        res.setDatasetName("data" + seed);
+        res.setFoldID((int)seed);
+        res.setDescription("a description, with commas");
+        res.setParas("p1,1,p2,2");
+        res.setBuildTime(1 + r.nextInt(1000));
+        res.setBenchmarkTime(1 + r.nextInt(1000));
+        res.setMemory(1 + r.nextInt(100000));
+        for (int i = 0; i < numInstances; i++) {
+            double[] dist = new double[numClasses];
+            double sum = 0;
+            for (int c = 0; c < numClasses; c++)
+                sum += dist[c] = r.nextDouble();
+            int pred = 0;
+            for (int c = 0; c < numClasses; c++) {
+                //rounded as the text files are
+                dist[c] = Math.round(dist[c] / sum * 1000) / 1000.0;
+                if (dist[c] > dist[pred])
+                    pred = c;
+            }
+            double trueClass = r.nextDouble() < 0.6 ? pred : r.nextInt(numClasses);
+            res.addPrediction(trueClass, dist, pred, 1 + r.nextInt(50), i % 5 == 0 ? "desc" + i : null);
+        }
+        res.finaliseResults();
+        return res;
+    }
+
+    private static void assertSamePredictions(ClassifierResults expected, ClassifierResults actual) {
+        assertEquals(expected.numInstances(), actual.numInstances());
+        assertEquals(expected.numClasses(), actual.numClasses());
+        assertArrayEquals(expected.getTrueClassValsAsArray(), actual.getTrueClassValsAsArray(), 0);
+        assertArrayEquals(expected.getPredClassValsAsArray(), actual.getPredClassValsAsArray(), 0);
+        assertArrayEquals(expected.getPredictionTimesAsArray(), actual.getPredictionTimesAsArray());
+        for (int i = 0; i < expected.numInstances(); i++)
+            assertArrayEquals(expected.getProbabilityDistribution(i), actual.getProbabilityDistribution(i), 0);
+        assertEquals(expected.getAcc(), actual.getAcc(), 0);
+    }
+
+    private static void assertSameMeta(ClassifierResults expected, ClassifierResults actual) {
+        assertEquals(expected.getClassifierName(), actual.getClassifierName());
+        assertEquals(expected.getDatasetName(), actual.getDatasetName());
+        assertEquals(expected.getFoldID(), actual.getFoldID());
+        assertEquals(expected.getDescription(), actual.getDescription());
+        assertEquals(expected.getParas(), actual.getParas());
+        assertEquals(expected.getTimeUnit(), actual.getTimeUnit());
+        assertEquals(expected.getBuildTime(), actual.getBuildTime());
+        assertEquals(expected.getTestTime(), actual.getTestTime());
+        assertEquals(expected.getBenchmarkTime(), actual.getBenchmarkTime());
+        assertEquals(expected.getMemory(), actual.getMemory());
+    }
+
+    private static void assertSameStats(ClassifierResults expected, ClassifierResults actual) {
+        expected.findAllStats();
+        actual.findAllStats();
+        assertEquals(expected.balancedAcc, actual.balancedAcc, 0);
+        assertEquals(expected.f1, actual.f1, 0);
+        assertEquals(expected.mcc, actual.mcc, 0);
+        assertEquals(expected.nll, actual.nll, 0);
+        assertEquals(expected.meanAUROC, actual.meanAUROC, 0);
+        assertEquals(expected.medianPredTime, actual.medianPredTime);
+    }
+}
@@ -0,0 +1,214 @@
+/*
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package fileIO;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.Random;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import static org.junit.Assert.*;
+import utilities.SeededData;
+import weka.core.Instances;
+
+/**
+ * The fast loader against Weka's own ARFF parser, which ClassifierTools.loadData
+ * used before, and against the series written to UCR format files.
+ */
+public class FastDataLoaderTest {
+
+    @Rule
+    public TemporaryFolder folder=new TemporaryFolder();
+
+
+    @Test
+    public void parseDoubleMatchesParseDouble(){
+        Random r=new Random(0);
+        for(int i=0;i<200000;i++){
+            String s;
+            switch(i%6){
+                case 0: s=Double.toString(r.nextGaussian()*Math.pow(10,r.nextInt(40)-20)); break;
+                case 1: s=String.format(Locale.ROOT,"%."+r.nextInt(10)+"f",r.nextGaussian()*1000); break;
+                case 2: s=Long.toString(r.nextLong()>>r.nextInt(64)); break;
+                case 3: s=(r.nextInt(200000)-100000)+"e"+(r.nextInt(60)-30); break;
+                case 4: s=Double.toString(r.nextDouble()); break;
+                default: s=(r.nextBoolean()?"+":"-")+r.nextInt(1000)+"."+r.nextInt(1000)+"E"+(r.nextBoolean()?"+":"-")+r.nextInt(25);
+            }
+            byte[] b=s.getBytes(StandardCharsets.UTF_8);
+            assertEquals(s,Double.doubleToLongBits(Double.parseDouble(s)),Double.doubleToLongBits(FastDataLoader.parseDouble(b,0,b.length)));
+        }
+    }
+
+    @Test
+    public void arffMatchesWeka() throws Exception{
+        File f=writeArff("sines.arff",SeededData.sines(50,60,3,1),new Random(1));
+        Instances expected=loadWithWeka(f);
+        for(int threads:new int[]{1,4})
+            assertSame(expected,FastDataLoader.loadData(f,false,threads));
+    }
+
+    @Test
+    public void unsupportedArffFallsBackToWeka() throws Exception{
+        File sparse=folder.newFile("sparse.arff");
+        write(sparse,"@relation s\n@attribute a numeric\n@attribute b numeric\n@attribute c {x,y}\n@data\n{0 1.5,2 y}\n1,2,x\n");
+        assertSame(loadWithWeka(sparse),FastDataLoader.loadData(sparse));
+        File strings=folder.newFile("strings.arff");
+        write(strings,"@relation s\n@attribute a numeric\n@attribute b string\n@data\n1,'hello there'\n% comment\n2,bye\n");
+        assertSame(loadWithWeka(strings),FastDataLoader.loadData(strings));
+    }
+
+    /**
+     * Series of unequal length are padded with missing values, numeric class
+     * labels are ordered by value
+     */
+    @Test
+    public void ucrMatchesSeries() throws Exception{
+        Random r=new Random(2);
+        int n=30;
+        double[][] series=new double[n][];
+        int[] labels=new int[n];
+        StringBuilder tsv=new StringBuilder();
+        for(int i=0;i<n;i++){
+            series[i]=SeededData.randomWalk(20+r.nextInt(10),r);
+            labels[i]=r.nextInt(3)*5-2;
+            tsv.append(labels[i]);
+            for(double v:series[i])
+                tsv.append('\t').append(v);
+            if(i%3==0)
+                tsv.append("\tNaN\tNaN");
+            tsv.append(i%2==0?"\n":"\r\n");
+        }
+        File f=folder.newFile("walks_TRAIN.tsv");
+        write(f,tsv.toString());
+        Instances data=FastDataLoader.loadData(f);
+        assertEquals("walks_TRAIN",data.relationName());
+        assertEquals(n,data.numInstances());
+        assertEquals(29,data.classIndex());
+        assertEquals(Arrays.asList("-2","3","8"),Arrays.asList(data.classAttribute().value(0),data.classAttribute().value(1),data.classAttribute().value(2)));
+        for(int i=0;i<n;i++){
+            double[] expected=new double[30];
+            Arrays.fill(expected,Double.NaN);
+            System.arraycopy(series[i],0,expected,0,series[i].length);
+            expected[29]=(labels[i]+2)/5;
+            assertArrayEquals(expected,data.instance(i).toDoubleArray(),0);
+        }
+    }
+
+    @Test
+    public void equalLengthUcrKeepsParsedArrays() throws Exception{
+        File f=folder.newFile("equal.txt");
+        write(f,"1 0.5 1.5 2.5\n2,3,4,5\n");
+        Instances data=FastDataLoader.loadData(f);
+        assertArrayEquals(new double[]{0.5,1.5,2.5,0},data.instance(0).toDoubleArray(),0);
+        assertArrayEquals(new double[]{3,4,5,1},data.instance(1).toDoubleArray(),0);
+    }
+
+    @Test(expected=IOException.class)
+    public void csvIsRejected() throws Exception{
+        File f=folder.newFile("data.csv");
+        write(f,"a,b,class\n1,2,x\n");
+        FastDataLoader.loadData(f);
+    }
+
+    @Test
+    public void cacheMatchesParsedFile() throws Exception{
+        File f=writeArff("cached.arff",SeededData.sines(20,30,2,3),new Random(3));
+        Instances expected=loadWithWeka(f);
+        assertSame(expected,FastDataLoader.loadData(f,true,1));
+        File cache=FastDataLoader.cacheFile(f);
+        assertTrue(cache.exists());
+        assertSame(expected,FastDataLoader.loadData(f,true,1));
+        //a changed source is parsed again, not read from the stale cache
+        File changed=writeArff("cached.arff",SeededData.sines(10,30,2,4),new Random(4));
+        assertTrue(changed.setLastModified(cache.lastModified()+5000));
+        assertSame(loadWithWeka(changed),FastDataLoader.loadData(changed,true,1));
+    }
+
+    /** The cache holds no weights, so weighted data is loaded by Weka every time */
+    @Test
+    public void weightedArffIsNotCached() throws Exception{
+        File f=folder.newFile("weighted.arff");
+        write(f,"@relation w\n@attribute a numeric\n@attribute c {x,y}\n@data\n1.5,x,{0.5}\n2,y {3}\n-1,x\n");
+        Instances expected=loadWithWeka(f);
+        assertEquals(0.5,expected.instance(0).weight(),0);
+        for(int i=0;i<2;i++){
+            Instances data=FastDataLoader.loadData(f,true,1);
+            assertSame(expected,data);
+            for(int j=0;j<expected.numInstances();j++)
+                assertEquals(expected.instance(j).weight(),data.instance(j).weight(),0);
+        }
+        assertFalse(FastDataLoader.cacheFile(f).exists());
+    }
+
+    private static void assertSame(Instances expected, Instances actual){
+        assertNull(expected.equalHeadersMsg(actual));
+        assertEquals(expected.numInstances(),actual.numInstances());
+        for(int i=0;i<expected.numInstances();i++){
+            double[] e=expected.instance(i).toDoubleArray();
+            double[] a=actual.instance(i).toDoubleArray();
+            for(int j=0;j<e.length;j++)
+                assertEquals("instance "+i+" attribute "+j,Double.doubleToLongBits(e[j]),Double.doubleToLongBits(a[j]));
+        }
+    }
+
+    private static Instances loadWithWeka(File f) throws IOException{
+        try(BufferedReader reader=new BufferedReader(new FileReader(f))){
+            return new Instances(reader);
+        }
+    }
+
+    /** Writes data with the values in assorted formats, some missing */
+    private File writeArff(String name, Instances data, Random r) throws IOException{
+        StringBuilder sb=new StringBuilder(new Instances(data,0).toString());
+        sb.append('\n');
+        for(int i=0;i<data.numInstances();i++){
+            if(i%10==0)
+                sb.append("% comment\n\n");
+            double[] v=data.instance(i).toDoubleArray();
+            for(int j=0;j<v.length;j++){
+                if(j>0)
+                    sb.append(r.nextInt(4)==0?" , ":",");
+                if(j==data.classIndex())
+                    sb.append(r.nextBoolean()?"'"+data.classAttribute().value((int)v[j])+"'":data.classAttribute().value((int)v[j]));
+                else if(r.nextInt(50)==0)
+                    sb.append('?');
+                else{
+                    switch(r.nextInt(4)){
+                        case 0: sb.append(v[j]); break;
+                        case 1: sb.append(String.format(Locale.ROOT,"%.4f",v[j])); break;
+                        case 2: sb.append(String.format(Locale.ROOT,"%.6e",v[j])); break;
+                        default: sb.append(String.format(Locale.ROOT,"%.17g",v[j]));
+                    }
+                }
+            }
+            sb.append(i%2==0?"\n":"\r\n");
+        }
+        File f=new File(folder.getRoot(),name);
+        write(f,sb.toString());
+        return f;
+    }
+
+    private static void write(File f, String s) throws IOException{
+        Files.write(f.toPath(),s.getBytes(StandardCharsets.UTF_8));
+    }
+}
@@ -0,0 +1,207 @@
+/*
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package timeseriesweka.classifiers;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.junit.Test;
+import static org.junit.Assert.*;
+import timeseriesweka.classifiers.BOSS.BOSSIndividual;
+import timeseriesweka.classifiers.BOSS.BOSSIndividual.Bag;
+import utilities.BitWord;
+import utilities.SeededData;
+import weka.classifiers.Classifier;
+import weka.classifiers.trees.J48;
+import weka.core.Instances;
+import weka.core.Utils;
+
+/**
+ * The BOSS transform and ensemble against the paths they replaced: the DFT 
+ * with Math.cos/Math.sin per term rather than the twiddle tables, bags held
+ * as HashMap<BitWord,Integer> rather than sorted arrays, and members built 
+ * one at a time rather than concurrently.
+ */
+public class BOSSTest {
+
+    @Test
+    public void dftMatchesDirectTrig(){
+        Random r=new Random(40);
+        for(boolean norm:new boolean[]{true,false}){
+            for(int wordLength:new int[]{8,16}){
+                BOSSIndividual boss=new BOSSIndividual(wordLength,4,20,norm);
+                for(int rep=0;rep<10;rep++){
+                    double[] series=SeededData.randomWalk(20,r);
+                    assertArrayEquals(oldDFT(series,wordLength,norm,1.0/Math.sqrt(20),boss.stdDev(series)),boss.DFT(series),0);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void bagsMatchHashMapBags() throws Exception{
+        Instances train=SeededData.sines(20,80,2,41);
+        Instances test=SeededData.sines(10,80,2,42);
+        for(boolean norm:new boolean[]{true,false}){
+            BOSSIndividual boss=new BOSSIndividual(16,4,24,norm);
+            boss.buildClassifier(train);
+            for(int i=0;i<test.numInstances();i++){
+                BitWord[] words=boss.createSFAwords(test.instance(i));
+                assertBagEquals(oldBag(words,0),boss.BOSSTransform(test.instance(i)));
+            }
+            for(int wordLength:new int[]{14,10,8}){
+                BOSSIndividual shortened=boss.buildShortenedBags(wordLength);
+                for(int i=0;i<train.numInstances();i++)
+                    assertBagEquals(oldBag(boss.SFAwords[i],16-wordLength),shortened.bags.get(i));
+            }
+        }
+    }
+
+    @Test
+    public void distanceMatchesHashMapDistance() throws Exception{
+        Instances train=SeededData.sines(20,80,2,43);
+        BOSSIndividual boss=new BOSSIndividual(10,4,30,true);
+        boss.buildClassifier(train);
+        for(int i=0;i<train.numInstances();i++){
+            Map<BitWord,Integer> a=oldBag(boss.SFAwords[i],0);
+            for(int j=0;j<train.numInstances();j++){
+                Map<BitWord,Integer> b=oldBag(boss.SFAwords[j],0);
+                double expected=oldDistance(a,b);
+                assertEquals(expected,boss.BOSSdistance(boss.bags.get(i),boss.bags.get(j),Double.MAX_VALUE),0);
+                double d=boss.BOSSdistance(boss.bags.get(i),boss.bags.get(j),expected/2);
+                assertTrue(expected==0 ? d==0 : d==Double.MAX_VALUE);
+            }
+        }
+    }
+
+    @Test
+    public void ensemblesSameForAnyThreadCount() throws Exception{
+        Instances train=SeededData.sines(30,60,3,44);
+        Instances test=SeededData.sines(20,60,3,45);
+        for(int mode=0;mode<3;mode++){
+            double[][] serial=ensembleDistributions(mode,1,train,test);
+            double[][] parallel=ensembleDistributions(mode,3,train,test);
+            for(int i=0;i<serial.length;i++)
+                assertArrayEquals(serial[i],parallel[i],0);
+        }
+    }
+
+    /**
+     * With a contract far shorter than one member build, only the first member of
+     * the first batch is kept, however many threads build the batch
+     */
+    @Test
+    public void membersFinishedAfterTheContractAreDropped() throws Exception{
+        Instances train=SeededData.sines(200,800,3,46);
+        for(int threads:new int[]{1,4}){
+            BOSS boss=new BOSS();
+            boss.setSeed(1);
+            boss.setNumThreads(threads);
+            boss.setTimeLimit(TimeUnit.MILLISECONDS.toNanos(50));
+            boss.buildClassifier(train);
+            assertEquals(1,boss.getParameters().split(",windowSize,",-1).length-1);
+        }
+    }
+
+    @Test
+    public void alternateClassifierCopiesKeepOptions() throws Exception{
+        J48 tree=new J48();
+        tree.setOptions(Utils.splitOptions("-C 0.1 -M 5"));
+        BOSS boss=new BOSS();
+        boss.setAlternateIndividualClassifier(tree);
+        Classifier copy=boss.copyClassifier();
+        assertNotSame(tree,copy);
+        assertArrayEquals(tree.getOptions(),((J48)copy).getOptions());
+    }
+
+    private static double[][] ensembleDistributions(int mode, int numThreads, Instances train, Instances test) throws Exception{
+        BOSS boss=new BOSS();
+        boss.setSeed(1);
+        boss.setNumThreads(numThreads);
+        if(mode==1){
+            boss.setRandomEnsembleSelection(true);
+            boss.setEnsembleSize(10);
+        }
+        else if(mode==2){
+            boss.useCAWPE(true);
+            boss.setEnsembleSize(6);
+        }
+        boss.buildClassifier(train);
+        double[][] dists=new double[test.numInstances()][];
+        for(int i=0;i<dists.length;i++)
+            dists[i]=boss.distributionForInstance(test.instance(i));
+        return dists;
+    }
+
+    private static void assertBagEquals(Map<BitWord,Integer> expected, Bag bag){
+        assertEquals(expected.size(),bag.size());
+        for(Map.Entry<BitWord,Integer> e:expected.entrySet())
+            assertEquals((int)e.getValue(),bag.get(e.getKey().getWord()));
+        for(int i=1;i<bag.size();i++)
+            assertTrue(bag.getWord(i-1)<bag.getWord(i));
+    }
+
+    /** createBagSingle/createBagFromWords as they were, with numerosity reduction */
+    private static Map<BitWord,Integer> oldBag(BitWord[] words, int shortenBy){
+        Map<BitWord,Integer> bag=new HashMap<>();
+        BitWord lastWord=new BitWord();
+        for(BitWord w:words){
+            BitWord word=new BitWord(w);
+            if(shortenBy>0)
+                word.shorten(shortenBy);
+            if(word.equals(lastWord))
+                continue;
+            Integer val=bag.get(word);
+            if(val==null)
+                val=0;
+            bag.put(word,++val);
+            lastWord=word;
+        }
+        return bag;
+    }
+
+    private static double oldDistance(Map<BitWord,Integer> instA, Map<BitWord,Integer> instB){
+        double dist=0.0;
+        for(Map.Entry<BitWord,Integer> entry:instA.entrySet()){
+            Integer valA=entry.getValue();
+            Integer valB=instB.get(entry.getKey());
+            if(valB==null)
+                valB=0;
+            dist+=(valA-valB)*(valA-valB);
+        }
+        return dist;
+    }
+
+    /** BOSSIndividual.DFT as it was, calling Math.cos and Math.sin for every term */
+    private static double[] oldDFT(double[] series, int wordLength, boolean norm, double inverseSqrtWindowSize, double stdDev){
+        int n=series.length;
+        int outputLength=wordLength/2;
+        int start=(norm ? 1 : 0);
+        double normalisingFactor=inverseSqrtWindowSize/stdDev;
+        double[] dft=new double[outputLength*2];
+        for(int k=start;k<start+outputLength;k++){
+            float sumreal=0;
+            float sumimag=0;
+            for(int t=0;t<n;t++){
+                sumreal+=series[t]*Math.cos(2*Math.PI*t*k/n);
+                sumimag+=-series[t]*Math.sin(2*Math.PI*t*k/n);
+            }
+            dft[(k-start)*2]=sumreal*normalisingFactor;
+            dft[(k-start)*2+1]=sumimag*normalisingFactor;
+        }
+        return dft;
+    }
+}
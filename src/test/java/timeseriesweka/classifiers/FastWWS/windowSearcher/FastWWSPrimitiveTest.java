@@ -0,0 +1,194 @@
+/*
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package timeseriesweka.classifiers.FastWWS.windowSearcher;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import org.junit.Assume;
+import org.junit.Test;
+import static org.junit.Assert.*;
+import utilities.SeededData;
+import weka.core.Instances;
+
+/**
+ * The primitive search against an exhaustive leave one out search over every
+ * window, and against FastWWSByPercent, the search it replaced, when the heap
+ * is big enough for the static matrices of SymbolicSequence.
+ */
+public class FastWWSPrimitiveTest {
+
+    @Test
+    public void findsTheWindowOfAnExhaustiveSearch() throws Exception{
+        for(long seed=0;seed<3;seed++){
+            Instances train=SeededData.sines(30,40+10*(int)seed,3,seed);
+            Instances test=SeededData.sines(20,40+10*(int)seed,3,seed+10);
+            FastWWSPrimitive fast=new FastWWSPrimitive();
+            fast.buildClassifier(train);
+
+            double[][] series=new double[train.numInstances()][];
+            for(int i=0;i<series.length;i++)
+                series[i]=SeededData.series(train,i);
+            int bestPercent=-1;
+            double bestScore=1;
+            for(int percent=100;percent>=0;percent--){
+                int w=fast.percentToLength(percent);
+                int errors=0;
+                for(int i=0;i<series.length;i++){
+                    int nn=nearest(series,series[i],i,w);
+                    if(train.instance(nn).classValue()!=train.instance(i).classValue())
+                        errors++;
+                }
+                double score=1.0*errors/series.length;
+                if(score<=bestScore){
+                    bestScore=score;
+                    bestPercent=percent;
+                }
+            }
+            assertEquals(bestPercent,fast.getBestPercent());
+            assertEquals(bestScore,fast.getBestScore(),0);
+            assertEquals(fast.percentToLength(bestPercent),fast.getBestWin());
+            for(int i=0;i<test.numInstances();i++){
+                int nn=nearest(series,SeededData.series(test,i),-1,fast.getBestWin());
+                assertEquals(train.instance(nn).classValue(),fast.classifyInstance(test.instance(i)),0);
+            }
+        }
+    }
+
+    /**
+     * SymbolicSequence allocates its matrices (about 1.8GB) when first used, so
+     * this only runs in a large heap
+     */
+    @Test
+    public void matchesFastWWSByPercent() throws Exception{
+        Assume.assumeTrue(Runtime.getRuntime().maxMemory()>(3L<<30));
+        Instances train=SeededData.sines(40,60,3,4);
+        Instances test=SeededData.sines(30,60,3,5);
+        FastWWSByPercent old=new FastWWSByPercent();
+        FastWWSPrimitive fast=new FastWWSPrimitive();
+        old.buildClassifier(train);
+        fast.buildClassifier(train);
+        assertEquals(old.getBestWin(),fast.getBestWin());
+        assertEquals(old.getBestPercent(),fast.getBestPercent());
+        assertEquals(old.getBestScore(),fast.getBestScore(),0);
+        for(int i=0;i<test.numInstances();i++)
+            assertEquals(old.classifyInstance(test.instance(i)),fast.classifyInstance(test.instance(i)),0);
+    }
+
+    @Test
+    public void concurrentSearchesMatchSerial() throws Exception{
+        List<Instances> problems=new ArrayList<>();
+        for(int p=0;p<3;p++)
+            problems.add(SeededData.sines(25,30+20*p,2,20+p));
+        int[] windows=new int[problems.size()];
+        double[] scores=new double[problems.size()];
+        for(int p=0;p<problems.size();p++){
+            FastWWSPrimitive fast=new FastWWSPrimitive();
+            fast.buildClassifier(problems.get(p));
+            windows[p]=fast.getBestWin();
+            scores[p]=fast.getBestScore();
+        }
+        ExecutorService executor=Executors.newFixedThreadPool(problems.size());
+        try{
+            List<Future<FastWWSPrimitive>> futures=new ArrayList<>();
+            for(Instances data:problems){
+                futures.add(executor.submit(()->{
+                    FastWWSPrimitive fast=new FastWWSPrimitive();
+                    fast.buildClassifier(data);
+                    return fast;
+                }));
+            }
+            for(int p=0;p<problems.size();p++){
+                assertEquals(windows[p],futures.get(p).get().getBestWin());
+                assertEquals(scores[p],futures.get(p).get().getBestScore(),0);
+            }
+        }finally{
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void printsOnlyInDebugMode() throws Exception{
+        Instances train=SeededData.sines(10,20,2,30);
+        PrintStream stdout=System.out;
+        ByteArrayOutputStream captured=new ByteArrayOutputStream();
+        System.setOut(new PrintStream(captured,true));
+        try{
+            new FastWWSPrimitive().buildClassifier(train);
+            assertEquals(0,captured.size());
+            FastWWSPrimitive debug=new FastWWSPrimitive();
+            debug.setDebug(true);
+            debug.buildClassifier(train);
+            assertTrue(captured.size()>0);
+        }finally{
+            System.setOut(stdout);
+        }
+    }
+
+    @Test
+    public void datasetNameBelongsToEachSearcher(){
+        FastWWSPrimitive first=new FastWWSPrimitive("first");
+        FastWWSPrimitive second=new FastWWSPrimitive("second");
+        assertEquals("first",first.datasetName);
+        assertEquals("second",second.datasetName);
+    }
+
+    //index of the nearest series to query under DTW with window w, skipping series exclude
+    private static int nearest(double[][] series, double[] query, int exclude, int w){
+        int best=-1;
+        double bestD=Double.POSITIVE_INFINITY;
+        for(int j=0;j<series.length;j++){
+            if(j==exclude)
+                continue;
+            double d=dtw(query,series[j],w);
+            if(d<bestD){
+                bestD=d;
+                best=j;
+            }
+        }
+        return best;
+    }
+
+    //full matrix DTW on squared differences, |i-j|<=w
+    private static double dtw(double[] a, double[] b, int w){
+        double[][] m=new double[a.length][b.length];
+        for(int i=0;i<a.length;i++){
+            for(int j=0;j<b.length;j++){
+                if(Math.abs(i-j)>w){
+                    m[i][j]=Double.POSITIVE_INFINITY;
+                    continue;
+                }
+                double cost=(a[i]-b[j])*(a[i]-b[j]);
+                if(i==0 && j==0)
+                    m[i][j]=cost;
+                else{
+                    double min=Double.POSITIVE_INFINITY;
+                    if(i>0)
+                        min=Math.min(min,m[i-1][j]);
+                    if(j>0)
+                        min=Math.min(min,m[i][j-1]);
+                    if(i>0 && j>0)
+                        min=Math.min(min,m[i-1][j-1]);
+                    m[i][j]=min+cost;
+                }
+            }
+        }
+        return m[a.length-1][b.length-1];
+    }
+}
@@ -0,0 +1,119 @@
+/*
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package timeseriesweka.classifiers;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import org.junit.Test;
+import static org.junit.Assert.*;
+import utilities.SeededData;
+import weka.classifiers.Classifier;
+import weka.classifiers.bayes.NaiveBayes;
+import weka.classifiers.lazy.kNN;
+import weka.core.Instances;
+
+/**
+ * The split of the contract between the modules, and the time passed on or 
+ * charged to the contracted modules that start after others finish. Batch
+ * scoring against one instance at a time.
+ */
+public class HiveCoteTest {
+
+    private static final double[] COSTS={1,1,2};
+    private static final boolean[] CONTRACTED={false,true,true};
+
+    @Test
+    public void contractSplitByCost(){
+        HiveCote.ModuleBudget budget=new HiveCote.ModuleBudget(100,COSTS,CONTRACTED);
+        //all started at once, nothing to pass on
+        assertEquals(25,budget.start(1));
+        assertEquals(50,budget.start(2));
+    }
+
+    @Test
+    public void unusedTimeGoesToLaterModules(){
+        HiveCote.ModuleBudget budget=new HiveCote.ModuleBudget(100,COSTS,CONTRACTED);
+        budget.finish(0,15);
+        assertEquals(25+3,budget.start(1));
+        assertEquals(50+7,budget.start(2));
+    }
+
+    @Test
+    public void overrunsAreChargedToLaterModules(){
+        HiveCote.ModuleBudget budget=new HiveCote.ModuleBudget(100,COSTS,CONTRACTED);
+        budget.finish(0,40);
+        assertEquals(25-5,budget.start(1));
+        budget.finish(1,30);
+        //the 15 overrun by module 0 less the 5 already charged, and the 10 overrun by module 1
+        assertEquals(50-20,budget.start(2));
+    }
+
+    @Test
+    public void overrunsBeyondAShareAreCarriedOn(){
+        HiveCote.ModuleBudget budget=new HiveCote.ModuleBudget(100,COSTS,CONTRACTED);
+        budget.finish(0,85);
+        //60 over, charged to modules 1 and 2 by cost
+        assertEquals(5,budget.start(1));
+        budget.finish(1,5);
+        assertEquals(10,budget.start(2));
+        budget=new HiveCote.ModuleBudget(100,COSTS,CONTRACTED);
+        budget.finish(0,200);
+        //more than module 1 has, the rest is left for module 2
+        assertEquals(0,budget.start(1));
+        assertEquals(0,budget.start(2));
+    }
+
+    @Test
+    public void batchMatchesDistributionForInstance() throws Exception{
+        Instances train=SeededData.sines(30,40,3,31);
+        Instances test=SeededData.sines(20,40,3,32);
+        for(int threads:new int[]{1,3}){
+            HiveCote hive=smallHive();
+            hive.setNumThreads(threads);
+            hive.buildClassifier(train);
+            double[][] batch=hive.distributionsForInstances(test);
+            assertEquals(test.numInstances(),batch.length);
+            for(int i=0;i<test.numInstances();i++)
+                assertArrayEquals(hive.distributionForInstance(test.instance(i)),batch[i],1e-12);
+        }
+    }
+
+    @Test
+    public void changedTestSetIsPredictedAgain() throws Exception{
+        Instances train=SeededData.sines(30,40,3,33);
+        Instances test=SeededData.sines(20,40,3,34);
+        HiveCote hive=smallHive();
+        hive.buildClassifier(train);
+        double[][][] first=hive.cachedModuleDistributions(test);
+        assertSame(first,hive.cachedModuleDistributions(test));
+        Instances other=SeededData.sines(20,40,3,35);
+        for(int i=0;i<test.numInstances();i++)
+            test.set(i,other.instance(i));
+        double[][][] again=hive.cachedModuleDistributions(test);
+        assertNotSame(first,again);
+        for(int m=0;m<again.length;m++)
+            for(int i=0;i<test.numInstances();i++)
+                assertArrayEquals(hive.moduleDistributions(other)[m][i],again[m][i],0);
+    }
+
+    private static HiveCote smallHive(){
+        RISE rise=new RISE(0);
+        rise.setNumClassifiers(20);
+        HiveCote hive=new HiveCote(new ArrayList<Classifier>(Arrays.asList(new kNN(1),new NaiveBayes(),rise)),new ArrayList<>(Arrays.asList("1NN","NB","RISE")));
+        hive.setContract(false);
+        hive.setMaxCvFolds(3);
+        return hive;
+    }
+}
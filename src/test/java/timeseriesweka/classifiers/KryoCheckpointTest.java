@@ -0,0 +1,93 @@
+/*
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package timeseriesweka.classifiers;
+
+import com.esotericsoftware.kryo.kryo5.Kryo;
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.List;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import static org.junit.Assert.*;
+import utilities.SeededData;
+import weka.classifiers.trees.J48;
+import weka.core.Instances;
+
+/**
+ * Kryo checkpoints read back to classifiers that predict as the originals did,
+ * including with the Kryo 2 bundled in the xgboost jar first on the classpath.
+ */
+public class KryoCheckpointTest {
+
+    private static final String XGBOOST_JAR="lib/xgboost4j-0.8-SNAPSHOT-jar-with-dependencies.jar";
+
+    @Rule
+    public TemporaryFolder folder=new TemporaryFolder();
+
+    @Test
+    public void savedClassifierPredictsTheSame() throws Exception{
+        Instances train=SeededData.sines(30,40,3,1);
+        Instances test=SeededData.sines(20,40,3,2);
+        J48 tree=new J48();
+        tree.buildClassifier(train);
+        String path=new File(folder.getRoot(),"tree.ser").getPath();
+        KryoCheckpoint.save(tree,path);
+        J48 loaded=(J48)KryoCheckpoint.load(path);
+        for(int i=0;i<test.numInstances();i++)
+            assertArrayEquals(tree.distributionForInstance(test.instance(i)),loaded.distributionForInstance(test.instance(i)),0);
+    }
+
+    @Test
+    public void appendedRecordsReadBackInOrder() throws Exception{
+        String path=new File(folder.getRoot(),"members.ser").getPath();
+        for(int i=0;i<5;i++)
+            KryoCheckpoint.appendAsync(new double[]{i,i*i},path);
+        KryoCheckpoint.awaitWrites();
+        List<Object> records=KryoCheckpoint.loadAppended(path);
+        assertEquals(5,records.size());
+        for(int i=0;i<5;i++)
+            assertArrayEquals(new double[]{i,i*i},(double[])records.get(i),0);
+        //a record cut short by a crash is dropped
+        try(RandomAccessFile f=new RandomAccessFile(path,"rw")){
+            f.setLength(f.length()-3);
+        }
+        assertEquals(4,KryoCheckpoint.loadAppended(path).size());
+    }
+
+    @Test
+    public void worksWithTheXgboostJarFirst() throws Exception{
+        File xgboost=new File(XGBOOST_JAR);
+        if(!xgboost.exists())
+            return;
+        URL[] urls={
+            xgboost.toURI().toURL(),
+            location(Kryo.class),
+            location(KryoCheckpoint.class)
+        };
+        try(URLClassLoader loader=new URLClassLoader(urls,null)){
+            Class<?> c=loader.loadClass(KryoCheckpoint.class.getName());
+            Object bytes=c.getMethod("toBytes",Object.class).invoke(null,new double[]{1,2,3});
+            Object back=c.getMethod("fromBytes",byte[].class).invoke(null,bytes);
+            assertArrayEquals(new double[]{1,2,3},(double[])back,0);
+        }
+    }
+
+    private static URL location(Class<?> c){
+        return c.getProtectionDomain().getCodeSource().getLocation();
+    }
+}
@@ -0,0 +1,199 @@
+/*
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package timeseriesweka.classifiers;
+
+import java.util.ArrayList;
+import java.util.Random;
+import org.junit.Test;
+import static org.junit.Assert.*;
+import timeseriesweka.filters.ACF;
+import timeseriesweka.filters.PowerSpectrum;
+import utilities.SeededData;
+import weka.classifiers.trees.RandomTree;
+import weka.core.Attribute;
+import weka.core.DenseInstance;
+import weka.core.Instances;
+
+/**
+ * RISE, transforming series one at a time on primitive arrays, against a copy
+ * of the build and prediction it replaced, which ran the ACF and power 
+ * spectrum filters over Instances of each interval.
+ */
+public class RISETest {
+
+    private static final int NUM_TREES=20;
+    private static final int SEED=3;
+
+    @Test
+    public void matchesFilterTransforms() throws Exception{
+        Instances train=SeededData.sines(30,64,3,1);
+        Instances test=SeededData.sines(25,64,3,2);
+        for(RISE.TransformType type:new RISE.TransformType[]{RISE.TransformType.ACF_PS,RISE.TransformType.ACF,RISE.TransformType.PS}){
+            double[][] expected=filterRise(train,test,type);
+            RISE rise=new RISE(SEED);
+            rise.setNumClassifiers(NUM_TREES);
+            rise.setTransformType(type);
+            rise.buildClassifier(train);
+            for(int i=0;i<test.numInstances();i++)
+                assertArrayEquals(type.toString(),expected[i],rise.distributionForInstance(test.instance(i)),0);
+        }
+    }
+
+    @Test
+    public void batchMatchesSingleForAnyThreadCount() throws Exception{
+        Instances train=SeededData.sines(30,50,2,3);
+        Instances test=SeededData.sines(41,50,2,4);
+        for(RISE.TransformType type:RISE.TransformType.values()){
+            RISE rise=new RISE(SEED);
+            rise.setNumClassifiers(NUM_TREES);
+            rise.setTransformType(type);
+            rise.buildClassifier(train);
+            for(int threads:new int[]{1,3}){
+                rise.setNumThreads(threads);
+                double[][] batch=rise.distributionsForInstances(test);
+                assertEquals(test.numInstances(),batch.length);
+                for(int i=0;i<test.numInstances();i++)
+                    assertArrayEquals(type.toString(),rise.distributionForInstance(test.instance(i)),batch[i],0);
+            }
+        }
+    }
+
+    /**
+     * distributionForInstance reads the series around the class, wherever it is
+     */
+    @Test
+    public void classPositionDoesNotChangePredictions() throws Exception{
+        Instances train=SeededData.sines(30,40,3,5);
+        Instances test=SeededData.sines(20,40,3,6);
+        Instances trainFirst=SeededData.classFirst(train);
+        Instances testFirst=SeededData.classFirst(test);
+        for(RISE.TransformType type:RISE.TransformType.values()){
+            RISE last=new RISE(SEED);
+            RISE first=new RISE(SEED);
+            for(RISE r:new RISE[]{last,first}){
+                r.setNumClassifiers(NUM_TREES);
+                r.setTransformType(type);
+            }
+            last.buildClassifier(train);
+            first.buildClassifier(trainFirst);
+            double[][] batch=first.distributionsForInstances(testFirst);
+            for(int i=0;i<test.numInstances();i++){
+                double[] expected=last.distributionForInstance(test.instance(i));
+                assertArrayEquals(type.toString(),expected,first.distributionForInstance(testFirst.instance(i)),0);
+                assertArrayEquals(type.toString(),expected,batch[i],0);
+            }
+        }
+    }
+
+    /**
+     * Batch scoring reads all the test series from one array, so a series 
+     * shorter than the intervals must be refused rather than read into the next
+     */
+    @Test
+    public void shorterTestSeriesAreRejected() throws Exception{
+        Instances train=SeededData.sines(30,40,2,7);
+        Instances test=SeededData.sines(10,30,2,8);
+        RISE rise=new RISE(SEED);
+        rise.setNumClassifiers(NUM_TREES);
+        rise.buildClassifier(train);
+        try{
+            rise.distributionsForInstances(test);
+            fail("series of length 30 scored by intervals of series of length 40");
+        }catch(Exception e){
+            assertTrue(e.getMessage(),e.getMessage().contains("as long as the training series"));
+        }
+    }
+
+    /**
+     * The pre-batch RISE: the same interval draws, each interval formed as 
+     * Instances and run through ACF.formChangeCombo and PowerSpectrum, for 
+     * training and for every test series
+     */
+    private static double[][] filterRise(Instances train, Instances test, RISE.TransformType type) throws Exception{
+        Random rand=new Random();
+        rand.setSeed(SEED);
+        int m=train.numAttributes()-1;
+        int minInterval=16;
+        int[] startPoints=new int[NUM_TREES];
+        int[] endPoints=new int[NUM_TREES];
+        RandomTree[] trees=new RandomTree[NUM_TREES];
+        for(int i=0;i<NUM_TREES;i++){
+            if(i==0){
+                startPoints[i]=0;
+                endPoints[i]=m-1;
+            }
+            else{
+                startPoints[i]=rand.nextInt(m-minInterval);
+                if(startPoints[i]==m-1-minInterval) 
+                    endPoints[i]=m-1;
+                else{    
+                    endPoints[i]=rand.nextInt(m-startPoints[i]);
+                    if(endPoints[i]<minInterval)
+                        endPoints[i]=minInterval;
+                    endPoints[i]+=startPoints[i];
+                }
+            }
+            int numFeatures=endPoints[i]-startPoints[i]+1;
+            trees[i]=new RandomTree();
+            trees[i].setKValue(numFeatures);
+            trees[i].buildClassifier(transform(interval(train,startPoints[i],numFeatures),type));
+        }
+        double[][] votes=new double[test.numInstances()][test.numClasses()];
+        for(int i=0;i<NUM_TREES;i++){
+            int numFeatures=endPoints[i]-startPoints[i]+1;
+            Instances transformed=transform(interval(test,startPoints[i],numFeatures),type);
+            for(int j=0;j<test.numInstances();j++)
+                votes[j][(int)trees[i].classifyInstance(transformed.instance(j))]++;
+        }
+        for(double[] v:votes)
+            for(int c=0;c<v.length;c++)
+                v[c]/=NUM_TREES;
+        return votes;
+    }
+
+    private static Instances interval(Instances data, int start, int numFeatures){
+        ArrayList<Attribute> atts=new ArrayList<>();
+        for(int j=0;j<numFeatures;j++)
+            atts.add(new Attribute("F"+j));
+        atts.add((Attribute)data.classAttribute().copy());
+        Instances result=new Instances("Tree",atts,data.numInstances());
+        result.setClassIndex(result.numAttributes()-1);
+        for(int j=0;j<data.numInstances();j++){
+            double[] v=new double[numFeatures+1];
+            for(int k=0;k<numFeatures;k++)
+                v[k]=data.instance(j).value(start+k);
+            v[numFeatures]=data.instance(j).classValue();
+            result.add(new DenseInstance(1,v));
+        }
+        return result;
+    }
+
+    private static Instances transform(Instances data, RISE.TransformType type) throws Exception{
+        switch(type){
+            case ACF:
+                return ACF.formChangeCombo(data);
+            case PS:
+                return new PowerSpectrum().process(data);
+            default:
+                Instances combo=ACF.formChangeCombo(data);
+                Instances ps=new PowerSpectrum().process(data);
+                combo.setClassIndex(-1);
+                combo.deleteAttributeAt(combo.numAttributes()-1); 
+                combo=Instances.mergeInstances(combo,ps);
+                combo.setClassIndex(combo.numAttributes()-1);
+                return combo;
+        }
+    }
+}
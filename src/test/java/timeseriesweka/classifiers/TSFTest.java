@@ -0,0 +1,181 @@
+/*
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package timeseriesweka.classifiers;
+
+import java.util.ArrayList;
+import java.util.Random;
+import org.junit.Test;
+import static org.junit.Assert.*;
+import utilities.SeededData;
+import weka.classifiers.AbstractClassifier;
+import weka.classifiers.Classifier;
+import weka.classifiers.trees.RandomTree;
+import weka.core.Attribute;
+import weka.core.DenseInstance;
+import weka.core.Instances;
+
+/**
+ * The interval features from cumulative sums (IntervalSums) against the 
+ * rescan of each interval they replaced, and the forest against a copy of 
+ * the old, rescanning, single threaded build.
+ */
+public class TSFTest {
+
+    @Test
+    public void intervalSumsMatchRescan(){
+        Random r=new Random(0);
+        for(int rep=0;rep<40;rep++){
+            int n=10+r.nextInt(100);
+            double[] series=SeededData.randomWalk(n,r);
+            //rounded, so with ties and intervals of no slope, flat runs and large offsets
+            if(rep%4==1)
+                for(int i=0;i<n;i++)
+                    series[i]=Math.round(series[i]);
+            if(rep%4==2)
+                for(int i=n/3;i<n/2;i++)
+                    series[i]=3.7;
+            if(rep%4==3)
+                for(int i=0;i<n;i++)
+                    series[i]=1e6+(i>n/2?0.5:Math.round(series[i]));
+            TSF.IntervalSums sums=new TSF.IntervalSums(series,n);
+            TSF.FeatureSet rescan=new TSF.FeatureSet();
+            TSF.FeatureSet fromSums=new TSF.FeatureSet();
+            for(int start=0;start<n;start++){
+                for(int end=start+2;end<n;end++){
+                    rescan.setFeatures(series,start,end);
+                    fromSums.setFeatures(sums,start,end);
+                    double scale=1+Math.abs(rescan.mean);
+                    assertEquals(rescan.mean,fromSums.mean,1e-12*scale);
+                    if(rep%4==1)    //whole numbers, the sums are exact
+                        assertEquals(rescan.mean,fromSums.mean,0);
+                    assertEquals(rescan.stDev,fromSums.stDev,1e-9*scale*scale);
+                    assertEquals(rescan.slope,fromSums.slope,1e-9*scale);
+                    //the flat line checks must fire exactly as before
+                    assertEquals(rescan.stDev==0,fromSums.stDev==0);
+                    assertEquals(rescan.slope==0,fromSums.slope==0);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void offsetSeriesMatchesRescan(){
+        Random r=new Random(1);
+        double[] data=new double[60];
+        for(int i=0;i<data.length;i++)
+            data[i]=r.nextGaussian();
+        //the same series read at an offset into a larger array
+        double[] padded=new double[data.length+25];
+        System.arraycopy(data,0,padded,25,data.length);
+        TSF.IntervalSums sums=new TSF.IntervalSums(padded,25,data.length);
+        TSF.FeatureSet rescan=new TSF.FeatureSet();
+        TSF.FeatureSet fromSums=new TSF.FeatureSet();
+        for(int start=0;start<data.length-2;start+=3){
+            rescan.setFeatures(data,start,data.length-1);
+            fromSums.setFeatures(sums,start,data.length-1);
+            assertEquals(rescan.mean,fromSums.mean,1e-12);
+            assertEquals(rescan.stDev,fromSums.stDev,1e-12);
+            assertEquals(rescan.slope,fromSums.slope,1e-12);
+        }
+    }
+
+    @Test
+    public void forestMatchesRescanningBuild() throws Exception{
+        for(boolean rounded:new boolean[]{false,true}){
+            Instances train=SeededData.sines(30,60,3,5,rounded);
+            Instances test=SeededData.sines(20,60,3,6,rounded);
+            double[][] expected=rescanForest(train,test,7,30);
+            for(int threads:new int[]{1,3}){
+                TSF tsf=new TSF(7);
+                tsf.setNumTrees(30);
+                tsf.setNumThreads(threads);
+                tsf.buildClassifier(train);
+                for(int i=0;i<test.numInstances();i++)
+                    assertArrayEquals(expected[i],tsf.distributionForInstance(test.instance(i)),0);
+            }
+        }
+    }
+
+    /**
+     * The build and voting TSF used before IntervalSums: intervals drawn tree by 
+     * tree from the seeded Random, each interval rescanned for each series
+     */
+    private static double[][] rescanForest(Instances train, Instances test, int seed, int numTrees) throws Exception{
+        Random rand=new Random(seed);
+        int m=train.numAttributes()-1;
+        int numIntervals=(int)Math.sqrt(m);
+        int minIntervalLength=3;
+        ArrayList<Attribute> atts=new ArrayList<>();
+        for(int j=0;j<numIntervals*3;j++)
+            atts.add(new Attribute("F"+j));
+        Attribute target=train.classAttribute();
+        ArrayList<String> vals=new ArrayList<>();
+        for(int j=0;j<target.numValues();j++)
+            vals.add(target.value(j));
+        atts.add(new Attribute(target.name(),vals));
+        RandomTree base=new RandomTree();
+        base.setKValue(numIntervals*3);
+
+        int[][][] intervals=new int[numTrees][numIntervals][2];
+        Classifier[] trees=new Classifier[numTrees];
+        TSF.FeatureSet f=new TSF.FeatureSet();
+        for(int i=0;i<numTrees;i++){
+            for(int j=0;j<numIntervals;j++){
+                intervals[i][j][0]=rand.nextInt(m-minIntervalLength);
+                int length=rand.nextInt(m-intervals[i][j][0]);
+                if(length<minIntervalLength)
+                    length=minIntervalLength;
+                intervals[i][j][1]=intervals[i][j][0]+length;
+            }
+            Instances result=new Instances("Tree",atts,train.numInstances());
+            result.setClassIndex(result.numAttributes()-1);
+            for(int k=0;k<train.numInstances();k++){
+                double[] series=train.instance(k).toDoubleArray();
+                double[] v=new double[result.numAttributes()];
+                for(int j=0;j<numIntervals;j++){
+                    f.setFeatures(series,intervals[i][j][0],intervals[i][j][1]);
+                    v[j*3]=f.mean;
+                    v[j*3+1]=f.stDev;
+                    v[j*3+2]=f.slope;
+                }
+                v[v.length-1]=train.instance(k).classValue();
+                result.add(new DenseInstance(1,v));
+            }
+            trees[i]=AbstractClassifier.makeCopy(base);
+            trees[i].buildClassifier(result);
+        }
+
+        Instances header=new Instances("Tree",atts,0);
+        header.setClassIndex(header.numAttributes()-1);
+        double[][] dists=new double[test.numInstances()][test.numClasses()];
+        for(int k=0;k<test.numInstances();k++){
+            double[] series=test.instance(k).toDoubleArray();
+            for(int i=0;i<numTrees;i++){
+                DenseInstance in=new DenseInstance(header.numAttributes());
+                in.setDataset(header);
+                for(int j=0;j<numIntervals;j++){
+                    f.setFeatures(series,intervals[i][j][0],intervals[i][j][1]);
+                    in.setValue(j*3,f.mean);
+                    in.setValue(j*3+1,f.stDev);
+                    in.setValue(j*3+2,f.slope);
+                }
+                dists[k][(int)trees[i].classifyInstance(in)]++;
+            }
+            for(int c=0;c<dists[k].length;c++)
+                dists[k][c]/=numTrees;
+        }
+        return dists;
+    }
+}
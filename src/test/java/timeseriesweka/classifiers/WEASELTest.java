@@ -0,0 +1,83 @@
+/*
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package timeseriesweka.classifiers;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import org.junit.Test;
+import static org.junit.Assert.*;
+import utilities.SeededData;
+import weka.core.Instances;
+
+/**
+ * The parallel build against the single threaded one: the candidate search,
+ * the liblinear folds and the final model must not depend on the number of
+ * threads, nor on other WEASELs training at the same time.
+ */
+public class WEASELTest {
+
+    @Test
+    public void predictionsDoNotDependOnThreads() throws Exception{
+        Instances train=SeededData.sines(30,60,3,11);
+        Instances test=SeededData.sines(20,60,3,12);
+        double[][] expected=distributions(build(train,1),test);
+        for(int threads:new int[]{2,4})
+            assertDistributionsEqual(expected,distributions(build(train,threads),test));
+    }
+
+    @Test
+    public void concurrentBuildsMatchSequential() throws Exception{
+        final Instances[] trains={SeededData.sines(30,60,3,13),SeededData.sines(24,50,2,14)};
+        final Instances test=SeededData.sines(10,60,3,15);
+        final Instances test2=SeededData.sines(10,50,2,16);
+        double[][] expected=distributions(build(trains[0],1),test);
+        double[][] expected2=distributions(build(trains[1],1),test2);
+        ExecutorService ex=Executors.newFixedThreadPool(4);
+        try{
+            Future<WEASEL> a=ex.submit(()->build(trains[0],2));
+            Future<WEASEL> b=ex.submit(()->build(trains[1],2));
+            Future<WEASEL> a2=ex.submit(()->build(trains[0],3));
+            Future<WEASEL> b2=ex.submit(()->build(trains[1],1));
+            assertDistributionsEqual(expected,distributions(a.get(),test));
+            assertDistributionsEqual(expected2,distributions(b.get(),test2));
+            assertDistributionsEqual(expected,distributions(a2.get(),test));
+            assertDistributionsEqual(expected2,distributions(b2.get(),test2));
+        }
+        finally{
+            ex.shutdown();
+        }
+    }
+
+    private static WEASEL build(Instances train, int threads) throws Exception{
+        WEASEL w=new WEASEL();
+        w.setNumThreads(threads);
+        w.buildClassifier(train);
+        return w;
+    }
+
+    private static double[][] distributions(WEASEL w, Instances test) throws Exception{
+        double[][] d=new double[test.numInstances()][];
+        for(int i=0;i<d.length;i++)
+            d[i]=w.distributionForInstance(test.instance(i));
+        return d;
+    }
+
+    private static void assertDistributionsEqual(double[][] expected, double[][] actual){
+        assertEquals(expected.length,actual.length);
+        for(int i=0;i<expected.length;i++)
+            assertArrayEquals(expected[i],actual[i],0);
+    }
+}
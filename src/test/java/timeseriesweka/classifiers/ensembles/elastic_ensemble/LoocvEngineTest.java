@@ -0,0 +1,71 @@
+/*
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package timeseriesweka.classifiers.ensembles.elastic_ensemble;
+
+import java.io.File;
+import java.nio.file.Files;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import static org.junit.Assert.*;
+import timeseriesweka.classifiers.ElasticEnsemble;
+import timeseriesweka.classifiers.ElasticEnsemble.ConstituentClassifiers;
+import timeseriesweka.filters.DerivativeFilter;
+import utilities.SeededData;
+import weka.core.Instances;
+
+/**
+ * Efficient1NN.loocv through the LoocvEngine, on one thread and on several,
+ * against the serial path taken when the per param id cv files are written
+ * (one classifier built per fold per param id). For every constituent of the
+ * elastic ensemble the parsed trainFold files must be byte identical.
+ */
+public class LoocvEngineTest {
+
+    private static final String DATASET="sines";
+    private static final int RESAMPLE=0;
+
+    @Rule
+    public TemporaryFolder folder=new TemporaryFolder();
+
+    @Test
+    public void engineMatchesSerialLoocv() throws Exception{
+        Instances train=SeededData.sines(24,30,3,21);
+        Instances derTrain=new DerivativeFilter().process(train);
+        for(ConstituentClassifiers c:ConstituentClassifiers.values()){
+            Instances data=ElasticEnsemble.isDerivative(c)?derTrain:train;
+
+            Efficient1NN serial=ElasticEnsemble.getClassifier(c);
+            String serialDir=folder.newFolder().getPath()+File.separator;
+            serial.setFileWritingOn(serialDir,DATASET,RESAMPLE);
+            serial.setIndividualCvFileWritingOn(serialDir,DATASET,RESAMPLE);
+            double[] expected=serial.loocv(data);
+            byte[] expectedFile=Files.readAllBytes(trainFold(serialDir,serial).toPath());
+
+            for(int threads:new int[]{1,4}){
+                Efficient1NN engine=ElasticEnsemble.getClassifier(c);
+                engine.setNumThreads(threads);
+                String dir=folder.newFolder().getPath()+File.separator;
+                engine.setFileWritingOn(dir,DATASET,RESAMPLE);
+                assertArrayEquals(c+" on "+threads+" threads",expected,engine.loocv(data),0);
+                assertArrayEquals(c+" on "+threads+" threads",expectedFile,Files.readAllBytes(trainFold(dir,engine).toPath()));
+            }
+        }
+    }
+
+    private static File trainFold(String dir, Efficient1NN knn){
+        return new File(dir+knn.getClassifierIdentifier()+"/Predictions/"+DATASET+"/trainFold"+RESAMPLE+".csv");
+    }
+}
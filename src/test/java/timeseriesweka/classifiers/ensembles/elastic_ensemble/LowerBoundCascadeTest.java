@@ -0,0 +1,83 @@
+/*
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package timeseriesweka.classifiers.ensembles.elastic_ensemble;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+import timeseriesweka.elastic_distance_measures.DTW_DistanceBasic;
+import utilities.SeededData;
+import weka.core.Instances;
+
+/**
+ * The LB_Kim/LB_Keogh/LB_Improved cascade must never exceed DTW, and the 1NN
+ * classifiers that use it must give the same answers as without it.
+ */
+public class LowerBoundCascadeTest {
+
+    @Test
+    public void boundsNeverExceedDTW(){
+        Instances train=SeededData.sines(20,40,2,10);
+        Instances test=SeededData.sines(10,40,2,11);
+        LowerBoundCascade cascade=new LowerBoundCascade(train);
+        for(double r:new double[]{0,0.1,0.3,1}){
+            DTW_DistanceBasic dtw=new DTW_DistanceBasic();
+            dtw.setR(r);
+            cascade.setReach(dtw.getWindowSize(40)-1);
+            for(int i=0;i<test.numInstances();i++){
+                double[] q=SeededData.series(test,i);
+                for(int j=0;j<train.numInstances();j++){
+                    double exact=dtw.distance(q,SeededData.series(train,j),Double.MAX_VALUE);
+                    double lb=cascade.lowerBound(q,q.length,j,Double.MAX_VALUE);
+                    assertTrue(lb+" > "+exact,lb<=exact+1e-9);
+                    //the cumulative bound of the remaining rows must also hold from the start
+                    double[] cumulative=cascade.getCumulativeBound();
+                    assertNotNull(cumulative);
+                    assertTrue(cumulative[0]<=exact+1e-9);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void sameAnswersWithAndWithoutBounds() throws Exception{
+        Instances train=SeededData.sines(40,60,3,12);
+        Instances test=SeededData.sines(30,60,3,13);
+        Efficient1NN[][] pairs={
+            {new DTW1NN(0.1),new DTW1NN(0.1)},
+            {new DTW1NN(1),new DTW1NN(1)},
+            {new WDTW1NN(0.1),new WDTW1NN(0.1)},
+        };
+        for(Efficient1NN[] pair:pairs){
+            pair[1].setUseLowerBounds(false);
+            pair[0].buildClassifier(train);
+            pair[1].buildClassifier(train);
+            for(int i=0;i<test.numInstances();i++)
+                assertArrayEquals(pair[1].distributionForInstance(test.instance(i)),pair[0].distributionForInstance(test.instance(i)),0);
+        }
+    }
+
+    @Test
+    public void sameLoocvWithAndWithoutBounds() throws Exception{
+        Instances train=SeededData.sines(30,40,3,14);
+        DTW1NN bounded=new DTW1NN();
+        DTW1NN plain=new DTW1NN();
+        plain.setUseLowerBounds(false);
+        assertArrayEquals(plain.loocv(train),bounded.loocv(train),0);
+        WDTW1NN wBounded=new WDTW1NN();
+        WDTW1NN wPlain=new WDTW1NN();
+        wPlain.setUseLowerBounds(false);
+        assertArrayEquals(wPlain.loocv(train),wBounded.loocv(train),0);
+    }
+}
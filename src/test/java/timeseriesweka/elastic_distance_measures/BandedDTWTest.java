@@ -0,0 +1,173 @@
+/*
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package timeseriesweka.elastic_distance_measures;
+
+import java.util.Random;
+import org.junit.Test;
+import static org.junit.Assert.*;
+import timeseriesweka.classifiers.ensembles.elastic_ensemble.DTW1NN;
+import utilities.SeededData;
+import weka.core.Instances;
+
+/**
+ * The two-row banded engine against the full matrix implementations it
+ * replaced: DTW_DistanceBasic (still in the tree) for DTW, and copies of the
+ * old BasicDTW and SakoeChibaDTW loops below.
+ */
+public class BandedDTWTest {
+
+    private static final double[] WINDOWS={0,0.05,0.1,0.25,0.5,1};
+
+    @Test
+    public void dtwMatchesFullMatrix(){
+        Random r=new Random(0);
+        for(int rep=0;rep<20;rep++){
+            int n=10+r.nextInt(60);
+            double[] a=SeededData.randomWalk(n,r);
+            double[] b=SeededData.randomWalk(n,r);
+            for(double w:WINDOWS){
+                DTW_DistanceBasic full=new DTW_DistanceBasic();
+                DTW banded=new DTW();
+                full.setR(w);
+                banded.setR(w);
+                double expected=full.distance(a,b,Double.MAX_VALUE);
+                assertEquals(expected,banded.distance(a,b,Double.MAX_VALUE),0);
+                assertEquals(full.getWindowSize(),banded.getWindowSize());
+            }
+        }
+    }
+
+    /**
+     * Both abandon once a whole row of the band is above the cutoff, but the 
+     * full matrix version skips the first column in that check so can stop a
+     * row earlier. Below the cutoff the distances must agree exactly.
+     */
+    @Test
+    public void earlyAbandonMatchesFullMatrix(){
+        Random r=new Random(1);
+        for(int rep=0;rep<50;rep++){
+            int n=20+r.nextInt(40);
+            double[] a=SeededData.randomWalk(n,r);
+            double[] b=SeededData.randomWalk(n,r);
+            for(double w:WINDOWS){
+                DTW_DistanceBasic full=new DTW_DistanceBasic();
+                DTW banded=new DTW();
+                full.setR(w);
+                banded.setR(w);
+                double exact=full.distance(a,b,Double.MAX_VALUE);
+                for(double frac:new double[]{0.01,0.3,0.9,1.5}){
+                    double cutoff=exact*frac;
+                    double d=banded.distance(a,b,cutoff);
+                    if(exact<cutoff)
+                        assertEquals(full.distance(a,b,cutoff),d,0);
+                    else    //abandoned, or finished above the cutoff
+                        assertTrue(d==Double.MAX_VALUE || d==exact);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void basicAndSakoeChibaMatchOldLoops(){
+        Random r=new Random(2);
+        for(int rep=0;rep<20;rep++){
+            double[] a=SeededData.randomWalk(10+r.nextInt(40),r);
+            double[] b=SeededData.randomWalk(10+r.nextInt(40),r);
+            BasicDTW basic=new BasicDTW();
+            assertEquals(oldBasic(a,b,Double.MAX_VALUE),basic.distance(a,b,Double.MAX_VALUE),0);
+            double[][] expected=oldMatrix(a,b,Math.max(a.length,b.length));
+            assertMatrixEquals(expected,basic.getDistanceArray());
+            for(double w:WINDOWS){
+                SakoeChibaDTW sc=new SakoeChibaDTW(w);
+                int band=sc.calculateBandSize(a.length);
+                assertEquals(oldMatrix(a,b,band)[a.length-1][b.length-1],sc.distance(a,b,Double.MAX_VALUE),0);
+            }
+        }
+    }
+
+    @Test
+    public void dtw1nnMatchesFullMatrixNearestNeighbour() throws Exception{
+        Instances train=SeededData.sines(40,50,3,3);
+        Instances test=SeededData.sines(30,50,3,4);
+        for(double w:new double[]{0,0.1,1}){
+            DTW1NN knn=new DTW1NN(w);
+            knn.buildClassifier(train);
+            DTW_DistanceBasic full=new DTW_DistanceBasic();
+            full.setR(w);
+            for(int i=0;i<test.numInstances();i++){
+                double[] q=SeededData.series(test,i);
+                double best=Double.MAX_VALUE;
+                double pred=-1;
+                for(int j=0;j<train.numInstances();j++){
+                    double d=full.distance(q,SeededData.series(train,j),Double.MAX_VALUE);
+                    if(d<best){
+                        best=d;
+                        pred=train.instance(j).classValue();
+                    }
+                }
+                assertEquals(pred,knn.classifyInstance(test.instance(i)),0);
+            }
+        }
+    }
+
+    private static void assertMatrixEquals(double[][] expected, double[][] actual){
+        assertEquals(expected.length,actual.length);
+        for(int i=0;i<expected.length;i++)
+            assertArrayEquals(expected[i],actual[i],0);
+    }
+
+    /** The unconstrained loop BasicDTW.distance used before the banded engine */
+    private static double oldBasic(double[] first, double[] second, double cutOffValue){
+        double[][] distances=new double[first.length][second.length];
+        distances[0][0]=(first[0]-second[0])*(first[0]-second[0]);
+        for(int i=1;i<second.length;i++)
+            distances[0][i]=distances[0][i-1]+((first[0]-second[i])*(first[0]-second[i]));
+        for(int i=1;i<first.length;i++)
+            distances[i][0]=distances[i-1][0]+((first[i]-second[0])*(first[i]-second[0]));
+        for(int i=1;i<first.length;i++){
+            boolean overFlow=true;
+            for(int j=1;j<second.length;j++){
+                double minDistance=Math.min(distances[i][j-1],Math.min(distances[i-1][j],distances[i-1][j-1]));
+                distances[i][j]=minDistance+((first[i]-second[j])*(first[i]-second[j]));
+                if(overFlow && distances[i][j]<cutOffValue)
+                    overFlow=false;
+            }
+            if(overFlow)
+                return Double.MAX_VALUE;
+        }
+        return distances[first.length-1][second.length-1];
+    }
+
+    /** The banded loop SakoeChibaDTW.distance used before the banded engine */
+    private static double[][] oldMatrix(double[] first, double[] second, int bandSize){
+        double[][] distances=new double[first.length][second.length];
+        distances[0][0]=(first[0]-second[0])*(first[0]-second[0]);
+        for(int i=1;i<second.length;i++)
+            distances[0][i]=i<bandSize?distances[0][i-1]+((first[0]-second[i])*(first[0]-second[i])):Double.MAX_VALUE;
+        for(int i=1;i<first.length;i++)
+            distances[i][0]=i<bandSize?distances[i-1][0]+((first[i]-second[0])*(first[i]-second[0])):Double.MAX_VALUE;
+        for(int i=1;i<first.length;i++){
+            for(int j=1;j<second.length;j++){
+                if(i<j+bandSize && j<i+bandSize){
+                    double minDistance=Math.min(distances[i][j-1],Math.min(distances[i-1][j],distances[i-1][j-1]));
+                    distances[i][j]=minDistance+((first[i]-second[j])*(first[i]-second[j]));
+                }
+                else
+                    distances[i][j]=Double.MAX_VALUE;
+            }
+        }
+        return distances;
+    }
+}
@@ -0,0 +1,54 @@
+/*
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package timeseriesweka.elastic_distance_measures;
+
+import java.util.Random;
+import org.junit.Test;
+import static org.junit.Assert.*;
+import utilities.SeededData;
+
+/**
+ * findMaxWindow of DTW, with and without warp tracking, against the walk of 
+ * the full matrix in DTW_DistanceBasic.
+ */
+public class DTWTest {
+
+    @Test
+    public void findMaxWindowMatchesFullMatrix(){
+        Random r=new Random(20);
+        for(int rep=0;rep<30;rep++){
+            int n=10+r.nextInt(50);
+            double[] a=SeededData.randomWalk(n,r);
+            double[] b=SeededData.randomWalk(n,r);
+            for(double w:new double[]{0,0.1,0.3,1}){
+                DTW_DistanceBasic full=new DTW_DistanceBasic();
+                full.setR(w);
+                full.distance(a,b,Double.MAX_VALUE);
+                int expected=full.findMaxWindow();
+
+                DTW untracked=new DTW();
+                untracked.setR(w);
+                untracked.distance(a,b,Double.MAX_VALUE);
+                assertEquals(expected,untracked.findMaxWindow());
+
+                DTW tracked=new DTW();
+                tracked.setR(w);
+                tracked.setTrackWarp(true);
+                tracked.distance(a,b,Double.MAX_VALUE);
+                assertEquals(expected,tracked.findMaxWindow());
+            }
+        }
+    }
+}
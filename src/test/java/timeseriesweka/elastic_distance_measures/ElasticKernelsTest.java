@@ -0,0 +1,189 @@
+/*
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package timeseriesweka.elastic_distance_measures;
+
+import java.util.Random;
+import org.junit.Test;
+import static org.junit.Assert.*;
+import timeseriesweka.classifiers.ensembles.elastic_ensemble.ERP1NN;
+import timeseriesweka.classifiers.ensembles.elastic_ensemble.Efficient1NN;
+import timeseriesweka.classifiers.ensembles.elastic_ensemble.LCSS1NN;
+import timeseriesweka.classifiers.ensembles.elastic_ensemble.MSM1NN;
+import timeseriesweka.classifiers.ensembles.elastic_ensemble.TWE1NN;
+import utilities.SeededData;
+import weka.core.Instances;
+
+/**
+ * The two-row MSM, TWE, ERP and LCSS kernels against the full matrix methods
+ * they replaced (MSM_Distance, TWE_Distance and LCSSDistance.distance(a,b) are
+ * still in the tree; the old ERP loop is copied below as its vector class is
+ * private), and the 1NN classifiers built on them against a brute force 1NN 
+ * over the old methods.
+ */
+public class ElasticKernelsTest {
+
+    private interface Measure{
+        double kernel(double[] a, double[] b, double cutoff);
+        double old(double[] a, double[] b);
+    }
+
+    private static Measure msm(final double c){
+        final MSMDistance kernel=new MSMDistance(c);
+        final MSMDistance old=new MSMDistance(c);
+        return new Measure(){
+            public double kernel(double[] a, double[] b, double cutoff){ return kernel.distance(a,a.length,b,b.length,cutoff);}
+            public double old(double[] a, double[] b){ return old.MSM_Distance(a,b);}
+        };
+    }
+
+    private static Measure twe(final double nu, final double lambda){
+        final TWEDistance kernel=new TWEDistance(nu,lambda);
+        final TWEDistance old=new TWEDistance(nu,lambda);
+        return new Measure(){
+            public double kernel(double[] a, double[] b, double cutoff){ return kernel.distance(a,a.length,b,b.length,cutoff);}
+            public double old(double[] a, double[] b){ return old.TWE_Distance(a,b);}
+        };
+    }
+
+    private static Measure erp(final double g, final double bandSize){
+        final ERPDistance kernel=new ERPDistance(g,bandSize);
+        return new Measure(){
+            public double kernel(double[] a, double[] b, double cutoff){ return kernel.distance(a,a.length,b,b.length,cutoff);}
+            public double old(double[] a, double[] b){ return oldERP(a,b,g,bandSize);}
+        };
+    }
+
+    private static Measure lcss(final int delta, final double epsilon){
+        final LCSSDistance kernel=new LCSSDistance(delta,epsilon);
+        final LCSSDistance old=new LCSSDistance(delta,epsilon);
+        return new Measure(){
+            public double kernel(double[] a, double[] b, double cutoff){ return kernel.distance(a,a.length,b,b.length,cutoff);}
+            public double old(double[] a, double[] b){ return old.distance(a,b);}
+        };
+    }
+
+    private static Measure[] measures(){
+        return new Measure[]{
+            msm(0.01),msm(0.1),msm(1),
+            twe(0.001,0),twe(0.01,0.5),twe(1,1),
+            erp(0.5,0),erp(0.2,0.1),erp(1,0.25),
+            lcss(0,0.5),lcss(3,0.2),lcss(10,1)
+        };
+    }
+
+    @Test
+    public void kernelsMatchOldMethods(){
+        Random r=new Random(30);
+        for(Measure measure:measures()){
+            for(int rep=0;rep<20;rep++){
+                int n=10+r.nextInt(40);
+                double[] a=SeededData.randomWalk(n,r);
+                double[] b=SeededData.randomWalk(n,r);
+                assertEquals(measure.old(a,b),measure.kernel(a,b,Double.MAX_VALUE),0);
+            }
+        }
+    }
+
+    @Test
+    public void earlyAbandonOnlyAboveCutoff(){
+        Random r=new Random(31);
+        for(Measure measure:measures()){
+            for(int rep=0;rep<20;rep++){
+                int n=10+r.nextInt(40);
+                double[] a=SeededData.randomWalk(n,r);
+                double[] b=SeededData.randomWalk(n,r);
+                double exact=measure.old(a,b);
+                for(double frac:new double[]{0.1,0.5,0.99,1,2}){
+                    double cutoff=exact*frac;
+                    double d=measure.kernel(a,b,cutoff);
+                    if(exact<=cutoff)
+                        assertEquals(exact,d,0);
+                    else
+                        assertTrue(d==Double.MAX_VALUE || d==exact);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void nearestNeighboursMatchOldMethods() throws Exception{
+        Instances train=SeededData.sines(30,40,3,32);
+        Instances test=SeededData.sines(20,40,3,33);
+        Efficient1NN[] classifiers={new MSM1NN(0.1),new TWE1NN(0.01,0.5),new ERP1NN(0.2,0.1),new LCSS1NN(3,0.2)};
+        Measure[] old={msm(0.1),twe(0.01,0.5),erp(0.2,0.1),lcss(3,0.2)};
+        for(int c=0;c<classifiers.length;c++){
+            classifiers[c].buildClassifier(train);
+            for(int i=0;i<test.numInstances();i++){
+                double[] q=SeededData.series(test,i);
+                double best=Double.MAX_VALUE;
+                double pred=-1;
+                for(int j=0;j<train.numInstances();j++){
+                    double d=old[c].old(q,SeededData.series(train,j));
+                    if(d<best){
+                        best=d;
+                        pred=train.instance(j).classValue();
+                    }
+                }
+                assertEquals(classifiers[c].getClass().getSimpleName(),pred,classifiers[c].classifyInstance(test.instance(i)),0);
+            }
+        }
+    }
+
+    /** ERPDistance(NumberVector,NumberVector) as it was, over arrays */
+    private static double oldERP(double[] v1, double[] v2, double g, double bandSize){
+        double[] curr=new double[v2.length];
+        double[] prev=new double[v2.length];
+        int band=(int)Math.ceil(v2.length*bandSize);
+        for(int i=0;i<v1.length;i++){
+            double[] temp=prev;
+            prev=curr;
+            curr=temp;
+            int l=i-(band+1);
+            if(l<0)
+                l=0;
+            int r=i+(band+1);
+            if(r>(v2.length-1))
+                r=(v2.length-1);
+            for(int j=l;j<=r;j++){
+                if(Math.abs(i-j)<=band){
+                    double diff=v1[i]-g;
+                    final double d1=Math.sqrt(diff*diff);
+                    diff=g-v2[j];
+                    final double d2=Math.sqrt(diff*diff);
+                    diff=v1[i]-v2[j];
+                    final double d12=Math.sqrt(diff*diff);
+                    final double dist1=d1*d1;
+                    final double dist2=d2*d2;
+                    final double dist12=d12*d12;
+                    final double cost;
+                    if((i+j)!=0){
+                        if((i==0) || ((j!=0) && (((prev[j-1]+dist12)>(curr[j-1]+dist2)) && ((curr[j-1]+dist2)<(prev[j]+dist1)))))
+                            cost=curr[j-1]+dist2;
+                        else if((j==0) || ((i!=0) && (((prev[j-1]+dist12)>(prev[j]+dist1)) && ((prev[j]+dist1)<(curr[j-1]+dist2)))))
+                            cost=prev[j]+dist1;
+                        else
+                            cost=prev[j-1]+dist12;
+                    }
+                    else
+                        cost=0;
+                    curr[j]=cost;
+                }
+                else
+                    curr[j]=Double.POSITIVE_INFINITY;
+            }
+        }
+        return Math.sqrt(curr[v2.length-1]);
+    }
+}
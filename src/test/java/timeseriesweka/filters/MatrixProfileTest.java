@@ -0,0 +1,155 @@
+/*
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package timeseriesweka.filters;
+
+import java.util.Random;
+import org.junit.Test;
+import static org.junit.Assert.*;
+import utilities.SeededData;
+import weka.core.DenseInstance;
+import weka.core.Instances;
+
+/**
+ * The diagonal engines (STOMP, SCRIMP, SCRIMP++) against BRUTE_FORCE, the
+ * original implementation, which z-normalises a copy of every window pair.
+ */
+public class MatrixProfileTest {
+
+    private static final int WINDOW=12;
+
+    /**
+     * Random walks, some far from zero and some with flat stretches, so that 
+     * both the running window statistics and the flat window rule are exercised
+     */
+    private static Instances series(int n, int length, long seed){
+        Random r=new Random(seed);
+        Instances data=SeededData.emptyDataset(length,2);
+        for(int i=0;i<n;i++){
+            double[] v=new double[length+1];
+            System.arraycopy(SeededData.randomWalk(length,r),0,v,0,length);
+            if(i%3==1){
+                for(int t=0;t<length;t++)
+                    v[t]+=1e5;
+            }
+            if(i%2==0){
+                int start=r.nextInt(length-3*WINDOW);
+                for(int t=start;t<start+2*WINDOW;t++)
+                    v[t]=v[start];
+            }
+            v[length]=i%2;
+            data.add(new DenseInstance(1,v));
+        }
+        return data;
+    }
+
+    private static MatrixProfile profile(Instances data, MatrixProfile.Algorithm algorithm, int threads) throws Exception{
+        MatrixProfile mp=new MatrixProfile(WINDOW);
+        mp.setAlgorithm(algorithm);
+        mp.setNumThreads(threads);
+        mp.process(data);
+        return mp;
+    }
+
+    @Test
+    public void stompMatchesBruteForce() throws Exception{
+        Instances data=series(6,200,0);
+        double[][] exact=profile(data,MatrixProfile.Algorithm.BRUTE_FORCE,1).getDistances();
+        double[][] stomp=profile(data,MatrixProfile.Algorithm.STOMP,1).getDistances();
+        assertProfilesClose(exact,stomp,1e-7);
+    }
+
+    /** With every diagonal visited, SCRIMP++ finds the exact profile */
+    @Test
+    public void scrimpPlusPlusConvergesToStomp() throws Exception{
+        Instances data=series(6,200,1);
+        MatrixProfile stomp=profile(data,MatrixProfile.Algorithm.STOMP,1);
+        MatrixProfile scrimp=profile(data,MatrixProfile.Algorithm.SCRIMP_PLUS_PLUS,1);
+        assertProfilesClose(stomp.getDistances(),scrimp.getDistances(),1e-7);
+        //the match found is as good as the one STOMP found, even if another of a near tie
+        double[][] exact=stomp.getDistances();
+        int[][] idx=scrimp.getIndices();
+        for(int s=0;s<idx.length;s++){
+            for(int i=0;i<idx[s].length;i++){
+                assertTrue(Math.abs(idx[s][i]-i)>WINDOW*1.5);
+                assertEquals(exact[s][i],distance(SeededData.series(data,s),i,idx[s][i]),1e-7*Math.max(1,exact[s][i]));
+            }
+        }
+    }
+
+    /**
+     * PreSCRIMP alone (one diagonal of SCRIMP after it) already gives every
+     * window a match, never better than the exact one and nearly as good, and is
+     * much closer than SCRIMP on the same budget
+     */
+    @Test
+    public void preScrimpApproximatesTheProfile() throws Exception{
+        Instances data=series(4,400,2);
+        double[][] exact=profile(data,MatrixProfile.Algorithm.STOMP,1).getDistances();
+        double[][][] approx=new double[2][][];
+        MatrixProfile.Algorithm[] algorithms={MatrixProfile.Algorithm.SCRIMP_PLUS_PLUS,MatrixProfile.Algorithm.SCRIMP};
+        for(int a=0;a<2;a++){
+            MatrixProfile mp=new MatrixProfile(WINDOW);
+            mp.setAlgorithm(algorithms[a]);
+            mp.setFractionOfDiagonals(1e-9);
+            mp.process(data);
+            approx[a]=mp.getDistances();
+        }
+        double errorPlusPlus=0, errorScrimp=0;
+        int count=0;
+        for(int s=0;s<exact.length;s++){
+            for(int i=0;i<exact[s].length;i++){
+                assertTrue(approx[0][s][i]<Double.MAX_VALUE);
+                assertTrue(approx[0][s][i]>=exact[s][i]-1e-7);
+                errorPlusPlus+=approx[0][s][i]-exact[s][i];
+                //a window SCRIMP has not reached yet counts as the largest possible distance
+                errorScrimp+=Math.min(approx[1][s][i],4*WINDOW)-exact[s][i];
+                count++;
+            }
+        }
+        assertTrue(errorPlusPlus/count<0.1*errorScrimp/count);
+    }
+
+    @Test
+    public void resultsDoNotDependOnThreads() throws Exception{
+        Instances data=series(3,300,3);
+        for(MatrixProfile.Algorithm algorithm:new MatrixProfile.Algorithm[]{MatrixProfile.Algorithm.STOMP,MatrixProfile.Algorithm.SCRIMP_PLUS_PLUS}){
+            MatrixProfile single=profile(data,algorithm,1);
+            //fewer instances than threads, so the windows and diagonals of each series are shared out
+            MatrixProfile many=profile(data,algorithm,4);
+            for(int s=0;s<data.numInstances();s++){
+                assertArrayEquals(single.getDistances()[s],many.getDistances()[s],0);
+                assertArrayEquals(single.getIndices()[s],many.getIndices()[s]);
+            }
+        }
+    }
+
+    private static void assertProfilesClose(double[][] expected, double[][] actual, double tolerance){
+        for(int s=0;s<expected.length;s++){
+            assertEquals(expected[s].length,actual[s].length);
+            for(int i=0;i<expected[s].length;i++)
+                assertEquals("series "+s+" window "+i,expected[s][i],actual[s][i],tolerance*Math.max(1,expected[s][i]));
+        }
+    }
+
+    //squared distance between the z-normalised windows at i and j, as BRUTE_FORCE finds it
+    private static double distance(double[] series, int i, int j){
+        double[] a=MatrixProfile.zNormalise(series,i,WINDOW,false);
+        double[] b=MatrixProfile.zNormalise(series,j,WINDOW,false);
+        double d=0;
+        for(int t=0;t<WINDOW;t++)
+            d+=(a[t]-b[t])*(a[t]-b[t]);
+        return d;
+    }
+}
@@ -0,0 +1,288 @@
+/*
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package timeseriesweka.filters;
+
+import java.util.ArrayList;
+import java.util.Random;
+import org.junit.Test;
+import static org.junit.Assert.*;
+import utilities.SeededData;
+import weka.core.Attribute;
+import weka.core.DenseInstance;
+import weka.core.Instances;
+
+/**
+ * The jtransforms engine against the O(n^2) DFT it replaced (FFT.dft, in 
+ * float, and the same loop in double), and the filters built on it against 
+ * the direct loops they used before.
+ */
+public class SpectralEngineTest {
+
+    //lengths with prime, odd, even and power of two sizes
+    private static final int[] LENGTHS={1,2,3,5,8,16,17,24,31,64,97,100,150};
+
+    @Test
+    public void dftMatchesDirectLoop(){
+        Random r=new Random(0);
+        FFT filter=new FFT();
+        for(int n:LENGTHS){
+            double[] x=SeededData.randomWalk(n,r);
+            double[] c=SpectralEngine.dft(x);
+            double[][] direct=directDft(x);
+            FFT.Complex[] old=filter.dft(x);
+            double scale=1;
+            for(double d:x)
+                scale+=Math.abs(d);
+            for(int k=0;k<n;k++){
+                assertEquals(direct[k][0],c[2*k],1e-12*scale);
+                assertEquals(direct[k][1],c[2*k+1],1e-12*scale);
+                //the old loop accumulated in float
+                assertEquals(old[k].getReal(),c[2*k],1e-5*scale);
+                assertEquals(old[k].getImag(),c[2*k+1],1e-5*scale);
+            }
+        }
+    }
+
+    @Test
+    public void halfSpectrumAndPowerSpectrumMatchDirectLoop(){
+        Random r=new Random(1);
+        for(int n:LENGTHS){
+            double[] x=SeededData.randomWalk(n,r);
+            double[][] direct=directDft(x);
+            double[] half=SpectralEngine.halfSpectrum(x,n);
+            double[] ps=SpectralEngine.powerSpectrum(x);
+            assertEquals(2*(n/2),half.length);
+            assertEquals(n/2,ps.length);
+            double scale=1;
+            for(double d:x)
+                scale+=Math.abs(d);
+            for(int k=0;k<n/2;k++){
+                assertEquals(direct[k][0],half[2*k],1e-12*scale);
+                assertEquals(direct[k][1],half[2*k+1],1e-12*scale);
+                double power=direct[k][0]*direct[k][0]+direct[k][1]*direct[k][1];
+                assertEquals(power,ps[k],1e-12*scale*scale);
+            }
+        }
+    }
+
+    @Test
+    public void inverseDftMatchesDirectLoop(){
+        Random r=new Random(2);
+        for(int n:LENGTHS){
+            double[] x=SeededData.randomWalk(n,r);
+            double[] c=SpectralEngine.inverseDft(x);
+            double scale=1;
+            for(double d:x)
+                scale+=Math.abs(d);
+            for(int k=0;k<n;k++){
+                double re=0,im=0;
+                for(int t=0;t<n;t++){
+                    re+=x[t]*Math.cos(2*Math.PI*t*k/n);
+                    im+=x[t]*Math.sin(2*Math.PI*t*k/n);
+                }
+                assertEquals(re/n,c[2*k],1e-12*scale);
+                assertEquals(im/n,c[2*k+1],1e-12*scale);
+            }
+        }
+    }
+
+    @Test
+    public void lagProductsMatchDirectSums(){
+        Random r=new Random(3);
+        for(int n:LENGTHS){
+            double[] x=SeededData.randomWalk(n,r);
+            for(int maxLag:new int[]{0,1,n/2,n-1,n+5}){
+                double[] lags=SpectralEngine.lagProducts(x,maxLag);
+                assertEquals(Math.min(maxLag,n-1)+1,lags.length);
+                double scale=1;
+                for(double d:x)
+                    scale+=d*d;
+                for(int k=0;k<lags.length;k++){
+                    double sum=0;
+                    for(int j=0;j<n-k;j++)
+                        sum+=x[j]*x[j+k];
+                    assertEquals(sum,lags[k],1e-12*scale);
+                }
+            }
+        }
+    }
+
+    /**
+     * From FFT_MIN_LAG lags on the correlations come from the FFT, the lags
+     * below that are still found directly whatever the number of lags, so the 
+     * first lags of a long run are compared against a short run, and every lag
+     * against a copy of the old direct loop
+     */
+    @Test
+    public void acfMatchesDirectLoop(){
+        Random r=new Random(4);
+        for(int n:new int[]{40,100,150,500}){
+            double[] x=SeededData.randomWalk(n,r);
+            int maxLag=Math.min(100,n-4);
+            double[] fromFFT=ACF.fitAutoCorrelations(x,maxLag);
+            double[] direct=ACF.fitAutoCorrelations(x,ACF.FFT_MIN_LAG-1);
+            double[] old=oldAutoCorrelations(x,maxLag);
+            for(int k=0;k<maxLag;k++){
+                if(k<direct.length)
+                    assertEquals(direct[k],fromFFT[k],1e-10);
+                assertEquals(old[k],fromFFT[k],1e-10);
+            }
+            ACF acf=new ACF();
+            acf.setMaxLag(maxLag);
+            double[] instanceFFT=acf.fitAutoCorrelations(x);
+            acf.setMaxLag(ACF.FFT_MIN_LAG-1);
+            double[] instanceDirect=acf.fitAutoCorrelations(x);
+            for(int k=0;k<instanceDirect.length;k++)
+                assertEquals(instanceDirect[k],instanceFFT[k],1e-10);
+            acf.setNormalized(true);
+            acf.setMaxLag(maxLag);
+            double[] normFFT=acf.fitAutoCorrelations(x);
+            for(int k=0;k<maxLag;k++){
+                double sum=0;
+                for(int j=0;j<n-k-1;j++)
+                    sum+=x[j]*x[j+k+1];
+                assertEquals(sum/n,normFFT[k],1e-12*Math.abs(sum/n));
+            }
+        }
+    }
+
+    /**
+     * The class attribute need not be last. Before, the last attribute was never
+     * read when it was not, and its slot in the series kept a stale value
+     */
+    @Test
+    public void classPositionDoesNotChangeTransforms() throws Exception{
+        Instances last=SeededData.sines(10,30,2,5);
+        Instances first=classFirst(last);
+        for(int type=0;type<3;type++){
+            FFT a,b;
+            if(type==0){
+                a=new PowerSpectrum();
+                b=new PowerSpectrum();
+            }else{
+                a=new FFT();
+                b=new FFT();
+                if(type==2){
+                    a.useFFT();
+                    b.useFFT();
+                }
+            }
+            Instances fromLast=a.process(last);
+            Instances fromFirst=b.process(first);
+            assertEquals(fromLast.numInstances(),fromFirst.numInstances());
+            for(int i=0;i<fromLast.numInstances();i++){
+                assertArrayEquals(fromLast.instance(i).toDoubleArray(),fromFirst.instance(i).toDoubleArray(),0);
+                assertEquals(last.instance(i).classValue(),fromFirst.instance(i).classValue(),0);
+            }
+        }
+    }
+
+    @Test
+    public void staticPowerSpectrumKeepsEveryTermForAnyLength(){
+        Random r=new Random(6);
+        for(int n:LENGTHS){
+            double[] x=SeededData.randomWalk(n,r);
+            double[][] direct=directDft(x);
+            double[] ps=PowerSpectrum.powerSpectrum(x);
+            assertEquals(n,ps.length);
+            double scale=1;
+            for(double d:x)
+                scale+=Math.abs(d);
+            for(int k=0;k<n;k++)
+                assertEquals(direct[k][0]*direct[k][0]+direct[k][1]*direct[k][1],ps[k],1e-12*scale*scale);
+        }
+    }
+
+    @Test
+    public void powerCepstrumSquaresTheInverseDftOfTheLoggedSpectrum() throws Exception{
+        Instances data=SeededData.sines(6,40,2,7);
+        Instances spectrum=new PowerSpectrum().process(data);
+        Instances cepstrum=new PowerCepstrum().process(data);
+        int n=spectrum.numAttributes()-1;
+        assertEquals(n,cepstrum.numAttributes()-1);
+        for(int i=0;i<data.numInstances();i++){
+            double scale=1;
+            for(int t=0;t<n;t++)
+                scale+=Math.abs(Math.log(spectrum.instance(i).value(t)));
+            for(int k=0;k<n;k++){
+                double re=0,im=0;
+                for(int t=0;t<n;t++){
+                    double logPower=Math.log(spectrum.instance(i).value(t));
+                    re+=logPower*Math.cos(2*Math.PI*t*k/n);
+                    im+=logPower*Math.sin(2*Math.PI*t*k/n);
+                }
+                re/=n;
+                im/=n;
+                assertEquals(re*re+im*im,cepstrum.instance(i).value(k),1e-12*scale*scale);
+            }
+            assertEquals(data.instance(i).classValue(),cepstrum.instance(i).classValue(),0);
+        }
+    }
+
+    /** The direct double precision DFT: term k is sum_t x_t*exp(-2*pi*i*t*k/n) */
+    private static double[][] directDft(double[] x){
+        int n=x.length;
+        double[][] c=new double[n][2];
+        for(int k=0;k<n;k++){
+            for(int t=0;t<n;t++){
+                c[k][0]+=x[t]*Math.cos(2*Math.PI*t*k/n);
+                c[k][1]+=-x[t]*Math.sin(2*Math.PI*t*k/n);
+            }
+        }
+        return c;
+    }
+
+    /** The static ACF.fitAutoCorrelations loop before the FFT path */
+    private static double[] oldAutoCorrelations(double[] data, int mLag){
+        double[] a=new double[mLag];
+        double s1,s2,ss1,ss2,v1,v2;
+        for(int i=1;i<=mLag;i++){
+            a[i-1]=0;
+            s1=s2=ss1=ss2=0;
+            for(int j=0;j<data.length-i;j++){
+                s1+=data[j];
+                ss1+=data[j]*data[j];
+                s2+=data[j+i];
+                ss2+=data[j+i]*data[j+i];
+            }
+            s1/=data.length-i;
+            s2/=data.length-i;
+            for(int j=0;j<data.length-i;j++)
+                a[i-1]+=(data[j]-s1)*(data[j+i]-s2);
+            a[i-1]/=(data.length-i);
+            v1=ss1/(data.length-i)-s1*s1;
+            v2=ss2/(data.length-i)-s2*s2;
+            a[i-1]/=Math.sqrt(v1)*Math.sqrt(v2);
+        }
+        return a;
+    }
+
+    /** The same data with the class attribute moved to the front */
+    private static Instances classFirst(Instances data){
+        ArrayList<Attribute> atts=new ArrayList<>();
+        atts.add((Attribute)data.classAttribute().copy());
+        for(int j=0;j<data.numAttributes()-1;j++)
+            atts.add(new Attribute("att"+j));
+        Instances result=new Instances("ClassFirst",atts,data.numInstances());
+        result.setClassIndex(0);
+        for(int i=0;i<data.numInstances();i++){
+            double[] v=new double[data.numAttributes()];
+            v[0]=data.instance(i).classValue();
+            System.arraycopy(SeededData.series(data,i),0,v,1,v.length-1);
+            result.add(new DenseInstance(1,v));
+        }
+        return result;
+    }
+}
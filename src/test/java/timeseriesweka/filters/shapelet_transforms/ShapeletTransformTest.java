@@ -0,0 +1,72 @@
+/*
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package timeseriesweka.filters.shapelet_transforms;
+
+import java.io.File;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import static org.junit.Assert.*;
+import timeseriesweka.filters.shapelet_transforms.quality_measures.ShapeletQuality.ShapeletQualityChoice;
+import utilities.SeededData;
+import weka.core.Instances;
+
+/**
+ * The batched, multi threaded candidate evaluation against the sequential 
+ * loop. With two classes the information gain bound is exact, so pruning 
+ * against the per batch threshold finds the same shapelets. With more classes
+ * the shapelets can depend on the batches, so only the same output for the
+ * same seed and number of threads is guaranteed.
+ */
+public class ShapeletTransformTest {
+
+    @Rule
+    public TemporaryFolder folder=new TemporaryFolder();
+
+    @Test
+    public void sameTransformForAnyThreadCount() throws Exception{
+        Instances data=SeededData.sines(20,40,2,60);
+        Instances serial=transform(data,1);
+        Instances parallel=transform(data,3);
+        assertTransformsEqual(serial,parallel);
+    }
+
+    @Test
+    public void sameTransformForSameThreadCount() throws Exception{
+        Instances data=SeededData.sines(30,40,4,61);
+        for(int threads:new int[]{1,3}){
+            Instances first=transform(data,threads);
+            for(int rep=0;rep<3;rep++)
+                assertTransformsEqual(first,transform(data,threads));
+        }
+    }
+
+    private static void assertTransformsEqual(Instances expected, Instances actual){
+        assertEquals(expected.numAttributes(),actual.numAttributes());
+        for(int i=0;i<expected.numInstances();i++)
+            assertArrayEquals(expected.instance(i).toDoubleArray(),actual.instance(i).toDoubleArray(),0);
+    }
+
+    private Instances transform(Instances data, int numThreads) throws Exception{
+        ShapeletTransform st=new ShapeletTransform(10,5,20,ShapeletQualityChoice.INFORMATION_GAIN);
+        st.supressOutput();
+        File log=folder.newFile();
+        st.setLogOutputFile(log.getPath());
+        st.setNumThreads(numThreads);
+        Instances result=st.process(data);
+        assertTrue(log.length()>0);
+        return result;
+    }
+}
@@ -0,0 +1,79 @@
+/*
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package timeseriesweka.filters.shapelet_transforms.distance_functions;
+
+import java.util.Random;
+import org.junit.Test;
+import static org.junit.Assert.*;
+import utilities.SeededData;
+import weka.core.DenseInstance;
+import weka.core.Instances;
+
+/**
+ * MASS distance profiles against the NORMAL subsequence distance, which 
+ * z-normalises every window and compares it point by point.
+ */
+public class MassSubSeqDistanceTest {
+
+    @Test
+    public void matchesNormal(){
+        compare(SeededData.sines(10,100,2,50));
+    }
+
+    /**
+     * A large offset with flat runs, so the variance of some windows is 0 and 
+     * of others is tiny next to their mean square
+     */
+    @Test
+    public void matchesNormalWithFlatWindowsAtAnOffset(){
+        Instances data=SeededData.emptyDataset(120,2);
+        Random r=new Random(51);
+        for(int i=0;i<10;i++){
+            double[] v=new double[121];
+            for(int j=0;j<120;j++){
+                if(j>=30 && j<60)
+                    v[j]=1e6+2;
+                else if(j>=80 && j<95)
+                    v[j]=1e6-5+1e-3*r.nextGaussian();
+                else
+                    v[j]=1e6+r.nextGaussian();
+            }
+            v[120]=i%2;
+            data.add(new DenseInstance(1,v));
+        }
+        compare(data);
+    }
+
+    private static void compare(Instances data){
+        SubSeqDistance normal=new SubSeqDistance();
+        MassSubSeqDistance mass=new MassSubSeqDistance();
+        normal.init(data);
+        mass.init(data);
+        int seriesLength=data.numAttributes()-1;
+        for(int c=0;c<data.numInstances();c+=3){
+            for(int len:new int[]{5,10,25}){
+                for(int start=0;start+len<=seriesLength;start+=17){
+                    normal.setCandidate(data.instance(c),start,len,0);
+                    mass.setCandidate(data.instance(c),start,len,0);
+                    for(int s=0;s<data.numInstances();s++){
+                        double[] series=data.instance(s).toDoubleArray();
+                        double expected=normal.calculate(series,s);
+                        assertEquals("candidate "+c+","+start+","+len+" series "+s,expected,mass.calculate(series,s),1e-7*Math.max(1,expected));
+                    }
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,131 @@
+/*
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package utilities;
+
+import java.util.ArrayList;
+import java.util.Random;
+import weka.core.Attribute;
+import weka.core.DenseInstance;
+import weka.core.Instances;
+
+/**
+ * Seeded series and datasets shared by the tests, so that every comparison of
+ * a rewritten path against the one it replaced runs on reproducible data.
+ */
+public class SeededData {
+
+    private SeededData(){}
+
+    /**
+     * @param n length
+     * @param r source of randomness
+     * @return gaussian random walk of length n
+     */
+    public static double[] randomWalk(int n, Random r){
+        double[] s=new double[n];
+        s[0]=r.nextGaussian();
+        for(int i=1;i<n;i++)
+            s[i]=s[i-1]+r.nextGaussian();
+        return s;
+    }
+
+    /**
+     * Equal length, class separable sine waves with gaussian noise: class c has
+     * frequency proportional to c+1 and a random phase.
+     * @param numInstances
+     * @param seriesLength
+     * @param numClasses
+     * @param seed
+     * @return dataset with the class attribute last
+     */
+    public static Instances sines(int numInstances, int seriesLength, int numClasses, long seed){
+        return sines(numInstances,seriesLength,numClasses,seed,false);
+    }
+
+    /**
+     * As sines, optionally rounding every value to an integer so that the
+     * dataset has many tied values (as in discretised UCR problems).
+     */
+    public static Instances sines(int numInstances, int seriesLength, int numClasses, long seed, boolean rounded){
+        Random r=new Random(seed);
+        Instances data=emptyDataset(seriesLength,numClasses);
+        for(int i=0;i<numInstances;i++){
+            double[] v=new double[seriesLength+1];
+            int c=i%numClasses;
+            double phase=r.nextDouble()*2*Math.PI;
+            for(int j=0;j<seriesLength;j++){
+                v[j]=Math.sin(j*0.1*(c+1)+phase)+0.3*r.nextGaussian();
+                if(rounded)
+                    v[j]=Math.round(v[j]*2);
+            }
+            v[seriesLength]=c;
+            data.add(new DenseInstance(1,v));
+        }
+        return data;
+    }
+
+    /**
+     * @param seriesLength
+     * @param numClasses
+     * @return empty dataset with seriesLength numeric attributes and a last,
+     * nominal class attribute with values "0" to numClasses-1
+     */
+    public static Instances emptyDataset(int seriesLength, int numClasses){
+        ArrayList<Attribute> atts=new ArrayList<>();
+        for(int j=0;j<seriesLength;j++)
+            atts.add(new Attribute("att"+j));
+        ArrayList<String> classVals=new ArrayList<>();
+        for(int c=0;c<numClasses;c++)
+            classVals.add(""+c);
+        atts.add(new Attribute("class",classVals));
+        Instances data=new Instances("SeededData",atts,0);
+        data.setClassIndex(seriesLength);
+        return data;
+    }
+
+    /**
+     * @param data
+     * @param index
+     * @return the series of instance index without its class value
+     */
+    public static double[] series(Instances data, int index){
+        double[] all=data.instance(index).toDoubleArray();
+        double[] s=new double[all.length-1];
+        System.arraycopy(all,0,s,0,s.length);
+        return s;
+    }
+
+    /**
+     * @param data
+     * @return a copy of data with the class moved to the first attribute
+     */
+    public static Instances classFirst(Instances data){
+        ArrayList<Attribute> atts=new ArrayList<>();
+        atts.add((Attribute)data.classAttribute().copy());
+        for(int a=0;a<data.numAttributes();a++){
+            if(a!=data.classIndex())
+                atts.add((Attribute)data.attribute(a).copy());
+        }
+        Instances result=new Instances(data.relationName(),atts,data.numInstances());
+        result.setClassIndex(0);
+        for(int i=0;i<data.numInstances();i++){
+            double[] v=new double[data.numAttributes()];
+            v[0]=data.instance(i).classValue();
+            System.arraycopy(series(data,i),0,v,1,v.length-1);
+            result.add(new DenseInstance(1,v));
+        }
+        return result;
+    }
+}
@@ -0,0 +1,72 @@
+/*
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package utilities;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Nested invokeAll inside a pool and within callOnThisThread.
+ */
+public class ThreadingUtilitiesTest {
+
+    @Test
+    public void callOnThisThreadRunsNestedTasksOnTheCallingThread() throws Exception{
+        List<Callable<Boolean>> outer=new ArrayList<>();
+        for(int i=0;i<8;i++)
+            outer.add(()->ThreadingUtilities.callOnThisThread(()->{
+                Thread caller=Thread.currentThread();
+                boolean same=true;
+                for(Thread t:ThreadingUtilities.invokeAll(threadTasks(6),4))
+                    same&=t==caller;
+                //and nested again, through a second callOnThisThread
+                for(Thread t:ThreadingUtilities.callOnThisThread(()->ThreadingUtilities.invokeAll(threadTasks(3),0)))
+                    same&=t==caller;
+                return same&&ThreadingUtilities.inPool();
+            }));
+        for(boolean same:ThreadingUtilities.invokeAll(outer,4))
+            assertTrue(same);
+    }
+
+    @Test
+    public void callOnThisThreadKeepsOrderAndExceptions() throws Exception{
+        List<Callable<Integer>> tasks=new ArrayList<>();
+        for(int i=0;i<5;i++){
+            final int v=i;
+            tasks.add(()->v*v);
+        }
+        List<Integer> squares=ThreadingUtilities.callOnThisThread(()->ThreadingUtilities.invokeAll(tasks,3));
+        for(int i=0;i<5;i++)
+            assertEquals(i*i,(int)squares.get(i));
+        tasks.add(()->{throw new IllegalStateException("task");});
+        try{
+            ThreadingUtilities.callOnThisThread(()->ThreadingUtilities.invokeAll(tasks,3));
+            fail();
+        }
+        catch(IllegalStateException e){
+            assertEquals("task",e.getMessage());
+        }
+    }
+
+    private static List<Callable<Thread>> threadTasks(int n){
+        List<Callable<Thread>> tasks=new ArrayList<>();
+        for(int i=0;i<n;i++)
+            tasks.add(Thread::currentThread);
+        return tasks;
+    }
+}
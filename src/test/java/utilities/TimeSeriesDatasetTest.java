@@ -0,0 +1,173 @@
+/*
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package utilities;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Random;
+import org.junit.Test;
+import static org.junit.Assert.*;
+import utilities.multivariate_tools.MultivariateInstanceTools;
+import weka.core.DenseInstance;
+import weka.core.Instances;
+
+/**
+ * The columnar store against the Instances it is built from, which is how the
+ * classifiers read their series before.
+ */
+public class TimeSeriesDatasetTest {
+
+    @Test
+    public void univariateMatchesInstanceValues(){
+        Instances data=SeededData.sines(20,30,3,0);
+        TimeSeriesDataset ts=TimeSeriesDataset.fromInstances(data);
+        assertEquals(20,ts.numSeries());
+        assertEquals(1,ts.numChannels());
+        assertTrue(ts.isEqualLength());
+        for(int i=0;i<data.numInstances();i++){
+            double[] expected=SeededData.series(data,i);
+            assertArrayEquals(expected,ts.series(i).toArray(),0);
+            assertArrayEquals(expected,Arrays.copyOfRange(ts.values(),ts.offset(i),ts.offset(i)+ts.length(i)),0);
+            assertEquals((int)data.instance(i).classValue(),ts.classLabel(i));
+        }
+        assertEquals(Arrays.asList("0","1","2"),ts.classNames());
+    }
+
+    @Test
+    public void classAnywhereIsSkipped(){
+        Instances data=SeededData.sines(10,15,2,1);
+        Instances classFirst=SeededData.classFirst(data);
+        TimeSeriesDataset expected=TimeSeriesDataset.fromInstances(data);
+        TimeSeriesDataset actual=TimeSeriesDataset.fromInstances(classFirst);
+        assertArrayEquals(expected.values(),actual.values(),0);
+        assertArrayEquals(expected.classLabels(),actual.classLabels());
+    }
+
+    /**
+     * Missing values at the end of a univariate series are data, not padding:
+     * every series keeps the length of the Instances
+     */
+    @Test
+    public void univariateKeepsTrailingMissing(){
+        Instances data=SeededData.sines(5,10,2,2);
+        data.instance(1).setMissing(9);
+        data.instance(1).setMissing(8);
+        data.instance(3).setMissing(0);
+        TimeSeriesDataset ts=TimeSeriesDataset.fromInstances(data);
+        assertTrue(ts.isEqualLength());
+        assertEquals(10,ts.length(1));
+        assertTrue(Double.isNaN(ts.value(1,9)));
+        assertTrue(Double.isNaN(ts.value(1,8)));
+        assertTrue(Double.isNaN(ts.value(3,0)));
+        assertEquals(data.instance(1).value(7),ts.value(1,7),0);
+    }
+
+    /**
+     * Channels of relational data padded with missing values are trimmed to
+     * their own lengths, and padded again by toInstances
+     */
+    @Test
+    public void raggedMultivariateIsTrimmed(){
+        Random r=new Random(3);
+        int n=6, length=12;
+        Instances[] channels=new Instances[2];
+        int[][] lengths=new int[2][n];
+        for(int c=0;c<2;c++){
+            channels[c]=SeededData.emptyDataset(length,2);
+            for(int i=0;i<n;i++){
+                lengths[c][i]=length-r.nextInt(5);
+                double[] v=new double[length+1];
+                Arrays.fill(v,Double.NaN);
+                System.arraycopy(SeededData.randomWalk(lengths[c][i],r),0,v,0,lengths[c][i]);
+                v[length]=i%2;
+                channels[c].add(new DenseInstance(1,v));
+            }
+        }
+        Instances multi=MultivariateInstanceTools.mergeToMultivariateInstances(channels);
+        TimeSeriesDataset ts=TimeSeriesDataset.fromInstances(multi);
+        assertEquals(2,ts.numChannels());
+        assertFalse(ts.isEqualLength());
+        for(int c=0;c<2;c++){
+            for(int i=0;i<n;i++){
+                assertEquals(lengths[c][i],ts.length(i,c));
+                double[] expected=Arrays.copyOf(SeededData.series(channels[c],i),lengths[c][i]);
+                assertArrayEquals(expected,ts.series(i,c).toArray(),0);
+                assertEquals(i%2,ts.classLabel(i));
+            }
+            //as univariate Instances the padding is kept
+            TimeSeriesDataset back=TimeSeriesDataset.fromInstances(ts.channel(c).toInstances());
+            for(int i=0;i<n;i++){
+                double[] padded=Arrays.copyOf(ts.series(i,c).toArray(),ts.maxLength(c));
+                Arrays.fill(padded,lengths[c][i],padded.length,Double.NaN);
+                assertArrayEquals(padded,back.series(i).toArray(),0);
+            }
+        }
+    }
+
+    @Test
+    public void toInstancesRoundTrip(){
+        Instances data=SeededData.sines(8,20,3,4);
+        Instances back=TimeSeriesDataset.fromInstances(data).toInstances();
+        assertEquals(data.numInstances(),back.numInstances());
+        assertEquals(data.classIndex(),back.classIndex());
+        for(int i=0;i<data.numInstances();i++)
+            assertArrayEquals(data.instance(i).toDoubleArray(),back.instance(i).toDoubleArray(),0);
+    }
+
+    @Test
+    public void fromArraysMatchesFromInstances(){
+        Instances data=SeededData.sines(7,25,2,5);
+        double[][] series=new double[data.numInstances()][];
+        int[] labels=new int[data.numInstances()];
+        for(int i=0;i<series.length;i++){
+            series[i]=SeededData.series(data,i);
+            labels[i]=(int)data.instance(i).classValue();
+        }
+        TimeSeriesDataset expected=TimeSeriesDataset.fromInstances(data);
+        TimeSeriesDataset actual=TimeSeriesDataset.fromArrays(series,labels,Arrays.asList("0","1"));
+        assertArrayEquals(expected.values(),actual.values(),0);
+        assertArrayEquals(expected.classLabels(),actual.classLabels());
+        series[0][0]=1e6;
+        labels[0]=-1;
+        assertNotEquals(1e6,actual.value(0,0),0);
+        assertNotEquals(-1,actual.classLabel(0));
+    }
+
+    @Test
+    public void viewsShareValues(){
+        TimeSeriesDataset ts=TimeSeriesDataset.fromInstances(SeededData.sines(10,12,2,6));
+        TimeSeriesDataset picked=ts.subset(new int[]{7,2,2});
+        TimeSeriesDataset range=ts.subset(3,6);
+        assertSame(ts.values(),picked.values());
+        assertSame(ts.values(),range.values());
+        assertSame(ts.values(),ts.channel(0).values());
+        assertArrayEquals(ts.series(7).toArray(),picked.series(0).toArray(),0);
+        assertArrayEquals(ts.series(2).toArray(),picked.series(2).toArray(),0);
+        assertEquals(ts.classLabel(2),picked.classLabel(1));
+        assertEquals(3,range.numSeries());
+        assertArrayEquals(ts.series(5).toArray(),range.series(2).toArray(),0);
+    }
+
+    @Test(expected=UnsupportedOperationException.class)
+    public void classNamesCannotBeModified(){
+        TimeSeriesDataset.fromInstances(SeededData.sines(4,8,2,7)).classNames().add("2");
+    }
+
+    @Test(expected=UnsupportedOperationException.class)
+    public void classNamesOfViewsCannotBeModified(){
+        TimeSeriesDataset ts=TimeSeriesDataset.fromArrays(new double[][]{{1,2},{3,4}},new int[]{0,1},new ArrayList<>(Arrays.asList("a","b")));
+        ts.subset(0,1).classNames().set(0,"c");
+    }
+}
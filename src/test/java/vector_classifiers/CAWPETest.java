@@ -0,0 +1,61 @@
+/*
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package vector_classifiers;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+import timeseriesweka.classifiers.TSF;
+import utilities.SeededData;
+import weka.classifiers.Classifier;
+import weka.classifiers.bayes.NaiveBayes;
+import weka.classifiers.lazy.kNN;
+import weka.classifiers.trees.J48;
+import weka.core.Instances;
+
+/**
+ * Modules trained in parallel against the serial build, with modules that are
+ * cross validated by CAWPE and one (TSF) that estimates its own train accuracy.
+ */
+public class CAWPETest {
+
+    @Test
+    public void parallelModulesMatchSerial() throws Exception{
+        Instances train=SeededData.sines(40,40,3,31);
+        Instances test=SeededData.sines(20,40,3,32);
+        CAWPE serial=build(train,1);
+        for(int threads:new int[]{3,0}){
+            CAWPE parallel=build(train,threads);
+            for(int m=0;m<serial.getModules().length;m++){
+                assertArrayEquals(serial.getModules()[m].trainResults.getPredClassValsAsArray(),
+                        parallel.getModules()[m].trainResults.getPredClassValsAsArray(),0);
+                assertEquals(serial.getModules()[m].trainResults.getAcc(),parallel.getModules()[m].trainResults.getAcc(),0);
+                assertTrue(parallel.getModules()[m].trainResults.getBuildTime()>=0);
+            }
+            for(int i=0;i<test.numInstances();i++)
+                assertArrayEquals(serial.distributionForInstance(test.instance(i)),parallel.distributionForInstance(test.instance(i)),0);
+        }
+    }
+
+    private static CAWPE build(Instances train, int threads) throws Exception{
+        TSF tsf=new TSF(4);
+        tsf.setNumTrees(20);
+        tsf.setFindTrainAccuracyEstimate(true);
+        CAWPE cawpe=new CAWPE();
+        cawpe.setClassifiers(new Classifier[]{new J48(),new kNN(),new NaiveBayes(),tsf},null,null);
+        cawpe.setNumThreads(threads);
+        cawpe.buildClassifier(train);
+        return cawpe;
+    }
+}
@@ -0,0 +1,120 @@
+/*
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package weka.classifiers.trees;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Random;
+import org.junit.Test;
+import static org.junit.Assert.*;
+import weka.core.Attribute;
+import weka.core.DenseInstance;
+import weka.core.Instances;
+
+/**
+ * Predictions from the flattened tree against those of the linked
+ * ClassifierTree it is made from, which J48 used before.
+ */
+public class J48Test {
+
+    @Test
+    public void flatTreeMatchesLinkedTree() throws Exception{
+        Instances train=mixedData(300,0.05,1);
+        Instances test=mixedData(200,0.1,2);
+        for(String[] options:new String[][]{{},{"-U"},{"-B"},{"-A"},{"-U","-A","-B"},{"-R"},{"-M","10"},{"-O","-S"}}){
+            J48 j48=new J48();
+            j48.setOptions(options.clone());
+            j48.buildClassifier(train);
+            assertMatches(Arrays.toString(options),j48,test);
+        }
+    }
+
+    /** The flattened tree is transient, so is made again after loading */
+    @Test
+    public void flatTreeIsRemadeAfterSerialisation() throws Exception{
+        Instances train=mixedData(200,0.05,3);
+        Instances test=mixedData(100,0.1,4);
+        J48 j48=new J48();
+        j48.buildClassifier(train);
+        double[][] before=new double[test.numInstances()][];
+        for(int i=0;i<before.length;i++)
+            before[i]=j48.distributionForInstance(test.instance(i));
+        ByteArrayOutputStream bytes=new ByteArrayOutputStream();
+        try(ObjectOutputStream out=new ObjectOutputStream(bytes)){
+            out.writeObject(j48);
+        }
+        J48 loaded;
+        try(ObjectInputStream in=new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray()))){
+            loaded=(J48)in.readObject();
+        }
+        for(int i=0;i<before.length;i++)
+            assertArrayEquals(before[i],loaded.distributionForInstance(test.instance(i)),0);
+        assertMatches("loaded",loaded,test);
+    }
+
+    /** A rebuilt tree must not predict with the flattened copy of the old one */
+    @Test
+    public void rebuildingDropsTheFlatTree() throws Exception{
+        Instances test=mixedData(100,0.1,5);
+        J48 j48=new J48();
+        j48.buildClassifier(mixedData(200,0,6));
+        j48.distributionForInstance(test.instance(0));
+        j48.buildClassifier(mixedData(50,0,7));
+        assertMatches("rebuilt",j48,test);
+    }
+
+    private static void assertMatches(String message, J48 j48, Instances test) throws Exception{
+        for(int i=0;i<test.numInstances();i++){
+            assertArrayEquals(message,j48.m_root.distributionForInstance(test.instance(i),j48.getUseLaplace()),
+                    j48.distributionForInstance(test.instance(i)),0);
+            assertEquals(message,j48.m_root.classifyInstance(test.instance(i)),j48.classifyInstance(test.instance(i)),0);
+        }
+    }
+
+    /**
+     * Four numeric and two nominal attributes and a three valued class that
+     * depends on some of them, with noise and a proportion of missing values
+     */
+    static Instances mixedData(int n, double missing, long seed){
+        Random r=new Random(seed);
+        ArrayList<Attribute> atts=new ArrayList<>();
+        for(int a=0;a<4;a++)
+            atts.add(new Attribute("num"+a));
+        atts.add(new Attribute("colour",new ArrayList<>(Arrays.asList("red","green","blue"))));
+        atts.add(new Attribute("flag",new ArrayList<>(Arrays.asList("no","yes"))));
+        atts.add(new Attribute("class",new ArrayList<>(Arrays.asList("a","b","c"))));
+        Instances data=new Instances("mixed",atts,n);
+        data.setClassIndex(6);
+        for(int i=0;i<n;i++){
+            double[] v=new double[7];
+            for(int a=0;a<4;a++)
+                v[a]=Math.round(r.nextGaussian()*20)/10.0;
+            v[4]=r.nextInt(3);
+            v[5]=r.nextInt(2);
+            double score=v[0]+(v[4]==2?1:0)-(v[5]==1?v[1]:0)+0.5*r.nextGaussian();
+            v[6]=score<-0.5?0:score<0.7?1:2;
+            for(int a=0;a<6;a++){
+                if(r.nextDouble()<missing)
+                    v[a]=Double.NaN;
+            }
+            data.add(new DenseInstance(1,v));
+        }
+        return data;
+    }
+}
@@ -0,0 +1,191 @@
+/*
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package weka.classifiers.trees;
+
+import java.util.Arrays;
+import java.util.Random;
+import org.junit.Test;
+import static org.junit.Assert.*;
+import utilities.SeededData;
+import weka.core.DenseInstance;
+import weka.core.Instances;
+import weka.core.Utils;
+
+/**
+ * Building from presorted indices (SplitFinder) against sorting the data at
+ * every node, which is still the default.
+ */
+public class RandomTreeTest {
+
+    @Test
+    public void sortsAtEveryNodeByDefault() throws Exception{
+        RandomTree tree=new RandomTree();
+        assertFalse(tree.getPresort());
+        assertEquals(0,tree.getNumBins());
+        assertFalse(Arrays.asList(tree.getOptions()).contains("-presort"));
+    }
+
+    @Test
+    public void optionsRoundTrip() throws Exception{
+        RandomTree tree=new RandomTree();
+        tree.setOptions(new String[]{"-presort","-bins","16","-K","3"});
+        assertTrue(tree.getPresort());
+        assertEquals(16,tree.getNumBins());
+        RandomTree copy=new RandomTree();
+        copy.setOptions(tree.getOptions());
+        assertTrue(copy.getPresort());
+        assertEquals(16,copy.getNumBins());
+        assertEquals(3,copy.getKValue());
+    }
+
+    /**
+     * With unit weights every sum of class weights is a whole number, so is
+     * exact whatever order the instances are visited in, and the trees are the
+     * same, ties included
+     */
+    @Test
+    public void presortMatchesSortingOnUnweightedData() throws Exception{
+        for(boolean rounded:new boolean[]{false,true}){
+            Instances train=SeededData.sines(60,30,3,1,rounded);
+            Instances test=SeededData.sines(40,30,3,2,rounded);
+            for(int seed=0;seed<5;seed++)
+                for(int k:new int[]{0,1,5})
+                    assertSameTree(train,test,seed,k);
+        }
+    }
+
+    /**
+     * Small whole number weights also sum exactly
+     */
+    @Test
+    public void presortMatchesSortingWithWholeWeights() throws Exception{
+        Random r=new Random(3);
+        Instances train=SeededData.sines(60,20,2,3,true);
+        for(int i=0;i<train.numInstances();i++)
+            train.instance(i).setWeight(1+r.nextInt(3));
+        Instances test=SeededData.sines(30,20,2,4,true);
+        for(int seed=0;seed<5;seed++)
+            assertSameTree(train,test,seed,0);
+    }
+
+    /**
+     * Each attribute takes the values 0 to 7 ten times each, so with 8 bins 
+     * every bin holds one value. Every node then has the same candidate 
+     * partitions and gains as in the exact search, so the tree splits the 
+     * training data the same way, though a threshold may fall elsewhere in a 
+     * gap the node has no values in.
+     */
+    @Test
+    public void binsOfSingleValuesSplitLikeExactSearch() throws Exception{
+        Random r=new Random(5);
+        int numAtts=6, n=80;
+        Instances train=SeededData.emptyDataset(numAtts,2);
+        double[][] columns=new double[numAtts][n];
+        for(int a=0;a<numAtts;a++){
+            for(int i=0;i<n;i++)
+                columns[a][i]=i%8;
+            shuffle(columns[a],r);
+        }
+        for(int i=0;i<n;i++){
+            double[] v=new double[numAtts+1];
+            for(int a=0;a<numAtts;a++)
+                v[a]=columns[a][i];
+            v[numAtts]=(v[0]+v[1]+r.nextInt(3)>8)?1:0;
+            train.add(new DenseInstance(1,v));
+        }
+        for(int seed=0;seed<5;seed++){
+            RandomTree exact=tree(seed,0,true);
+            RandomTree binned=tree(seed,8,false);
+            exact.buildClassifier(train);
+            binned.buildClassifier(train);
+            assertEquals(exact.m_Tree.numNodes(),binned.m_Tree.numNodes());
+            for(int i=0;i<n;i++)
+                assertArrayEquals(exact.distributionForInstance(train.instance(i)),binned.distributionForInstance(train.instance(i)),0);
+        }
+    }
+
+    /**
+     * With fewer bins than values the search is approximate, but the tree must
+     * still be a valid tree of the data: every training instance reaches a leaf
+     * and a fully grown tree of real valued series is pure
+     */
+    @Test
+    public void coarseBinsStillFitTheTrainingData() throws Exception{
+        Instances train=SeededData.sines(100,40,2,6);
+        for(int bins:new int[]{2,4,16}){
+            RandomTree tree=tree(0,bins,false);
+            tree.buildClassifier(train);
+            for(int i=0;i<train.numInstances();i++){
+                double[] d=tree.distributionForInstance(train.instance(i));
+                assertEquals(1,Utils.sum(d),1e-12);
+                assertEquals(train.instance(i).classValue(),Utils.maxIndex(d),0);
+            }
+        }
+    }
+
+    /**
+     * The flattened tree predicts with exactly the distributions of the linked
+     * Tree, singly and in batches, including for instances with missing values
+     * that are split over several branches
+     */
+    @Test
+    public void flatTreeMatchesLinkedTree() throws Exception{
+        Instances train=J48Test.mixedData(300,0.05,1);
+        Instances test=J48Test.mixedData(200,0.1,2);
+        for(int seed=0;seed<5;seed++){
+            for(int depth:new int[]{0,3}){
+                RandomTree tree=tree(seed,0,false);
+                tree.setMaxDepth(depth);
+                tree.setAllowUnclassifiedInstances(seed%2==0);
+                tree.buildClassifier(train);
+                double[][] batch=tree.distributionsForInstances(test);
+                for(int i=0;i<test.numInstances();i++){
+                    double[] expected=tree.m_Tree.distributionForInstance(test.instance(i));
+                    assertArrayEquals(expected,tree.distributionForInstance(test.instance(i)),0);
+                    assertArrayEquals(expected,batch[i],0);
+                }
+            }
+        }
+    }
+
+    private static void assertSameTree(Instances train, Instances test, int seed, int k) throws Exception{
+        RandomTree sorting=tree(seed,0,false);
+        RandomTree presorted=tree(seed,0,true);
+        sorting.setKValue(k);
+        presorted.setKValue(k);
+        sorting.buildClassifier(train);
+        presorted.buildClassifier(train);
+        assertEquals(sorting.toString(),presorted.toString());
+        for(int i=0;i<test.numInstances();i++)
+            assertArrayEquals(sorting.distributionForInstance(test.instance(i)),presorted.distributionForInstance(test.instance(i)),0);
+    }
+
+    private static RandomTree tree(int seed, int bins, boolean presort){
+        RandomTree tree=new RandomTree();
+        tree.setSeed(seed);
+        tree.setPresort(presort);
+        tree.setNumBins(bins);
+        return tree;
+    }
+
+    private static void shuffle(double[] a, Random r){
+        for(int i=a.length-1;i>0;i--){
+            int j=r.nextInt(i+1);
+            double t=a[i];
+            a[i]=a[j];
+            a[j]=t;
+        }
+    }
+}